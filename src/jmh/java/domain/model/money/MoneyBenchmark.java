@@ -0,0 +1,83 @@
+package domain.model.money;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fill aggregation and event encoding as done before (BigDecimal per fill, scaled back to
+ * micro-units for the event) against plain long micro-units. Run with the gc profiler to compare
+ * allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoneyBenchmark {
+
+    private static final BigDecimal MICROS = BigDecimal.valueOf(1_000_000);
+
+    @Param({"1", "8"})
+    int fills;
+
+    long[] prices;
+    long[] quantities;
+    long amountMicroUnits;
+
+    @Setup
+    public void setup() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        prices = new long[fills];
+        quantities = new long[fills];
+        for (int i = 0; i < fills; i++) {
+            prices[i] = random.nextLong(1_000_000, 500_000_000);
+            quantities[i] = random.nextLong(1, 1_000);
+        }
+        amountMicroUnits = random.nextLong(1_000_000, 10_000_000_000L);
+    }
+
+    @Benchmark
+    public long fillTotalBigDecimal() {
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < fills; i++) {
+            BigDecimal price = BigDecimal.valueOf(prices[i]).divide(MICROS);
+            total = total.add(price.multiply(BigDecimal.valueOf(quantities[i])));
+        }
+        return total.multiply(MICROS).longValue();
+    }
+
+    @Benchmark
+    public long fillTotalMicros() {
+        long total = 0;
+        for (int i = 0; i < fills; i++) {
+            total = Money.add(total, Money.multiply(prices[i], quantities[i]));
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long commandRoundTripBigDecimal() {
+        BigDecimal amount = BigDecimal.valueOf(amountMicroUnits).divide(MICROS);
+        return amount.multiply(MICROS).longValue();
+    }
+
+    @Benchmark
+    public long commandRoundTripMicros() {
+        // the only conversion left: binding the amount to the NUMERIC column
+        return Money.toBigDecimal(amountMicroUnits).unscaledValue().longValue();
+    }
+}
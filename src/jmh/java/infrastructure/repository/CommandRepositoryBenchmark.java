@@ -0,0 +1,157 @@
+package infrastructure.repository;
+
+import domain.model.result.CommandResult;
+import infrastructure.metrics.DbMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.Vertx;
+import io.vertx.pgclient.PgBuilder;
+import io.vertx.pgclient.PgConnectOptions;
+import io.vertx.sqlclient.PoolOptions;
+import org.jooq.CloseableDSLContext;
+import org.jooq.impl.DSL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reserve-then-release cycles through the JDBC and the reactive repositories, against a real
+ * database ({@code -Dbench.db.url}, {@code -Dbench.db.user}, {@code -Dbench.db.password}; the
+ * schema has to be migrated).
+ *
+ * One benchmark thread stands in for one shard: JDBC runs the {@link #ACCOUNTS} cycles one after the
+ * other, as a shard thread does, while REACTIVE has them all in flight at once, each on its own
+ * account, the way the invoker lets different accounts proceed. Throughput is cycles per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(CommandRepositoryBenchmark.ACCOUNTS)
+public class CommandRepositoryBenchmark {
+
+    static final int ACCOUNTS = 64;
+
+    private static final long FIRST_ACCOUNT = 900_000_000L;
+    private static final long AMOUNT_MICROS = 1_000_000L;
+
+    @Param({"JDBC", "REACTIVE"})
+    RepositoryMode mode;
+
+    private CloseableDSLContext jdbc;
+    private Vertx vertx;
+    private io.vertx.sqlclient.Pool corePool;
+    private BalanceWriteRepository blocking;
+    private ReactiveBalanceWriteRepository reactive;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String url = System.getProperty("bench.db.url", "postgresql://localhost:5432/hts_account");
+        String user = System.getProperty("bench.db.user", "postgres");
+        String password = System.getProperty("bench.db.password", "postgres");
+
+        jdbc = DSL.using("jdbc:" + url, user, password);
+        for (long id = FIRST_ACCOUNT; id < FIRST_ACCOUNT + ACCOUNTS; id++) {
+            jdbc.execute("INSERT INTO accounts (account_id, account_no, balance_micros, reserved_micros, currency, status) " +
+                         "VALUES (?, ?, 1000000000000000, 0, 'USD', 'ACTIVE') " +
+                         "ON CONFLICT (account_id) DO UPDATE SET balance_micros = 1000000000000000, reserved_micros = 0",
+                         id, "BENCH" + id);
+        }
+
+        DbMetrics metrics = new DbMetrics(new SimpleMeterRegistry());
+        DslProvider dsl = new DslProvider();
+        dsl.dsl = jdbc;
+        dsl.init();
+        AccountStateCache stateCache = new AccountStateCache();
+        stateCache.metrics = metrics;
+        IdempotencyFilter idempotency = new IdempotencyFilter();
+        OpenReservationIndex openReservations = new OpenReservationIndex();
+        openReservations.dsl = dsl;
+        openReservations.metrics = metrics;
+        OutboxRepository outbox = new OutboxRepository();
+        outbox.dsl = dsl;
+        // direct publishing stays off: there is no broker, the rows are only written
+        OutboxPublisher publisher = new OutboxPublisher();
+
+        if (mode == RepositoryMode.JDBC) {
+            blocking = new BalanceWriteRepository();
+            blocking.dsl = dsl;
+            blocking.metrics = metrics;
+            blocking.outboxRepo = outbox;
+            blocking.outboxPublisher = publisher;
+            blocking.stateCache = stateCache;
+            blocking.idempotency = idempotency;
+            blocking.openReservations = openReservations;
+        } else {
+            vertx = Vertx.vertx();
+            PgConnectOptions connect = PgConnectOptions.fromUri(url).setUser(user).setPassword(password)
+                    .setPipeliningLimit(256);
+            corePool = PgBuilder.pool().with(new PoolOptions().setMaxSize(4)).connectingTo(connect).using(vertx).build();
+            ReactivePg pg = new ReactivePg();
+            pg.pool = io.vertx.mutiny.sqlclient.Pool.newInstance(corePool);
+            reactive = new ReactiveBalanceWriteRepository();
+            reactive.pg = pg;
+            reactive.metrics = metrics;
+            reactive.stateCache = stateCache;
+            reactive.idempotency = idempotency;
+            reactive.openReservations = openReservations;
+            reactive.outboxPublisher = publisher;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (corePool != null) {
+            corePool.close().toCompletionStage().toCompletableFuture().join();
+            vertx.close().toCompletionStage().toCompletableFuture().join();
+        }
+        jdbc.close();
+    }
+
+    @Benchmark
+    public int reserveRelease() {
+        int ok = 0;
+        if (mode == RepositoryMode.JDBC) {
+            for (long id = FIRST_ACCOUNT; id < FIRST_ACCOUNT + ACCOUNTS; id++) {
+                String requestId = UUID.randomUUID().toString();
+                blocking.reserveCash(id, requestId, "bench", AMOUNT_MICROS);
+                if (blocking.unreserveCash(id, requestId).success()) {
+                    ok++;
+                }
+            }
+            return ok;
+        }
+
+        List<Uni<CommandResult>> cycles = new ArrayList<>(ACCOUNTS);
+        for (long id = FIRST_ACCOUNT; id < FIRST_ACCOUNT + ACCOUNTS; id++) {
+            long accountId = id;
+            String requestId = UUID.randomUUID().toString();
+            cycles.add(reactive.reserveCash(accountId, requestId, "bench", AMOUNT_MICROS)
+                    .onItem().transformToUni(reserved -> reactive.unreserveCash(accountId, requestId)));
+        }
+        for (CommandResult result : Uni.join().all(cycles).andFailFast().await().indefinitely()) {
+            if (result.success()) {
+                ok++;
+            }
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,120 @@
+package infrastructure.repository;
+
+import org.jooq.CloseableDSLContext;
+import org.jooq.impl.DSL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Balance updates against an accounts-shaped table with NUMERIC(18,2) money (the layout before V8)
+ * and with BIGINT micro-units, against a real database ({@code -Dbench.db.*} as in
+ * {@link CommandRepositoryBenchmark}).
+ *
+ * Each layout gets its own unlogged copy with {@link #ROWS} rows; setup prints the average row size
+ * ({@code pg_column_size}) of both. Every operation is one guarded reserve-style update, the shape
+ * of the hot-path writes, committed in batches of {@link #BATCH}. Throughput is updates per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(MoneyColumnsBenchmark.BATCH)
+public class MoneyColumnsBenchmark {
+
+    static final int BATCH = 100;
+
+    private static final int ROWS = 100_000;
+
+    public enum Layout { NUMERIC, BIGINT }
+
+    @Param({"NUMERIC", "BIGINT"})
+    Layout layout;
+
+    private CloseableDSLContext jdbc;
+    private Connection connection;
+    private PreparedStatement update;
+    private long next;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        String url = System.getProperty("bench.db.url", "postgresql://localhost:5432/hts_account");
+        String user = System.getProperty("bench.db.user", "postgres");
+        String password = System.getProperty("bench.db.password", "postgres");
+
+        jdbc = DSL.using("jdbc:" + url, user, password);
+        jdbc.execute("DROP TABLE IF EXISTS bench_money_numeric, bench_money_bigint");
+        jdbc.execute("CREATE UNLOGGED TABLE bench_money_numeric (account_id BIGINT PRIMARY KEY, " +
+                     "balance NUMERIC(18,2) NOT NULL, reserved NUMERIC(18,2) NOT NULL, updated_at TIMESTAMPTZ NOT NULL)");
+        jdbc.execute("CREATE UNLOGGED TABLE bench_money_bigint (account_id BIGINT PRIMARY KEY, " +
+                     "balance_micros BIGINT NOT NULL, reserved_micros BIGINT NOT NULL, updated_at TIMESTAMPTZ NOT NULL)");
+        jdbc.execute("INSERT INTO bench_money_numeric SELECT g, 1000000.00 + g % 1000 * 0.01, 0, now() " +
+                     "FROM generate_series(1, ?) g", ROWS);
+        jdbc.execute("INSERT INTO bench_money_bigint SELECT g, 1000000000000 + g % 1000 * 10000, 0, now() " +
+                     "FROM generate_series(1, ?) g", ROWS);
+        jdbc.execute("VACUUM ANALYZE bench_money_numeric");
+        jdbc.execute("VACUUM ANALYZE bench_money_bigint");
+
+        for (String table : new String[] {"bench_money_numeric", "bench_money_bigint"}) {
+            BigDecimal avg = jdbc.fetchValue("SELECT avg(pg_column_size(t.*)) FROM " + table + " t", BigDecimal.class);
+            System.out.printf("%n%s: %.1f bytes/row%n", table, avg);
+        }
+
+        connection = DriverManager.getConnection("jdbc:" + url, user, password);
+        connection.setAutoCommit(false);
+        update = connection.prepareStatement(layout == Layout.NUMERIC
+                ? "UPDATE bench_money_numeric SET reserved = reserved + ?, updated_at = now() " +
+                  "WHERE account_id = ? AND balance - reserved >= ?"
+                : "UPDATE bench_money_bigint SET reserved_micros = reserved_micros + ?, updated_at = now() " +
+                  "WHERE account_id = ? AND balance_micros - reserved_micros >= ?");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        update.close();
+        connection.close();
+        jdbc.execute("DROP TABLE IF EXISTS bench_money_numeric, bench_money_bigint");
+        jdbc.close();
+    }
+
+    @Benchmark
+    public int reserve() throws SQLException {
+        int updated = 0;
+        for (int i = 0; i < BATCH; i++) {
+            long accountId = next++ % ROWS + 1;
+            if (layout == Layout.NUMERIC) {
+                BigDecimal amount = BigDecimal.valueOf(1, 2);
+                update.setBigDecimal(1, amount);
+                update.setLong(2, accountId);
+                update.setBigDecimal(3, amount);
+            } else {
+                update.setLong(1, 10_000L);
+                update.setLong(2, accountId);
+                update.setLong(3, 10_000L);
+            }
+            updated += update.executeUpdate();
+        }
+        connection.commit();
+        return updated;
+    }
+}
@@ -0,0 +1,127 @@
+package infrastructure.repository;
+
+import domain.model.outbox.OutboxEvent;
+import infrastructure.repository.AccountStateCache.AccountState;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Record4;
+import org.jooq.Record5;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.OffsetDateTime;
+import java.util.concurrent.TimeUnit;
+
+import static infrastructure.repository.CompiledQuery.slot;
+import static infrastructure.repository.schema.Tables.ACCOUNTS;
+import static org.jooq.impl.DSL.select;
+
+/**
+ * Client-side cost of one statement in the two styles: jOOQ plain SQL with {@code ?} binds and
+ * records read by name, against a {@link CompiledQuery} bound by position and read by index.
+ *
+ * Both run on a jOOQ mock connection that answers every statement with the same prepared row, so
+ * the difference is rendering, binding and reading alone. Run with the gc profiler to compare
+ * allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryStyleBenchmark {
+
+    private static final String ACCOUNT_STATE_SQL =
+            "SELECT " + MoneyColumns.micros("balance") + " AS balance_micros, " +
+            MoneyColumns.micros("reserved") + " AS reserved_micros, currency, status FROM accounts WHERE account_id = ?";
+
+    private static final CompiledQuery ACCOUNT_STATE = CompiledQuery.of(
+            select(MoneyColumns.micros(ACCOUNTS.BALANCE, ACCOUNTS.BALANCE_MICROS),
+                    MoneyColumns.micros(ACCOUNTS.RESERVED, ACCOUNTS.RESERVED_MICROS), ACCOUNTS.CURRENCY, ACCOUNTS.STATUS)
+                    .from(ACCOUNTS)
+                    .where(ACCOUNTS.ACCOUNT_ID.eq(slot(ACCOUNTS.ACCOUNT_ID))));
+
+    private static final CompiledQuery RESERVE = CompiledQuery.of(BalanceWriteRepository.RESERVE_SQL);
+
+    private static final long ACCOUNT_ID = 42;
+    private static final long AMOUNT_MICROS = 1_500_000;
+
+    private DSLContext ctx;
+
+    @Setup
+    public void setup() {
+        DSLContext create = DSL.using(SQLDialect.POSTGRES);
+        Field<String> outcome = DSL.field("outcome", SQLDataType.VARCHAR);
+        Field<Long> balance = DSL.field("balance_micros", SQLDataType.BIGINT);
+        Field<Long> reserved = DSL.field("reserved_micros", SQLDataType.BIGINT);
+        Field<String> currency = DSL.field("currency", SQLDataType.VARCHAR);
+        Field<String> status = DSL.field("status", SQLDataType.VARCHAR);
+
+        Result<Record5<String, Long, Long, String, String>> written =
+                create.newResult(outcome, balance, reserved, currency, status);
+        written.add(create.newRecord(outcome, balance, reserved, currency, status)
+                .values("OK", 998_500_000L, 1_500_000L, "USD", "ACTIVE"));
+        Result<Record4<Long, Long, String, String>> state =
+                create.newResult(balance, reserved, currency, status);
+        state.add(create.newRecord(balance, reserved, currency, status)
+                .values(998_500_000L, 1_500_000L, "USD", "ACTIVE"));
+
+        ctx = DSL.using(new MockConnection(execute -> new MockResult[] {
+                new MockResult(1, execute.sql().startsWith("WITH") ? written : state)
+        }), SQLDialect.POSTGRES);
+    }
+
+    @Benchmark
+    public AccountState accountStatePlainSql() {
+        Record rec = ctx.fetchOne(ACCOUNT_STATE_SQL, ACCOUNT_ID);
+        return AccountStateCache.toState(rec);
+    }
+
+    @Benchmark
+    public AccountState accountStateCompiled() {
+        return ACCOUNT_STATE.fetchOne(ctx, ps -> ps.setLong(1, ACCOUNT_ID), rs -> AccountStateCache.toState(rs, 1));
+    }
+
+    @Benchmark
+    public AccountState reservePlainSql() {
+        OutboxEvent event = event();
+        Record rec = ctx.fetchOne(BalanceWriteRepository.RESERVE_SQL, OutboxRepository.withEvent(event,
+                ACCOUNT_ID, "req-1", "ord-1", AMOUNT_MICROS, OffsetDateTime.now()));
+        return "OK".equals(rec.get("outcome", String.class)) ? AccountStateCache.toState(rec) : null;
+    }
+
+    @Benchmark
+    public AccountState reserveCompiled() {
+        OutboxEvent event = event();
+        return RESERVE.fetchOne(ctx,
+                ps -> {
+                    ps.setLong(1, ACCOUNT_ID);
+                    ps.setString(2, "req-1");
+                    ps.setString(3, "ord-1");
+                    ps.setLong(4, AMOUNT_MICROS);
+                    ps.setObject(5, OffsetDateTime.now());
+                    OutboxRepository.bindEvent(ps, 6, event);
+                },
+                rs -> "OK".equals(rs.getString(1)) ? AccountStateCache.toState(rs, 2) : null);
+    }
+
+    private static OutboxEvent event() {
+        return OutboxEvent.accountReserved(ACCOUNT_ID, AMOUNT_MICROS, "req-1", "ord-1", "USD");
+    }
+}
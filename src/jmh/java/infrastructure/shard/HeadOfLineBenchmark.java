@@ -0,0 +1,114 @@
+package infrastructure.shard;
+
+import infrastructure.metrics.ShardMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Latency of commands for ordinary accounts while one hot account keeps a slow command (a blocking
+ * database call) in flight. On a shard ring every account queued behind the slow command waits for
+ * it; with per-account lanes (the virtual-thread mode) only the hot account's own commands do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class HeadOfLineBenchmark {
+
+    private static final long HOT_ACCOUNT = 0;
+
+    @State(Scope.Benchmark)
+    public static class HotAccount {
+
+        @Param({"100000"})
+        long slowNanos;
+
+        final AtomicBoolean inFlight = new AtomicBoolean();
+        Runnable slowCommand;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            slowCommand = () -> {
+                LockSupport.parkNanos(slowNanos);
+                inFlight.set(false);
+            };
+        }
+
+        // keeps one slow command queued or running at a time
+        boolean claim() {
+            return !inFlight.get() && inFlight.compareAndSet(false, true);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Lanes {
+
+        AccountSerialExecutor executor;
+
+        @Setup(Level.Trial)
+        public void start() {
+            executor = new AccountSerialExecutor(new ShardMetrics(new SimpleMeterRegistry()));
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            executor.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Caller {
+
+        private static final AtomicLong ACCOUNTS = new AtomicLong(HOT_ACCOUNT);
+
+        final long accountId = ACCOUNTS.incrementAndGet();
+        volatile boolean done;
+        final Runnable task = () -> done = true;
+
+        void await() {
+            while (!done) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    @Benchmark
+    public void ring(ShardHandoffBenchmark.Ring ring, HotAccount hot, Caller caller) {
+        if (hot.claim()) {
+            ring.submit(hot.slowCommand);
+        }
+        caller.done = false;
+        ring.submit(caller.task);
+        caller.await();
+    }
+
+    @Benchmark
+    public void lanes(Lanes lanes, HotAccount hot, Caller caller) {
+        if (hot.claim()) {
+            lanes.executor.execute(HOT_ACCOUNT, hot.slowCommand);
+        }
+        caller.done = false;
+        lanes.executor.execute(caller.accountId, caller.task);
+        caller.await();
+    }
+}
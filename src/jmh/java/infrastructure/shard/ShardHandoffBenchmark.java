@@ -0,0 +1,160 @@
+package infrastructure.shard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hand-off from request threads to a shard thread and back: the ring buffer with the shard loop's
+ * wait strategies against the single-thread executor it replaced (a FutureTask and a queue node per
+ * submit). Each operation submits one task and spins until the shard thread has run it, so the score
+ * includes the wake-up of an idle shard. Run with the gc profiler to compare allocation per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ShardHandoffBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Ring {
+
+        @Param({"BUSY_SPIN", "PARK"})
+        WaitStrategy waitStrategy;
+
+        MpscRingBuffer<Runnable> queue;
+        Thread thread;
+        volatile boolean running;
+        volatile boolean parked;
+
+        @Setup(Level.Trial)
+        public void start() {
+            queue = new MpscRingBuffer<>(1024);
+            running = true;
+            thread = new Thread(this::runLoop, "bench-shard-ring");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws InterruptedException {
+            running = false;
+            LockSupport.unpark(thread);
+            thread.join();
+        }
+
+        void submit(Runnable task) {
+            while (!queue.offer(task, System.nanoTime())) {
+                Thread.onSpinWait();
+            }
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        // ShardExecutor.runLoop and idle without the metrics and caches
+        private void runLoop() {
+            int idleCount = 0;
+            while (running || !queue.isEmpty()) {
+                Runnable task = queue.poll();
+                if (task == null) {
+                    idle(idleCount++);
+                    continue;
+                }
+                idleCount = 0;
+                task.run();
+            }
+        }
+
+        private void idle(int idleCount) {
+            switch (waitStrategy) {
+                case BUSY_SPIN -> Thread.onSpinWait();
+                case YIELD -> Thread.yield();
+                case PARK -> {
+                    if (idleCount < 100) {
+                        Thread.onSpinWait();
+                    } else if (idleCount < 200) {
+                        Thread.yield();
+                    } else {
+                        parked = true;
+                        if (queue.isEmpty() && running) {
+                            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+                        }
+                        parked = false;
+                    }
+                }
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SingleThreadExecutor {
+
+        ExecutorService executor;
+
+        @Setup(Level.Trial)
+        public void start() {
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "bench-shard-executor");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws InterruptedException {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Caller {
+
+        volatile boolean done;
+        final Runnable task = () -> done = true;
+
+        void await() {
+            while (!done) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    @Benchmark
+    public void ring(Ring ring, Caller caller) {
+        caller.done = false;
+        ring.submit(caller.task);
+        caller.await();
+    }
+
+    @Benchmark
+    public void singleThreadExecutor(SingleThreadExecutor shard, Caller caller) {
+        caller.done = false;
+        long submitNanos = System.nanoTime();
+        // the replaced execute(): a capturing lambda wrapped in a FutureTask per command
+        shard.executor.submit(() -> {
+            long waitNanos = System.nanoTime() - submitNanos;
+            caller.done = waitNanos >= 0;
+        });
+        caller.await();
+    }
+}
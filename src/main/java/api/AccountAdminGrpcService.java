@@ -6,19 +6,22 @@ import domain.model.command.WithdrawCommand;
 import domain.model.result.CommandResult;
 import domain.service.AdminCommandService;
 import domain.service.BalanceCommandService;
+import infrastructure.cluster.ShardOwnership;
+import infrastructure.repository.RepositoryMode;
 import infrastructure.shard.AccountShardInvoker;
+import infrastructure.shard.ShardRejectedException;
+import io.grpc.Channel;
 import io.quarkus.grpc.GrpcService;
 import io.smallrye.mutiny.Uni;
 import jakarta.inject.Inject;
 
-import java.math.BigDecimal;
-
 @GrpcService
 public class AccountAdminGrpcService implements AccountAdminService {
 
     @Inject BalanceCommandService balanceCommandService;
     @Inject AdminCommandService adminCommandService;
     @Inject AccountShardInvoker invoker;
+    @Inject ShardOwnership ownership;
 
     @Override
     public Uni<CommonReply> createAccount(CreateAccountRequest request) {
@@ -33,10 +36,19 @@ public class AccountAdminGrpcService implements AccountAdminService {
             return Uni.createFrom().item(toReply(CommandResult.fail("INVALID_REQUEST", "Invalid password")));
         }
 
-        return invoker.invoke(accountId,
-                () -> adminCommandService.createAccount(accountId, password, "")
-        ).onItem().transformToUni(uni -> uni)
-         .onItem().transform(success -> toReply(success ? CommandResult.ok() : CommandResult.fail("INTERNAL_ERROR", "Failed to create account")));
+        Channel owner = ownership.forwardTarget(accountId);
+        if (owner != null) {
+            return MutinyAccountAdminServiceGrpc.newMutinyStub(owner).createAccount(request);
+        }
+
+        Uni<Boolean> created = invoker.repositoryMode() == RepositoryMode.REACTIVE
+                ? invoker.invokeAsync(accountId, () -> adminCommandService.createAccountAsync(accountId, password, ""))
+                : invoker.invoke(accountId,
+                        () -> adminCommandService.createAccount(accountId, password, "")
+                ).onItem().transformToUni(uni -> uni);
+        return created
+                .onItem().transform(success -> toReply(success ? CommandResult.ok() : CommandResult.fail("INTERNAL_ERROR", "Failed to create account")))
+                .onFailure(ShardRejectedException.class).recoverWithItem(this::rejected);
     }
 
     @Override
@@ -47,10 +59,19 @@ public class AccountAdminGrpcService implements AccountAdminService {
             return Uni.createFrom().item(toReply(CommandResult.fail("INVALID_REQUEST", "Invalid account ID")));
         }
 
-        return invoker.invoke(accountId,
-                () -> adminCommandService.deleteAccount(accountId)
-        ).onItem().transformToUni(uni -> uni)
-         .onItem().transform(success -> toReply(success ? CommandResult.ok() : CommandResult.fail("INTERNAL_ERROR", "Failed to delete account")));
+        Channel owner = ownership.forwardTarget(accountId);
+        if (owner != null) {
+            return MutinyAccountAdminServiceGrpc.newMutinyStub(owner).deleteAccount(request);
+        }
+
+        Uni<Boolean> deleted = invoker.repositoryMode() == RepositoryMode.REACTIVE
+                ? invoker.invokeAsync(accountId, () -> adminCommandService.deleteAccountAsync(accountId))
+                : invoker.invoke(accountId,
+                        () -> adminCommandService.deleteAccount(accountId)
+                ).onItem().transformToUni(uni -> uni);
+        return deleted
+                .onItem().transform(success -> toReply(success ? CommandResult.ok() : CommandResult.fail("INTERNAL_ERROR", "Failed to delete account")))
+                .onFailure(ShardRejectedException.class).recoverWithItem(this::rejected);
     }
 
     @Override
@@ -66,10 +87,16 @@ public class AccountAdminGrpcService implements AccountAdminService {
             return Uni.createFrom().item(toReply(CommandResult.fail("INVALID_AMOUNT", "Invalid amount")));
         }
 
-        BigDecimal amount = BigDecimal.valueOf(amountMicroUnits).divide(BigDecimal.valueOf(1_000_000));
-        DepositCommand cmd = new DepositCommand(accountId, amount, request.getSource());
-        return invoker.invoke(accountId, () -> balanceCommandService.deposit(cmd))
-                .onItem().transform(this::toReply);
+        DepositCommand cmd = new DepositCommand(accountId, amountMicroUnits, request.getSource());
+        Channel owner = ownership.forwardTarget(accountId);
+        if (owner != null) {
+            return MutinyAccountAdminServiceGrpc.newMutinyStub(owner).deposit(request);
+        }
+
+        return invoker.invoke(accountId, () -> balanceCommandService.deposit(cmd),
+                        () -> balanceCommandService.depositAsync(cmd))
+                .onItem().transform(this::toReply)
+                .onFailure(ShardRejectedException.class).recoverWithItem(this::rejected);
     }
 
     @Override
@@ -85,13 +112,24 @@ public class AccountAdminGrpcService implements AccountAdminService {
             return Uni.createFrom().item(toReply(CommandResult.fail("INVALID_AMOUNT", "Invalid amount")));
         }
 
-        BigDecimal amount = BigDecimal.valueOf(amountMicroUnits).divide(BigDecimal.valueOf(1_000_000));
-        WithdrawCommand cmd = new WithdrawCommand(accountId, amount, request.getDestination());
-        return invoker.invoke(accountId, () -> balanceCommandService.withdraw(cmd))
-                .onItem().transform(this::toReply);
+        WithdrawCommand cmd = new WithdrawCommand(accountId, amountMicroUnits, request.getDestination());
+        Channel owner = ownership.forwardTarget(accountId);
+        if (owner != null) {
+            return MutinyAccountAdminServiceGrpc.newMutinyStub(owner).withdraw(request);
+        }
+
+        return invoker.invoke(accountId, () -> balanceCommandService.withdraw(cmd),
+                        () -> balanceCommandService.withdrawAsync(cmd))
+                .onItem().transform(this::toReply)
+                .onFailure(ShardRejectedException.class).recoverWithItem(this::rejected);
     }
 
     private CommonReply toReply(CommandResult result) {
         return CommonReply.newBuilder().setCode(result.toGrpcCode()).build();
     }
+
+    private CommonReply rejected(Throwable rejection) {
+        boolean notOwner = ((ShardRejectedException) rejection).reason() == ShardRejectedException.Reason.NOT_OWNER;
+        return toReply(notOwner ? CommandResult.notOwner() : CommandResult.overloaded());
+    }
 }
@@ -1,5 +1,6 @@
 package api;
 
+import com.hts.generated.events.order.OrderFillEvent;
 import com.hts.generated.grpc.account.order.*;
 import com.hts.generated.grpc.CommonReply;
 import domain.model.command.ReserveCashCommand;
@@ -8,8 +9,13 @@ import domain.model.command.ReleaseCashCommand;
 import domain.model.command.ReleasePositionCommand;
 import domain.model.result.CommandResult;
 import domain.service.BalanceCommandService;
+import domain.service.FillCommandService;
 import domain.service.PositionCommandService;
+import infrastructure.cluster.ShardOwnership;
+import infrastructure.repository.SecurityDictionary;
 import infrastructure.shard.AccountShardInvoker;
+import infrastructure.shard.ShardRejectedException;
+import io.grpc.Channel;
 import io.quarkus.grpc.GrpcService;
 import io.smallrye.mutiny.Uni;
 import jakarta.inject.Inject;
@@ -21,7 +27,10 @@ public class AccountOrderGrpcService implements AccountOrderService {
 
     @Inject BalanceCommandService balanceCommandService;
     @Inject PositionCommandService positionCommandService;
+    @Inject FillCommandService fillCommandService;
     @Inject AccountShardInvoker invoker;
+    @Inject ShardOwnership ownership;
+    @Inject SecurityDictionary securities;
 
     @Override
     public Uni<CommonReply> reserveCash(ReserveCashRequest request) {
@@ -39,10 +48,16 @@ public class AccountOrderGrpcService implements AccountOrderService {
             return Uni.createFrom().item(toReply(CommandResult.fail("INVALID_REQUEST", "Invalid reserve ID")));
         }
 
-        BigDecimal amount = BigDecimal.valueOf(amountMicroUnits).divide(BigDecimal.valueOf(1_000_000));
-        ReserveCashCommand cmd = new ReserveCashCommand(accountId, amount, reserveId, request.getOrderId());
-        return invoker.invoke(accountId, () -> balanceCommandService.reserveCash(cmd))
-                .onItem().transform(this::toReply);
+        ReserveCashCommand cmd = new ReserveCashCommand(accountId, amountMicroUnits, reserveId, request.getOrderId());
+        Channel owner = ownership.forwardTarget(accountId);
+        if (owner != null) {
+            return MutinyAccountOrderServiceGrpc.newMutinyStub(owner).reserveCash(request);
+        }
+
+        return invoker.invoke(accountId, () -> balanceCommandService.reserveCash(cmd),
+                        () -> balanceCommandService.reserveCashAsync(cmd))
+                .onItem().transform(this::toReply)
+                .onFailure(ShardRejectedException.class).recoverWithItem(this::rejected);
     }
 
     @Override
@@ -58,8 +73,15 @@ public class AccountOrderGrpcService implements AccountOrderService {
         }
 
         ReleaseCashCommand cmd = new ReleaseCashCommand(accountId, reserveId);
-        return invoker.invoke(accountId, () -> balanceCommandService.releaseCash(cmd))
-                .onItem().transform(this::toReply);
+        Channel owner = ownership.forwardTarget(accountId);
+        if (owner != null) {
+            return MutinyAccountOrderServiceGrpc.newMutinyStub(owner).releaseCash(request);
+        }
+
+        return invoker.invoke(accountId, () -> balanceCommandService.releaseCash(cmd),
+                        () -> balanceCommandService.releaseCashAsync(cmd))
+                .onItem().transform(this::toReply)
+                .onFailure(ShardRejectedException.class).recoverWithItem(this::rejected);
     }
 
     @Override
@@ -82,11 +104,19 @@ public class AccountOrderGrpcService implements AccountOrderService {
             return Uni.createFrom().item(toReply(CommandResult.fail("INVALID_REQUEST", "Invalid reserve ID")));
         }
 
+        // an unknown symbol holds no position and is rejected as insufficient downstream
         ReservePositionCommand cmd = new ReservePositionCommand(
-                accountId, symbol, BigDecimal.valueOf(quantity), reserveId, request.getOrderId()
+                accountId, securities.idOf(symbol), BigDecimal.valueOf(quantity), reserveId, request.getOrderId()
         );
-        return invoker.invoke(accountId, () -> positionCommandService.reservePosition(cmd))
-                .onItem().transform(this::toReply);
+        Channel owner = ownership.forwardTarget(accountId);
+        if (owner != null) {
+            return MutinyAccountOrderServiceGrpc.newMutinyStub(owner).reservePosition(request);
+        }
+
+        return invoker.invoke(accountId, () -> positionCommandService.reservePosition(cmd),
+                        () -> positionCommandService.reservePositionAsync(cmd))
+                .onItem().transform(this::toReply)
+                .onFailure(ShardRejectedException.class).recoverWithItem(this::rejected);
     }
 
     @Override
@@ -102,11 +132,34 @@ public class AccountOrderGrpcService implements AccountOrderService {
         }
 
         ReleasePositionCommand cmd = new ReleasePositionCommand(accountId, reserveId);
-        return invoker.invoke(accountId, () -> positionCommandService.releasePosition(cmd))
-                .onItem().transform(this::toReply);
+        Channel owner = ownership.forwardTarget(accountId);
+        if (owner != null) {
+            return MutinyAccountOrderServiceGrpc.newMutinyStub(owner).releasePosition(request);
+        }
+
+        return invoker.invoke(accountId, () -> positionCommandService.releasePosition(cmd),
+                        () -> positionCommandService.releasePositionAsync(cmd))
+                .onItem().transform(this::toReply)
+                .onFailure(ShardRejectedException.class).recoverWithItem(this::rejected);
+    }
+
+    /**
+     * A fill forwarded by a node that consumed it without owning the account; that node retries
+     * it while this one replies overloaded or, once the slot has moved on, wrong owner.
+     */
+    @Override
+    public Uni<CommonReply> applyFill(OrderFillEvent request) {
+        return fillCommandService.applyFill(request)
+                .onItem().transform(this::toReply)
+                .onFailure(ShardRejectedException.class).recoverWithItem(this::rejected);
     }
 
     private CommonReply toReply(CommandResult result) {
         return CommonReply.newBuilder().setCode(result.toGrpcCode()).build();
     }
+
+    private CommonReply rejected(Throwable rejection) {
+        boolean notOwner = ((ShardRejectedException) rejection).reason() == ShardRejectedException.Reason.NOT_OWNER;
+        return toReply(notOwner ? CommandResult.notOwner() : CommandResult.overloaded());
+    }
 }
@@ -1,13 +1,11 @@
 package domain.model.command;
 
-import java.math.BigDecimal;
-
 public record ApplyFillCommand(
         long accountId,
-        BigDecimal fillAmount,
+        long fillAmountMicros,
         String requestId,
         String orderId,
-        String symbol,
+        int securityId,
         long fillQuantity,
         boolean isBuy
 ) {}
@@ -1,10 +1,8 @@
 package domain.model.command;
 
-import java.math.BigDecimal;
-
 public record ReserveCashCommand(
         long accountId,
-        BigDecimal amount,
+        long amountMicros,
         String requestId,
         String orderId
 ) {}
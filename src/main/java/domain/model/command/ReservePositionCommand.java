@@ -4,7 +4,7 @@ import java.math.BigDecimal;
 
 public record ReservePositionCommand(
         long accountId,
-        String symbol,
+        int securityId,
         BigDecimal quantity,
         String requestId,
         String orderId
@@ -1,9 +1,7 @@
 package domain.model.command;
 
-import java.math.BigDecimal;
-
 public record WithdrawCommand(
         long accountId,
-        BigDecimal amount,
+        long amountMicros,
         String destination
 ) {}
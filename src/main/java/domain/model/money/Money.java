@@ -0,0 +1,83 @@
+package domain.model.money;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point money as a plain {@code long} of micro-units (1_000_000 = 1.0), the unit the gRPC
+ * API and events already use. No instances: amounts stay primitive on the command path, and
+ * {@link BigDecimal} is only created at the JDBC boundary.
+ *
+ * Arithmetic is overflow-checked and throws {@link ArithmeticException} instead of wrapping.
+ */
+public final class Money {
+
+    public static final int SCALE = 6;
+    public static final long ONE = 1_000_000L;
+    public static final long CENT = 10_000L;
+
+    private Money() {
+    }
+
+    public static long add(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    public static long subtract(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    /**
+     * Price (micro-units per share) times a whole quantity.
+     */
+    public static long multiply(long priceMicros, long quantity) {
+        return Math.multiplyExact(priceMicros, quantity);
+    }
+
+    /**
+     * Amount divided by a whole quantity, rounded half up, e.g. an average fill price.
+     */
+    public static long divide(long amountMicros, long quantity) {
+        if (quantity == 0) {
+            throw new ArithmeticException("Division by zero quantity");
+        }
+        long q = amountMicros / quantity;
+        long r = amountMicros % quantity;
+        if (Math.abs(r) * 2 >= Math.abs(quantity)) {
+            q += (amountMicros < 0) == (quantity < 0) ? 1 : -1;
+        }
+        return q;
+    }
+
+    /**
+     * Average price after adding {@code addQuantity} bought for {@code addCostMicros} to a holding of
+     * {@code quantity} at {@code avgPriceMicros}. Rounded half up to whole cents, the scale the
+     * average price is stored at, so repeated fills compound the same way in memory and in the database.
+     */
+    public static long averagePrice(long quantity, long avgPriceMicros, long addQuantity, long addCostMicros) {
+        long totalQuantity = Math.addExact(quantity, addQuantity);
+        if (totalQuantity <= 0) {
+            return 0;
+        }
+        try {
+            long cost = Math.addExact(Math.multiplyExact(quantity, avgPriceMicros), addCostMicros);
+            return Math.multiplyExact(divide(cost, Math.multiplyExact(totalQuantity, CENT)), CENT);
+        } catch (ArithmeticException e) {
+            BigDecimal cost = BigDecimal.valueOf(quantity).multiply(BigDecimal.valueOf(avgPriceMicros))
+                    .add(BigDecimal.valueOf(addCostMicros));
+            return cost.divide(BigDecimal.valueOf(totalQuantity).multiply(BigDecimal.valueOf(CENT)), 0, RoundingMode.HALF_UP)
+                    .multiply(BigDecimal.valueOf(CENT)).longValueExact();
+        }
+    }
+
+    public static BigDecimal toBigDecimal(long micros) {
+        return BigDecimal.valueOf(micros, SCALE);
+    }
+
+    /**
+     * Exact conversion from a database value; fractions below a micro-unit are truncated.
+     */
+    public static long fromBigDecimal(BigDecimal amount) {
+        return amount.setScale(SCALE, RoundingMode.DOWN).unscaledValue().longValueExact();
+    }
+}
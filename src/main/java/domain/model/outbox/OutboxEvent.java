@@ -5,7 +5,6 @@ import com.hts.generated.events.projection.AccountFilledEvent;
 import com.hts.generated.events.projection.AccountReleasedEvent;
 import com.hts.generated.events.projection.AccountBalanceUpdatedEvent;
 
-import java.math.BigDecimal;
 import java.time.OffsetDateTime;
 import java.util.UUID;
 
@@ -23,7 +22,7 @@ public record OutboxEvent(
 
     public static OutboxEvent accountReserved(
             long accountId,
-            BigDecimal amount,
+            long amountMicros,
             String requestId,
             String orderId,
             String currency
@@ -33,7 +32,7 @@ public record OutboxEvent(
         AccountReservedEvent event = AccountReservedEvent.newBuilder()
                 .setEventId(eventId)
                 .setAccountId(accountId)
-                .setAmountMicroUnits(amount.multiply(BigDecimal.valueOf(1_000_000)).longValue())
+                .setAmountMicroUnits(amountMicros)
                 .setSide("")
                 .setSymbol("")
                 .setCurrency(currency)
@@ -55,7 +54,7 @@ public record OutboxEvent(
 
     public static OutboxEvent accountFilled(
             long accountId,
-            BigDecimal fillAmount,
+            long fillAmountMicros,
             String requestId,
             String orderId,
             String currency
@@ -65,7 +64,7 @@ public record OutboxEvent(
         AccountFilledEvent event = AccountFilledEvent.newBuilder()
                 .setEventId(eventId)
                 .setAccountId(accountId)
-                .setAmountMicroUnits(fillAmount.multiply(BigDecimal.valueOf(1_000_000)).longValue())
+                .setAmountMicroUnits(fillAmountMicros)
                 .setSide("")
                 .setSymbol("")
                 .setCurrency(currency)
@@ -87,7 +86,7 @@ public record OutboxEvent(
 
     public static OutboxEvent accountReleased(
             long accountId,
-            BigDecimal amount,
+            long amountMicros,
             String requestId,
             String orderId,
             String currency
@@ -97,7 +96,7 @@ public record OutboxEvent(
         AccountReleasedEvent event = AccountReleasedEvent.newBuilder()
                 .setEventId(eventId)
                 .setAccountId(accountId)
-                .setAmountMicroUnits(amount.multiply(BigDecimal.valueOf(1_000_000)).longValue())
+                .setAmountMicroUnits(amountMicros)
                 .setSide("")
                 .setSymbol("")
                 .setCurrency(currency)
@@ -119,8 +118,8 @@ public record OutboxEvent(
 
     public static OutboxEvent balanceUpdated(
             long accountId,
-            BigDecimal newBalance,
-            BigDecimal reserved,
+            long balanceMicros,
+            long reservedMicros,
             String currency
     ) {
         String eventId = UUID.randomUUID().toString();
@@ -128,8 +127,8 @@ public record OutboxEvent(
         AccountBalanceUpdatedEvent event = AccountBalanceUpdatedEvent.newBuilder()
                 .setEventId(eventId)
                 .setAccountId(accountId)
-                .setBalanceMicroUnits(newBalance.multiply(BigDecimal.valueOf(1_000_000)).longValue())
-                .setReservedMicroUnits(reserved.multiply(BigDecimal.valueOf(1_000_000)).longValue())
+                .setBalanceMicroUnits(balanceMicros)
+                .setReservedMicroUnits(reservedMicros)
                 .setCurrency(currency)
                 .setTimestamp(System.currentTimeMillis())
                 .build();
@@ -24,10 +24,13 @@ public interface CommandResult {
             case "INSUFFICIENT_FUNDS" -> AccoutResult.INSUFFICIENT_FUNDS;
             case "INSUFFICIENT_POSITION" -> AccoutResult.INSUFFICIENT_POSITION;
             case "ACCOUNT_NOT_FOUND" -> AccoutResult.ACCOUNT_NOT_FOUND;
+            case "ACCOUNT_SUSPENDED" -> AccoutResult.ACCOUNT_SUSPENDED;
             case "POSITION_NOT_FOUND" -> AccoutResult.POSITION_NOT_FOUND;
             case "INVALID_AMOUNT" -> AccoutResult.INVALID_AMOUNT;
             case "INVALID_REQUEST" -> AccoutResult.INVALID_REQUEST;
             case "DUPLICATE", "ALREADY_PROCESSED" -> AccoutResult.DUPLICATE_REQUEST;
+            case "SERVICE_OVERLOADED" -> AccoutResult.SERVICE_OVERLOADED;
+            case "WRONG_OWNER" -> AccoutResult.WRONG_OWNER;
             default -> AccoutResult.INTERNAL_ERROR;
         };
     }
@@ -56,14 +59,43 @@ public interface CommandResult {
         return new SimpleCommandResult(false, "ACCOUNT_NOT_FOUND", "Account does not exist");
     }
 
+    static CommandResult accountSuspended() {
+        return new SimpleCommandResult(false, "ACCOUNT_SUSPENDED", "Account is not active");
+    }
+
     static CommandResult positionNotFound() {
         return new SimpleCommandResult(false, "POSITION_NOT_FOUND", "Position does not exist");
     }
 
+    static CommandResult overloaded() {
+        return new SimpleCommandResult(false, "SERVICE_OVERLOADED", "Too many in-flight commands, retry later");
+    }
+
+    static CommandResult notOwner() {
+        return new SimpleCommandResult(false, "WRONG_OWNER", "Account is owned by another node, retry later");
+    }
+
     static CommandResult alreadyProcessed() {
         return new SimpleCommandResult(true, "ALREADY_PROCESSED", "Event already processed");
     }
 
+    /**
+     * Result for an outcome code computed by the database (same codes as {@link #errorCode()}).
+     */
+    static CommandResult ofCode(String code) {
+        return switch (code) {
+            case "OK" -> ok();
+            case "DUPLICATE" -> duplicate();
+            case "ALREADY_PROCESSED" -> alreadyProcessed();
+            case "INSUFFICIENT_FUNDS" -> insufficientFunds();
+            case "INSUFFICIENT_POSITION" -> insufficientPosition();
+            case "ACCOUNT_NOT_FOUND" -> accountNotFound();
+            case "ACCOUNT_SUSPENDED" -> accountSuspended();
+            case "POSITION_NOT_FOUND" -> positionNotFound();
+            default -> fail("INTERNAL_ERROR", "Unknown outcome " + code);
+        };
+    }
+
     record SimpleCommandResult(
             boolean success,
             String errorCode,
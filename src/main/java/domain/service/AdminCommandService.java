@@ -3,6 +3,7 @@ package domain.service;
 import infrastructure.event.KafkaEventProducer;
 import infrastructure.metrics.CommandMetrics;
 import infrastructure.repository.AccountWriteRepository;
+import infrastructure.repository.ReactiveAccountWriteRepository;
 import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
@@ -14,6 +15,7 @@ public class AdminCommandService {
     private static final Logger log = Logger.getLogger(BalanceCommandService.class);
 
     @Inject AccountWriteRepository writeRepo;
+    @Inject ReactiveAccountWriteRepository reactiveRepo;
     @Inject CommandMetrics metrics;
     @Inject KafkaEventProducer eventProducer;
 
@@ -68,4 +70,36 @@ public class AdminCommandService {
             }
         });
     }
+
+    // account.repository.mode=REACTIVE counterparts
+
+    public Uni<Boolean> createAccountAsync(long accountId, String passwordHash, String salt) {
+        long startNanos = System.nanoTime();
+
+        return reactiveRepo.createAccount(accountId).onItem().invoke(created -> {
+            if (created) {
+                eventProducer.publishAccountCreated(accountId, passwordHash, "ACTIVE");
+            }
+            metrics.record("create_account", created ? "SUCCESS" : "DUPLICATE", System.nanoTime() - startNanos);
+        }).onFailure().recoverWithItem(e -> {
+            log.errorf(e, "Failed to create account: accountId=%d", accountId);
+            metrics.record("create_account", "FAILURE", System.nanoTime() - startNanos);
+            return false;
+        });
+    }
+
+    public Uni<Boolean> deleteAccountAsync(long accountId) {
+        long startNanos = System.nanoTime();
+
+        return reactiveRepo.deleteAccount(accountId).onItem().invoke(deleted -> {
+            if (deleted) {
+                eventProducer.publishAccountDeleted(accountId);
+            }
+            metrics.record("delete_account", deleted ? "SUCCESS" : "NOT_FOUND", System.nanoTime() - startNanos);
+        }).onFailure().recoverWithItem(e -> {
+            log.errorf(e, "Failed to delete account: accountId=%d", accountId);
+            metrics.record("delete_account", "FAILURE", System.nanoTime() - startNanos);
+            return false;
+        });
+    }
 }
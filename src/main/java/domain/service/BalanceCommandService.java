@@ -5,8 +5,11 @@ import domain.model.command.ReserveCashCommand;
 import domain.model.command.ReleaseCashCommand;
 import domain.model.command.WithdrawCommand;
 import domain.model.result.CommandResult;
+import infrastructure.journal.WriteBehindJournal;
 import infrastructure.metrics.CommandMetrics;
 import infrastructure.repository.BalanceWriteRepository;
+import infrastructure.repository.ReactiveBalanceWriteRepository;
+import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 
@@ -14,14 +17,21 @@ import jakarta.inject.Inject;
 public class BalanceCommandService {
 
     @Inject BalanceWriteRepository writeRepo;
+    @Inject ReactiveBalanceWriteRepository reactiveRepo;
+    @Inject WriteBehindJournal journal;
     @Inject CommandMetrics metrics;
 
     public CommandResult reserveCash(ReserveCashCommand cmd) {
         long startNanos = System.nanoTime();
 
-        CommandResult result = writeRepo.reserveCash(
-                cmd.accountId(), cmd.requestId(), cmd.orderId(), cmd.amount()
+        CommandResult result = journal.reserveCash(
+                cmd.accountId(), cmd.requestId(), cmd.orderId(), cmd.amountMicros()
         );
+        if (result == null) {
+            result = writeRepo.reserveCash(
+                    cmd.accountId(), cmd.requestId(), cmd.orderId(), cmd.amountMicros()
+            );
+        }
 
         long durationNanos = System.nanoTime() - startNanos;
         String metricResult = result.success() ? "SUCCESS" : result.errorCode();
@@ -33,7 +43,10 @@ public class BalanceCommandService {
     public CommandResult releaseCash(ReleaseCashCommand cmd) {
         long startNanos = System.nanoTime();
 
-        CommandResult result = writeRepo.unreserveCash(cmd.accountId(), cmd.requestId());
+        CommandResult result = journal.releaseCash(cmd.accountId(), cmd.requestId());
+        if (result == null) {
+            result = writeRepo.unreserveCash(cmd.accountId(), cmd.requestId());
+        }
 
         long durationNanos = System.nanoTime() - startNanos;
         String metricResult = result.success() ? "SUCCESS" : result.errorCode();
@@ -45,7 +58,7 @@ public class BalanceCommandService {
     public CommandResult deposit(DepositCommand cmd) {
         long startNanos = System.nanoTime();
 
-        CommandResult result = writeRepo.deposit(cmd.accountId(), cmd.amount(), cmd.source());
+        CommandResult result = writeRepo.deposit(cmd.accountId(), cmd.amountMicros(), cmd.source());
 
         long durationNanos = System.nanoTime() - startNanos;
         String metricResult = result.success() ? "SUCCESS" : result.errorCode();
@@ -57,7 +70,7 @@ public class BalanceCommandService {
     public CommandResult withdraw(WithdrawCommand cmd) {
         long startNanos = System.nanoTime();
 
-        CommandResult result = writeRepo.withdraw(cmd.accountId(), cmd.amount(), cmd.destination());
+        CommandResult result = writeRepo.withdraw(cmd.accountId(), cmd.amountMicros(), cmd.destination());
 
         long durationNanos = System.nanoTime() - startNanos;
         String metricResult = result.success() ? "SUCCESS" : result.errorCode();
@@ -65,4 +78,32 @@ public class BalanceCommandService {
 
         return result;
     }
+
+    // account.repository.mode=REACTIVE counterparts; there is no journal on this path
+
+    public Uni<CommandResult> reserveCashAsync(ReserveCashCommand cmd) {
+        return timed("reserve_cash", reactiveRepo.reserveCash(
+                cmd.accountId(), cmd.requestId(), cmd.orderId(), cmd.amountMicros()
+        ));
+    }
+
+    public Uni<CommandResult> releaseCashAsync(ReleaseCashCommand cmd) {
+        return timed("unreserve_cash", reactiveRepo.unreserveCash(cmd.accountId(), cmd.requestId()));
+    }
+
+    public Uni<CommandResult> depositAsync(DepositCommand cmd) {
+        return timed("deposit", reactiveRepo.deposit(cmd.accountId(), cmd.amountMicros(), cmd.source()));
+    }
+
+    public Uni<CommandResult> withdrawAsync(WithdrawCommand cmd) {
+        return timed("withdraw", reactiveRepo.withdraw(cmd.accountId(), cmd.amountMicros(), cmd.destination()));
+    }
+
+    private Uni<CommandResult> timed(String op, Uni<CommandResult> work) {
+        long startNanos = System.nanoTime();
+        return work.onItem().invoke(result -> {
+            String metricResult = result.success() ? "SUCCESS" : result.errorCode();
+            metrics.record(op, metricResult, System.nanoTime() - startNanos);
+        });
+    }
 }
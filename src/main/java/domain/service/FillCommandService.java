@@ -1,56 +1,147 @@
 package domain.service;
 
 import com.hts.generated.events.order.OrderFillEvent;
+import com.hts.generated.grpc.AccoutResult;
+import com.hts.generated.grpc.CommonReply;
 import com.hts.generated.grpc.Side;
+import com.hts.generated.grpc.account.order.MutinyAccountOrderServiceGrpc;
 import domain.model.command.ApplyFillCommand;
+import domain.model.money.Money;
 import domain.model.result.CommandResult;
+import infrastructure.cluster.ShardOwnership;
 import infrastructure.repository.FillWriteRepository;
+import infrastructure.repository.ReactiveFillWriteRepository;
+import infrastructure.shard.AccountShardInvoker;
+import infrastructure.shard.ShardRejectedException;
+import io.grpc.Channel;
+import io.grpc.Status;
+import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.jboss.logging.Logger;
 
-import java.math.BigDecimal;
+import java.time.Duration;
 
 @ApplicationScoped
 public class FillCommandService {
 
     private static final Logger LOG = Logger.getLogger(FillCommandService.class);
 
+    private static final Duration RETRY_MIN = Duration.ofMillis(5);
+    private static final Duration RETRY_MAX = Duration.ofMillis(500);
+    // a fill that keeps failing after these is nacked and goes to the dead-letter topic
+    private static final int FAILED_FILL_RETRIES = 5;
+    private static final Duration FAILED_FILL_RETRY_MIN = Duration.ofMillis(100);
+    private static final Duration FAILED_FILL_RETRY_MAX = Duration.ofSeconds(5);
+
     @Inject FillWriteRepository fillRepo;
+    @Inject ReactiveFillWriteRepository reactiveFillRepo;
+    @Inject AccountShardInvoker invoker;
+    @Inject ShardOwnership ownership;
 
-    public void processOrderFillEvent(OrderFillEvent event) {
+    /**
+     * Applies the fill on the account's shard, serialized with its reserves and releases and
+     * served by the shard's caches. If another node owns the account the fill is forwarded to it,
+     * as gRPC calls are. A refused fill (shard overloaded, or the slot changing owner) is retried
+     * with backoff, looking the owner up again each time.
+     *
+     * A rejection (insufficient funds or position, unknown account) completes normally: the event
+     * is recorded as processed and a redelivery would be rejected the same way. Only an internal
+     * error fails the Uni, after a few retries, so the consumer nacks just the fills worth retrying.
+     */
+    public Uni<Void> processOrderFillEvent(OrderFillEvent event) {
         LOG.infof("Processing OrderFillEvent: eventId=%s, accountId=%d, side=%s",
                 event.getEventId(), event.getAccountId(), event.getSide());
 
-        BigDecimal totalFillAmount = BigDecimal.ZERO;
+        ApplyFillCommand cmd = toCommand(event);
+        return Uni.createFrom().deferred(() -> applyFill(event, cmd))
+                .onFailure(ShardRejectedException.class).retry().withBackOff(RETRY_MIN, RETRY_MAX).indefinitely()
+                .onItem().transform(result -> {
+                    if (retryable(result)) {
+                        LOG.warnf("Failed to apply fill: eventId=%s, error=%s - %s",
+                                event.getEventId(), result.errorCode(), result.errorMessage());
+                        throw new FillFailedException(result);
+                    }
+                    if (!result.success()) {
+                        LOG.errorf("Fill rejected: eventId=%s, error=%s - %s",
+                                event.getEventId(), result.errorCode(), result.errorMessage());
+                        return null;
+                    }
+                    LOG.infof("Fill processed successfully: eventId=%s, qty=%d, amount=%s",
+                            event.getEventId(), cmd.fillQuantity(), Money.toBigDecimal(cmd.fillAmountMicros()));
+                    return null;
+                })
+                .onFailure(FillFailedException.class).retry()
+                .withBackOff(FAILED_FILL_RETRY_MIN, FAILED_FILL_RETRY_MAX).atMost(FAILED_FILL_RETRIES);
+    }
+
+    /**
+     * Applies the fill on the owner's shard, forwarding it if the owner is another node; fails with
+     * ShardRejectedException if the shard (or the owner it was forwarded to) refused it.
+     */
+    public Uni<CommandResult> applyFill(OrderFillEvent event) {
+        return applyFill(event, toCommand(event));
+    }
+
+    private Uni<CommandResult> applyFill(OrderFillEvent event, ApplyFillCommand cmd) {
+        Channel owner = ownership.forwardTarget(cmd.accountId());
+        if (owner != null) {
+            return MutinyAccountOrderServiceGrpc.newMutinyStub(owner).applyFill(event)
+                    .onItem().transform(FillCommandService::forwardedResult)
+                    // an unreachable owner loses its lease and the slot moves, so it is retried as well
+                    .onFailure(e -> Status.fromThrowable(e).getCode() == Status.Code.UNAVAILABLE)
+                    .transform(e -> new ShardRejectedException(ShardRejectedException.Reason.NOT_OWNER));
+        }
+        return invoker.invoke(cmd.accountId(), () -> fillRepo.applyFill(cmd), () -> reactiveFillRepo.applyFill(cmd));
+    }
+
+    private static ApplyFillCommand toCommand(OrderFillEvent event) {
+        long totalFillAmount = 0;
         long totalFillQty = 0;
 
         for (var fill : event.getFillsList()) {
-            BigDecimal price = BigDecimal.valueOf(fill.getPriceMicroUnits()).divide(BigDecimal.valueOf(1_000_000));
             long qty = fill.getQuantity();
-            totalFillAmount = totalFillAmount.add(price.multiply(BigDecimal.valueOf(qty)));
+            totalFillAmount = Money.add(totalFillAmount, Money.multiply(fill.getPriceMicroUnits(), qty));
             totalFillQty += qty;
         }
 
-        ApplyFillCommand cmd = new ApplyFillCommand(
+        return new ApplyFillCommand(
                 event.getAccountId(),
                 totalFillAmount,
                 event.getEventId(),
                 event.getClientOrderId(),
-                "SEC" + event.getSecurityId(),
+                event.getSecurityId(),
                 totalFillQty,
                 event.getSide() == Side.BUY
         );
+    }
 
-        CommandResult result = fillRepo.applyFill(cmd);
-
-        if (!result.success()) {
-            LOG.errorf("Failed to apply fill: eventId=%s, error=%s - %s",
-                    event.getEventId(), result.errorCode(), result.errorMessage());
-            throw new RuntimeException("Fill processing failed: " + result.errorCode());
+    // a failed write rolled back, so the event is not recorded yet and applying it again is safe
+    private static boolean retryable(CommandResult result) {
+        if (result.success()) {
+            return false;
         }
+        AccoutResult code = result.toGrpcCode();
+        return code == AccoutResult.INTERNAL_ERROR || code == AccoutResult.SERVICE_OVERLOADED
+                || code == AccoutResult.WRONG_OWNER;
+    }
 
-        LOG.infof("Fill processed successfully: eventId=%s, qty=%d, amount=%s",
-                event.getEventId(), totalFillQty, totalFillAmount);
+    // the reply only carries the code; both rejections are retried, the owner looked up again each time
+    private static CommandResult forwardedResult(CommonReply reply) {
+        return switch (reply.getCode()) {
+            case SUCCESS -> CommandResult.ok();
+            case DUPLICATE_REQUEST -> CommandResult.alreadyProcessed();
+            case WRONG_OWNER -> throw new ShardRejectedException(ShardRejectedException.Reason.NOT_OWNER);
+            // the code does not say which limit the owner hit
+            case SERVICE_OVERLOADED -> throw new ShardRejectedException(ShardRejectedException.Reason.CONCURRENCY_LIMIT);
+            default -> CommandResult.fail(reply.getCode().name(), "Rejected by the account's owner");
+        };
+    }
+
+    private static final class FillFailedException extends RuntimeException {
+
+        FillFailedException(CommandResult result) {
+            super("Fill processing failed: " + result.errorCode(), null, false, false);
+        }
     }
 }
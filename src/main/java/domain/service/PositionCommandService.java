@@ -5,6 +5,8 @@ import domain.model.command.ReleasePositionCommand;
 import domain.model.result.CommandResult;
 import infrastructure.metrics.CommandMetrics;
 import infrastructure.repository.PositionWriteRepository;
+import infrastructure.repository.ReactivePositionWriteRepository;
+import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.jboss.logging.Logger;
@@ -15,13 +17,14 @@ public class PositionCommandService {
     private static final Logger log = Logger.getLogger(PositionCommandService.class);
 
     @Inject PositionWriteRepository writeRepo;
+    @Inject ReactivePositionWriteRepository reactiveRepo;
     @Inject CommandMetrics metrics;
 
     public CommandResult reservePosition(ReservePositionCommand cmd) {
         long startNanos = System.nanoTime();
 
         CommandResult result = writeRepo.reservePosition(
-                cmd.accountId(), cmd.symbol(), cmd.quantity(), cmd.requestId()
+                cmd.accountId(), cmd.securityId(), cmd.quantity(), cmd.requestId()
         );
 
         long durationNanos = System.nanoTime() - startNanos;
@@ -42,4 +45,24 @@ public class PositionCommandService {
 
         return result;
     }
+
+    // account.repository.mode=REACTIVE counterparts
+
+    public Uni<CommandResult> reservePositionAsync(ReservePositionCommand cmd) {
+        return timed("reserve_position", reactiveRepo.reservePosition(
+                cmd.accountId(), cmd.securityId(), cmd.quantity(), cmd.requestId()
+        ));
+    }
+
+    public Uni<CommandResult> releasePositionAsync(ReleasePositionCommand cmd) {
+        return timed("unreserve_position", reactiveRepo.unreservePosition(cmd.accountId(), cmd.requestId()));
+    }
+
+    private Uni<CommandResult> timed(String op, Uni<CommandResult> work) {
+        long startNanos = System.nanoTime();
+        return work.onItem().invoke(result -> {
+            String metricResult = result.success() ? "SUCCESS" : result.errorCode();
+            metrics.record(op, metricResult, System.nanoTime() - startNanos);
+        });
+    }
 }
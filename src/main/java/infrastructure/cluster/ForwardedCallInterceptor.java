@@ -0,0 +1,42 @@
+package infrastructure.cluster;
+
+import io.grpc.*;
+import io.grpc.stub.MetadataUtils;
+import io.quarkus.grpc.GlobalInterceptor;
+import jakarta.enterprise.context.ApplicationScoped;
+
+/**
+ * Marks calls that another node forwarded here, so they are handled locally instead of forwarded again.
+ */
+@GlobalInterceptor
+@ApplicationScoped
+public class ForwardedCallInterceptor implements ServerInterceptor {
+
+    private static final Metadata.Key<String> FORWARDED_BY =
+            Metadata.Key.of("x-account-forwarded-by", Metadata.ASCII_STRING_MARSHALLER);
+
+    private static final Context.Key<String> FORWARDED_FROM = Context.key("account-forwarded-from");
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+            ServerCall<ReqT, RespT> serverCall,
+            Metadata headers,
+            ServerCallHandler<ReqT, RespT> next) {
+
+        String from = headers.get(FORWARDED_BY);
+        if (from == null) {
+            return next.startCall(serverCall, headers);
+        }
+        return Contexts.interceptCall(Context.current().withValue(FORWARDED_FROM, from), serverCall, headers, next);
+    }
+
+    static boolean isForwarded() {
+        return FORWARDED_FROM.get() != null;
+    }
+
+    static ClientInterceptor marker(String nodeId) {
+        Metadata headers = new Metadata();
+        headers.put(FORWARDED_BY, nodeId);
+        return MetadataUtils.newAttachHeadersInterceptor(headers);
+    }
+}
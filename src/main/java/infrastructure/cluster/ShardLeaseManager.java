@@ -0,0 +1,208 @@
+package infrastructure.cluster;
+
+import infrastructure.repository.ShardLeaseRepository;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Lease bookkeeping for one node. Plain class so several nodes can run in one JVM against one database.
+ *
+ * Every {@link #tick()} heartbeats, computes the wanted slots by rendezvous hashing over the live
+ * nodes, hands back slots that now belong elsewhere (after draining local work), then renews and
+ * claims the rest. Nodes joining or leaving only move the slots whose top-ranked node changed.
+ * Slots this node did not hold before the claim (new, reclaimed, or held again after its local lease
+ * lapsed) go through {@code resetSlots} before their tokens are handed out, so state cached while
+ * another node could write them is never served.
+ *
+ * The lease is also kept in memory: {@link #token} answers without the database and stops handing
+ * out tokens {@code marginMillis} before the lease can expire in {@code shard_leases}, so a node
+ * that misses its renewals stops running commands before another node can claim its slots. A node
+ * paused past that point is caught by the token check in its write statements.
+ */
+public final class ShardLeaseManager {
+
+    private static final Logger log = Logger.getLogger(ShardLeaseManager.class);
+
+    private final String nodeId;
+    private final String address;
+    private final int slotCount;
+    private final int leaseSeconds;
+    private final long localLeaseNanos;
+    private final ShardLeaseRepository repo;
+    private final Runnable drainLocal;
+    private final Consumer<int[]> resetSlots;
+    private final LongSupplier nanoClock;
+
+    // slot -> fencing token, 0 when not held; replaced wholesale by the tick thread
+    private volatile long[] tokens;
+    private volatile long leaseDeadlineNanos;
+    private volatile String[] ownerNodes;
+    private volatile String[] ownerAddresses;
+
+    public ShardLeaseManager(String nodeId, String address, int slotCount, int leaseSeconds, long marginMillis,
+                             ShardLeaseRepository repo, Runnable drainLocal, Consumer<int[]> resetSlots) {
+        this(nodeId, address, slotCount, leaseSeconds, marginMillis, repo, drainLocal, resetSlots, System::nanoTime);
+    }
+
+    ShardLeaseManager(String nodeId, String address, int slotCount, int leaseSeconds, long marginMillis,
+                      ShardLeaseRepository repo, Runnable drainLocal, Consumer<int[]> resetSlots,
+                      LongSupplier nanoClock) {
+        if (marginMillis < 0 || marginMillis >= TimeUnit.SECONDS.toMillis(leaseSeconds)) {
+            throw new IllegalArgumentException("Lease margin must be shorter than the lease");
+        }
+        this.nodeId = nodeId;
+        this.address = address;
+        this.slotCount = slotCount;
+        this.leaseSeconds = leaseSeconds;
+        this.localLeaseNanos = TimeUnit.SECONDS.toNanos(leaseSeconds) - TimeUnit.MILLISECONDS.toNanos(marginMillis);
+        this.repo = repo;
+        this.drainLocal = drainLocal;
+        this.resetSlots = resetSlots;
+        this.nanoClock = nanoClock;
+        this.tokens = new long[slotCount];
+        this.ownerNodes = new String[slotCount];
+        this.ownerAddresses = new String[slotCount];
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public void start() {
+        repo.ensureSlots(slotCount);
+        tick();
+    }
+
+    public synchronized void tick() {
+        long startNanos = nanoClock.getAsLong();
+        repo.heartbeat(nodeId, address);
+        List<String> live = repo.liveNodes(leaseSeconds);
+        if (!live.contains(nodeId)) {
+            live = new ArrayList<>(live);
+            live.add(nodeId);
+        }
+
+        long[] held = heldTokens();
+        List<Integer> wanted = new ArrayList<>();
+        List<Integer> unwanted = new ArrayList<>();
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (nodeId.equals(rendezvousOwner(live, slot))) {
+                wanted.add(slot);
+            } else if (held[slot] != 0) {
+                unwanted.add(slot);
+            }
+        }
+
+        if (!unwanted.isEmpty()) {
+            long[] remaining = held.clone();
+            for (int slot : unwanted) {
+                remaining[slot] = 0;
+            }
+            tokens = remaining;
+            // stop accepting, let what is already queued commit, then let the new owner in
+            drainLocal.run();
+            repo.release(nodeId, unwanted.toArray(Integer[]::new));
+            log.infof("Node %s released %d slots", nodeId, unwanted.size());
+        }
+
+        Map<Integer, Long> granted = repo.claim(nodeId, address, wanted.toArray(Integer[]::new), leaseSeconds);
+        long[] next = new long[slotCount];
+        List<Integer> acquired = new ArrayList<>();
+        for (Map.Entry<Integer, Long> e : granted.entrySet()) {
+            next[e.getKey()] = e.getValue();
+            if (held[e.getKey()] == 0) {
+                acquired.add(e.getKey());
+            }
+        }
+        if (!acquired.isEmpty()) {
+            // their tokens read 0 until published below, so nothing runs for them meanwhile
+            resetSlots.accept(acquired.stream().mapToInt(Integer::intValue).toArray());
+        }
+        // measured from before the claim, so the local lease ends at least the margin before the row's
+        leaseDeadlineNanos = startNanos + localLeaseNanos;
+        tokens = next;
+        if (!acquired.isEmpty()) {
+            log.infof("Node %s acquired %d slots (%d held)", nodeId, acquired.size(), granted.size());
+        }
+
+        refreshOwners();
+    }
+
+    public synchronized void releaseAll() {
+        long[] held = heldTokens();
+        tokens = new long[slotCount];
+        drainLocal.run();
+
+        List<Integer> slots = new ArrayList<>();
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (held[slot] != 0) {
+                slots.add(slot);
+            }
+        }
+        repo.release(nodeId, slots.toArray(Integer[]::new));
+        repo.leave(nodeId);
+    }
+
+    /**
+     * Fencing token for a locally held slot, or 0 when this node must not run commands for it.
+     */
+    public long token(int slot) {
+        if (nanoClock.getAsLong() - leaseDeadlineNanos >= 0) {
+            return 0;
+        }
+        return tokens[slot];
+    }
+
+    /**
+     * Address of the live remote owner, or null when the slot is local or currently unowned.
+     */
+    public String remoteAddress(int slot) {
+        String owner = ownerNodes[slot];
+        if (owner == null || owner.equals(nodeId)) {
+            return null;
+        }
+        return ownerAddresses[slot];
+    }
+
+    private long[] heldTokens() {
+        return nanoClock.getAsLong() - leaseDeadlineNanos >= 0 ? new long[slotCount] : tokens;
+    }
+
+    private void refreshOwners() {
+        String[] nodes = new String[slotCount];
+        String[] addresses = new String[slotCount];
+        for (ShardLeaseRepository.Owner owner : repo.owners()) {
+            if (owner.slot() < slotCount) {
+                nodes[owner.slot()] = owner.nodeId();
+                addresses[owner.slot()] = owner.address();
+            }
+        }
+        ownerAddresses = addresses;
+        ownerNodes = nodes;
+    }
+
+    private static String rendezvousOwner(List<String> nodes, int slot) {
+        String best = null;
+        long bestScore = Long.MIN_VALUE;
+        for (String node : nodes) {
+            long score = mix(node.hashCode() * 0x9E3779B97F4A7C15L + slot);
+            if (best == null || score > bestScore) {
+                best = node;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB93FE1A85EC3L;
+        return z ^ (z >>> 33);
+    }
+}
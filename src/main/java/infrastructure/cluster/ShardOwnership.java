@@ -0,0 +1,175 @@
+package infrastructure.cluster;
+
+import infrastructure.repository.DslProvider;
+import infrastructure.repository.IdempotencyFilter;
+import infrastructure.repository.LeaseLostException;
+import infrastructure.repository.OpenReservationIndex;
+import infrastructure.repository.ShardLeaseRepository;
+import infrastructure.shard.InMemoryShardRouter;
+import infrastructure.shard.ShardRejectedException;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+
+/**
+ * Cluster view of the shard slots: which ones this node may run, and where to forward the rest.
+ *
+ * Commands for a local slot run fenced: they are refused once this node's in-memory lease on the
+ * slot has lapsed, and their write statements check the slot's fencing token in the database, so a
+ * write from a node whose slot was taken over fails as a whole. Nothing is locked for the check.
+ * The in-memory lease ends one heartbeat before the lease row does. A slot this node acquires may
+ * have been written by another node since it was last held here, so its accounts' cached state is
+ * dropped first.
+ *
+ * Disabled by default, in which case every slot is local and nothing is fenced.
+ */
+@ApplicationScoped
+public class ShardOwnership {
+
+    private static final Logger log = Logger.getLogger(ShardOwnership.class);
+
+    @ConfigProperty(name = "account.cluster.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "account.cluster.node-id")
+    Optional<String> configuredNodeId;
+
+    @ConfigProperty(name = "account.cluster.advertise-address", defaultValue = "localhost:50053")
+    String advertiseAddress;
+
+    @ConfigProperty(name = "account.cluster.lease-seconds", defaultValue = "10")
+    int leaseSeconds;
+
+    @ConfigProperty(name = "account.cluster.heartbeat-millis", defaultValue = "2000")
+    long heartbeatMillis;
+
+    @Inject InMemoryShardRouter router;
+    @Inject ShardLeaseRepository leaseRepo;
+    @Inject DslProvider dslProvider;
+    @Inject OpenReservationIndex openReservations;
+    @Inject IdempotencyFilter idempotency;
+
+    private final ConcurrentHashMap<String, ManagedChannel> channels = new ConcurrentHashMap<>();
+    private ShardLeaseManager leases;
+    private ScheduledExecutorService heartbeat;
+
+    void onStart(@Observes StartupEvent event) {
+        if (!enabled) {
+            return;
+        }
+        if (TimeUnit.SECONDS.toMillis(leaseSeconds) <= 2 * heartbeatMillis) {
+            // the in-memory lease (lease minus one heartbeat) must outlast the next renewal
+            throw new IllegalStateException("account.cluster.lease-seconds must be longer than two heartbeats");
+        }
+        String nodeId = configuredNodeId.orElseGet(() -> UUID.randomUUID().toString());
+        leases = new ShardLeaseManager(nodeId, advertiseAddress, router.slotCount(), leaseSeconds, heartbeatMillis,
+                leaseRepo, router::awaitDrained, this::resetSlots);
+        leases.start();
+
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "account-cluster-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat.scheduleWithFixedDelay(this::tick, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+        log.infof("Cluster shard ownership enabled: node=%s address=%s", nodeId, advertiseAddress);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+        if (leases != null) {
+            try {
+                leases.releaseAll();
+            } catch (Exception e) {
+                log.warnf(e, "Failed to release shard leases, peers will take over on expiry");
+            }
+        }
+        channels.values().forEach(ManagedChannel::shutdown);
+    }
+
+    /**
+     * Channel to the node owning the account, or null to handle it here. Calls that were already
+     * forwarded once are always handled here, so a stale owner view can never bounce a call around.
+     */
+    public Channel forwardTarget(long accountId) {
+        if (leases == null || ForwardedCallInterceptor.isForwarded()) {
+            return null;
+        }
+        int slot = router.slotOf(accountId);
+        if (leases.token(slot) != 0) {
+            return null;
+        }
+        String address = leases.remoteAddress(slot);
+        if (address == null) {
+            return null;
+        }
+        ManagedChannel channel = channels.computeIfAbsent(address,
+                a -> ManagedChannelBuilder.forTarget(a).usePlaintext().build());
+        return ClientInterceptors.intercept(channel, ForwardedCallInterceptor.marker(leases.nodeId()));
+    }
+
+    /**
+     * Wraps shard work so its writes only go through while this node still holds the slot's lease.
+     */
+    public <T> Supplier<T> fenced(long accountId, Supplier<T> work) {
+        if (leases == null) {
+            return work;
+        }
+        int slot = router.slotOf(accountId);
+        long token = leases.token(slot);
+        if (token == 0) {
+            throw new ShardRejectedException(ShardRejectedException.Reason.NOT_OWNER);
+        }
+        return () -> {
+            // the lease may have lapsed or been handed back while the command was queued
+            if (leases.token(slot) != token) {
+                throw new ShardRejectedException(ShardRejectedException.Reason.NOT_OWNER);
+            }
+            try {
+                return dslProvider.fenced(slot, token, work);
+            } catch (LeaseLostException e) {
+                throw new ShardRejectedException(ShardRejectedException.Reason.NOT_OWNER);
+            }
+        };
+    }
+
+    private void resetSlots(int[] slots) {
+        boolean[] acquired = new boolean[router.slotCount()];
+        for (int slot : slots) {
+            acquired[slot] = true;
+        }
+        LongPredicate accounts = accountId -> acquired[router.slotOf(accountId)];
+        router.drop(accounts);
+        openReservations.forget(accounts);
+        long ids = idempotency.admit(router.slotCount(), slots);
+        log.infof("Reset %d acquired slots, %d committed IDs added to the idempotency filter", slots.length, ids);
+    }
+
+    private void tick() {
+        try {
+            leases.tick();
+        } catch (Exception e) {
+            log.errorf(e, "Shard lease heartbeat failed");
+        }
+    }
+}
@@ -4,6 +4,7 @@ import domain.service.FillCommandService;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import com.hts.generated.events.order.OrderFillEvent;
+import io.smallrye.mutiny.Uni;
 import org.eclipse.microprofile.reactive.messaging.Incoming;
 import org.eclipse.microprofile.reactive.messaging.Message;
 import org.jboss.logging.Logger;
@@ -24,9 +25,14 @@ public class KafkaEventConsumer {
             LOG.infof("Received OrderFillEvent: eventId=%s, accountId=%d",
                     event.getEventId(), event.getAccountId());
 
-            commandService.processOrderFillEvent(event);
-
-            return message.ack();
+            return commandService.processOrderFillEvent(event)
+                    .onItem().transformToUni(v -> Uni.createFrom().completionStage(message.ack()))
+                    // only fills that kept failing get here; the channel moves them to the dead-letter topic
+                    .onFailure().recoverWithUni(e -> {
+                        LOG.errorf(e, "Failed to process OrderFillEvent");
+                        return Uni.createFrom().completionStage(message.nack(e));
+                    })
+                    .subscribeAsCompletionStage();
         } catch (Exception e) {
             LOG.errorf(e, "Failed to process OrderFillEvent");
             return message.nack(e);
@@ -0,0 +1,262 @@
+package infrastructure.event;
+
+import infrastructure.metrics.OutboxMetrics;
+import infrastructure.repository.DslProvider;
+import infrastructure.repository.OutboxPublisher;
+import infrastructure.repository.OutboxRepository;
+import infrastructure.repository.OutboxRepository.Pending;
+import io.micrometer.core.instrument.Counter;
+import io.quarkus.runtime.StartupEvent;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.postgresql.PGConnection;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends pending {@code outbox_events} rows to Kafka.
+ *
+ * Events are split into lanes by {@code aggregate_id mod lanes}. A batch is claimed in one short
+ * transaction: take the lane's advisory lock (skip the lane if another node has it), claim up to
+ * batch-size due rows in ID order with SKIP LOCKED and lease them by pushing their available_at
+ * past the send timeout. The batch is then sent with no transaction, lock or connection held,
+ * each send waiting at most send-timeout-millis. A second short transaction marks the acknowledged
+ * events published and pushes the failed or timed-out ones back by retry-delay. A relay that dies
+ * mid-batch leaves its rows leased, and they are claimed again once the lease runs out, so delivery
+ * is at least once; consumers dedupe on the {@code idempotency_key} header.
+ *
+ * Records are keyed by account ID and each account's events are claimed in ID order. An event is
+ * not claimed while an earlier one of its account is still pending but not due (pushed back after
+ * a failed send, leased by a relay, or left to the direct path), so a failed event holds its
+ * account's later events back until it is sent, and each account's events stay in order on their
+ * partition. With the idempotent producer a failed send also fails the later ones of its
+ * partition in the same batch.
+ *
+ * Once a pass finds every lane drained the relay waits on {@code LISTEN outbox_events} (notified by
+ * the insert trigger, see V9) for up to idle-wait-millis, so it is idle without polling and wakes
+ * as soon as a command commits an event. With the direct path on (see OutboxPublisher) the relay
+ * only claims rows older than its relay delay, the ones the direct path did not get through, and
+ * checks every idle-wait-millis instead of listening.
+ */
+@ApplicationScoped
+public class OutboxRelay {
+
+    private static final Logger LOG = Logger.getLogger(OutboxRelay.class);
+
+    static final String PATH = "relay";
+
+    @ConfigProperty(name = "account.outbox.relay.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "account.outbox.relay.lanes", defaultValue = "8")
+    int lanes;
+
+    @ConfigProperty(name = "account.outbox.relay.batch-size", defaultValue = "500")
+    int batchSize;
+
+    @ConfigProperty(name = "account.outbox.relay.idle-wait-millis", defaultValue = "1000")
+    int idleWaitMillis;
+
+    @ConfigProperty(name = "account.outbox.relay.send-timeout-millis", defaultValue = "10000")
+    long sendTimeoutMillis;
+
+    @ConfigProperty(name = "account.outbox.relay.retry-delay-seconds", defaultValue = "5")
+    int retryDelaySeconds;
+
+    @ConfigProperty(name = "quarkus.datasource.jdbc.url")
+    String url;
+
+    @ConfigProperty(name = "quarkus.datasource.username")
+    String username;
+
+    @ConfigProperty(name = "quarkus.datasource.password")
+    String password;
+
+    @Inject DslProvider dsl;
+    @Inject OutboxRepository outboxRepo;
+    @Inject OutboxPublisher publisher;
+    @Inject OutboxMetrics metrics;
+
+    private ExecutorService worker;
+    private volatile Connection listener;
+    private Counter published;
+    private Counter failed;
+
+    void onStart(@Observes StartupEvent event) {
+        if (!enabled) {
+            return;
+        }
+        published = metrics.events(PATH, "published");
+        failed = metrics.events(PATH, "failed");
+        worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "account-outbox-relay");
+            t.setDaemon(true);
+            return t;
+        });
+        worker.execute(this::run);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (worker != null) {
+            worker.shutdownNow();
+        }
+        closeListener();
+    }
+
+    void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                boolean drained = true;
+                for (int lane = 0; lane < lanes; lane++) {
+                    if (relayBatch(lane) == batchSize) {
+                        drained = false;
+                    }
+                }
+                if (drained) {
+                    awaitNotification();
+                }
+            } catch (RuntimeException e) {
+                LOG.errorf(e, "Outbox relay pass failed; retrying in %d s", retryDelaySeconds);
+                sleep(retryDelaySeconds * 1000L);
+            }
+        }
+    }
+
+    /**
+     * Relays one batch of the lane; returns the number of events claimed.
+     */
+    int relayBatch(int lane) {
+        List<Pending> batch = dsl.transactionResult(cfg -> outboxRepo.lockLane(lane)
+                ? outboxRepo.claim(lanes, lane, batchSize, publisher.relayDelayMillis(), leaseMillis())
+                : List.of());
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        metrics.recordBatch(PATH, batch.size());
+
+        List<Throwable> outcomes = send(batch);
+        List<Long> sent = new ArrayList<>(batch.size());
+        List<Long> unsent = new ArrayList<>();
+        Throwable firstFailure = null;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < batch.size(); i++) {
+            Pending event = batch.get(i);
+            Throwable failure = outcomes.get(i);
+            if (failure == null) {
+                sent.add(event.id());
+                metrics.recordLag(PATH, now - event.createdAt().toInstant().toEpochMilli());
+            } else {
+                unsent.add(event.id());
+                if (firstFailure == null) {
+                    firstFailure = failure;
+                }
+            }
+        }
+        String error = firstFailure == null ? null : String.valueOf(firstFailure.getMessage());
+        dsl.transactionResult(cfg -> {
+            if (!sent.isEmpty()) {
+                outboxRepo.markPublished(sent);
+            }
+            if (!unsent.isEmpty()) {
+                outboxRepo.reschedule(unsent, error, retryDelaySeconds);
+            }
+            return null;
+        });
+        published.increment(sent.size());
+        if (!unsent.isEmpty()) {
+            failed.increment(unsent.size());
+            LOG.warnf(firstFailure, "Outbox relay: %d of %d events not sent, retrying in %d s",
+                    unsent.size(), batch.size(), retryDelaySeconds);
+        }
+        return batch.size();
+    }
+
+    // a claimed row is not claimed again before its sends have timed out and the outcome is written
+    private long leaseMillis() {
+        return sendTimeoutMillis + retryDelaySeconds * 1000L;
+    }
+
+    // all sends are in flight at once; each slot is null once acknowledged, or the send's failure
+    // (a timeout for one not acknowledged within send-timeout-millis)
+    private List<Throwable> send(List<Pending> batch) {
+        Duration timeout = Duration.ofMillis(sendTimeoutMillis);
+        List<Uni<Throwable>> sends = new ArrayList<>(batch.size());
+        for (Pending event : batch) {
+            sends.add(publisher.send(event.aggregateId(), event.eventType(), event.idempotencyKey(), event.payload())
+                    .ifNoItem().after(timeout).fail()
+                    .onItem().transform(v -> (Throwable) null)
+                    .onFailure().recoverWithItem(e -> e));
+        }
+        return Uni.join().all(sends).andFailFast().await().indefinitely();
+    }
+
+    private void awaitNotification() {
+        if (publisher.relayDelayMillis() > 0) {
+            // rows are left to the direct path for a while, so a fresh commit is not worth waking for
+            metrics.wakeups("timeout").increment();
+            sleep(idleWaitMillis);
+            return;
+        }
+        try {
+            Connection conn = listener();
+            PGConnection pg = conn.unwrap(PGConnection.class);
+            if (pg.getNotifications(idleWaitMillis).length > 0) {
+                metrics.wakeups("notify").increment();
+            } else {
+                metrics.wakeups("timeout").increment();
+            }
+        } catch (SQLException e) {
+            // fall back to polling until the listener reconnects
+            LOG.warnf("Outbox relay listener unavailable (%s); polling", e.getMessage());
+            closeListener();
+            metrics.wakeups("timeout").increment();
+            sleep(idleWaitMillis);
+        }
+    }
+
+    private Connection listener() throws SQLException {
+        Connection conn = listener;
+        if (conn == null) {
+            conn = DriverManager.getConnection(url, username, password);
+            try (Statement st = conn.createStatement()) {
+                st.execute("LISTEN outbox_events");
+            }
+            listener = conn;
+        }
+        return conn;
+    }
+
+    private void closeListener() {
+        Connection conn = listener;
+        listener = null;
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException ignored) {
+                // already broken
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package infrastructure.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One journaled command: everything needed to apply it to the database later.
+ *
+ * Encoding: byte type, long account ID, long amount (micro-units), then request ID and order ID
+ * as a short byte length (-1 for null) followed by UTF-8 bytes.
+ */
+record JournalEntry(byte type, long accountId, long amountMicros, String requestId, String orderId) {
+
+    static final byte RESERVE_CASH = 1;
+    static final byte RELEASE_CASH = 2;
+
+    static final int MAX_STRING_BYTES = Short.MAX_VALUE;
+
+    String op() {
+        return type == RESERVE_CASH ? "reserve_cash" : "unreserve_cash";
+    }
+
+    /**
+     * Encoded entry, or null if an ID is too long to journal.
+     */
+    ByteBuffer encode() {
+        byte[] request = bytes(requestId);
+        byte[] order = bytes(orderId);
+        if ((request != null && request.length > MAX_STRING_BYTES) || (order != null && order.length > MAX_STRING_BYTES)) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(1 + 2 * Long.BYTES + size(request) + size(order));
+        buf.put(type).putLong(accountId).putLong(amountMicros);
+        put(buf, request);
+        put(buf, order);
+        return buf.flip();
+    }
+
+    static JournalEntry decode(ByteBuffer buf) {
+        byte type = buf.get();
+        long accountId = buf.getLong();
+        long amountMicros = buf.getLong();
+        return new JournalEntry(type, accountId, amountMicros, string(buf), string(buf));
+    }
+
+    private static byte[] bytes(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int size(byte[] b) {
+        return Short.BYTES + (b == null ? 0 : b.length);
+    }
+
+    private static void put(ByteBuffer buf, byte[] b) {
+        if (b == null) {
+            buf.putShort((short) -1);
+        } else {
+            buf.putShort((short) b.length).put(b);
+        }
+    }
+
+    private static String string(ByteBuffer buf) {
+        short length = buf.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] b = new byte[length];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,218 @@
+package infrastructure.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only, checksummed journal in memory-mapped segment files, one directory per shard.
+ *
+ * Record layout: int body length, int CRC32C of the body, body (long sequence, payload). The length
+ * is written last, so a record is only visible once complete; segments are preallocated zeroed, and
+ * a zero length marks the end. Reading a segment stops at the first record whose checksum does not
+ * match, i.e. a torn write at its tail. Every open starts a fresh segment, so an old tail is never
+ * written over.
+ *
+ * The snapshot file holds the sequence up to which entries are known to be in the database;
+ * replay starts after it and segments wholly below it are deleted. Single-threaded.
+ */
+final class MappedJournal implements AutoCloseable {
+
+    private static final int HEADER = 2 * Integer.BYTES;
+    private static final String SUFFIX = ".journal";
+    private static final String SNAPSHOT = "snapshot";
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+    private final CRC32C crc = new CRC32C();
+
+    private MappedByteBuffer current;
+    private int forcedPosition;
+    private long nextSeq;
+    private long snapshotSeq;
+
+    private MappedJournal(Path dir, int segmentBytes) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Opens the journal for replay; call {@link #startWriting()} before appending.
+     */
+    static MappedJournal open(Path dir, int segmentBytes) {
+        MappedJournal journal = new MappedJournal(dir, segmentBytes);
+        try {
+            Files.createDirectories(dir);
+            try (Stream<Path> files = Files.list(dir)) {
+                files.filter(f -> f.getFileName().toString().endsWith(SUFFIX)).forEach(f -> {
+                    String name = f.getFileName().toString();
+                    journal.segments.put(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), f);
+                });
+            }
+            journal.snapshotSeq = journal.readSnapshot();
+            long[] last = {journal.snapshotSeq};
+            journal.replay(journal.snapshotSeq, (seq, body) -> last[0] = seq);
+            journal.nextSeq = last[0] + 1;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open journal " + dir, e);
+        }
+        return journal;
+    }
+
+    long snapshotSeq() {
+        return snapshotSeq;
+    }
+
+    long lastSeq() {
+        return nextSeq - 1;
+    }
+
+    /**
+     * Feeds every intact record after {@code afterSeq} to the consumer, in order.
+     */
+    void replay(long afterSeq, BiConsumer<Long, ByteBuffer> consumer) {
+        for (Path segment : segments.values()) {
+            ByteBuffer buf;
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read journal segment " + segment, e);
+            }
+            while (buf.remaining() >= HEADER) {
+                int start = buf.position();
+                int length = buf.getInt(start);
+                if (length <= 0 || length > buf.remaining() - HEADER) {
+                    break;
+                }
+                ByteBuffer body = buf.slice(start + HEADER, length);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != buf.getInt(start + Integer.BYTES)) {
+                    // torn tail; the next segment was started by a later open
+                    break;
+                }
+                long seq = body.getLong();
+                if (seq > afterSeq) {
+                    consumer.accept(seq, body);
+                }
+                buf.position(start + HEADER + length);
+            }
+        }
+    }
+
+    void startWriting() {
+        roll();
+    }
+
+    /**
+     * Appends a record and returns its sequence. Not durable until {@link #force()}.
+     */
+    long append(ByteBuffer payload) {
+        int length = Long.BYTES + payload.remaining();
+        if (HEADER + length > segmentBytes) {
+            throw new IllegalArgumentException("Journal record of " + length + " bytes exceeds the segment size");
+        }
+        if (current.remaining() < HEADER + length) {
+            force();
+            roll();
+        }
+        long seq = nextSeq++;
+        int start = current.position();
+        current.position(start + HEADER);
+        current.putLong(seq).put(payload);
+        crc.reset();
+        crc.update(current.slice(start + HEADER, length));
+        current.putInt(start + Integer.BYTES, (int) crc.getValue());
+        current.putInt(start, length);
+        return seq;
+    }
+
+    void force() {
+        int position = current.position();
+        if (position > forcedPosition) {
+            current.force(forcedPosition, position - forcedPosition);
+            forcedPosition = position;
+        }
+    }
+
+    /**
+     * Records that everything up to {@code seq} is in the database and drops segments below it.
+     */
+    void snapshot(long seq) {
+        try {
+            Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+            ByteBuffer buf = ByteBuffer.allocate(Long.BYTES + Integer.BYTES).putLong(seq);
+            crc.reset();
+            crc.update(buf.array(), 0, Long.BYTES);
+            buf.putInt((int) crc.getValue()).flip();
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(buf);
+                channel.force(true);
+            }
+            Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            snapshotSeq = seq;
+
+            // a segment is done once the next one starts at or below seq + 1; the newest always stays
+            Map.Entry<Long, Path> first = segments.firstEntry();
+            while (first != null) {
+                Long next = segments.higherKey(first.getKey());
+                if (next == null || next - 1 > seq) {
+                    break;
+                }
+                Files.deleteIfExists(first.getValue());
+                segments.remove(first.getKey());
+                first = segments.firstEntry();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write journal snapshot in " + dir, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (current != null) {
+            force();
+            current = null;
+        }
+    }
+
+    private void roll() {
+        Path segment = dir.resolve(String.format("%020d%s", nextSeq, SUFFIX));
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            current = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create journal segment " + segment, e);
+        }
+        forcedPosition = 0;
+        segments.put(nextSeq, segment);
+    }
+
+    private long readSnapshot() throws IOException {
+        Path file = dir.resolve(SNAPSHOT);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buf.remaining() != Long.BYTES + Integer.BYTES) {
+            return 0;
+        }
+        crc.reset();
+        crc.update(buf.array(), 0, Long.BYTES);
+        long seq = buf.getLong();
+        return (int) crc.getValue() == buf.getInt() ? seq : 0;
+    }
+}
@@ -0,0 +1,482 @@
+package infrastructure.journal;
+
+import domain.model.result.CommandResult;
+import infrastructure.metrics.ShardMetrics;
+import infrastructure.repository.AccountStateCache;
+import infrastructure.repository.BalanceWriteRepository;
+import infrastructure.repository.DslProvider;
+import infrastructure.repository.IdempotencyFilter;
+import infrastructure.repository.IdempotencyFilter.Table;
+import infrastructure.repository.OpenReservationIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.jooq.DSLContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Optional write-behind persistence for cash reserves and releases.
+ *
+ * On a shard thread, a reserve or release whose account is in the shard's state cache is decided
+ * in memory, appended to the shard's {@link MappedJournal} and acknowledged once the append is
+ * forced to disk; no transaction runs on the command path. Journaled commands are applied to
+ * {@code accounts}, {@code account_ledger} and {@code outbox_events} in batches on the same thread:
+ * when flush-batch entries are pending, when the oldest one is flush-interval old and the shard is
+ * idle, and before anything else on the thread touches the database, so the database is always
+ * caught up before it is read. Anything the journal cannot decide (a cache miss, an unknown
+ * reservation) returns null and takes the normal path.
+ *
+ * An acknowledged entry must never be refused when it is applied, so nothing else may write an
+ * account while it has pending entries. Before a slot or a hot account changes shard, the handoff
+ * barrier applies every pending entry of the shard it leaves ({@link #flushAll}), so the new owner
+ * reads what was acknowledged. A cluster lease can lapse without any barrier running, so the
+ * journal cannot be combined with cluster mode and startup fails if both are enabled. Nor with group
+ * commit: a journaled command is acknowledged and applied to the cache on its own, which a batch
+ * transaction that later rolls back could not undo.
+ *
+ * The snapshot written every snapshot-interval records how far the database has caught up. At
+ * startup each shard's journal tail after its snapshot is replayed into the database before any
+ * shard touches it. Replay is idempotent: entries already in the ledger are skipped.
+ */
+@ApplicationScoped
+public class WriteBehindJournal {
+
+    private static final Logger log = Logger.getLogger(WriteBehindJournal.class);
+
+    private static final long RETRY_MAX_MILLIS = 1000;
+
+    @ConfigProperty(name = "account.shard.journal.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "account.shard.journal.dir", defaultValue = "data/journal")
+    String dir;
+
+    @ConfigProperty(name = "account.shard.journal.segment-mb", defaultValue = "64")
+    int segmentMb;
+
+    @ConfigProperty(name = "account.shard.journal.flush-batch", defaultValue = "256")
+    int flushBatch;
+
+    @ConfigProperty(name = "account.shard.journal.flush-interval-millis", defaultValue = "20")
+    long flushIntervalMillis;
+
+    @ConfigProperty(name = "account.shard.journal.snapshot-interval-millis", defaultValue = "1000")
+    long snapshotIntervalMillis;
+
+    @ConfigProperty(name = "account.cluster.enabled", defaultValue = "false")
+    boolean clusterEnabled;
+
+    @ConfigProperty(name = "account.shard.group-commit.enabled", defaultValue = "false")
+    boolean groupCommitEnabled;
+
+    @Inject DslProvider dsl;
+    @Inject BalanceWriteRepository balances;
+    @Inject AccountStateCache stateCache;
+    @Inject IdempotencyFilter idempotency;
+    @Inject OpenReservationIndex openReservations;
+    @Inject ShardMetrics metrics;
+
+    private final ThreadLocal<Shard> shard = new ThreadLocal<>();
+    private final CountDownLatch recovered = new CountDownLatch(1);
+
+    void onStart(@Observes StartupEvent event) {
+        if (!enabled) {
+            recovered.countDown();
+            return;
+        }
+        if (clusterEnabled) {
+            // another node may take over a slot whose lease lapsed while entries were still pending
+            throw new IllegalStateException(
+                    "account.shard.journal.enabled and account.cluster.enabled cannot both be true");
+        }
+        if (groupCommitEnabled) {
+            // a rolled-back batch would abort commands whose journal entries and cache changes stand
+            throw new IllegalStateException(
+                    "account.shard.journal.enabled and account.shard.group-commit.enabled cannot both be true");
+        }
+        recover();
+    }
+
+    /**
+     * Gives the calling shard thread its journal. No-op when the journal is disabled.
+     */
+    public void bindShard(String name) {
+        if (!enabled) {
+            return;
+        }
+        Shard s = new Shard(name);
+        shard.set(s);
+        dsl.beforeAccess(() -> catchUp(s));
+        metrics.registerJournalLag(name, s, Shard::pendingCount, Shard::lagSeconds);
+    }
+
+    /**
+     * Flushes what is left and closes the calling thread's journal.
+     */
+    public void unbindShard() {
+        Shard s = shard.get();
+        if (s == null) {
+            return;
+        }
+        dsl.beforeAccess(null);
+        shard.remove();
+        flush(s);
+        if (s.journal != null) {
+            if (s.pending.isEmpty()) {
+                s.journal.snapshot(s.appliedSeq);
+            }
+            s.journal.close();
+        }
+    }
+
+    /**
+     * Applies every pending entry of the calling shard, retrying until the database has taken them
+     * all. Runs in the handoff barrier, before the shard's accounts move to another executor.
+     */
+    public void flushAll() {
+        Shard s = shard.get();
+        if (s == null) {
+            return;
+        }
+        awaitRecovered();
+        long backoffMillis = 10;
+        while (true) {
+            flush(s);
+            if (s.pending.isEmpty()) {
+                return;
+            }
+            // the accounts must not change owner with acknowledged entries still unapplied
+            log.warnf("Shard %s holds a handoff until %d journal entries are applied", s.name, s.pending.size());
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoffMillis));
+            backoffMillis = Math.min(backoffMillis * 2, RETRY_MAX_MILLIS);
+        }
+    }
+
+    /**
+     * Blocks until the journal tails from the last run are in the database.
+     */
+    public void awaitRecovered() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                recovered.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reserves from memory and the journal; null means run the command against the database.
+     */
+    public CommandResult reserveCash(long accountId, String requestId, String orderId, long amountMicros) {
+        Shard s = writable();
+        if (s == null) {
+            return null;
+        }
+        if (s.pendingIds.contains(requestId) || seen(s, requestId)) {
+            return CommandResult.duplicate();
+        }
+        return switch (stateCache.adjust(accountId, -amountMicros, amountMicros)) {
+            case MISS -> null;
+            case NOT_FOUND -> CommandResult.accountNotFound();
+            case SUSPENDED -> CommandResult.accountSuspended();
+            case INSUFFICIENT -> CommandResult.insufficientFunds();
+            case PASS -> {
+                JournalEntry entry = new JournalEntry(JournalEntry.RESERVE_CASH, accountId, amountMicros, requestId, orderId);
+                if (!append(s, entry, requestId)) {
+                    yield null;
+                }
+                idempotency.recordAfterCommit(Table.ACCOUNT_LEDGER, requestId);
+                openReservations.cashReservedAfterCommit(requestId, accountId, amountMicros, orderId);
+                yield CommandResult.ok();
+            }
+        };
+    }
+
+    /**
+     * Releases from memory and the journal; null means run the command against the database.
+     */
+    public CommandResult releaseCash(long accountId, String requestId) {
+        Shard s = writable();
+        if (s == null) {
+            return null;
+        }
+        String unreserveRequestId = "un:" + requestId;
+        if (s.pendingIds.contains(unreserveRequestId)) {
+            return CommandResult.duplicate();
+        }
+        OpenReservationIndex.CashReservation open = openReservations.cash(accountId, requestId);
+        if (open == null) {
+            return null;
+        }
+        if (seen(s, unreserveRequestId)) {
+            return CommandResult.duplicate();
+        }
+        long amountMicros = open.amountMicros();
+        if (stateCache.adjust(accountId, amountMicros, -amountMicros) != AccountStateCache.Verdict.PASS) {
+            return null;
+        }
+        JournalEntry entry = new JournalEntry(JournalEntry.RELEASE_CASH, accountId, amountMicros, requestId, open.orderId());
+        if (!append(s, entry, unreserveRequestId)) {
+            return null;
+        }
+        idempotency.recordAfterCommit(Table.ACCOUNT_LEDGER, unreserveRequestId);
+        openReservations.cashReleasedAfterCommit(requestId);
+        return CommandResult.ok();
+    }
+
+    /**
+     * Called by an idle shard: applies pending entries once the oldest is due, and snapshots.
+     */
+    public void flushIfDue() {
+        Shard s = shard.get();
+        if (s == null || s.journal == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (!s.pending.isEmpty() && now - s.oldestPendingNanos >= TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis)) {
+            flush(s);
+        }
+        if (s.appliedSeq > s.journal.snapshotSeq()
+                && now - s.lastSnapshotNanos >= TimeUnit.MILLISECONDS.toNanos(snapshotIntervalMillis)) {
+            s.journal.snapshot(s.appliedSeq);
+            s.lastSnapshotNanos = now;
+        }
+    }
+
+    private Shard writable() {
+        Shard s = shard.get();
+        if (s == null || recovered.getCount() > 0) {
+            return null;
+        }
+        if (s.journal == null) {
+            s.journal = MappedJournal.open(Path.of(dir, s.name), segmentMb * 1024 * 1024);
+            s.appliedSeq = s.journal.lastSeq();
+            s.journal.startWriting();
+        }
+        return s;
+    }
+
+    private boolean seen(Shard s, String requestId) {
+        // a read that must not flush the pending entries first
+        s.bypass = true;
+        try {
+            return idempotency.seen(dsl.get(), Table.ACCOUNT_LEDGER, requestId);
+        } finally {
+            s.bypass = false;
+        }
+    }
+
+    /**
+     * Appends and forces the entry. On failure the in-memory change is dropped and false returned.
+     */
+    private boolean append(Shard s, JournalEntry entry, String key) {
+        ByteBuffer payload = entry.encode();
+        if (payload == null) {
+            stateCache.invalidate(entry.accountId());
+            return false;
+        }
+        try {
+            int bytes = payload.remaining();
+            long seq = s.journal.append(payload);
+            long startNanos = System.nanoTime();
+            s.journal.force();
+            s.forceTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            s.appends.increment();
+            s.bytes.increment(bytes);
+
+            if (s.pending.isEmpty()) {
+                s.oldestPendingNanos = System.nanoTime();
+            }
+            s.pending.add(new Pending(seq, entry, key));
+            s.pendingIds.add(key);
+            s.pendingCount = s.pending.size();
+        } catch (RuntimeException e) {
+            log.errorf(e, "Journal append on shard %s failed, running the command against the database", s.name);
+            stateCache.invalidate(entry.accountId());
+            return false;
+        }
+        if (s.pending.size() >= flushBatch) {
+            flush(s);
+        }
+        return true;
+    }
+
+    private void catchUp(Shard s) {
+        if (s.flushing || s.bypass) {
+            return;
+        }
+        awaitRecovered();
+        flush(s);
+    }
+
+    private void flush(Shard s) {
+        if (s.pending.isEmpty() || s.flushing) {
+            return;
+        }
+        s.flushing = true;
+        long startNanos = System.nanoTime();
+        List<Pending> batch = new ArrayList<>(s.pending);
+        long upTo = batch.get(batch.size() - 1).seq();
+        try {
+            dsl.transactionResult(cfg -> {
+                DSLContext tx = cfg.dsl();
+                for (Pending p : batch) {
+                    apply(tx, p.entry());
+                }
+                // inside a group commit this runs only once the enclosing transaction commits
+                dsl.afterCommit(() -> flushed(s, upTo));
+                return null;
+            });
+            s.flushTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        } catch (RuntimeException e) {
+            log.errorf(e, "Journal flush on shard %s failed, %d entries stay pending", s.name, batch.size());
+        } finally {
+            s.flushing = false;
+        }
+    }
+
+    private void flushed(Shard s, long upTo) {
+        while (!s.pending.isEmpty() && s.pending.peekFirst().seq() <= upTo) {
+            s.pendingIds.remove(s.pending.pollFirst().key());
+        }
+        s.appliedSeq = Math.max(s.appliedSeq, upTo);
+        s.pendingCount = s.pending.size();
+        if (!s.pending.isEmpty()) {
+            s.oldestPendingNanos = System.nanoTime();
+        }
+    }
+
+    private void apply(DSLContext tx, JournalEntry entry) {
+        boolean applied = switch (entry.type()) {
+            case JournalEntry.RESERVE_CASH -> balances.applyJournaledReserve(
+                    tx, entry.accountId(), entry.requestId(), entry.orderId(), entry.amountMicros());
+            case JournalEntry.RELEASE_CASH -> balances.applyJournaledRelease(
+                    tx, entry.accountId(), entry.requestId(), entry.orderId(), entry.amountMicros());
+            default -> throw new IllegalStateException("Unknown journal entry type " + entry.type());
+        };
+        if (!applied) {
+            // acknowledged already; the database wins, so drop what this node believes about the account
+            metrics.journalDivergence(entry.op()).increment();
+            stateCache.invalidate(entry.accountId());
+            log.errorf("Journaled %s %s of account %d was refused by the database",
+                    entry.op(), entry.requestId(), entry.accountId());
+        }
+    }
+
+    private void recover() {
+        long startNanos = System.nanoTime();
+        long entries = 0;
+        Path root = Path.of(dir);
+        try {
+            if (Files.isDirectory(root)) {
+                List<Path> shardDirs;
+                try (Stream<Path> dirs = Files.list(root)) {
+                    shardDirs = dirs.filter(Files::isDirectory).sorted().toList();
+                }
+                for (Path shardDir : shardDirs) {
+                    entries += recover(shardDir);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list journals in " + root, e);
+        }
+        long durationNanos = System.nanoTime() - startNanos;
+        metrics.recordJournalRecovery(durationNanos, entries);
+        log.infof("Journal recovery replayed %d entries in %d ms", entries, durationNanos / 1_000_000);
+        recovered.countDown();
+    }
+
+    private long recover(Path shardDir) {
+        try (MappedJournal journal = MappedJournal.open(shardDir, segmentMb * 1024 * 1024)) {
+            List<JournalEntry> batch = new ArrayList<>();
+            long[] count = new long[1];
+            journal.replay(journal.snapshotSeq(), (seq, body) -> {
+                batch.add(JournalEntry.decode(body));
+                if (batch.size() >= flushBatch) {
+                    count[0] += applyAll(batch);
+                }
+            });
+            count[0] += applyAll(batch);
+            journal.snapshot(journal.lastSeq());
+            return count[0];
+        }
+    }
+
+    private int applyAll(List<JournalEntry> batch) {
+        int n = batch.size();
+        if (n > 0) {
+            dsl.transactionResult(cfg -> {
+                for (JournalEntry entry : batch) {
+                    apply(cfg.dsl(), entry);
+                }
+                return null;
+            });
+            batch.clear();
+        }
+        return n;
+    }
+
+    private record Pending(long seq, JournalEntry entry, String key) {}
+
+    // shard-thread only, except the volatile gauge fields
+    private final class Shard {
+
+        final String name;
+        final ArrayDeque<Pending> pending = new ArrayDeque<>();
+        final Set<String> pendingIds = new HashSet<>();
+        final Counter appends;
+        final Counter bytes;
+        final Timer forceTimer;
+        final Timer flushTimer;
+
+        MappedJournal journal;
+        long appliedSeq;
+        long lastSnapshotNanos = System.nanoTime();
+        boolean flushing;
+        boolean bypass;
+
+        volatile int pendingCount;
+        volatile long oldestPendingNanos;
+
+        Shard(String name) {
+            this.name = name;
+            this.appends = metrics.journalAppends(name);
+            this.bytes = metrics.journalBytes(name);
+            this.forceTimer = metrics.journalForce(name);
+            this.flushTimer = metrics.journalFlush(name);
+        }
+
+        double pendingCount() {
+            return pendingCount;
+        }
+
+        double lagSeconds() {
+            return pendingCount == 0 ? 0 : (System.nanoTime() - oldestPendingNanos) / 1e9;
+        }
+    }
+}
@@ -1,12 +1,16 @@
 package infrastructure.metrics;
 
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 
 import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
 
 @ApplicationScoped
 public class DbMetrics {
@@ -28,6 +32,14 @@ public class DbMetrics {
         timer.record(durationNanos, TimeUnit.NANOSECONDS);
     }
 
+    public void recordRoundTrips(String op, long roundTrips) {
+        DistributionSummary.builder("account_db_round_trips")
+                .description("Statements and commits sent to the database per command")
+                .tag("op", op)
+                .register(registry)
+                .record(roundTrips);
+    }
+
     public void incrementDuplicate(String op) {
         Counter c = Counter.builder("account_db_duplicate_total")
                 .description("Duplicate key / request handling")
@@ -51,4 +63,177 @@ public class DbMetrics {
                 .register(registry);
         c.increment();
     }
+
+    public Counter statementCache(String shard, String result) {
+        return Counter.builder("account_db_statement_cache_total")
+                .description("Prepared statement cache lookups on pinned shard connections")
+                .tag("shard", shard)
+                .tag("result", result) // hit / miss
+                .register(registry);
+    }
+
+    public Counter pinnedReconnects(String shard) {
+        return Counter.builder("account_db_pinned_reconnect_total")
+                .description("Pinned shard connections re-established after a failure")
+                .tag("shard", shard)
+                .register(registry);
+    }
+
+    public void incrementPrecheckReject(String op, String code) {
+        Counter c = Counter.builder("account_precheck_reject_total")
+                .description("Commands rejected from cached account state without a transaction")
+                .tag("op", op)
+                .tag("code", code)
+                .register(registry);
+        c.increment();
+    }
+
+    public Counter stateCache(String shard, String result) {
+        return Counter.builder("account_state_cache_total")
+                .description("Shard-local account state cache lookups and evictions")
+                .tag("shard", shard)
+                .tag("result", result) // hit / miss
+                .register(registry);
+    }
+
+    public Counter positionCache(String shard, String result) {
+        return Counter.builder("account_position_cache_total")
+                .description("Shard-local position cache lookups")
+                .tag("shard", shard)
+                .tag("result", result) // hit / miss
+                .register(registry);
+    }
+
+    public <T> void registerPositionStore(String shard, T store, ToDoubleFunction<T> entries,
+                                          ToDoubleFunction<T> capacity, ToDoubleFunction<T> evictions) {
+        Gauge.builder("account_position_store_entries", store, entries)
+                .description("Positions held in the shard's position cache")
+                .tag("shard", shard)
+                .register(registry);
+        Gauge.builder("account_position_store_capacity", store, capacity)
+                .description("Positions the shard's position cache can hold")
+                .tag("shard", shard)
+                .register(registry);
+        FunctionCounter.builder("account_position_store_evictions_total", store, evictions)
+                .description("Positions evicted from the shard's position cache")
+                .tag("shard", shard)
+                .register(registry);
+    }
+
+    public <T> void registerStateStore(String shard, T store, ToDoubleFunction<T> entries, ToDoubleFunction<T> capacity,
+                                       ToDoubleFunction<T> bytes, ToDoubleFunction<T> evictions) {
+        Gauge.builder("account_state_store_entries", store, entries)
+                .description("Accounts held in the shard's off-heap state store")
+                .tag("shard", shard)
+                .register(registry);
+        Gauge.builder("account_state_store_capacity", store, capacity)
+                .description("Accounts the shard's state store can hold within its memory budget")
+                .tag("shard", shard)
+                .register(registry);
+        Gauge.builder("account_state_store_bytes", store, bytes)
+                .description("Off-heap bytes reserved by the shard's state store")
+                .tag("shard", shard)
+                .register(registry);
+        Gauge.builder("account_state_store_bytes_per_account", store,
+                        s -> bytes.applyAsDouble(s) / Math.max(1, entries.applyAsDouble(s)))
+                .description("Off-heap bytes per cached account (reserved bytes / live entries)")
+                .tag("shard", shard)
+                .register(registry);
+        FunctionCounter.builder("account_state_store_evictions_total", store, evictions)
+                .description("Accounts evicted from the shard's state store")
+                .tag("shard", shard)
+                .register(registry);
+    }
+
+    public Counter idempotencyCheck(String table, String result) {
+        return Counter.builder("account_idempotency_check_total")
+                .description("Duplicate checks screened by the in-memory idempotency filter")
+                .tag("table", table)
+                .tag("result", result) // skipped / recent_hit / duplicate / false_positive
+                .register(registry);
+    }
+
+    public <T> void registerIdempotencyFilter(String table, T filter, ToDoubleFunction<T> bytes,
+                                              ToDoubleFunction<T> falsePositiveRate) {
+        Gauge.builder("account_idempotency_filter_bytes", filter, bytes)
+                .description("Heap bytes held by the idempotency Bloom filters")
+                .tag("table", table)
+                .register(registry);
+        Gauge.builder("account_idempotency_filter_fpp", filter, falsePositiveRate)
+                .description("Estimated false-positive rate of the idempotency filter at its current fill")
+                .tag("table", table)
+                .register(registry);
+    }
+
+    public Counter ledgerPartitions(String table, String action) {
+        return Counter.builder("account_ledger_partitions_total")
+                .description("Ledger partitions created ahead or retired by the maintenance job")
+                .tag("table", table)
+                .tag("action", action) // created / archived / dropped
+                .register(registry);
+    }
+
+    public <T> void registerProcessedEvents(T store, ToDoubleFunction<T> bytes, ToDoubleFunction<T> partitions,
+                                            ToDoubleFunction<T> windowSeconds, ToDoubleFunction<T> topicRetentionSeconds) {
+        Gauge.builder("account_processed_events_bytes", store, bytes)
+                .description("Size of processed_events (all partitions, with indexes) at the last maintenance run")
+                .register(registry);
+        Gauge.builder("account_processed_events_partitions", store, partitions)
+                .description("Daily partitions of processed_events")
+                .register(registry);
+        Gauge.builder("account_processed_events_window_seconds", store, windowSeconds)
+                .description("Dedup window over which fill event IDs are looked up")
+                .register(registry);
+        Gauge.builder("account_fill_topic_retention_seconds", store, topicRetentionSeconds)
+                .description("Retention of the fills topic as read at startup; should not exceed the dedup window")
+                .register(registry);
+    }
+
+    public void recordDedupPrune(int partitionsDropped, long durationNanos) {
+        Timer.builder("account_processed_events_prune_seconds")
+                .description("Time to detach and drop expired processed_events partitions")
+                .register(registry)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+        Counter.builder("account_processed_events_pruned_partitions_total")
+                .description("processed_events partitions dropped after leaving the dedup window")
+                .register(registry)
+                .increment(partitionsDropped);
+    }
+
+    public Counter moneyBackfill(String table, String result) {
+        return Counter.builder("account_money_backfill_total")
+                .description("Rows given their BIGINT money columns by the backfill, and batches retried after a lock timeout")
+                .tag("table", table)
+                .tag("result", result) // rows / lock_timeout
+                .register(registry);
+    }
+
+    public <T> void registerMoneyBackfill(T backfill, ToDoubleFunction<T> pendingTables) {
+        Gauge.builder("account_money_backfill_pending_tables", backfill, pendingTables)
+                .description("Tables whose BIGINT money columns are not backfilled yet")
+                .register(registry);
+    }
+
+    public <T> void registerOpenReservations(String kind, T index, ToDoubleFunction<T> size) {
+        Gauge.builder("account_open_reservations", index, size)
+                .description("Open reservations held in the in-memory index")
+                .tag("kind", kind) // cash / position
+                .register(registry);
+    }
+
+    public Counter warmupRows(String shard, String table) {
+        return Counter.builder("account_warmup_rows_total")
+                .description("Rows streamed into shard state by the startup warm-up")
+                .tag("shard", shard)
+                .tag("table", table) // accounts / positions / open_reservations
+                .register(registry);
+    }
+
+    public void recordRebuild(String what, long durationNanos) {
+        Timer.builder("account_index_rebuild_seconds")
+                .description("Time to rebuild an in-memory index from the database at startup")
+                .tag("index", what)
+                .register(registry)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+    }
 }
@@ -0,0 +1,56 @@
+package infrastructure.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.concurrent.TimeUnit;
+
+@ApplicationScoped
+public class OutboxMetrics {
+
+    private final MeterRegistry registry;
+
+    @Inject
+    public OutboxMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public Counter events(String path, String result) {
+        return Counter.builder("account_outbox_events_total")
+                .description("Outbox events sent to Kafka")
+                .tag("path", path) // relay / direct
+                .tag("result", result) // published / failed / relayed
+                .register(registry);
+    }
+
+    public void recordBatch(String path, int size) {
+        DistributionSummary.builder("account_outbox_batch_size")
+                .description("Outbox events per relay batch or per direct-path mark statement")
+                .tag("path", path)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(size);
+    }
+
+    /**
+     * Time from the event's creation (in the command's transaction) until Kafka acknowledged it.
+     */
+    public void recordLag(String path, long lagMillis) {
+        Timer.builder("account_outbox_lag_seconds")
+                .description("Outbox event creation to Kafka acknowledgement")
+                .tag("path", path)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(Math.max(lagMillis, 0), TimeUnit.MILLISECONDS);
+    }
+
+    public Counter wakeups(String reason) {
+        return Counter.builder("account_outbox_relay_wakeups_total")
+                .tag("reason", reason) // notify / timeout
+                .register(registry);
+    }
+}
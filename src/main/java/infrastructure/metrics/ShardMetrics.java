@@ -1,68 +1,193 @@
 package infrastructure.metrics;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
-import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
-import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
 
 @ApplicationScoped
 public class ShardMetrics {
 
     private final MeterRegistry registry;
-    private final int shardCount;
-    private AtomicInteger[] queueDepths;
 
     @Inject
-    public ShardMetrics(MeterRegistry registry,
-                        @ConfigProperty(name = "account.shard.count", defaultValue = "16") int shardCount) {
+    public ShardMetrics(MeterRegistry registry) {
         this.registry = registry;
-        this.shardCount = shardCount;
     }
 
-    @PostConstruct
-    void init() {
-        queueDepths = new AtomicInteger[shardCount];
-        for (int i = 0; i < shardCount; i++) {
-            AtomicInteger depth = new AtomicInteger(0);
-            queueDepths[i] = depth;
+    public <T> void registerQueue(String shard, T queue, ToDoubleFunction<T> depth) {
+        Gauge.builder("account_shard_queue_depth", queue, depth)
+                .description("Current queue depth per shard")
+                .tag("shard", shard)
+                .register(registry);
+    }
+
+    public <T> void registerLanes(String shard, T lanes, ToDoubleFunction<T> count) {
+        Gauge.builder("account_shard_lanes", lanes, count)
+                .description("Accounts with queued or running work per shard, for per-account lanes")
+                .tag("shard", shard)
+                .register(registry);
+    }
+
+    public Timer processingTimer(String shard) {
+        return Timer.builder("account_shard_processing_seconds")
+                .description("Task processing latency per shard")
+                .tag("shard", shard)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public Timer waitTimer(String shard) {
+        return Timer.builder("account_shard_wait_seconds")
+                .description("Queue waiting time per shard")
+                .tag("shard", shard)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public DistributionSummary commitBatchSize(String shard) {
+        return DistributionSummary.builder("account_shard_commit_batch_size")
+                .description("Commands per group-commit transaction")
+                .tag("shard", shard)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public Timer commitTimer(String shard) {
+        return Timer.builder("account_shard_commit_seconds")
+                .description("Group-commit transaction latency per shard")
+                .tag("shard", shard)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public void registerQueueCapacity(String shard, int capacity) {
+        Gauge.builder("account_shard_queue_capacity", () -> capacity)
+                .description("Queue bound per shard")
+                .tag("shard", shard)
+                .register(registry);
+    }
+
+    public <T> void registerAdmission(T limiter, ToDoubleFunction<T> limit, ToDoubleFunction<T> inflight) {
+        Gauge.builder("account_admission_limit", limiter, limit)
+                .description("Current adaptive concurrency limit")
+                .register(registry);
+        Gauge.builder("account_admission_inflight", limiter, inflight)
+                .description("Commands admitted and not yet completed")
+                .register(registry);
+    }
+
+    public void incrementRejected(String reason) {
+        Counter c = Counter.builder("account_admission_rejected_total")
+                .description("Commands rejected before reaching a shard")
+                .tag("reason", reason) // CONCURRENCY_LIMIT / QUEUE_FULL / NOT_OWNER
+                .register(registry);
+        c.increment();
+    }
 
-            Gauge.builder("account_shard_queue_depth", depth, AtomicInteger::get)
-                    .description("Current queue depth per shard")
-                    .tag("shard", String.valueOf(i))
+    public <T> void registerSlots(String shard, T router, ToDoubleFunction<T> owned) {
+        Gauge.builder("account_shard_slots", router, owned)
+                .description("Virtual slots owned per shard")
+                .tag("shard", shard)
+                .register(registry);
+    }
+
+    public <T> void registerSkew(T router, ToDoubleFunction<T> skew) {
+        Gauge.builder("account_shard_skew_ratio", router, skew)
+                .description("Busiest shard load over the mean since the last slot table change")
+                .register(registry);
+    }
+
+    public <T> void registerIsolatedCount(T isolated, ToDoubleFunction<T> count) {
+        Gauge.builder("account_shard_isolated_accounts", isolated, count)
+                .description("Hot accounts currently running on dedicated lanes")
+                .register(registry);
+    }
+
+    public void markIsolated(long accountId, String lane, boolean isolated) {
+        String account = String.valueOf(accountId);
+        if (isolated) {
+            Gauge.builder("account_shard_isolated", () -> 1)
+                    .description("Isolated hot account and the lane it runs on")
+                    .tag("account", account)
+                    .tag("lane", lane)
                     .register(registry);
+        } else {
+            Gauge gauge = registry.find("account_shard_isolated").tag("account", account).gauge();
+            if (gauge != null) {
+                registry.remove(gauge);
+            }
         }
+        Counter.builder("account_shard_isolation_total")
+                .description("Hot account isolation changes")
+                .tag("action", isolated ? "isolate" : "restore")
+                .register(registry)
+                .increment();
     }
 
-    public void updateQueueDepth(int shardId, int depth) {
-        if (shardId < 0 || shardId >= shardCount) {
-            return;
-        }
-        queueDepths[shardId].set(depth);
+    public Counter journalAppends(String shard) {
+        return Counter.builder("account_journal_appends_total")
+                .description("Commands appended to the shard's write-behind journal")
+                .tag("shard", shard)
+                .register(registry);
     }
 
-    public void recordProcessingTime(int shardId, long durationNanos) {
-        Timer timer = Timer.builder("account_shard_processing_seconds")
-                .description("Task processing latency per shard")
-                .tag("shard", String.valueOf(shardId))
-                .publishPercentileHistogram()
+    public Counter journalBytes(String shard) {
+        return Counter.builder("account_journal_bytes_total")
+                .description("Bytes appended to the shard's write-behind journal")
+                .tag("shard", shard)
                 .register(registry);
+    }
 
-        timer.record(durationNanos, TimeUnit.NANOSECONDS);
+    public Timer journalForce(String shard) {
+        return Timer.builder("account_journal_force_seconds")
+                .description("Time to make journal appends durable before acknowledging")
+                .tag("shard", shard)
+                .publishPercentileHistogram()
+                .register(registry);
     }
 
-    public void recordWaitTime(int shardId, long waitNanos) {
-        Timer timer = Timer.builder("account_shard_wait_seconds")
-                .description("Queue waiting time per shard")
-                .tag("shard", String.valueOf(shardId))
+    public Timer journalFlush(String shard) {
+        return Timer.builder("account_journal_flush_seconds")
+                .description("Time to apply a batch of journaled commands to the database")
+                .tag("shard", shard)
                 .publishPercentileHistogram()
                 .register(registry);
+    }
+
+    public <T> void registerJournalLag(String shard, T journal, ToDoubleFunction<T> pending,
+                                       ToDoubleFunction<T> lagSeconds) {
+        Gauge.builder("account_journal_pending_entries", journal, pending)
+                .description("Journaled commands not yet applied to the database")
+                .tag("shard", shard)
+                .register(registry);
+        Gauge.builder("account_journal_flush_lag_seconds", journal, lagSeconds)
+                .description("Age of the oldest journaled command not yet applied to the database")
+                .tag("shard", shard)
+                .register(registry);
+    }
+
+    public Counter journalDivergence(String op) {
+        return Counter.builder("account_journal_divergence_total")
+                .description("Acknowledged journaled commands the database refused when applied")
+                .tag("op", op)
+                .register(registry);
+    }
 
-        timer.record(waitNanos, TimeUnit.NANOSECONDS);
+    public void recordJournalRecovery(long durationNanos, long entries) {
+        Timer.builder("account_journal_recovery_seconds")
+                .description("Time to replay the journal tails at startup")
+                .register(registry)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+        Counter.builder("account_journal_recovered_entries_total")
+                .description("Journal entries replayed at startup")
+                .register(registry)
+                .increment(entries);
     }
 }
@@ -0,0 +1,286 @@
+package infrastructure.repository;
+
+import domain.model.money.Money;
+import infrastructure.metrics.DbMetrics;
+import io.micrometer.core.instrument.Counter;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jooq.Record;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongPredicate;
+
+/**
+ * Shard-local cache of account balance, reserved, currency and status, used to reject commands
+ * that are bound to fail before opening a transaction.
+ *
+ * Each shard thread binds its own {@link OffHeapAccountTable}, so lookups are unsynchronized and
+ * allocation-free, and tens of millions of accounts cost no heap. The memory budget is split
+ * evenly across shard threads. Entries are only stored after the writing transaction commits.
+ *
+ * An account is only written on the shard thread that owns it, which keeps its entry current in
+ * place. Writers off the shard threads (the reactive path) instead bump a shared striped counter
+ * that every entry is stamped with, and a stamp that no longer matches is a miss. When a shard hands
+ * accounts over (slot moves, hot-account lanes), it drops their entries with
+ * {@link #drop}; so does every shard for the slots whose lease this node acquires in cluster mode. Entries do not expire unless {@code expire-after-seconds} is set.
+ *
+ * The cache only ever rejects. Commands it lets through still hit the guarded UPDATE.
+ */
+@ApplicationScoped
+public class AccountStateCache {
+
+    private static final int STRIPES = 1 << 14;
+
+    @ConfigProperty(name = "account.shard.state-cache.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "account.shard.state-cache.memory-budget-mb", defaultValue = "2048")
+    long memoryBudgetMb;
+
+    @ConfigProperty(name = "account.shard.state-cache.expire-after-seconds", defaultValue = "0")
+    int expireAfterSeconds;
+
+    @ConfigProperty(name = "account.shard.count", defaultValue = "16")
+    int shardCount;
+
+    @ConfigProperty(name = "account.shard.hot.lanes", defaultValue = "2")
+    int hotLanes;
+
+    @Inject DbMetrics metrics;
+
+    private final ThreadLocal<Segment> segment = new ThreadLocal<>();
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+
+    public enum Verdict { MISS, PASS, NOT_FOUND, SUSPENDED, INSUFFICIENT }
+
+    public record AccountState(boolean exists, long balanceMicros, long reservedMicros,
+                               String currency, String status) {
+
+        public static final AccountState MISSING = new AccountState(false, 0, 0, null, null);
+    }
+
+    /**
+     * Gives the calling shard thread its own table. No-op when the cache is disabled.
+     */
+    public void bindShard(String shard) {
+        if (!enabled) {
+            return;
+        }
+        long budget = memoryBudgetMb * 1024 * 1024 / Math.max(1, shardCount + hotLanes);
+        OffHeapAccountTable table = new OffHeapAccountTable(budget);
+        metrics.registerStateStore(shard, table,
+                OffHeapAccountTable::size, OffHeapAccountTable::capacity,
+                OffHeapAccountTable::bytes, OffHeapAccountTable::evictions);
+        segment.set(new Segment(table, metrics.stateCache(shard, "hit"), metrics.stateCache(shard, "miss")));
+    }
+
+    /**
+     * True on a shard thread with a cache segment.
+     */
+    public boolean active() {
+        return segment.get() != null;
+    }
+
+    /**
+     * Take before reading the account; pass to {@link #put} so a concurrent write discards the entry.
+     */
+    public long version(long accountId) {
+        return versions.get(stripe(accountId));
+    }
+
+    /**
+     * Judges a command from cached state. A negative amount skips the balance check.
+     */
+    public Verdict check(long accountId, long amountMicros) {
+        Segment s = segment.get();
+        if (s == null) {
+            return Verdict.MISS;
+        }
+        OffHeapAccountTable table = s.table;
+        int off = table.find(accountId);
+        if (off < 0 || !current(table, off, accountId)) {
+            s.misses.increment();
+            return Verdict.MISS;
+        }
+        s.hits.increment();
+        return judge(table.status(off), table.balance(off), amountMicros);
+    }
+
+    /**
+     * Currency of a cached account, or null. A currency never changes, so any entry will do.
+     */
+    public String currency(long accountId) {
+        Segment s = segment.get();
+        if (s == null) {
+            return null;
+        }
+        int off = s.table.find(accountId);
+        return off < 0 ? null : OffHeapAccountTable.unpackCurrency(s.table.currency(off));
+    }
+
+    /**
+     * Changes a cached account in place for a command decided from memory (the write-behind journal).
+     * PASS means the entry was updated. MISS means the caller has to go to the
+     * database; any other verdict rejects the change, which must leave balance and reserved non-negative.
+     */
+    public Verdict adjust(long accountId, long balanceDeltaMicros, long reservedDeltaMicros) {
+        Segment s = segment.get();
+        if (s == null) {
+            return Verdict.MISS;
+        }
+        OffHeapAccountTable table = s.table;
+        int off = table.find(accountId);
+        if (off < 0 || !current(table, off, accountId)) {
+            s.misses.increment();
+            return Verdict.MISS;
+        }
+        s.hits.increment();
+
+        byte status = table.status(off);
+        if (status != OffHeapAccountTable.STATUS_ACTIVE) {
+            return judge(status, 0, -1);
+        }
+        long balance = Money.add(table.balance(off), balanceDeltaMicros);
+        long reserved = Money.add(table.reserved(off), reservedDeltaMicros);
+        if (balance < 0 || reserved < 0) {
+            return Verdict.INSUFFICIENT;
+        }
+        table.update(off, balance, reserved, table.version(off));
+        return Verdict.PASS;
+    }
+
+    /**
+     * Same judgement for state just loaded from the database.
+     */
+    public static Verdict judge(AccountState state, long amountMicros) {
+        return judge(state.exists() ? OffHeapAccountTable.statusCode(state.status()) : OffHeapAccountTable.STATUS_MISSING,
+                state.balanceMicros(), amountMicros);
+    }
+
+    /**
+     * Records state read or written under {@code expectedVersion}. If a writer off the shard
+     * threads got in between, the entry is dropped instead.
+     */
+    public void put(long accountId, AccountState state, long expectedVersion) {
+        Segment s = segment.get();
+        if (s == null) {
+            return;
+        }
+        if (versions.get(stripe(accountId)) != expectedVersion) {
+            s.table.remove(accountId);
+            return;
+        }
+        store(s, accountId, state, expectedVersion);
+    }
+
+    /**
+     * Versions of every stripe. Take before opening a bulk read and pass to {@link #warm}.
+     */
+    public long[] snapshotVersions() {
+        long[] snapshot = new long[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            snapshot[i] = versions.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * {@link #put} for a bulk read that started at {@code snapshot}.
+     */
+    public void warm(long accountId, AccountState state, long[] snapshot) {
+        put(accountId, state, snapshot[stripe(accountId)]);
+    }
+
+    /**
+     * Drops the local entry; used when a write's outcome is unknown.
+     */
+    public void remove(long accountId) {
+        Segment s = segment.get();
+        if (s != null) {
+            s.table.remove(accountId);
+        }
+    }
+
+    /**
+     * Call after committing a write made outside the cache. On a shard thread, which owns the account,
+     * only its own entry can be stale and is dropped; anywhere else the account's stripe is bumped,
+     * which invalidates the entry on every shard.
+     */
+    public void invalidate(long accountId) {
+        Segment s = segment.get();
+        if (s != null) {
+            s.table.remove(accountId);
+        } else {
+            versions.incrementAndGet(stripe(accountId));
+        }
+    }
+
+    /**
+     * Drops the calling shard's entries for every account {@code accounts} accepts, before the shard
+     * hands them over. Returns how many were dropped.
+     */
+    public int drop(LongPredicate accounts) {
+        Segment s = segment.get();
+        return s == null ? 0 : s.table.removeIf(accounts);
+    }
+
+    /**
+     * State of an existing account from a row with balance_micros, reserved_micros, currency and status.
+     */
+    public static AccountState toState(Record rec) {
+        return new AccountState(true,
+                rec.get("balance_micros", Long.class),
+                rec.get("reserved_micros", Long.class),
+                rec.get("currency", String.class),
+                rec.get("status", String.class));
+    }
+
+    /**
+     * State of an existing account from balance and reserved micro-units, currency and status, read by
+     * index from {@code column} on.
+     */
+    public static AccountState toState(ResultSet rs, int column) throws SQLException {
+        return new AccountState(true,
+                rs.getLong(column),
+                rs.getLong(column + 1),
+                rs.getString(column + 2),
+                rs.getString(column + 3));
+    }
+
+    private static Verdict judge(byte status, long balanceMicros, long amountMicros) {
+        if (status == OffHeapAccountTable.STATUS_MISSING) {
+            return Verdict.NOT_FOUND;
+        }
+        if (status != OffHeapAccountTable.STATUS_ACTIVE) {
+            return Verdict.SUSPENDED;
+        }
+        if (amountMicros >= 0 && balanceMicros < amountMicros) {
+            return Verdict.INSUFFICIENT;
+        }
+        return Verdict.PASS;
+    }
+
+    private boolean current(OffHeapAccountTable table, int off, long accountId) {
+        return table.version(off) == versions.get(stripe(accountId))
+                && (expireAfterSeconds <= 0 || table.ageSeconds(off) <= expireAfterSeconds);
+    }
+
+    private static void store(Segment s, long accountId, AccountState state, long version) {
+        if (accountId <= 0 || (state.exists() && (state.balanceMicros() < 0 || state.reservedMicros() < 0))) {
+            s.table.remove(accountId);
+            return;
+        }
+        s.table.put(accountId, state.balanceMicros(), state.reservedMicros(),
+                state.exists() ? OffHeapAccountTable.statusCode(state.status()) : OffHeapAccountTable.STATUS_MISSING,
+                OffHeapAccountTable.packCurrency(state.currency()), version);
+    }
+
+    private static int stripe(long accountId) {
+        return (int) (accountId ^ (accountId >>> 32)) & (STRIPES - 1);
+    }
+
+    private record Segment(OffHeapAccountTable table, Counter hits, Counter misses) {}
+}
@@ -3,23 +3,51 @@ package infrastructure.repository;
 import infrastructure.metrics.DbMetrics;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
-import org.jooq.DSLContext;
+import org.jooq.Table;
+import org.jooq.TableField;
 import org.jooq.exception.DataAccessException;
 
+import static infrastructure.repository.CompiledQuery.slot;
+import static infrastructure.repository.schema.Tables.ACCOUNTS;
+import static infrastructure.repository.schema.Tables.ACCOUNT_LEDGER;
+import static infrastructure.repository.schema.Tables.POSITIONS;
+import static infrastructure.repository.schema.Tables.POSITION_LEDGER;
+import static org.jooq.impl.DSL.deleteFrom;
+import static org.jooq.impl.DSL.inline;
+import static org.jooq.impl.DSL.insertInto;
+
 @ApplicationScoped
 public class AccountWriteRepository {
 
-    @Inject DSLContext dsl;
+    private static final CompiledQuery CREATE = CompiledQuery.of(
+        insertInto(ACCOUNTS,
+                ACCOUNTS.ACCOUNT_ID, ACCOUNTS.ACCOUNT_NO, ACCOUNTS.BALANCE_MICROS, ACCOUNTS.RESERVED_MICROS,
+                ACCOUNTS.CURRENCY, ACCOUNTS.STATUS)
+            .values(slot(ACCOUNTS.ACCOUNT_ID), slot(ACCOUNTS.ACCOUNT_NO), inline(0L),
+                inline(0L), inline("USD"), inline("ACTIVE")));
+
+    // child records first to avoid FK constraint violations; processed_events rows stay and expire with
+    // the dedup window, so a late fill for the account is still recognised
+    private static final CompiledQuery[] DELETES = {
+        delete(POSITION_LEDGER, POSITION_LEDGER.ACCOUNT_ID),
+        delete(POSITIONS, POSITIONS.ACCOUNT_ID),
+        delete(ACCOUNT_LEDGER, ACCOUNT_LEDGER.ACCOUNT_ID),
+        delete(ACCOUNTS, ACCOUNTS.ACCOUNT_ID),
+    };
+
+    @Inject DslProvider dsl;
     @Inject DbMetrics metrics;
+    @Inject AccountStateCache stateCache;
+    @Inject PositionCache positionCache;
 
     public boolean createAccount(long accountId) {
         long startNanos = System.nanoTime();
         try {
-            int count = dsl.execute(
-                    "INSERT INTO accounts (account_id, account_no, balance, reserved, currency, status) " +
-                            "VALUES (?, ?, 0, 0, 'USD', 'ACTIVE')",
-                    accountId, "ACC" + accountId
-            );
+            int count = CREATE.execute(dsl.get(), ps -> {
+                ps.setLong(1, accountId);
+                ps.setString(2, "ACC" + accountId);
+            });
+            stateCache.invalidate(accountId);
             metrics.recordWrite("create_account", System.nanoTime() - startNanos);
             return count > 0;
         } catch (DataAccessException e) {
@@ -36,17 +64,13 @@ public class AccountWriteRepository {
     public boolean deleteAccount(long accountId) {
         long startNanos = System.nanoTime();
         try {
-            // Delete child records first to avoid FK constraint violations
-            dsl.execute("DELETE FROM position_ledger WHERE account_id = ?", accountId);
-            dsl.execute("DELETE FROM positions WHERE account_id = ?", accountId);
-            dsl.execute("DELETE FROM account_ledger WHERE account_id = ?", accountId);
-            dsl.execute("DELETE FROM processed_events WHERE account_id = ?", accountId);
-
-            // Now delete the account
-            int count = dsl.execute(
-                    "DELETE FROM accounts WHERE account_id = ?",
-                    accountId
-            );
+            int count = 0;
+            for (CompiledQuery delete : DELETES) {
+                // the last one deletes the account
+                count = delete.execute(dsl.get(), ps -> ps.setLong(1, accountId));
+            }
+            stateCache.invalidate(accountId);
+            positionCache.invalidate(accountId);
             metrics.recordWrite("delete_account", System.nanoTime() - startNanos);
             return count > 0;
         } catch (Exception e) {
@@ -56,6 +80,10 @@ public class AccountWriteRepository {
         }
     }
 
+    private static CompiledQuery delete(Table<?> table, TableField<?, Long> accountId) {
+        return CompiledQuery.of(deleteFrom(table).where(accountId.eq(slot(accountId))));
+    }
+
     private boolean isDuplicate(Exception e) {
         Throwable t = e;
         while (t != null) {
@@ -3,169 +3,288 @@ package infrastructure.repository;
 import domain.model.outbox.OutboxEvent;
 import domain.model.result.CommandResult;
 import infrastructure.metrics.DbMetrics;
+import infrastructure.repository.AccountStateCache.AccountState;
+import infrastructure.repository.IdempotencyFilter.Table;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.jooq.DSLContext;
-import org.jooq.Record;
+import org.jooq.Field;
 import org.jooq.exception.DataAccessException;
 
-import java.math.BigDecimal;
 import java.time.OffsetDateTime;
+import java.util.function.Function;
+
+import static infrastructure.repository.CompiledQuery.slot;
+import static infrastructure.repository.schema.Tables.ACCOUNTS;
+import static infrastructure.repository.schema.Tables.ACCOUNT_LEDGER;
+import static org.jooq.impl.DSL.currentOffsetDateTime;
+import static org.jooq.impl.DSL.inline;
+import static org.jooq.impl.DSL.select;
+import static org.jooq.impl.DSL.update;
 
 @ApplicationScoped
 public class BalanceWriteRepository {
 
-    @Inject DSLContext dsl;
+    private static final String BALANCE = MoneyColumns.micros("a.balance");
+    private static final String RESERVED = MoneyColumns.micros("a.reserved");
+
+    // One statement per command: the ledger row is inserted only if the account row (locked) passes the
+    // guard and the request is new, the balance moves only if the ledger row went in, the outbox event
+    // follows the balance, and the outcome is computed from the statement's snapshot. Amounts are
+    // micro-units throughout.
+    static final String RESERVE_SQL =
+        "WITH p AS (" +
+        "  SELECT ?::bigint AS account_id, ?::text AS request_id, ?::text AS order_id, " +
+        "         ?::bigint AS amount, ?::timestamptz AS created_at" +
+        "), led AS (" +
+        "  INSERT INTO account_ledger (account_id, entry_type, request_id, order_id, amount_micros, created_at) " +
+        "  SELECT a.account_id, 'RESERVE', p.request_id, p.order_id, p.amount, p.created_at " +
+        "  FROM accounts a, p WHERE a.account_id = p.account_id AND " + BALANCE + " >= p.amount " +
+        "  AND NOT EXISTS (" + LedgerPartitions.recentRequest("account_ledger", "p.account_id", "p.request_id") + ") " +
+        "  FOR UPDATE OF a " +
+        "  ON CONFLICT DO NOTHING RETURNING account_id" +
+        "), acc AS (" +
+        "  UPDATE accounts a " +
+        "  SET balance_micros = " + BALANCE + " - p.amount, reserved_micros = " + RESERVED + " + p.amount, " +
+        "      updated_at = now() " +
+        "  FROM p WHERE a.account_id = (SELECT account_id FROM led) " +
+        "  RETURNING a.account_id, a.balance_micros, a.reserved_micros, a.currency, a.status" +
+        "), " + OutboxRepository.insertFrom("acc") + " " +
+        "SELECT CASE " +
+        "  WHEN acc.account_id IS NOT NULL THEN 'OK' " +
+        "  WHEN EXISTS (" + LedgerPartitions.recentRequest("account_ledger", "p.account_id", "p.request_id") + ") " +
+        "    THEN 'DUPLICATE' " +
+        "  WHEN NOT EXISTS (SELECT 1 FROM accounts a WHERE a.account_id = p.account_id) THEN 'ACCOUNT_NOT_FOUND' " +
+        "  WHEN EXISTS (SELECT 1 FROM accounts a " +
+        "               WHERE a.account_id = p.account_id AND " + BALANCE + " < p.amount) THEN 'INSUFFICIENT_FUNDS' " +
+        "  ELSE 'DUPLICATE' " + // the ledger insert conflicted with a request committed after the snapshot
+        "END AS outcome, acc.balance_micros, acc.reserved_micros, acc.currency, acc.status " +
+        "FROM p LEFT JOIN acc ON true";
+
+    static final String RELEASE_SQL =
+        "WITH p AS (" +
+        "  SELECT ?::bigint AS account_id, ?::text AS request_id, ?::text AS order_id, " +
+        "         ?::bigint AS amount, ?::timestamptz AS created_at" +
+        "), led AS (" +
+        "  INSERT INTO account_ledger (account_id, entry_type, request_id, order_id, amount_micros, created_at) " +
+        "  SELECT a.account_id, 'UNRESERVE', p.request_id, p.order_id, p.amount, p.created_at " +
+        "  FROM accounts a, p WHERE a.account_id = p.account_id AND " + RESERVED + " >= p.amount " +
+        "  AND NOT EXISTS (" + LedgerPartitions.recentRequest("account_ledger", "p.account_id", "p.request_id") + ") " +
+        "  FOR UPDATE OF a " +
+        "  ON CONFLICT DO NOTHING RETURNING account_id" +
+        "), acc AS (" +
+        "  UPDATE accounts a " +
+        "  SET reserved_micros = " + RESERVED + " - p.amount, balance_micros = " + BALANCE + " + p.amount, " +
+        "      updated_at = now() " +
+        "  FROM p WHERE a.account_id = (SELECT account_id FROM led) " +
+        "  RETURNING a.account_id, a.balance_micros, a.reserved_micros, a.currency, a.status" +
+        "), " + OutboxRepository.insertFrom("acc") + " " +
+        "SELECT CASE " +
+        "  WHEN acc.account_id IS NOT NULL THEN 'OK' " +
+        "  WHEN EXISTS (" + LedgerPartitions.recentRequest("account_ledger", "p.account_id", "p.request_id") + ") " +
+        "    THEN 'DUPLICATE' " +
+        "  WHEN NOT EXISTS (SELECT 1 FROM accounts a WHERE a.account_id = p.account_id) THEN 'ACCOUNT_NOT_FOUND' " +
+        "  WHEN EXISTS (SELECT 1 FROM accounts a " +
+        "               WHERE a.account_id = p.account_id AND " + RESERVED + " < p.amount) THEN 'INSUFFICIENT_FUNDS' " +
+        "  ELSE 'DUPLICATE' " +
+        "END AS outcome, acc.balance_micros, acc.reserved_micros, acc.currency, acc.status " +
+        "FROM p LEFT JOIN acc ON true";
+
+    private static final CompiledQuery RESERVE = CompiledQuery.fenced(RESERVE_SQL + " WHERE " + CompiledQuery.FENCE);
+    private static final CompiledQuery RELEASE = CompiledQuery.fenced(RELEASE_SQL + " WHERE " + CompiledQuery.FENCE);
+
+    static final CompiledQuery CURRENCY = CompiledQuery.of(
+        select(ACCOUNTS.CURRENCY).from(ACCOUNTS).where(ACCOUNTS.ACCOUNT_ID.eq(slot(ACCOUNTS.ACCOUNT_ID))));
+
+    private static final Field<Long> BALANCE_MICROS = MoneyColumns.micros(ACCOUNTS.BALANCE, ACCOUNTS.BALANCE_MICROS);
+    private static final Field<Long> RESERVED_MICROS = MoneyColumns.micros(ACCOUNTS.RESERVED, ACCOUNTS.RESERVED_MICROS);
+
+    private static final CompiledQuery ACCOUNT_STATE = CompiledQuery.of(
+        select(BALANCE_MICROS, RESERVED_MICROS, ACCOUNTS.CURRENCY, ACCOUNTS.STATUS)
+            .from(ACCOUNTS)
+            .where(ACCOUNTS.ACCOUNT_ID.eq(slot(ACCOUNTS.ACCOUNT_ID))));
+
+    private static final CompiledQuery OPEN_RESERVE = CompiledQuery.of(
+        select(MoneyColumns.micros(ACCOUNT_LEDGER.AMOUNT, ACCOUNT_LEDGER.AMOUNT_MICROS), ACCOUNT_LEDGER.ORDER_ID)
+            .from(ACCOUNT_LEDGER)
+            .where(ACCOUNT_LEDGER.ACCOUNT_ID.eq(slot(ACCOUNT_LEDGER.ACCOUNT_ID)))
+            .and(ACCOUNT_LEDGER.REQUEST_ID.eq(slot(ACCOUNT_LEDGER.REQUEST_ID)))
+            .and(ACCOUNT_LEDGER.ENTRY_TYPE.eq(inline("RESERVE"))));
+
+    private static final CompiledQuery DEPOSIT = CompiledQuery.fenced(
+        update(ACCOUNTS)
+            .set(ACCOUNTS.BALANCE_MICROS, BALANCE_MICROS.plus(slot(ACCOUNTS.BALANCE_MICROS)))
+            .set(ACCOUNTS.UPDATED_AT, currentOffsetDateTime())
+            .where(ACCOUNTS.ACCOUNT_ID.eq(slot(ACCOUNTS.ACCOUNT_ID)))
+            .and(CompiledQuery.fence())
+            .returningResult(ACCOUNTS.BALANCE_MICROS, RESERVED_MICROS, ACCOUNTS.CURRENCY, ACCOUNTS.STATUS));
+
+    private static final CompiledQuery WITHDRAW = CompiledQuery.fenced(
+        update(ACCOUNTS)
+            .set(ACCOUNTS.BALANCE_MICROS, BALANCE_MICROS.minus(slot(ACCOUNTS.BALANCE_MICROS)))
+            .set(ACCOUNTS.UPDATED_AT, currentOffsetDateTime())
+            .where(ACCOUNTS.ACCOUNT_ID.eq(slot(ACCOUNTS.ACCOUNT_ID)))
+            .and(BALANCE_MICROS.ge(slot(ACCOUNTS.BALANCE_MICROS)))
+            .and(CompiledQuery.fence())
+            .returningResult(ACCOUNTS.BALANCE_MICROS, RESERVED_MICROS, ACCOUNTS.CURRENCY, ACCOUNTS.STATUS));
+
+    // outcome row of a reserve or release; state is set only when it went through
+    private record CashWrite(String outcome, AccountState state) {}
+
+    private record OpenReserve(long amountMicros, String orderId) {}
+
+    @Inject DslProvider dsl;
     @Inject DbMetrics metrics;
     @Inject OutboxRepository outboxRepo;
+    @Inject OutboxPublisher outboxPublisher;
+    @Inject AccountStateCache stateCache;
+    @Inject IdempotencyFilter idempotency;
+    @Inject OpenReservationIndex openReservations;
 
-    public CommandResult reserveCash(long accountId, String requestId, String orderId, BigDecimal amount) {
+    public CommandResult reserveCash(long accountId, String requestId, String orderId, long amountMicros) {
         long startNanos = System.nanoTime();
+        long roundTrips = dsl.roundTrips();
+        long version = stateCache.version(accountId);
 
         try {
-            CommandResult result = dsl.transactionResult(cfg -> {
-                DSLContext tx = cfg.dsl();
-
-                boolean exists = tx.fetchExists(
-                    tx.selectOne().from("account_ledger").where("request_id = ?", requestId)
-                );
-                if (exists) {
+            CommandResult rejected = precheck(accountId, amountMicros, version);
+            if (rejected != null) {
+                // a retried reserve that already went through must still answer DUPLICATE
+                if (idempotency.seen(dsl.get(), Table.ACCOUNT_LEDGER, requestId)) {
                     metrics.incrementDuplicate("reserve_cash");
                     return CommandResult.duplicate();
                 }
-
-                Record rec = tx.fetchOne(
-                    "UPDATE accounts " +
-                    "SET balance = balance - ?, reserved = reserved + ?, updated_at = now() " +
-                    "WHERE account_id = ? AND balance >= ? " +
-                    "RETURNING account_id, account_no, balance, reserved, currency, status",
-                    amount, amount, accountId, amount
-                );
-
-                if (rec == null) {
-                    System.out.println(amount);
-                    metrics.incrementInsufficient("reserve_cash");
-                    return CommandResult.insufficientFunds();
-                }
-
-                tx.execute(
-                    "INSERT INTO account_ledger (account_id, entry_type, request_id, order_id, amount, created_at) " +
-                            "VALUES (?, 'RESERVE', ?, ?, ?, ?::timestamptz)",
-                    accountId, requestId, orderId, amount, OffsetDateTime.now()
-                );
-
-                String currency = rec.get("currency", String.class);
-                OutboxEvent event = OutboxEvent.accountReserved(accountId, amount, requestId, orderId, currency);
-                outboxRepo.insert(event);
-
-                return CommandResult.ok();
-            });
-
-            long durationNanos = System.nanoTime() - startNanos;
-            metrics.recordWrite("reserve_cash", durationNanos);
+                metrics.incrementPrecheckReject("reserve_cash", rejected.errorCode());
+                return rejected;
+            }
+
+            CashWrite written = writeReserve(dsl.get(), accountId, requestId, orderId, amountMicros);
+            CommandResult result = cashOutcome("reserve_cash", accountId, written, version);
+            if ("OK".equals(result.errorCode())) {
+                idempotency.recordAfterCommit(Table.ACCOUNT_LEDGER, requestId);
+                openReservations.cashReservedAfterCommit(requestId, accountId, amountMicros, orderId);
+            }
+
+            metrics.recordWrite("reserve_cash", System.nanoTime() - startNanos);
             return result;
 
         } catch (DataAccessException e) {
             long durationNanos = System.nanoTime() - startNanos;
             metrics.recordWrite("reserve_cash", durationNanos);
+            if (IdempotencyFilter.isDuplicateKey(e)) {
+                metrics.incrementDuplicate("reserve_cash");
+                return CommandResult.duplicate();
+            }
             metrics.incrementError("reserve_cash");
-            e.printStackTrace();
             return CommandResult.fail("INTERNAL_ERROR", e.getMessage());
+        } finally {
+            metrics.recordRoundTrips("reserve_cash", dsl.roundTrips() - roundTrips);
         }
     }
 
     public CommandResult unreserveCash(long accountId, String requestId) {
         long startNanos = System.nanoTime();
+        long roundTrips = dsl.roundTrips();
+        long version = stateCache.version(accountId);
 
         try {
-            CommandResult result = dsl.transactionResult(cfg -> {
-                DSLContext tx = cfg.dsl();
-
-                var queryResult = tx.fetchOne(
-                    "SELECT amount, order_id FROM account_ledger " +
-                    "WHERE account_id = ? AND request_id = ? AND entry_type = 'RESERVE'",
-                    accountId, requestId
-                );
-
-                if (queryResult == null) {
+            long amountMicros;
+            String orderId;
+            OpenReservationIndex.CashReservation open = openReservations.cash(accountId, requestId);
+            if (open != null) {
+                amountMicros = open.amountMicros();
+                orderId = open.orderId();
+            } else {
+                OpenReserve reserve = OPEN_RESERVE.fetchOne(dsl.get(),
+                    ps -> {
+                        ps.setLong(1, accountId);
+                        ps.setString(2, requestId);
+                    },
+                    rs -> new OpenReserve(rs.getLong(1), rs.getString(2)));
+
+                if (reserve == null) {
                     return CommandResult.accountNotFound();
                 }
 
-                BigDecimal amount = queryResult.get("amount", BigDecimal.class);
-                String orderId = queryResult.get("order_id", String.class);
-                String unreserveRequestId = "un:" + requestId;
-
-                boolean exists = tx.fetchExists(
-                    tx.selectOne().from("account_ledger")
-                        .where("request_id = ? AND entry_type = 'UNRESERVE'", unreserveRequestId)
-                );
-                if (exists) {
-                    metrics.incrementDuplicate("unreserve_cash");
-                    return CommandResult.duplicate();
-                }
-
-                var rec = tx.fetchOne(
-                    "UPDATE accounts " +
-                    "SET reserved = reserved - ?, balance = balance + ?, updated_at = now() " +
-                    "WHERE account_id = ? AND reserved >= ? " +
-                    "RETURNING account_id, account_no, balance, reserved, currency, status",
-                    amount, amount, accountId, amount
-                );
-
-                if (rec == null) {
-                    metrics.incrementInsufficient("unreserve_cash");
-                    return CommandResult.insufficientFunds();
-                }
-
-                tx.execute(
-                    "INSERT INTO account_ledger (account_id, entry_type, request_id, order_id, amount, created_at) " +
-                    "VALUES (?, 'UNRESERVE', ?, ?, ?, ?::timestamptz)",
-                    accountId, unreserveRequestId, orderId, amount, OffsetDateTime.now()
-                );
+                amountMicros = reserve.amountMicros();
+                orderId = reserve.orderId();
+            }
+            String unreserveRequestId = "un:" + requestId;
 
-                String currency = rec.get("currency", String.class);
-                OutboxEvent event = OutboxEvent.accountReleased(accountId, amount, unreserveRequestId, orderId, currency);
-                outboxRepo.insert(event);
-
-                return CommandResult.ok();
-            });
+            CashWrite written = writeRelease(dsl.get(), accountId, unreserveRequestId, orderId, amountMicros);
+            CommandResult result = cashOutcome("unreserve_cash", accountId, written, version);
+            if ("OK".equals(result.errorCode())) {
+                idempotency.recordAfterCommit(Table.ACCOUNT_LEDGER, unreserveRequestId);
+                openReservations.cashReleasedAfterCommit(requestId);
+            }
 
-            long durationNanos = System.nanoTime() - startNanos;
-            metrics.recordWrite("unreserve_cash", durationNanos);
+            metrics.recordWrite("unreserve_cash", System.nanoTime() - startNanos);
             return result;
 
         } catch (DataAccessException e) {
             long durationNanos = System.nanoTime() - startNanos;
             metrics.recordWrite("unreserve_cash", durationNanos);
+            if (IdempotencyFilter.isDuplicateKey(e)) {
+                metrics.incrementDuplicate("unreserve_cash");
+                return CommandResult.duplicate();
+            }
             metrics.incrementError("unreserve_cash");
             return CommandResult.fail("INTERNAL_ERROR", e.getMessage());
+        } finally {
+            metrics.recordRoundTrips("unreserve_cash", dsl.roundTrips() - roundTrips);
         }
     }
 
-    public CommandResult deposit(long accountId, BigDecimal amount, String source) {
+    /**
+     * Writes a reserve that the write-behind journal already decided and acknowledged. One that is
+     * already in the ledger (a replayed entry) counts as written. False if the guarded update disagrees.
+     */
+    public boolean applyJournaledReserve(DSLContext tx, long accountId, String requestId, String orderId,
+                                         long amountMicros) {
+        String outcome = outcome(writeReserve(tx, accountId, requestId, orderId, amountMicros));
+        return "OK".equals(outcome) || "DUPLICATE".equals(outcome);
+    }
+
+    /**
+     * Release counterpart of {@link #applyJournaledReserve}; {@code requestId} is the reserve's ID.
+     */
+    public boolean applyJournaledRelease(DSLContext tx, long accountId, String requestId, String orderId,
+                                         long amountMicros) {
+        String outcome = outcome(writeRelease(tx, accountId, "un:" + requestId, orderId, amountMicros));
+        return "OK".equals(outcome) || "DUPLICATE".equals(outcome);
+    }
+
+    public CommandResult deposit(long accountId, long amountMicros, String source) {
         long startNanos = System.nanoTime();
+        long version = stateCache.version(accountId);
         try {
+            CommandResult rejected = precheck(accountId, -1, version);
+            if (rejected != null && "ACCOUNT_NOT_FOUND".equals(rejected.errorCode())) {
+                metrics.incrementPrecheckReject("deposit", rejected.errorCode());
+                return rejected;
+            }
+
             CommandResult result = dsl.transactionResult(cfg -> {
                 DSLContext tx = cfg.dsl();
 
-                Record rec = tx.fetchOne(
-                    "UPDATE accounts SET balance = balance + ?, updated_at = now() " +
-                    "WHERE account_id = ? " +
-                    "RETURNING account_id, account_no, balance, reserved, currency, status",
-                    amount, accountId
-                );
+                AccountState state = DEPOSIT.fetchOne(tx,
+                    ps -> {
+                        ps.setLong(1, amountMicros);
+                        ps.setLong(2, accountId);
+                    },
+                    rs -> AccountStateCache.toState(rs, 1));
 
-                if (rec == null) {
+                if (state == null) {
+                    stateCache.remove(accountId);
                     return CommandResult.accountNotFound();
                 }
-
-                String currency = rec.get("currency", String.class);
-                BigDecimal newBalance = rec.get("balance", BigDecimal.class);
-                BigDecimal reserved = rec.get("reserved", BigDecimal.class);
+                dsl.afterCommit(() -> stateCache.put(accountId, state, version));
 
                 // Create outbox event for deposit
-                OutboxEvent event = OutboxEvent.balanceUpdated(accountId, newBalance, reserved, currency);
+                OutboxEvent event = OutboxEvent.balanceUpdated(accountId, state.balanceMicros(),
+                        state.reservedMicros(), state.currency());
                 outboxRepo.insert(event);
+                outboxPublisher.publishAfterCommit(event);
 
                 return CommandResult.ok();
             });
@@ -179,19 +298,129 @@ public class BalanceWriteRepository {
         }
     }
 
-    public CommandResult withdraw(long accountId, BigDecimal amount, String destination) {
+    public CommandResult withdraw(long accountId, long amountMicros, String destination) {
         long startNanos = System.nanoTime();
+        long version = stateCache.version(accountId);
         try {
-            int count = dsl.execute(
-                "UPDATE accounts SET balance = balance - ?, updated_at = now() WHERE account_id = ? AND balance >= ?",
-                amount, accountId, amount
-            );
+            CommandResult rejected = precheck(accountId, amountMicros, version);
+            if (rejected != null) {
+                metrics.incrementPrecheckReject("withdraw", rejected.errorCode());
+                return rejected;
+            }
+
+            AccountState state = WITHDRAW.fetchOne(dsl.get(),
+                ps -> {
+                    ps.setLong(1, amountMicros);
+                    ps.setLong(2, accountId);
+                    ps.setLong(3, amountMicros);
+                },
+                rs -> AccountStateCache.toState(rs, 1));
             metrics.recordWrite("withdraw", System.nanoTime() - startNanos);
-            return count > 0 ? CommandResult.ok() : CommandResult.insufficientFunds();
+            if (state == null) {
+                stateCache.remove(accountId);
+                return CommandResult.insufficientFunds();
+            }
+            dsl.afterCommit(() -> stateCache.put(accountId, state, version));
+            return CommandResult.ok();
         } catch (DataAccessException e) {
             metrics.recordWrite("withdraw", System.nanoTime() - startNanos);
             metrics.incrementError("withdraw");
             return CommandResult.fail("INTERNAL_ERROR", e.getMessage());
         }
     }
+
+    /**
+     * Answers from the shard's cached account state when the command cannot succeed; null means
+     * "go to the database". On a miss the state is loaded and cached once the caller's work commits.
+     * A negative amount skips the balance check.
+     */
+    private CommandResult precheck(long accountId, long amountMicros, long version) {
+        if (!stateCache.active()) {
+            return null;
+        }
+        AccountStateCache.Verdict verdict = stateCache.check(accountId, amountMicros);
+        if (verdict == AccountStateCache.Verdict.MISS) {
+            AccountState state = ACCOUNT_STATE.fetchOne(dsl.get(),
+                ps -> ps.setLong(1, accountId),
+                rs -> AccountStateCache.toState(rs, 1));
+            AccountState loaded = state == null ? AccountState.MISSING : state;
+            dsl.afterCommit(() -> stateCache.put(accountId, loaded, version));
+            verdict = AccountStateCache.judge(loaded, amountMicros);
+        }
+
+        return switch (verdict) {
+            case NOT_FOUND -> CommandResult.accountNotFound();
+            case SUSPENDED -> CommandResult.accountSuspended();
+            case INSUFFICIENT -> CommandResult.insufficientFunds();
+            case MISS, PASS -> null;
+        };
+    }
+
+    // outcome row of the reserve statement, null if the account does not exist
+    private CashWrite writeReserve(DSLContext tx, long accountId, String requestId, String orderId, long amountMicros) {
+        return writeCash(tx, RESERVE, accountId, requestId, orderId, amountMicros, currency ->
+                OutboxEvent.accountReserved(accountId, amountMicros, requestId, orderId, currency));
+    }
+
+    private CashWrite writeRelease(DSLContext tx, long accountId, String unreserveRequestId, String orderId,
+                                   long amountMicros) {
+        return writeCash(tx, RELEASE, accountId, unreserveRequestId, orderId, amountMicros, currency ->
+                OutboxEvent.accountReleased(accountId, amountMicros, unreserveRequestId, orderId, currency));
+    }
+
+    private CashWrite writeCash(DSLContext tx, CompiledQuery statement, long accountId, String requestId,
+                                String orderId, long amountMicros, Function<String, OutboxEvent> eventOf) {
+        // the event payload carries the currency, so it has to be known before the statement runs
+        String currency = currencyOf(tx, stateCache, accountId);
+        if (currency == null) {
+            return null;
+        }
+        OutboxEvent event = eventOf.apply(currency);
+        CashWrite written = statement.fetchOne(tx,
+            ps -> {
+                ps.setLong(1, accountId);
+                ps.setString(2, requestId);
+                ps.setString(3, orderId);
+                ps.setLong(4, amountMicros);
+                ps.setObject(5, OffsetDateTime.now());
+                OutboxRepository.bindEvent(ps, 6, event);
+            },
+            rs -> new CashWrite(rs.getString(1), rs.getObject(2) == null ? null : AccountStateCache.toState(rs, 2)));
+        if (written != null && "OK".equals(written.outcome())) {
+            outboxPublisher.publishAfterCommit(event);
+        }
+        return written;
+    }
+
+    /**
+     * The account's currency from the shard's cache or the database, null if the account does not exist.
+     */
+    static String currencyOf(DSLContext tx, AccountStateCache stateCache, long accountId) {
+        String currency = stateCache.currency(accountId);
+        if (currency == null) {
+            currency = CURRENCY.fetchOne(tx, ps -> ps.setLong(1, accountId), rs -> rs.getString(1));
+        }
+        return currency;
+    }
+
+    private static String outcome(CashWrite written) {
+        return written == null ? "ACCOUNT_NOT_FOUND" : written.outcome();
+    }
+
+    private CommandResult cashOutcome(String op, long accountId, CashWrite written, long version) {
+        String outcome = outcome(written);
+        switch (outcome) {
+            case "OK" -> {
+                AccountState state = written.state();
+                dsl.afterCommit(() -> stateCache.put(accountId, state, version));
+            }
+            case "DUPLICATE" -> metrics.incrementDuplicate(op);
+            case "INSUFFICIENT_FUNDS" -> {
+                stateCache.remove(accountId);
+                metrics.incrementInsufficient(op);
+            }
+            default -> stateCache.remove(accountId);
+        }
+        return CommandResult.ofCode(outcome);
+    }
 }
@@ -0,0 +1,170 @@
+package infrastructure.repository;
+
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Param;
+import org.jooq.Query;
+import org.jooq.SQLDialect;
+import org.jooq.conf.RenderQuotedNames;
+import org.jooq.conf.Settings;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A statement rendered once and executed with positional binds, its rows read by column index.
+ *
+ * jOOQ's plain-SQL calls scan the SQL template, wrap and type every bind value and look record
+ * fields up by name on every execution. Queries on the command path are instead built against the
+ * generated schema (or, for the data-modifying CTEs, written as SQL text), rendered here when the
+ * repository class loads, and run on the context's JDBC connection. On a shard that connection's
+ * statement cache hands back the same PreparedStatement, so a call is binds, execute and reads.
+ * Executions count as round trips like any other statement.
+ *
+ * A fenced write ends with {@link #FENCE} as its last condition. Inside {@link DslProvider#fenced}
+ * work the slot and token are bound there and a stale token fails the whole statement with
+ * {@link LeaseLostException}; elsewhere the statement runs with the condition rendered as true.
+ */
+final class CompiledQuery {
+
+    private static final DSLContext RENDERER = DSL.using(SQLDialect.POSTGRES, new Settings()
+            .withRenderSchema(false)
+            .withRenderQuotedNames(RenderQuotedNames.NEVER));
+
+    @FunctionalInterface
+    interface Binder {
+        void bind(PreparedStatement ps) throws SQLException;
+    }
+
+    @FunctionalInterface
+    interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * Lease check of a fenced write; its two binds must come after every other one in the statement.
+     */
+    static final String FENCE = "shard_fence(?, ?)";
+
+    // raised by shard_fence (V12)
+    private static final String LEASE_LOST = "SL001";
+
+    private final String sql;
+    private final String fencedSql;
+    // index of the fence's slot bind, 0 when the statement is not fenced
+    private final int fenceIndex;
+
+    private CompiledQuery(String sql, String fencedSql, int fenceIndex) {
+        this.sql = sql;
+        this.fencedSql = fencedSql;
+        this.fenceIndex = fenceIndex;
+    }
+
+    /**
+     * Renders a query built with {@link #slot} placeholders; bind them in the order they appear in the SQL.
+     */
+    static CompiledQuery of(Query query) {
+        return of(RENDERER.render(query));
+    }
+
+    static CompiledQuery of(String sql) {
+        return new CompiledQuery(sql, sql, 0);
+    }
+
+    /**
+     * A write whose SQL contains {@link #FENCE} once, after all other binds.
+     */
+    static CompiledQuery fenced(String sql) {
+        int at = sql.indexOf(FENCE);
+        if (at < 0 || sql.indexOf(FENCE, at + 1) >= 0 || sql.indexOf('?', at + FENCE.length()) >= 0) {
+            throw new IllegalArgumentException("Expected one trailing " + FENCE + " in: " + sql);
+        }
+        int fenceIndex = 1;
+        for (int i = 0; i < at; i++) {
+            if (sql.charAt(i) == '?') {
+                fenceIndex++;
+            }
+        }
+        return new CompiledQuery(sql.replace(FENCE, "true"), sql, fenceIndex);
+    }
+
+    static CompiledQuery fenced(Query query) {
+        return fenced(RENDERER.render(query));
+    }
+
+    /**
+     * {@link #FENCE} as a condition for queries built with jOOQ.
+     */
+    static Condition fence() {
+        return DSL.condition("shard_fence({0}, {1})",
+                DSL.param("fence_slot", SQLDataType.INTEGER), DSL.param("fence_token", SQLDataType.BIGINT));
+    }
+
+    /**
+     * Bind placeholder with the type of a schema field.
+     */
+    static <T> Param<T> slot(Field<T> like) {
+        return DSL.param(like.getName(), like);
+    }
+
+    String sql() {
+        return sql;
+    }
+
+    /**
+     * First row mapped, or null if the statement returned none.
+     */
+    <T> T fetchOne(DSLContext ctx, Binder binder, RowMapper<T> mapper) {
+        DslProvider.Fence fence = fenceIndex > 0 ? DslProvider.fence() : null;
+        String text = fence != null ? fencedSql : sql;
+        return ctx.connectionResult(conn -> {
+            DslProvider.countRoundTrip();
+            try (PreparedStatement ps = conn.prepareStatement(text)) {
+                binder.bind(ps);
+                bindFence(ps, fence);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? mapper.map(rs) : null;
+                }
+            } catch (SQLException e) {
+                throw failure(text, e);
+            }
+        });
+    }
+
+    /**
+     * Update count.
+     */
+    int execute(DSLContext ctx, Binder binder) {
+        DslProvider.Fence fence = fenceIndex > 0 ? DslProvider.fence() : null;
+        String text = fence != null ? fencedSql : sql;
+        return ctx.connectionResult(conn -> {
+            DslProvider.countRoundTrip();
+            try (PreparedStatement ps = conn.prepareStatement(text)) {
+                binder.bind(ps);
+                bindFence(ps, fence);
+                return ps.executeUpdate();
+            } catch (SQLException e) {
+                throw failure(text, e);
+            }
+        });
+    }
+
+    private void bindFence(PreparedStatement ps, DslProvider.Fence fence) throws SQLException {
+        if (fence != null) {
+            ps.setInt(fenceIndex, fence.slot());
+            ps.setLong(fenceIndex + 1, fence.token());
+        }
+    }
+
+    private static RuntimeException failure(String text, SQLException e) {
+        if (LEASE_LOST.equals(e.getSQLState())) {
+            return new LeaseLostException(e.getMessage());
+        }
+        return new DataAccessException("SQL [" + text + "]; " + e.getMessage(), e);
+    }
+}
@@ -0,0 +1,216 @@
+package infrastructure.repository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.jooq.DSLContext;
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListener;
+import org.jooq.TransactionContext;
+import org.jooq.TransactionListener;
+import org.jooq.TransactionalCallable;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Hands repositories the DSLContext they should run on.
+ *
+ * By default that is the injected pool-backed context. A shard thread may bind its own context
+ * (e.g. an open group-commit transaction); repository calls made on that thread then join it,
+ * so statements issued through {@link #get()} - including outbox inserts - always land in the
+ * caller's transaction.
+ *
+ * Work that must only happen once the data is durable (e.g. updating in-memory state) is queued
+ * with {@link #afterCommit(Runnable)} and runs after whichever transaction owns the binding commits.
+ *
+ * A thread may also register a hook that runs before each access through this provider, e.g. a
+ * shard writing back journaled commands so the database is caught up before anything reads it.
+ *
+ * In cluster mode a command runs {@link #fenced}: its writes carry the slot's fencing token and fail
+ * if another node has taken the slot over, see {@link CompiledQuery#fenced(String)}.
+ *
+ * Statements and commits issued through these contexts are counted per thread as round trips;
+ * {@link #roundTrips()} read before and after a command gives the command's count.
+ */
+@ApplicationScoped
+public class DslProvider {
+
+    private static final ThreadLocal<Binding> BOUND = new ThreadLocal<>();
+    private static final ThreadLocal<Runnable> BEFORE_ACCESS = new ThreadLocal<>();
+    private static final ThreadLocal<Fence> FENCE = new ThreadLocal<>();
+    private static final ThreadLocal<long[]> ROUND_TRIPS = ThreadLocal.withInitial(() -> new long[1]);
+
+    private static final ExecuteListener STATEMENT_COUNTER = new ExecuteListener() {
+        @Override
+        public void executeStart(ExecuteContext ctx) {
+            ROUND_TRIPS.get()[0]++;
+        }
+    };
+
+    private static final TransactionListener COMMIT_COUNTER = new TransactionListener() {
+        @Override
+        public void commitStart(TransactionContext ctx) {
+            ROUND_TRIPS.get()[0]++;
+        }
+    };
+
+    @Inject DSLContext dsl;
+
+    @PostConstruct
+    void init() {
+        dsl = counted(dsl);
+    }
+
+    /**
+     * The context with round-trip counting attached.
+     */
+    public static DSLContext counted(DSLContext context) {
+        return DSL.using(context.configuration()
+                .deriveAppending(STATEMENT_COUNTER)
+                .deriveAppending(COMMIT_COUNTER));
+    }
+
+    /**
+     * Round trips issued by the calling thread so far.
+     */
+    public long roundTrips() {
+        return ROUND_TRIPS.get()[0];
+    }
+
+    /**
+     * Counts a statement run on a context's connection directly rather than through jOOQ.
+     */
+    static void countRoundTrip() {
+        ROUND_TRIPS.get()[0]++;
+    }
+
+    public record Binding(DSLContext dsl, boolean transactional, List<Runnable> afterCommit) {
+
+        public void runAfterCommit() {
+            for (Runnable action : afterCommit) {
+                action.run();
+            }
+            afterCommit.clear();
+        }
+    }
+
+    /**
+     * Slot lease a fenced write is checked against.
+     */
+    public record Fence(int slot, long token) {}
+
+    /**
+     * Runs {@code work} with the fenced writes it issues on this thread checked against the slot's
+     * current fencing token.
+     */
+    public <T> T fenced(int slot, long token, Supplier<T> work) {
+        Fence previous = FENCE.get();
+        FENCE.set(new Fence(slot, token));
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                FENCE.remove();
+            } else {
+                FENCE.set(previous);
+            }
+        }
+    }
+
+    /**
+     * The calling thread's fence, null outside fenced work.
+     */
+    static Fence fence() {
+        return FENCE.get();
+    }
+
+    public DSLContext get() {
+        runBeforeAccess();
+        Binding binding = BOUND.get();
+        return binding != null ? binding.dsl() : dsl;
+    }
+
+    public <T> T transactionResult(TransactionalCallable<T> work) {
+        runBeforeAccess();
+        Binding binding = BOUND.get();
+
+        // Already inside a transaction (group-commit command scope): join it, the owner commits
+        if (binding != null && binding.transactional()) {
+            return runJoined(binding.dsl(), work);
+        }
+
+        DSLContext base = binding != null ? binding.dsl() : dsl;
+        Binding[] scope = new Binding[1];
+        T result = base.transactionResult(cfg -> {
+            Binding previous = bind(cfg.dsl(), true);
+            scope[0] = BOUND.get();
+            try {
+                return work.run(cfg);
+            } finally {
+                restore(previous);
+            }
+        });
+        scope[0].runAfterCommit();
+        return result;
+    }
+
+    /**
+     * Runs the action after the current transaction commits, or right away outside a transaction.
+     * Actions of a transaction that rolls back are dropped.
+     */
+    public void afterCommit(Runnable action) {
+        Binding binding = BOUND.get();
+        if (binding != null && binding.transactional()) {
+            binding.afterCommit().add(action);
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Runs {@code hook} on the calling thread before each {@link #get()} and transaction. The hook
+     * may itself use this provider and has to guard against re-entering.
+     */
+    public void beforeAccess(Runnable hook) {
+        BEFORE_ACCESS.set(hook);
+    }
+
+    public Binding current() {
+        return BOUND.get();
+    }
+
+    public Binding bind(DSLContext context, boolean transactional) {
+        Binding previous = BOUND.get();
+        BOUND.set(new Binding(context, transactional, new ArrayList<>(0)));
+        return previous;
+    }
+
+    public void restore(Binding previous) {
+        if (previous == null) {
+            BOUND.remove();
+        } else {
+            BOUND.set(previous);
+        }
+    }
+
+    private static void runBeforeAccess() {
+        Runnable hook = BEFORE_ACCESS.get();
+        if (hook != null) {
+            hook.run();
+        }
+    }
+
+    private <T> T runJoined(DSLContext context, TransactionalCallable<T> work) {
+        try {
+            return work.run(context.configuration());
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new DataAccessException("Transactional work failed", t);
+        }
+    }
+}
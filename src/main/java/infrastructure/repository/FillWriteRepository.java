@@ -1,54 +1,146 @@
 package infrastructure.repository;
 
 import domain.model.command.ApplyFillCommand;
+import domain.model.money.Money;
 import domain.model.outbox.OutboxEvent;
 import domain.model.result.CommandResult;
 import infrastructure.metrics.DbMetrics;
+import infrastructure.repository.IdempotencyFilter.Table;
+import infrastructure.repository.PositionCache.PositionState;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.jooq.DSLContext;
-import org.jooq.Record;
 import org.jooq.exception.DataAccessException;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
 import java.time.OffsetDateTime;
 
 @ApplicationScoped
 public class FillWriteRepository {
 
-    @Inject DSLContext dsl;
+    private static final String BALANCE = MoneyColumns.micros("a.balance");
+    private static final String RESERVED = MoneyColumns.micros("a.reserved");
+    private static final String QUANTITY = MoneyColumns.units("positions.quantity");
+    private static final String AVG_PRICE = MoneyColumns.micros("positions.avg_price");
+
+    // One statement per fill. The processed_events insert is the idempotency guard: every later step
+    // runs off the rows of the one before, so a replayed event changes nothing, and the outcome code is
+    // computed from what each step returned. The event ID is looked up over the dedup window only
+    // (see ProcessedEventStore); its unique index covers a single day's partition. Amounts and prices
+    // are micro-units, quantities whole units.
+    static final String BUY_FILL_SQL =
+        "WITH p AS (" +
+        "  SELECT ?::text AS event_id, ?::bigint AS account_id, ?::int AS security_id, ?::text AS order_id, " +
+        "         ?::bigint AS amount, ?::bigint AS quantity, ?::bigint AS price, ?::timestamptz AS created_at" +
+        "), ev AS (" +
+        "  INSERT INTO processed_events (event_id, event_type, account_id, processed_at) " +
+        "  SELECT event_id, 'ORDER_FILL', account_id, created_at FROM p " +
+        "  WHERE NOT EXISTS (SELECT 1 FROM processed_events e " +
+        "                    WHERE e.event_id = p.event_id AND e.processed_at > ?::timestamptz) " +
+        "  ON CONFLICT DO NOTHING RETURNING event_id" +
+        "), acc AS (" +
+        "  UPDATE accounts a SET reserved_micros = " + RESERVED + " - p.amount, updated_at = now() " +
+        "  FROM p WHERE a.account_id = p.account_id AND " + RESERVED + " >= p.amount AND EXISTS (SELECT 1 FROM ev) " +
+        "  RETURNING a.account_id" +
+        "), led AS (" +
+        "  INSERT INTO account_ledger (account_id, entry_type, request_id, order_id, amount_micros, created_at) " +
+        "  SELECT acc.account_id, 'BUY_FILL', p.event_id, p.order_id, -p.amount, p.created_at FROM acc, p" +
+        "), pled AS (" +
+        "  INSERT INTO position_ledger " +
+        "  (account_id, security_id, entry_type, request_id, order_id, quantity_change_units, price_micros, created_at) " +
+        "  SELECT acc.account_id, p.security_id, 'BUY', p.event_id, p.order_id, p.quantity, p.price, p.created_at " +
+        "  FROM acc, p" +
+        "), pos AS (" +
+        // the average computed from the cached position applies only if the row still holds what the
+        // math started from; otherwise (or on a cache miss, or for a new position) it is averaged here
+        // from the fill's exact cost, the same way
+        "  INSERT INTO positions (account_id, security_id, quantity_units, reserved_quantity_units, avg_price_micros) " +
+        "  SELECT acc.account_id, p.security_id, p.quantity, 0, " + averagePrice("0", "0", "p.quantity", "p.amount") +
+        "  FROM acc, p " +
+        "  ON CONFLICT (account_id, security_id) DO UPDATE " +
+        "  SET quantity_units = " + QUANTITY + " + EXCLUDED.quantity_units, " +
+        "      avg_price_micros = CASE WHEN " + QUANTITY + " = ?::bigint AND " + AVG_PRICE + " = ?::bigint " +
+        "                              THEN ?::bigint " +
+        "                              ELSE " + averagePrice(QUANTITY, AVG_PRICE, "EXCLUDED.quantity_units",
+                                                             "(SELECT amount FROM p)") + " END, " +
+        "      updated_at = now() " +
+        "  RETURNING quantity_units, " + MoneyColumns.units("reserved_quantity") + " AS reserved_quantity_units, " +
+        "            avg_price_micros" +
+        "), " + OutboxRepository.insertFrom("acc") + " " +
+        "SELECT CASE " +
+        "  WHEN NOT EXISTS (SELECT 1 FROM ev) THEN 'ALREADY_PROCESSED' " +
+        "  WHEN NOT EXISTS (SELECT 1 FROM acc) THEN 'INSUFFICIENT_FUNDS' " +
+        "  ELSE 'OK' " +
+        "END AS outcome, pos.quantity_units, pos.reserved_quantity_units, pos.avg_price_micros " +
+        "FROM p LEFT JOIN pos ON true";
+
+    static final String SELL_FILL_SQL =
+        "WITH p AS (" +
+        "  SELECT ?::text AS event_id, ?::bigint AS account_id, ?::int AS security_id, ?::text AS order_id, " +
+        "         ?::bigint AS amount, ?::bigint AS quantity, ?::bigint AS price, ?::timestamptz AS created_at" +
+        "), ev AS (" +
+        "  INSERT INTO processed_events (event_id, event_type, account_id, processed_at) " +
+        "  SELECT event_id, 'ORDER_FILL', account_id, created_at FROM p " +
+        "  WHERE NOT EXISTS (SELECT 1 FROM processed_events e " +
+        "                    WHERE e.event_id = p.event_id AND e.processed_at > ?::timestamptz) " +
+        "  ON CONFLICT DO NOTHING RETURNING event_id" +
+        "), pos AS (" +
+        "  UPDATE positions s " +
+        "  SET reserved_quantity_units = " + MoneyColumns.units("s.reserved_quantity") + " - p.quantity, " +
+        "      quantity_units = " + MoneyColumns.units("s.quantity") + " - p.quantity, updated_at = now() " +
+        "  FROM p WHERE s.account_id = p.account_id AND s.security_id = p.security_id " +
+        "  AND " + MoneyColumns.units("s.reserved_quantity") + " >= p.quantity " +
+        "  AND " + MoneyColumns.units("s.quantity") + " >= p.quantity AND EXISTS (SELECT 1 FROM ev) " +
+        "  RETURNING s.account_id, s.quantity_units, s.reserved_quantity_units, " +
+        "            " + MoneyColumns.micros("s.avg_price") + " AS avg_price_micros" +
+        "), pled AS (" +
+        "  INSERT INTO position_ledger " +
+        "  (account_id, security_id, entry_type, request_id, order_id, quantity_change_units, price_micros, created_at) " +
+        "  SELECT pos.account_id, p.security_id, 'SELL', p.event_id, p.order_id, -p.quantity, p.price, p.created_at " +
+        "  FROM pos, p" +
+        "), acc AS (" +
+        "  UPDATE accounts a SET balance_micros = " + BALANCE + " + p.amount, updated_at = now() " +
+        "  FROM p WHERE a.account_id = (SELECT account_id FROM pos) " +
+        "  RETURNING a.account_id" +
+        "), led AS (" +
+        "  INSERT INTO account_ledger (account_id, entry_type, request_id, order_id, amount_micros, created_at) " +
+        "  SELECT acc.account_id, 'SELL_FILL', p.event_id, p.order_id, p.amount, p.created_at FROM acc, p" +
+        "), " + OutboxRepository.insertFrom("acc") + " " +
+        "SELECT CASE " +
+        "  WHEN NOT EXISTS (SELECT 1 FROM ev) THEN 'ALREADY_PROCESSED' " +
+        "  WHEN NOT EXISTS (SELECT 1 FROM pos) THEN 'INSUFFICIENT_POSITION' " +
+        "  WHEN NOT EXISTS (SELECT 1 FROM acc) THEN 'ACCOUNT_NOT_FOUND' " +
+        "  ELSE 'OK' " +
+        "END AS outcome, pos.quantity_units, pos.reserved_quantity_units, pos.avg_price_micros " +
+        "FROM p LEFT JOIN pos ON true";
+
+    private static final CompiledQuery BUY_FILL = CompiledQuery.fenced(BUY_FILL_SQL + " WHERE " + CompiledQuery.FENCE);
+    private static final CompiledQuery SELL_FILL = CompiledQuery.fenced(SELL_FILL_SQL + " WHERE " + CompiledQuery.FENCE);
+
+    // outcome row of a fill; position is set only when it went through
+    private record FillWrite(String outcome, PositionState position) {}
+
+    @Inject DslProvider dsl;
     @Inject DbMetrics metrics;
-    @Inject OutboxRepository outboxRepo;
+    @Inject AccountStateCache stateCache;
+    @Inject IdempotencyFilter idempotency;
+    @Inject PositionCache positionCache;
+    @Inject SecurityDictionary securities;
+    @Inject ProcessedEventStore processedEvents;
+    @Inject OutboxPublisher outboxPublisher;
 
     public CommandResult applyFill(ApplyFillCommand cmd) {
         long startNanos = System.nanoTime();
+        long roundTrips = dsl.roundTrips();
         String operation = cmd.isBuy() ? "apply_buy_fill" : "apply_sell_fill";
 
         try {
-            CommandResult result = dsl.transactionResult(cfg -> {
-                DSLContext tx = cfg.dsl();
-
-                boolean exists = tx.fetchExists(
-                    tx.selectOne().from("processed_events").where("event_id = ?", cmd.requestId())
-                );
-                if (exists) {
-                    metrics.incrementDuplicate(operation);
-                    return CommandResult.alreadyProcessed();
-                }
-
-                tx.execute(
-                    "INSERT INTO processed_events (event_id, event_type, account_id, processed_at) " +
-                    "VALUES (?, 'ORDER_FILL', ?, ?)",
-                    cmd.requestId(), cmd.accountId(), OffsetDateTime.now()
-                );
-
-                if (cmd.isBuy()) {
-                    return processBuyFill(tx, cmd);
-                } else {
-                    return processSellFill(tx, cmd);
-                }
-            });
+            CommandResult result = cmd.isBuy() ? processBuyFill(dsl.get(), cmd) : processSellFill(dsl.get(), cmd);
+            // fills do not refresh the cached account state; drop it so the next command reloads it
+            stateCache.invalidate(cmd.accountId());
 
             long durationNanos = System.nanoTime() - startNanos;
             metrics.recordWrite(operation, durationNanos);
@@ -57,100 +149,107 @@ public class FillWriteRepository {
         } catch (DataAccessException e) {
             long durationNanos = System.nanoTime() - startNanos;
             metrics.recordWrite(operation, durationNanos);
+            if (IdempotencyFilter.isDuplicateKey(e)) {
+                metrics.incrementDuplicate(operation);
+                return CommandResult.alreadyProcessed();
+            }
             metrics.incrementError(operation);
             return CommandResult.fail("INTERNAL_ERROR", e.getMessage());
+        } finally {
+            metrics.recordRoundTrips(operation, dsl.roundTrips() - roundTrips);
         }
     }
 
     private CommandResult processBuyFill(DSLContext tx, ApplyFillCommand cmd) {
-        Record accRec = tx.fetchOne(
-            "UPDATE accounts " +
-            "SET reserved = reserved - ?, updated_at = now() " +
-            "WHERE account_id = ? AND reserved >= ? " +
-            "RETURNING account_id, account_no, balance, reserved, currency, status",
-            cmd.fillAmount(), cmd.accountId(), cmd.fillAmount()
-        );
-
-        if (accRec == null) {
+        String currency = BalanceWriteRepository.currencyOf(tx, stateCache, cmd.accountId());
+        if (currency == null) {
             metrics.incrementInsufficient("apply_buy_fill");
             return CommandResult.insufficientFunds();
         }
-
-        tx.execute(
-            "INSERT INTO account_ledger (account_id, entry_type, request_id, order_id, amount, created_at) " +
-            "VALUES (?, 'BUY_FILL', ?, ?, ?, ?)",
-            cmd.accountId(), cmd.requestId(), cmd.orderId(), cmd.fillAmount().negate(), OffsetDateTime.now()
-        );
-
-        BigDecimal avgPrice = cmd.fillAmount().divide(BigDecimal.valueOf(cmd.fillQuantity()), 2, RoundingMode.HALF_UP);
-
-        tx.execute(
-            "INSERT INTO position_ledger (account_id, symbol, entry_type, request_id, order_id, quantity_change, price, created_at) " +
-            "VALUES (?, ?, 'BUY', ?, ?, ?, ?, ?)",
-            cmd.accountId(), cmd.symbol(), cmd.requestId(), cmd.orderId(), cmd.fillQuantity(), avgPrice, OffsetDateTime.now()
-        );
-
-        tx.execute(
-            "INSERT INTO positions (account_id, symbol, quantity, reserved_quantity, avg_price) " +
-            "VALUES (?, ?, ?, 0, ?) " +
-            "ON CONFLICT (account_id, symbol) DO UPDATE " +
-            "SET quantity = positions.quantity + EXCLUDED.quantity, " +
-            "    avg_price = ((positions.quantity * positions.avg_price) + (EXCLUDED.quantity * EXCLUDED.avg_price)) / (positions.quantity + EXCLUDED.quantity), " +
-            "    updated_at = now()",
-            cmd.accountId(), cmd.symbol(), cmd.fillQuantity(), avgPrice
-        );
-
-        String currency = accRec.get("currency", String.class);
-        OutboxEvent event = OutboxEvent.accountFilled(cmd.accountId(), cmd.fillAmount(), cmd.requestId(), cmd.orderId(), currency);
-        outboxRepo.insert(event);
-
-        return CommandResult.ok();
+        long avgPrice = Money.divide(cmd.fillAmountMicros(), cmd.fillQuantity());
+        securities.ensureRegistered(tx, cmd.securityId());
+
+        long version = positionCache.version(cmd.accountId());
+        PositionState position = positionCache.get(cmd.accountId(), cmd.securityId());
+        Long seenQuantity = position == null ? null : position.quantity();
+        Long seenAvgPrice = position == null ? null : position.avgPriceMicros();
+        Long newAvgPrice = position == null ? null : Money.averagePrice(
+                position.quantity(), position.avgPriceMicros(), cmd.fillQuantity(), cmd.fillAmountMicros());
+
+        OutboxEvent event = OutboxEvent.accountFilled(cmd.accountId(), cmd.fillAmountMicros(), cmd.requestId(), cmd.orderId(), currency);
+        FillWrite written = BUY_FILL.fetchOne(tx,
+            ps -> {
+                int next = bindFill(ps, cmd, avgPrice, processedEvents.since());
+                ps.setObject(next, seenQuantity, Types.BIGINT);
+                ps.setObject(next + 1, seenAvgPrice, Types.BIGINT);
+                ps.setObject(next + 2, newAvgPrice, Types.BIGINT);
+                OutboxRepository.bindEvent(ps, next + 3, event);
+            },
+            FillWriteRepository::fillWrite);
+
+        return outcome("apply_buy_fill", cmd, written, event, version);
     }
 
     private CommandResult processSellFill(DSLContext tx, ApplyFillCommand cmd) {
-        Record posRec = tx.fetchOne(
-            "UPDATE positions " +
-            "SET reserved_quantity = reserved_quantity - ?, quantity = quantity - ?, updated_at = now() " +
-            "WHERE account_id = ? AND symbol = ? AND reserved_quantity >= ? AND quantity >= ? " +
-            "RETURNING account_id, symbol, quantity, avg_price",
-            cmd.fillQuantity(), cmd.fillQuantity(), cmd.accountId(), cmd.symbol(), cmd.fillQuantity(), cmd.fillQuantity()
-        );
-
-        if (posRec == null) {
+        String currency = BalanceWriteRepository.currencyOf(tx, stateCache, cmd.accountId());
+        if (currency == null) {
             metrics.incrementInsufficient("apply_sell_fill");
             return CommandResult.insufficientPosition();
         }
+        long avgPrice = Money.divide(cmd.fillAmountMicros(), cmd.fillQuantity());
+        long version = positionCache.version(cmd.accountId());
 
-        BigDecimal avgPrice = cmd.fillAmount().divide(BigDecimal.valueOf(cmd.fillQuantity()), 2, RoundingMode.HALF_UP);
-
-        tx.execute(
-            "INSERT INTO position_ledger (account_id, symbol, entry_type, request_id, order_id, quantity_change, price, created_at) " +
-            "VALUES (?, ?, 'SELL', ?, ?, ?, ?, ?)",
-            cmd.accountId(), cmd.symbol(), cmd.requestId(), cmd.orderId(), -cmd.fillQuantity(), avgPrice, OffsetDateTime.now()
-        );
-
-        tx.execute(
-            "INSERT INTO account_ledger (account_id, entry_type, request_id, order_id, amount, created_at) " +
-            "VALUES (?, 'SELL_FILL', ?, ?, ?, ?)",
-            cmd.accountId(), cmd.requestId(), cmd.orderId(), cmd.fillAmount(), OffsetDateTime.now()
-        );
-
-        Record accRec = tx.fetchOne(
-            "UPDATE accounts " +
-            "SET balance = balance + ?, updated_at = now() " +
-            "WHERE account_id = ? " +
-            "RETURNING account_id, account_no, balance, reserved, currency, status",
-            cmd.fillAmount(), cmd.accountId()
-        );
-
-        if (accRec == null) {
-            return CommandResult.accountNotFound();
-        }
+        OutboxEvent event = OutboxEvent.accountFilled(cmd.accountId(), cmd.fillAmountMicros(), cmd.requestId(), cmd.orderId(), currency);
+        FillWrite written = SELL_FILL.fetchOne(tx,
+            ps -> OutboxRepository.bindEvent(ps, bindFill(ps, cmd, avgPrice, processedEvents.since()), event),
+            FillWriteRepository::fillWrite);
+
+        return outcome("apply_sell_fill", cmd, written, event, version);
+    }
 
-        String currency = accRec.get("currency", String.class);
-        OutboxEvent event = OutboxEvent.accountFilled(cmd.accountId(), cmd.fillAmount(), cmd.requestId(), cmd.orderId(), currency);
-        outboxRepo.insert(event);
+    // binds the p values and the dedup window start shared by both statements; returns the next index
+    private static int bindFill(PreparedStatement ps, ApplyFillCommand cmd, long avgPrice,
+                                OffsetDateTime dedupSince) throws SQLException {
+        ps.setString(1, cmd.requestId());
+        ps.setLong(2, cmd.accountId());
+        ps.setInt(3, cmd.securityId());
+        ps.setString(4, cmd.orderId());
+        ps.setLong(5, cmd.fillAmountMicros());
+        ps.setLong(6, cmd.fillQuantity());
+        ps.setLong(7, avgPrice);
+        ps.setObject(8, OffsetDateTime.now());
+        ps.setObject(9, dedupSince);
+        return 10;
+    }
 
-        return CommandResult.ok();
+    // Money.averagePrice in SQL: round(numeric) rounds half away from zero, i.e. half up for prices
+    private static String averagePrice(String quantity, String avgPrice, String addQuantity, String addCost) {
+        return "(round((" + quantity + "::numeric * " + avgPrice + " + " + addCost + ") / " +
+               "((" + quantity + " + " + addQuantity + ") * " + Money.CENT + ")) * " + Money.CENT + ")::bigint";
+    }
+
+    private static FillWrite fillWrite(ResultSet rs) throws SQLException {
+        return new FillWrite(rs.getString(1), rs.getObject(2) == null ? null : PositionCache.toState(rs, 2));
+    }
+
+    private CommandResult outcome(String operation, ApplyFillCommand cmd, FillWrite written, OutboxEvent event,
+                                  long version) {
+        String outcome = written.outcome();
+        switch (outcome) {
+            case "ALREADY_PROCESSED" -> metrics.incrementDuplicate(operation);
+            case "OK" -> {
+                PositionState state = written.position();
+                dsl.afterCommit(() -> positionCache.put(cmd.accountId(), cmd.securityId(), state, version));
+                outboxPublisher.publishAfterCommit(event);
+            }
+            default -> {
+                positionCache.remove(cmd.accountId(), cmd.securityId());
+                metrics.incrementInsufficient(operation);
+            }
+        }
+        if (!"ALREADY_PROCESSED".equals(outcome)) {
+            idempotency.recordAfterCommit(Table.PROCESSED_EVENTS, cmd.requestId());
+        }
+        return CommandResult.ofCode(outcome);
     }
 }
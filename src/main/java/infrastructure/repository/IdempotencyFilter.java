@@ -0,0 +1,338 @@
+package infrastructure.repository;
+
+import infrastructure.metrics.DbMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.jooq.Condition;
+import org.jooq.Cursor;
+import org.jooq.DSLContext;
+import org.jooq.Record1;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Screens request and event IDs before the duplicate-check query.
+ *
+ * Each table has a Bloom filter over the IDs committed recently, plus a small direct-mapped set of
+ * the latest IDs. If the filter says an ID is absent, the query is skipped. If the recent set holds
+ * the ID, the answer is "duplicate" without a query. Only possible duplicates go to Postgres.
+ *
+ * The filter has two generations. When the current one reaches its expected size it becomes the
+ * previous one, so it covers between one and two generations of IDs. Older IDs, and IDs committed
+ * on another node, are caught by the lookup query or the unique indexes; see {@link #isDuplicateKey}.
+ *
+ * The filters are node-wide and lock-free rather than per shard: accounts move between shards and
+ * lanes, and fills are applied off the shard threads. Until the startup rebuild finishes, every
+ * check goes to the database. When this node takes over slots from another node, the IDs committed
+ * there for those slots' accounts are added with {@link #admit} before the slots are served.
+ */
+@ApplicationScoped
+public class IdempotencyFilter {
+
+    private static final Logger log = Logger.getLogger(IdempotencyFilter.class);
+
+    public enum Table {
+        // lookups only reach back over the dedup window, i.e. the newest partitions
+        ACCOUNT_LEDGER("account_ledger", "request_id", "created_at",
+                "request_id = ? AND created_at > now() - " + LedgerPartitions.DEDUP_WINDOW),
+        POSITION_LEDGER("position_ledger", "request_id", "created_at",
+                "request_id = ? AND created_at > now() - " + LedgerPartitions.DEDUP_WINDOW),
+        // the second bind is the window start, see ProcessedEventStore#since
+        PROCESSED_EVENTS("processed_events", "event_id", "processed_at",
+                "event_id = ? AND processed_at > ?");
+
+        final String table;
+        final String idColumn;
+        final String timeColumn;
+        final String lookup;
+
+        Table(String table, String idColumn, String timeColumn, String lookup) {
+            this.table = table;
+            this.idColumn = idColumn;
+            this.timeColumn = timeColumn;
+            this.lookup = lookup;
+        }
+    }
+
+    @ConfigProperty(name = "account.idempotency.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "account.idempotency.expected-ids", defaultValue = "10000000")
+    long expectedIds;
+
+    @ConfigProperty(name = "account.idempotency.false-positive-rate", defaultValue = "0.01")
+    double falsePositiveRate;
+
+    @ConfigProperty(name = "account.idempotency.recent-size", defaultValue = "65536")
+    int recentSize;
+
+    @ConfigProperty(name = "account.idempotency.warmup-hours", defaultValue = "24")
+    int warmupHours;
+
+    @Inject DslProvider dsl;
+    @Inject DbMetrics metrics;
+    @Inject ProcessedEventStore processedEvents;
+
+    private Filter[] filters;
+    // package-private for tests, which skip the startup rebuild
+    volatile boolean ready;
+
+    @PostConstruct
+    void init() {
+        Table[] tables = Table.values();
+        filters = new Filter[tables.length];
+        for (Table table : tables) {
+            Filter f = new Filter(table);
+            filters[table.ordinal()] = f;
+            metrics.registerIdempotencyFilter(table.table, f, Filter::bytes, Filter::estimatedFalsePositiveRate);
+        }
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        if (!enabled) {
+            return;
+        }
+        Thread loader = new Thread(this::rebuild, "account-idempotency-rebuild");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * True if the ID is already in the table. Runs the lookup query only when the filter can't rule the ID out.
+     */
+    public boolean seen(DSLContext tx, Table table, String id) {
+        Filter f = filters[table.ordinal()];
+        if (ready) {
+            long h1 = hash(id);
+            long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+            if (!f.mightContain(h1, h2)) {
+                f.skipped.increment();
+                return false;
+            }
+            if (id.equals(f.recent.get(recentIndex(f, h1)))) {
+                f.recentHits.increment();
+                return true;
+            }
+        }
+        Condition lookup = table == Table.PROCESSED_EVENTS
+                ? DSL.condition(table.lookup, id, processedEvents.since())
+                : DSL.condition(table.lookup, id);
+        boolean exists = tx.fetchExists(tx.selectOne().from(table.table).where(lookup));
+        if (ready) {
+            (exists ? f.duplicates : f.falsePositives).increment();
+        }
+        return exists;
+    }
+
+    /**
+     * Records an ID once the transaction that wrote it commits.
+     */
+    public void recordAfterCommit(Table table, String id) {
+        if (enabled) {
+            dsl.afterCommit(() -> add(filters[table.ordinal()], id));
+        }
+    }
+
+    /**
+     * Adds the IDs committed over the last warmup-hours for accounts whose slot
+     * ({@code account_id mod slotCount}) is in {@code slots}. Returns the number of IDs added.
+     */
+    public long admit(int slotCount, int[] slots) {
+        // before the rebuild is done every check queries the database, and the rebuild reads these IDs too
+        if (!enabled || !ready) {
+            return 0;
+        }
+        Integer[] slotIds = Arrays.stream(slots).boxed().toArray(Integer[]::new);
+        Condition accounts = DSL.condition("mod(account_id, ?) = ANY(?::int[])", slotCount, slotIds);
+        long n = 0;
+        for (Filter f : filters) {
+            n += load(f, accounts);
+        }
+        return n;
+    }
+
+    /**
+     * True for a unique-index violation: the final guard when the filter let a duplicate through.
+     */
+    public static boolean isDuplicateKey(DataAccessException e) {
+        return "23505".equals(e.sqlState());
+    }
+
+    private void rebuild() {
+        long startNanos = System.nanoTime();
+        try {
+            for (Filter f : filters) {
+                long loaded = load(f, DSL.noCondition());
+                log.infof("Idempotency filter for %s loaded %d IDs", f.table.table, loaded);
+            }
+            ready = true;
+            log.infof("Idempotency filters ready in %d ms", (System.nanoTime() - startNanos) / 1_000_000);
+        } catch (Exception e) {
+            log.errorf(e, "Idempotency filter rebuild failed, duplicate checks keep querying the database");
+        }
+    }
+
+    private long load(Filter f, Condition rows) {
+        Table t = f.table;
+        // inside a transaction so the driver streams with the fetch size
+        return dsl.transactionResult(cfg -> {
+            long n = 0;
+            try (Cursor<Record1<String>> ids = cfg.dsl()
+                    .select(DSL.field(t.idColumn, String.class))
+                    .from(t.table)
+                    .where(t.timeColumn + " > now() - make_interval(hours => ?)", warmupHours)
+                    .and(rows)
+                    .fetchSize(10_000)
+                    .fetchLazy()) {
+                for (Record1<String> rec : ids) {
+                    add(f, rec.value1());
+                    n++;
+                }
+            }
+            return n;
+        });
+    }
+
+    private void add(Filter f, String id) {
+        long h1 = hash(id);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L);
+        f.add(h1, h2);
+        f.recent.set(recentIndex(f, h1), id);
+    }
+
+    private static int recentIndex(Filter f, long h1) {
+        return (int) (h1 >>> 40) & (f.recent.length() - 1);
+    }
+
+    // FNV-1a over the chars, finished with a 64-bit avalanche
+    private static long hash(String id) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            h ^= id.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+    private final class Filter {
+
+        final Table table;
+        final AtomicReferenceArray<String> recent;
+        final Counter skipped;
+        final Counter recentHits;
+        final Counter duplicates;
+        final Counter falsePositives;
+
+        private volatile Bloom current;
+        private volatile Bloom previous;
+
+        Filter(Table table) {
+            this.table = table;
+            this.recent = new AtomicReferenceArray<>(Integer.highestOneBit(Math.max(16, recentSize)));
+            this.skipped = metrics.idempotencyCheck(table.table, "skipped");
+            this.recentHits = metrics.idempotencyCheck(table.table, "recent_hit");
+            this.duplicates = metrics.idempotencyCheck(table.table, "duplicate");
+            this.falsePositives = metrics.idempotencyCheck(table.table, "false_positive");
+            this.current = new Bloom(expectedIds, falsePositiveRate);
+            this.previous = new Bloom(1, falsePositiveRate);
+        }
+
+        boolean mightContain(long h1, long h2) {
+            return current.mightContain(h1, h2) || previous.mightContain(h1, h2);
+        }
+
+        void add(long h1, long h2) {
+            Bloom bloom = current;
+            if (bloom.inserted.get() >= expectedIds) {
+                bloom = rotate(bloom);
+            }
+            bloom.add(h1, h2);
+        }
+
+        private synchronized Bloom rotate(Bloom full) {
+            if (current == full) {
+                previous = full;
+                current = new Bloom(expectedIds, falsePositiveRate);
+            }
+            return current;
+        }
+
+        double bytes() {
+            return current.bytes() + previous.bytes();
+        }
+
+        double estimatedFalsePositiveRate() {
+            Bloom c = current;
+            Bloom p = previous;
+            return 1 - (1 - c.estimatedFalsePositiveRate()) * (1 - p.estimatedFalsePositiveRate());
+        }
+    }
+
+    private static final class Bloom {
+
+        final AtomicLongArray bits;
+        final long bitCount;
+        final int hashes;
+        final AtomicLong inserted = new AtomicLong();
+
+        Bloom(long expected, double fpp) {
+            long m = (long) Math.ceil(-expected * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (m + 63) >>> 6));
+            this.bits = new AtomicLongArray(words);
+            this.bitCount = (long) words << 6;
+            this.hashes = Math.max(1, (int) Math.round((double) bitCount / expected * Math.log(2)));
+        }
+
+        boolean mightContain(long h1, long h2) {
+            long combined = h1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = (combined & Long.MAX_VALUE) % bitCount;
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+                combined += h2;
+            }
+            return true;
+        }
+
+        void add(long h1, long h2) {
+            long combined = h1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = (combined & Long.MAX_VALUE) % bitCount;
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long old = bits.get(word);
+                while ((old & mask) == 0 && !bits.compareAndSet(word, old, old | mask)) {
+                    old = bits.get(word);
+                }
+                combined += h2;
+            }
+            inserted.incrementAndGet();
+        }
+
+        double bytes() {
+            return bits.length() * 8.0;
+        }
+
+        double estimatedFalsePositiveRate() {
+            return Math.pow(1 - Math.exp(-(double) hashes * inserted.get() / bitCount), hashes);
+        }
+    }
+}
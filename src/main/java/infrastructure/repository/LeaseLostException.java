@@ -0,0 +1,12 @@
+package infrastructure.repository;
+
+/**
+ * A fenced write found that another node has taken over the account's slot since this node's
+ * lease was granted. The statement wrote nothing; the caller should refuse the command.
+ */
+public class LeaseLostException extends RuntimeException {
+
+    public LeaseLostException(String message) {
+        super(message, null, false, false);
+    }
+}
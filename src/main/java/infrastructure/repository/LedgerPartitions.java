@@ -0,0 +1,149 @@
+package infrastructure.repository;
+
+import infrastructure.metrics.DbMetrics;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.jooq.exception.DataAccessException;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the monthly ledger partitions ahead of the clock and retires the old ones.
+ *
+ * {@code account_ledger} and {@code position_ledger} are range-partitioned by the UTC month of
+ * {@code created_at} (V6), so inserts only touch the current month's indexes and retention is a
+ * detach instead of a DELETE. There is no default partition: an insert past the last partition
+ * fails, so partitions are created premake-months ahead, at startup and then periodically. With a
+ * retention, partitions older than that many months are detached concurrently and moved to the
+ * {@code ledger_archive} schema, or dropped.
+ *
+ * The request-ID unique index exists per partition only (Postgres needs the partition key in a
+ * unique index on the parent). Writes and duplicate checks therefore also look for the request ID
+ * in the last {@link #DEDUP_WINDOW}, which touches the newest one or two partitions.
+ */
+@ApplicationScoped
+public class LedgerPartitions {
+
+    private static final Logger log = Logger.getLogger(LedgerPartitions.class);
+
+    private static final String[] TABLES = {"account_ledger", "position_ledger"};
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+
+    /**
+     * How far back request-ID lookups on the ledgers reach. Retries arrive within minutes; a request
+     * ID repeated after this is taken as a new request.
+     */
+    static final String DEDUP_WINDOW = "interval '7 days'";
+
+    @ConfigProperty(name = "account.ledger.partitions.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "account.ledger.partitions.premake-months", defaultValue = "2")
+    int premakeMonths;
+
+    @ConfigProperty(name = "account.ledger.partitions.retention-months", defaultValue = "0")
+    int retentionMonths;
+
+    @ConfigProperty(name = "account.ledger.partitions.archive", defaultValue = "true")
+    boolean archive;
+
+    @ConfigProperty(name = "account.ledger.partitions.check-hours", defaultValue = "6")
+    int checkHours;
+
+    @Inject DslProvider dsl;
+    @Inject DbMetrics metrics;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Condition that a ledger row for the request exists within {@link #DEDUP_WINDOW}; the table is
+     * aliased {@code l}, the arguments are SQL expressions.
+     */
+    static String recentRequest(String table, String accountId, String requestId) {
+        return "SELECT 1 FROM " + table + " l WHERE l.request_id = " + requestId +
+               " AND l.account_id = " + accountId + " AND l.created_at > now() - " + DEDUP_WINDOW;
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        if (!enabled) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "account-ledger-partitions");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::maintain, 0, checkHours, TimeUnit.HOURS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    void maintain() {
+        LocalDate thisMonth = LocalDate.now(ZoneOffset.UTC).withDayOfMonth(1);
+        for (String table : TABLES) {
+            try {
+                for (int i = 0; i <= premakeMonths; i++) {
+                    LocalDate month = thisMonth.plusMonths(i);
+                    Boolean created = dsl.get().fetchSingle("SELECT ledger_ensure_partition(?, ?)", table, month)
+                            .get(0, Boolean.class);
+                    if (Boolean.TRUE.equals(created)) {
+                        metrics.ledgerPartitions(table, "created").increment();
+                        log.infof("Created ledger partition %s", partitionName(table, month));
+                    }
+                }
+                if (retentionMonths > 0) {
+                    retire(table, partitionName(table, thisMonth.minusMonths(retentionMonths)));
+                }
+            } catch (DataAccessException e) {
+                log.errorf(e, "Ledger partition maintenance failed for %s", table);
+            }
+        }
+    }
+
+    private void retire(String table, String firstKept) {
+        List<String> partitions = dsl.get().fetch(
+                "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                "WHERE i.inhparent = ?::regclass ORDER BY c.relname",
+                table
+        ).getValues(0, String.class);
+
+        String pattern = table + "_p\\d{6}";
+        for (String partition : partitions) {
+            // same-length names sort by month
+            if (!partition.matches(pattern) || partition.compareTo(firstKept) >= 0) {
+                continue;
+            }
+            // CONCURRENTLY leaves inserts into the live partitions running; it cannot run inside a transaction
+            dsl.get().execute("ALTER TABLE " + table + " DETACH PARTITION " + partition + " CONCURRENTLY");
+            if (archive) {
+                dsl.get().execute("ALTER TABLE " + partition + " SET SCHEMA ledger_archive");
+                metrics.ledgerPartitions(table, "archived").increment();
+                log.infof("Detached ledger partition %s into ledger_archive", partition);
+            } else {
+                dsl.get().execute("DROP TABLE " + partition);
+                metrics.ledgerPartitions(table, "dropped").increment();
+                log.infof("Detached and dropped ledger partition %s", partition);
+            }
+        }
+    }
+
+    private static String partitionName(String table, LocalDate month) {
+        return table + "_p" + month.format(SUFFIX);
+    }
+}
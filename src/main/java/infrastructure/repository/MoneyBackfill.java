@@ -0,0 +1,202 @@
+package infrastructure.repository;
+
+import infrastructure.metrics.DbMetrics;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.exception.DataAccessException;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Fills the BIGINT money and quantity columns of rows written before V8.
+ *
+ * Walks each table in primary-key order, batch-size rows per transaction, with a short
+ * {@code lock_timeout} so a batch that meets a row held by a command gives up and is retried
+ * instead of queueing behind it (and making later commands queue behind the batch). No table lock
+ * is taken and the columns are nullable, so commands keep running throughout; rows written since V8
+ * already have the new columns from the repositories or the sync trigger.
+ *
+ * Progress is kept per table in {@code money_backfill}, in the same transaction as each batch, so a
+ * restart resumes where it stopped. The progress row is locked with SKIP LOCKED: several nodes can
+ * run the job and only one works on a table at a time. When every table is done the NUMERIC columns
+ * can be dropped (see V8).
+ */
+@ApplicationScoped
+public class MoneyBackfill {
+
+    private static final Logger log = Logger.getLogger(MoneyBackfill.class);
+
+    /**
+     * A table to backfill: its key column, the partition key to join on as well (or null), and the
+     * NUMERIC money and quantity columns whose BIGINT counterparts are filled.
+     */
+    private record Target(String table, String key, String partitionKey, List<String> money, List<String> quantities) {}
+
+    private static final List<Target> TARGETS = List.of(
+            new Target("accounts", "account_id", null, List.of("balance", "reserved"), List.of()),
+            new Target("positions", "position_id", null, List.of("avg_price"), List.of("quantity", "reserved_quantity")),
+            new Target("account_ledger", "id", "created_at", List.of("amount"), List.of()),
+            new Target("position_ledger", "id", "created_at", List.of("price"), List.of("quantity_change")));
+
+    @ConfigProperty(name = "account.money.backfill.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "account.money.backfill.batch-size", defaultValue = "1000")
+    int batchSize;
+
+    @ConfigProperty(name = "account.money.backfill.pause-millis", defaultValue = "20")
+    long pauseMillis;
+
+    @ConfigProperty(name = "account.money.backfill.lock-timeout-millis", defaultValue = "50")
+    long lockTimeoutMillis;
+
+    @Inject DslProvider dsl;
+    @Inject DbMetrics metrics;
+
+    private ExecutorService worker;
+    private volatile int pendingTables = TARGETS.size();
+
+    @PostConstruct
+    void init() {
+        metrics.registerMoneyBackfill(this, b -> b.pendingTables);
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        if (!enabled) {
+            return;
+        }
+        worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "account-money-backfill");
+            t.setDaemon(true);
+            return t;
+        });
+        worker.execute(this::run);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (worker != null) {
+            worker.shutdownNow();
+        }
+    }
+
+    void run() {
+        try {
+            int pending = TARGETS.size();
+            for (Target target : TARGETS) {
+                backfill(target);
+                pendingTables = --pending;
+            }
+            log.info("Money column backfill complete");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (DataAccessException e) {
+            log.errorf(e, "Money column backfill stopped; it resumes at the next start");
+        }
+    }
+
+    private void backfill(Target target) throws InterruptedException {
+        String batchSql = batchSql(target);
+        long rows = 0;
+        long startNanos = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            Batch batch;
+            try {
+                batch = dsl.transactionResult(cfg -> runBatch(cfg.dsl(), target, batchSql));
+            } catch (DataAccessException e) {
+                if (!"55P03".equals(e.sqlState())) { // lock_not_available
+                    throw e;
+                }
+                metrics.moneyBackfill(target.table(), "lock_timeout").increment();
+                Thread.sleep(pauseMillis);
+                continue;
+            }
+            if (batch == Batch.DONE) {
+                log.infof("Backfilled money columns of %s (%d rows in %d s)", target.table(), rows,
+                        (System.nanoTime() - startNanos) / 1_000_000_000L);
+                return;
+            }
+            rows += batch.updated();
+            metrics.moneyBackfill(target.table(), "rows").increment(batch.updated());
+            Thread.sleep(pauseMillis);
+        }
+        throw new InterruptedException();
+    }
+
+    private record Batch(long updated) {
+        static final Batch DONE = new Batch(-1);
+        static final Batch BUSY = new Batch(0);
+    }
+
+    private Batch runBatch(DSLContext tx, Target target, String batchSql) {
+        // another node holds this table's progress row
+        Record progress = tx.fetchOne(
+                "SELECT last_key, done FROM money_backfill WHERE table_name = ? FOR UPDATE SKIP LOCKED",
+                target.table());
+        if (progress == null) {
+            return Batch.BUSY;
+        }
+        if (progress.get("done", Boolean.class)) {
+            return Batch.DONE;
+        }
+        tx.execute("SET LOCAL lock_timeout = " + lockTimeoutMillis);
+
+        long batchStart = System.nanoTime();
+        Record result = tx.fetchSingle(batchSql, progress.get("last_key", Long.class), batchSize);
+        Long lastKey = result.get("last_key", Long.class);
+        long updated = result.get("updated", Long.class);
+        metrics.recordWrite("money_backfill", System.nanoTime() - batchStart);
+
+        if (lastKey == null) {
+            // nothing past the last key: rows inserted from now on get the columns when written
+            tx.execute("UPDATE money_backfill SET done = true, updated_at = now() WHERE table_name = ?",
+                    target.table());
+            return Batch.DONE;
+        }
+        tx.execute("UPDATE money_backfill SET last_key = ?, updated_at = now() WHERE table_name = ?",
+                lastKey, target.table());
+        return new Batch(updated);
+    }
+
+    // the next batch-size keys after the last one; rows already carrying every new column are left alone
+    private static String batchSql(Target target) {
+        StringBuilder set = new StringBuilder();
+        StringBuilder missing = new StringBuilder();
+        for (String column : target.money()) {
+            append(set, missing, column + "_micros", MoneyColumns.micros("t." + column));
+        }
+        for (String column : target.quantities()) {
+            append(set, missing, column + "_units", MoneyColumns.units("t." + column));
+        }
+        String key = target.key();
+        String keys = target.partitionKey() == null ? key : key + ", " + target.partitionKey();
+        String join = "t." + key + " = b." + key +
+                (target.partitionKey() == null ? "" : " AND t." + target.partitionKey() + " = b." + target.partitionKey());
+        return "WITH b AS (" +
+               "  SELECT " + keys + " FROM " + target.table() + " WHERE " + key + " > ? ORDER BY " + key + " LIMIT ?" +
+               "), u AS (" +
+               "  UPDATE " + target.table() + " t SET " + set + " FROM b WHERE " + join + " AND (" + missing + ")" +
+               "  RETURNING 1" +
+               ") " +
+               "SELECT (SELECT max(" + key + ") FROM b) AS last_key, (SELECT count(*) FROM u) AS updated";
+    }
+
+    private static void append(StringBuilder set, StringBuilder missing, String column, String value) {
+        if (!set.isEmpty()) {
+            set.append(", ");
+            missing.append(" OR ");
+        }
+        set.append(column).append(" = ").append(value);
+        missing.append("t.").append(column).append(" IS NULL");
+    }
+}
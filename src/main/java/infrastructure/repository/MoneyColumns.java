@@ -0,0 +1,46 @@
+package infrastructure.repository;
+
+import domain.model.money.Money;
+import org.jooq.Field;
+import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+
+import java.math.BigDecimal;
+
+/**
+ * Reads of the BIGINT money and quantity columns while their NUMERIC predecessors still exist.
+ *
+ * V8 added {@code <column>_micros} (money, micro-units) and {@code <column>_units} (quantities,
+ * whole units) next to each NUMERIC column. Repositories write only the new columns; a trigger
+ * mirrors every write into the other column so nodes on the previous release keep working. Rows
+ * the {@link MoneyBackfill} has not reached yet still hold NULL in the new columns, so every read,
+ * guard and increment goes through these fallbacks. Once the backfill is done and the NUMERIC
+ * columns are dropped they reduce to the bare column.
+ */
+final class MoneyColumns {
+
+    private MoneyColumns() {
+    }
+
+    /**
+     * Money column {@code column} (may be qualified, e.g. {@code a.balance}) in micro-units.
+     */
+    static String micros(String column) {
+        return "coalesce(" + column + "_micros, (" + column + " * " + Money.ONE + ")::bigint)";
+    }
+
+    /**
+     * Quantity column {@code column} in whole units.
+     */
+    static String units(String column) {
+        return "coalesce(" + column + "_units, " + column + "::bigint)";
+    }
+
+    static Field<Long> micros(Field<BigDecimal> numeric, Field<Long> micros) {
+        return DSL.coalesce(micros, numeric.times(Money.ONE).cast(SQLDataType.BIGINT));
+    }
+
+    static Field<Long> units(Field<BigDecimal> numeric, Field<Long> units) {
+        return DSL.coalesce(units, numeric.cast(SQLDataType.BIGINT));
+    }
+}
@@ -0,0 +1,271 @@
+package infrastructure.repository;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.LongPredicate;
+
+/**
+ * Fixed-width account state in one direct buffer, keyed by account ID with linear probing.
+ *
+ * Slot layout (40 bytes):
+ * <pre>
+ *  0  long  accountId (0 = empty)
+ *  8  long  balance, micro-units
+ * 16  long  reserved, micro-units
+ * 24  long  version stamp
+ * 32  int   loaded at, seconds since the table was created
+ * 36  byte[3] currency (ASCII)
+ * 39  byte  status (low bits) | referenced bit
+ * </pre>
+ * The table never holds more than 3/4 of its slots. When full, a CLOCK hand evicts an entry that
+ * was not read since the hand last passed it. Deletion shifts the probe chain back, so there are
+ * no tombstones. Single-threaded: one table per shard thread. Lookups and writes do not allocate.
+ */
+final class OffHeapAccountTable {
+
+    static final int SLOT_BYTES = 40;
+
+    static final byte STATUS_MISSING = 0;
+    static final byte STATUS_ACTIVE = 1;
+    static final byte STATUS_SUSPENDED = 2;
+    static final byte STATUS_CLOSED = 3;
+
+    private static final int KEY = 0;
+    private static final int BALANCE = 8;
+    private static final int RESERVED = 16;
+    private static final int VERSION = 24;
+    private static final int LOADED = 32;
+    private static final int CURRENCY = 36;
+    private static final int FLAGS = 39;
+
+    private static final byte STATUS_MASK = 0x0F;
+    private static final byte REFERENCED = 0x10;
+
+    private static final int MAX_SLOTS = Integer.MAX_VALUE / SLOT_BYTES;
+
+    private final ByteBuffer buf;
+    private final int mask;
+    private final int maxEntries;
+    private final long epochNanos = System.nanoTime();
+
+    private int size;
+    private int clockHand;
+    private long evictions;
+
+    /**
+     * Largest power-of-two table that fits {@code budgetBytes}.
+     */
+    OffHeapAccountTable(long budgetBytes) {
+        long slots = Long.highestOneBit(Math.max(16, Math.min(MAX_SLOTS, budgetBytes / SLOT_BYTES)));
+        this.buf = ByteBuffer.allocateDirect((int) slots * SLOT_BYTES).order(ByteOrder.nativeOrder());
+        this.mask = (int) slots - 1;
+        this.maxEntries = (int) (slots * 3 / 4);
+    }
+
+    /**
+     * Byte offset of the account's slot, or -1.
+     */
+    int find(long accountId) {
+        int i = index(accountId);
+        while (true) {
+            int off = i * SLOT_BYTES;
+            long key = buf.getLong(off + KEY);
+            if (key == accountId) {
+                buf.put(off + FLAGS, (byte) (buf.get(off + FLAGS) | REFERENCED));
+                return off;
+            }
+            if (key == 0) {
+                return -1;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    void put(long accountId, long balanceMicros, long reservedMicros, byte status, int currency, long version) {
+        int off = find(accountId);
+        if (off < 0) {
+            if (size >= maxEntries) {
+                evictOne();
+            }
+            int i = index(accountId);
+            while (buf.getLong(i * SLOT_BYTES + KEY) != 0) {
+                i = (i + 1) & mask;
+            }
+            off = i * SLOT_BYTES;
+            buf.putLong(off + KEY, accountId);
+            size++;
+        }
+        buf.putLong(off + BALANCE, balanceMicros);
+        buf.putLong(off + RESERVED, reservedMicros);
+        buf.putLong(off + VERSION, version);
+        buf.putInt(off + LOADED, nowSeconds());
+        buf.put(off + CURRENCY, (byte) (currency >>> 16));
+        buf.put(off + CURRENCY + 1, (byte) (currency >>> 8));
+        buf.put(off + CURRENCY + 2, (byte) currency);
+        buf.put(off + FLAGS, status);
+    }
+
+    /**
+     * Overwrites balance, reserved and version of the slot at {@code off}, keeping currency and status.
+     */
+    void update(int off, long balanceMicros, long reservedMicros, long version) {
+        buf.putLong(off + BALANCE, balanceMicros);
+        buf.putLong(off + RESERVED, reservedMicros);
+        buf.putLong(off + VERSION, version);
+        buf.putInt(off + LOADED, nowSeconds());
+    }
+
+    void remove(long accountId) {
+        int off = find(accountId);
+        if (off >= 0) {
+            delete(off / SLOT_BYTES);
+        }
+    }
+
+    /**
+     * Removes every account ID accepted by {@code matching}; returns how many were removed.
+     */
+    int removeIf(LongPredicate matching) {
+        int removed = 0;
+        // a deletion may shift a later entry into slot i, so i is looked at again
+        for (int i = 0; i <= mask; ) {
+            long key = buf.getLong(i * SLOT_BYTES + KEY);
+            if (key != 0 && matching.test(key)) {
+                delete(i);
+                removed++;
+            } else {
+                i++;
+            }
+        }
+        return removed;
+    }
+
+    long balance(int off) {
+        return buf.getLong(off + BALANCE);
+    }
+
+    long reserved(int off) {
+        return buf.getLong(off + RESERVED);
+    }
+
+    long version(int off) {
+        return buf.getLong(off + VERSION);
+    }
+
+    int currency(int off) {
+        return (buf.get(off + CURRENCY) & 0xFF) << 16 | (buf.get(off + CURRENCY + 1) & 0xFF) << 8
+                | (buf.get(off + CURRENCY + 2) & 0xFF);
+    }
+
+    byte status(int off) {
+        return (byte) (buf.get(off + FLAGS) & STATUS_MASK);
+    }
+
+    int ageSeconds(int off) {
+        return nowSeconds() - buf.getInt(off + LOADED);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return maxEntries;
+    }
+
+    long bytes() {
+        return buf.capacity();
+    }
+
+    long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Packs a 3-letter ASCII currency code; unknown or malformed codes become 0.
+     */
+    static int packCurrency(String code) {
+        if (code == null || code.length() != 3) {
+            return 0;
+        }
+        return (code.charAt(0) & 0xFF) << 16 | (code.charAt(1) & 0xFF) << 8 | (code.charAt(2) & 0xFF);
+    }
+
+    static String unpackCurrency(int packed) {
+        if (packed == 0) {
+            return null;
+        }
+        return new String(new char[] {(char) (packed >>> 16 & 0xFF), (char) (packed >>> 8 & 0xFF), (char) (packed & 0xFF)});
+    }
+
+    static byte statusCode(String status) {
+        if (status == null) {
+            return STATUS_MISSING;
+        }
+        return switch (status) {
+            case "ACTIVE" -> STATUS_ACTIVE;
+            case "SUSPENDED" -> STATUS_SUSPENDED;
+            default -> STATUS_CLOSED;
+        };
+    }
+
+    private void evictOne() {
+        while (true) {
+            int off = clockHand * SLOT_BYTES;
+            if (buf.getLong(off + KEY) != 0) {
+                byte flags = buf.get(off + FLAGS);
+                if ((flags & REFERENCED) != 0) {
+                    buf.put(off + FLAGS, (byte) (flags & ~REFERENCED));
+                } else {
+                    delete(clockHand);
+                    evictions++;
+                    return;
+                }
+            }
+            clockHand = (clockHand + 1) & mask;
+        }
+    }
+
+    /**
+     * Backward-shift deletion: pull later entries of the probe chain into the hole.
+     */
+    private void delete(int hole) {
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            long key = buf.getLong(i * SLOT_BYTES + KEY);
+            if (key == 0) {
+                break;
+            }
+            int home = index(key);
+            // entry at i may move to the hole only if its home is not cyclically in (hole, i]
+            boolean movable = hole <= i ? (home <= hole || home > i) : (home <= hole && home > i);
+            if (movable) {
+                copySlot(i, hole);
+                hole = i;
+            }
+        }
+        int off = hole * SLOT_BYTES;
+        for (int b = 0; b < SLOT_BYTES; b += 8) {
+            buf.putLong(off + b, 0L);
+        }
+        size--;
+    }
+
+    private void copySlot(int from, int to) {
+        int src = from * SLOT_BYTES;
+        int dst = to * SLOT_BYTES;
+        for (int b = 0; b < SLOT_BYTES; b += 8) {
+            buf.putLong(dst + b, buf.getLong(src + b));
+        }
+    }
+
+    private int index(long accountId) {
+        long z = accountId * 0x9E3779B97F4A7C15L;
+        return (int) (z ^ (z >>> 32)) & mask;
+    }
+
+    private int nowSeconds() {
+        return (int) ((System.nanoTime() - epochNanos) / 1_000_000_000L);
+    }
+}
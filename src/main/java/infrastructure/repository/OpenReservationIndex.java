@@ -0,0 +1,195 @@
+package infrastructure.repository;
+
+import infrastructure.metrics.DbMetrics;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jooq.Cursor;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
+
+/**
+ * Reservations that have not been released yet, keyed by reserve request ID, so a release can go
+ * straight to its guarded write without reading the RESERVE row back.
+ *
+ * Entries are added when a reserve commits and removed when its release commits. At startup each
+ * shard loads those of its own slots from the ledger (see ShardWarmup). This is only a shortcut:
+ * on a miss the repositories read the ledger as before. When this node takes over slots from another
+ * node, their entries are dropped with {@link #forget}; a stale hit that still gets through fails on
+ * the ledger's unique index and answers DUPLICATE. Entries older than max-age are dropped, and past max-entries
+ * new reservations are not indexed.
+ */
+@ApplicationScoped
+public class OpenReservationIndex {
+
+    @ConfigProperty(name = "account.open-reservations.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "account.open-reservations.max-entries", defaultValue = "5000000")
+    int maxEntries;
+
+    @ConfigProperty(name = "account.open-reservations.max-age-hours", defaultValue = "24")
+    int maxAgeHours;
+
+    @Inject DslProvider dsl;
+    @Inject DbMetrics metrics;
+
+    public record CashReservation(long accountId, long amountMicros, String orderId, long createdAtMillis) {}
+
+    public record PositionReservation(long accountId, int securityId, long quantity, String orderId,
+                                      long createdAtMillis) {}
+
+    private final ConcurrentHashMap<String, CashReservation> cash = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, PositionReservation> positions = new ConcurrentHashMap<>();
+    private ScheduledExecutorService sweeper;
+
+    @PostConstruct
+    void init() {
+        metrics.registerOpenReservations("cash", cash, Map::size);
+        metrics.registerOpenReservations("position", positions, Map::size);
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        if (!enabled) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "account-open-reservations");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::expire, 10, 10, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    /**
+     * The open cash reservation, or null if unknown here or it belongs to another account.
+     */
+    public CashReservation cash(long accountId, String requestId) {
+        CashReservation r = cash.get(requestId);
+        return r != null && r.accountId() == accountId ? r : null;
+    }
+
+    public PositionReservation position(long accountId, String requestId) {
+        PositionReservation r = positions.get(requestId);
+        return r != null && r.accountId() == accountId ? r : null;
+    }
+
+    public void cashReservedAfterCommit(String requestId, long accountId, long amountMicros, String orderId) {
+        if (enabled) {
+            CashReservation r = new CashReservation(accountId, amountMicros, orderId, System.currentTimeMillis());
+            dsl.afterCommit(() -> putBounded(cash, requestId, r));
+        }
+    }
+
+    public void positionReservedAfterCommit(String requestId, long accountId, int securityId, long quantity,
+                                            String orderId) {
+        if (enabled) {
+            PositionReservation r = new PositionReservation(accountId, securityId, quantity, orderId, System.currentTimeMillis());
+            dsl.afterCommit(() -> putBounded(positions, requestId, r));
+        }
+    }
+
+    public void cashReleasedAfterCommit(String requestId) {
+        dsl.afterCommit(() -> cash.remove(requestId));
+    }
+
+    public void positionReleasedAfterCommit(String requestId) {
+        dsl.afterCommit(() -> positions.remove(requestId));
+    }
+
+    /**
+     * Drops the entries of every account {@code accounts} accepts.
+     */
+    public void forget(LongPredicate accounts) {
+        cash.values().removeIf(r -> accounts.test(r.accountId()));
+        positions.values().removeIf(r -> accounts.test(r.accountId()));
+    }
+
+    private <V> void putBounded(ConcurrentHashMap<String, V> map, String requestId, V value) {
+        if (map.size() < maxEntries) {
+            map.put(requestId, value);
+        }
+    }
+
+    /**
+     * Loads the open reservations of accounts whose slot ({@code account_id mod slotCount}) is in
+     * {@code slots}; called by the shard warm-up. Returns the number of entries added.
+     */
+    public int load(DSLContext tx, int slotCount, Integer[] slots, int fetchSize) {
+        if (!enabled) {
+            return 0;
+        }
+        int n = 0;
+        try (Cursor<Record> rows = tx.resultQuery(
+                "SELECT r.account_id, r.request_id, r.order_id, " +
+                MoneyColumns.micros("r.amount") + " AS amount_micros, r.created_at " +
+                "FROM account_ledger r " +
+                "WHERE r.entry_type = 'RESERVE' AND r.created_at > now() - make_interval(hours => ?) " +
+                "AND mod(r.account_id, ?) = ANY(?::int[]) " +
+                "AND NOT EXISTS (SELECT 1 FROM account_ledger u " +
+                "                WHERE u.account_id = r.account_id AND u.request_id = 'un:' || r.request_id " +
+                "                AND u.created_at >= r.created_at)",
+                maxAgeHours, slotCount, slots).fetchSize(fetchSize).fetchLazy()) {
+            for (Record rec : rows) {
+                if (cash.size() >= maxEntries) {
+                    break;
+                }
+                cash.putIfAbsent(rec.get("request_id", String.class), new CashReservation(
+                        rec.get("account_id", Long.class),
+                        rec.get("amount_micros", Long.class),
+                        rec.get("order_id", String.class),
+                        rec.get("created_at", OffsetDateTime.class).toInstant().toEpochMilli()));
+                n++;
+            }
+        }
+        try (Cursor<Record> rows = tx.resultQuery(
+                "SELECT r.account_id, r.request_id, r.security_id, r.order_id, " +
+                MoneyColumns.units("r.quantity_change") + " AS quantity_change_units, r.created_at " +
+                "FROM position_ledger r " +
+                "WHERE r.entry_type = 'RESERVE' AND r.created_at > now() - make_interval(hours => ?) " +
+                "AND mod(r.account_id, ?) = ANY(?::int[]) " +
+                "AND NOT EXISTS (SELECT 1 FROM position_ledger u " +
+                "                WHERE u.account_id = r.account_id AND u.request_id = 'un:' || r.request_id " +
+                "                AND u.created_at >= r.created_at)",
+                maxAgeHours, slotCount, slots).fetchSize(fetchSize).fetchLazy()) {
+            for (Record rec : rows) {
+                if (positions.size() >= maxEntries) {
+                    break;
+                }
+                positions.putIfAbsent(rec.get("request_id", String.class), new PositionReservation(
+                        rec.get("account_id", Long.class),
+                        rec.get("security_id", Integer.class),
+                        rec.get("quantity_change_units", Long.class),
+                        rec.get("order_id", String.class),
+                        rec.get("created_at", OffsetDateTime.class).toInstant().toEpochMilli()));
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private void expire() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(maxAgeHours);
+        cash.values().removeIf(r -> r.createdAtMillis() < cutoff);
+        positions.values().removeIf(r -> r.createdAtMillis() < cutoff);
+    }
+}
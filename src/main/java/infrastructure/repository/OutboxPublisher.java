@@ -0,0 +1,252 @@
+package infrastructure.repository;
+
+import domain.model.outbox.OutboxEvent;
+import infrastructure.metrics.OutboxMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.quarkus.runtime.StartupEvent;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.reactive.messaging.MutinyEmitter;
+import io.smallrye.reactive.messaging.kafka.api.OutgoingKafkaRecordMetadata;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.reactive.messaging.Channel;
+import org.eclipse.microprofile.reactive.messaging.Message;
+import org.eclipse.microprofile.reactive.messaging.OnOverflow;
+import org.jboss.logging.Logger;
+import org.jooq.exception.DataAccessException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends outbox events to Kafka ({@code account-outbox-events}, keyed by account ID), for the relay
+ * and for the direct path.
+ *
+ * Direct path: once the command's transaction has committed, its event is sent right away instead
+ * of waiting for the relay. Acknowledged events are marked published in batches every
+ * mark-interval-millis, on the account-outbox-direct thread. The row is still written in the
+ * command's transaction, so a failed send or a node dying before the mark loses nothing: the relay
+ * only claims rows older than relay-delay-millis, i.e. those the direct path did not get through.
+ * A send acknowledged only after the relay has claimed its row goes out twice; consumers dedupe on
+ * the idempotency_key header as they do for relay retries.
+ *
+ * Once an event of an account falls back to the relay (its send failed, or the emitter buffer was
+ * full), the account's later events are not sent directly either: they are left to the relay,
+ * which sends them after the failed one, until none of the account's diverted events is pending
+ * any more (checked every fallback-check-millis). Sends already in flight when the failure comes
+ * back share its partition and producer, and the idempotent producer fails them along with it.
+ */
+@ApplicationScoped
+public class OutboxPublisher {
+
+    private static final Logger log = Logger.getLogger(OutboxPublisher.class);
+
+    static final String PATH = "direct";
+
+    @ConfigProperty(name = "account.outbox.direct.enabled", defaultValue = "true")
+    boolean directEnabled;
+
+    @ConfigProperty(name = "account.outbox.direct.relay-delay-millis", defaultValue = "2000")
+    long relayDelayMillis;
+
+    @ConfigProperty(name = "account.outbox.direct.mark-batch-size", defaultValue = "500")
+    int markBatchSize;
+
+    @ConfigProperty(name = "account.outbox.direct.mark-interval-millis", defaultValue = "5")
+    long markIntervalMillis;
+
+    @ConfigProperty(name = "account.outbox.direct.fallback-check-millis", defaultValue = "500")
+    long fallbackCheckMillis;
+
+    @Inject
+    @Channel("account-outbox-events")
+    @OnOverflow(value = OnOverflow.Strategy.BUFFER, bufferSize = 16384)
+    MutinyEmitter<byte[]> emitter;
+
+    @Inject DslProvider dsl;
+    @Inject OutboxRepository outboxRepo;
+    @Inject OutboxMetrics metrics;
+
+    private record EventKey(long aggregateId, String idempotencyKey, String eventType) {}
+
+    private final ConcurrentLinkedQueue<EventKey> acked = new ConcurrentLinkedQueue<>();
+    // accounts on the relay path and their events still left to it; entries change only in compute calls
+    private final ConcurrentHashMap<Long, Set<EventKey>> diverted = new ConcurrentHashMap<>();
+    private ScheduledExecutorService marker;
+    private long lastFallbackCheckNanos;
+    private Counter published;
+    private Counter failed;
+    private Counter relayed;
+
+    @PostConstruct
+    void init() {
+        published = metrics.events(PATH, "published");
+        failed = metrics.events(PATH, "failed");
+        relayed = metrics.events(PATH, "relayed");
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        if (!directEnabled) {
+            return;
+        }
+        marker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "account-outbox-direct");
+            t.setDaemon(true);
+            return t;
+        });
+        marker.scheduleWithFixedDelay(this::markAcked, markIntervalMillis, markIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (marker != null) {
+            marker.shutdownNow();
+        }
+    }
+
+    /**
+     * How long the relay leaves a row to the direct path before claiming it; 0 when the direct path is off.
+     */
+    public long relayDelayMillis() {
+        return directEnabled ? relayDelayMillis : 0;
+    }
+
+    /**
+     * Sends one event; the returned Uni sends when subscribed and completes once Kafka acknowledged it.
+     */
+    public Uni<Void> send(long aggregateId, String eventType, String idempotencyKey, byte[] payload) {
+        RecordHeaders headers = new RecordHeaders();
+        headers.add("event_type", eventType.getBytes(StandardCharsets.UTF_8));
+        headers.add("idempotency_key", idempotencyKey.getBytes(StandardCharsets.UTF_8));
+        Message<byte[]> message = Message.of(payload).addMetadata(OutgoingKafkaRecordMetadata.<Long>builder()
+                .withKey(aggregateId)
+                .withHeaders(headers)
+                .build());
+        return emitter.sendMessage(message);
+    }
+
+    /**
+     * Sends the event once the current transaction commits (right away outside one); dropped if it
+     * rolls back. Call only after the statement that inserted the event's row succeeded.
+     */
+    public void publishAfterCommit(OutboxEvent event) {
+        if (directEnabled) {
+            dsl.afterCommit(() -> publish(event));
+        }
+    }
+
+    private void publish(OutboxEvent event) {
+        EventKey key = new EventKey(event.aggregateId(), event.idempotencyKey(), event.eventType());
+        if (diverted.computeIfPresent(key.aggregateId(), (id, keys) -> {
+            keys.add(key);
+            return keys;
+        }) != null) {
+            // an earlier event of the account is left to the relay: this one has to go after it
+            relayed.increment();
+            return;
+        }
+        long createdAtMillis = event.createdAt().toInstant().toEpochMilli();
+        try {
+            send(event.aggregateId(), event.eventType(), event.idempotencyKey(), event.payload())
+                    .subscribe().with(
+                            v -> {
+                                metrics.recordLag(PATH, System.currentTimeMillis() - createdAtMillis);
+                                published.increment();
+                                acked.add(key);
+                            },
+                            e -> fallBack(key));
+        } catch (RuntimeException e) {
+            // emitter buffer full: the relay sends it
+            fallBack(key);
+        }
+    }
+
+    private void fallBack(EventKey key) {
+        failed.increment();
+        diverted.compute(key.aggregateId(), (id, keys) -> {
+            Set<EventKey> next = keys != null ? keys : ConcurrentHashMap.newKeySet();
+            next.add(key);
+            return next;
+        });
+    }
+
+    // marks the acknowledged events and, every fallback-check-millis, releases diverted accounts
+    void markAcked() {
+        markDirect();
+        long now = System.nanoTime();
+        if (!diverted.isEmpty() && now - lastFallbackCheckNanos >= TimeUnit.MILLISECONDS.toNanos(fallbackCheckMillis)) {
+            lastFallbackCheckNanos = now;
+            releaseDiverted();
+        }
+    }
+
+    // drains the acknowledged events, mark-batch-size per statement
+    private void markDirect() {
+        try {
+            while (!acked.isEmpty()) {
+                Long[] aggregateIds = new Long[markBatchSize];
+                String[] idempotencyKeys = new String[markBatchSize];
+                String[] eventTypes = new String[markBatchSize];
+                int n = 0;
+                for (EventKey a; n < markBatchSize && (a = acked.poll()) != null; n++) {
+                    aggregateIds[n] = a.aggregateId();
+                    idempotencyKeys[n] = a.idempotencyKey();
+                    eventTypes[n] = a.eventType();
+                }
+                metrics.recordBatch(PATH, n);
+                outboxRepo.markPublished(Arrays.copyOf(aggregateIds, n), Arrays.copyOf(idempotencyKeys, n),
+                        Arrays.copyOf(eventTypes, n));
+            }
+        } catch (DataAccessException e) {
+            // already sent; left unmarked, the relay sends them again
+            log.warnf("Marking directly published outbox events failed: %s", e.getMessage());
+        }
+    }
+
+    // puts accounts back on the direct path once the relay has published all their diverted events
+    private void releaseDiverted() {
+        List<EventKey> checked = new ArrayList<>();
+        diverted.values().forEach(checked::addAll);
+        if (checked.isEmpty()) {
+            return;
+        }
+        Set<EventKey> pending = new HashSet<>();
+        try {
+            for (int from = 0; from < checked.size(); from += markBatchSize) {
+                List<EventKey> chunk = checked.subList(from, Math.min(from + markBatchSize, checked.size()));
+                outboxRepo.stillPending(
+                        chunk.stream().map(EventKey::aggregateId).toArray(Long[]::new),
+                        chunk.stream().map(EventKey::idempotencyKey).toArray(String[]::new),
+                        chunk.stream().map(EventKey::eventType).toArray(String[]::new),
+                        (aggregateId, idempotencyKey, eventType) ->
+                                pending.add(new EventKey(aggregateId, idempotencyKey, eventType)));
+            }
+        } catch (DataAccessException e) {
+            log.warnf("Checking outbox events left to the relay failed: %s", e.getMessage());
+            return;
+        }
+        for (EventKey key : checked) {
+            if (!pending.contains(key)) {
+                // keys diverted since the snapshot stay, so the account only leaves once they are out too
+                diverted.computeIfPresent(key.aggregateId(), (id, keys) -> {
+                    keys.remove(key);
+                    return keys.isEmpty() ? null : keys;
+                });
+            }
+        }
+    }
+}
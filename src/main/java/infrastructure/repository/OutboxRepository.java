@@ -3,38 +3,202 @@ package infrastructure.repository;
 import domain.model.outbox.OutboxEvent;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
-import org.jooq.DSLContext;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 
 @ApplicationScoped
 public class OutboxRepository {
 
-    @Inject DSLContext dsl;
+    static final String INSERT_SQL =
+            "INSERT INTO outbox_events " +
+                    "(aggregate_type, aggregate_id, event_type, payload, idempotency_key, status, created_at, available_at) " +
+                    // [수정 전] ") VALUES (" +  <-- 여기에 괄호가 하나 더 있었습니다.
+                    // [수정 후] 아래와 같이 고치세요.
+                    "VALUES (" +
+                    "  ?, ?, ?, ?, " +
+                    "  ?, ?::event_status, ?::timestamptz, ?::timestamptz" +
+                    ")";
+
+    private static final CompiledQuery INSERT = CompiledQuery.of(INSERT_SQL);
+
+    @Inject DslProvider dsl;
 
     public void insert(OutboxEvent event) {
-        dsl.execute(
-                "INSERT INTO outbox_events " +
-                        "(aggregate_type, aggregate_id, event_type, payload, idempotency_key, status, created_at, available_at) " +
-                        // [수정 전] ") VALUES (" +  <-- 여기에 괄호가 하나 더 있었습니다.
-                        // [수정 후] 아래와 같이 고치세요.
-                        "VALUES (" +
-                        "  ?, ?, ?, ?, " +
-                        "  ?, ?::event_status, ?::timestamptz, ?::timestamptz" +
-                        ")",
-                event.aggregateType(),
-                event.aggregateId(),
-                event.eventType(),
-                event.payload(),
-                event.idempotencyKey(),
-                event.status(),
-                event.createdAt(),
-                event.availableAt()
-        );
+        INSERT.execute(dsl.get(), ps -> bindEvent(ps, 1, event));
+    }
+
+    /**
+     * Data-modifying CTE {@code ob} that inserts the event once per row of {@code source}, for
+     * commands written as one statement. Its parameters are {@link #withEvent}'s trailing values,
+     * so it has to be the last parameterised part of the statement.
+     */
+    static String insertFrom(String source) {
+        return "ob AS (" +
+                "  INSERT INTO outbox_events " +
+                "  (aggregate_type, aggregate_id, event_type, payload, idempotency_key, status, created_at, available_at) " +
+                "  SELECT ?::text, ?::bigint, ?::text, ?::bytea, ?::text, ?::event_status, ?::timestamptz, ?::timestamptz " +
+                "  FROM " + source +
+                ")";
+    }
+
+    /**
+     * {@code leading} bind values followed by those of {@link #insertFrom}.
+     */
+    static Object[] withEvent(OutboxEvent event, Object... leading) {
+        Object[] values = new Object[leading.length + 8];
+        System.arraycopy(leading, 0, values, 0, leading.length);
+        int i = leading.length;
+        values[i++] = event.aggregateType();
+        values[i++] = event.aggregateId();
+        values[i++] = event.eventType();
+        values[i++] = event.payload();
+        values[i++] = event.idempotencyKey();
+        values[i++] = event.status();
+        values[i++] = event.createdAt();
+        values[i] = event.availableAt();
+        return values;
+    }
+
+    /**
+     * Binds the event's values of {@link #INSERT_SQL} or {@link #insertFrom} starting at {@code index}.
+     */
+    static void bindEvent(PreparedStatement ps, int index, OutboxEvent event) throws SQLException {
+        ps.setString(index, event.aggregateType());
+        ps.setLong(index + 1, event.aggregateId());
+        ps.setString(index + 2, event.eventType());
+        ps.setBytes(index + 3, event.payload());
+        ps.setString(index + 4, event.idempotencyKey());
+        ps.setString(index + 5, event.status());
+        ps.setObject(index + 6, event.createdAt());
+        ps.setObject(index + 7, event.availableAt());
+    }
+
+    /**
+     * An event claimed by the relay.
+     */
+    public record Pending(long id, long aggregateId, String eventType, byte[] payload, String idempotencyKey,
+                          OffsetDateTime createdAt) {}
+
+    // due rows of one lane in ID (commit) order, leased by pushing available_at past the send;
+    // a row whose account still has an earlier PENDING row that is not due (rescheduled after a
+    // failed send, leased by a relay, or still left to the direct path) waits behind it. Rows
+    // locked by another transaction are skipped, not waited for
+    private static final String CLAIM_SQL =
+            "WITH due AS (" +
+            "  SELECT o.id FROM outbox_events o " +
+            "  WHERE o.status = 'PENDING' AND o.available_at <= now() - make_interval(secs => ?) " +
+            "  AND mod(o.aggregate_id, ?) = ? " +
+            "  AND NOT EXISTS (SELECT 1 FROM outbox_events e " +
+            "                  WHERE e.status = 'PENDING' AND e.aggregate_id = o.aggregate_id AND e.id < o.id " +
+            "                  AND e.available_at > now() - make_interval(secs => ?)) " +
+            "  ORDER BY o.id LIMIT ? " +
+            "  FOR UPDATE SKIP LOCKED" +
+            ") " +
+            "UPDATE outbox_events o SET available_at = now() + make_interval(secs => ?) " +
+            "FROM due WHERE o.id = due.id " +
+            "RETURNING o.id, o.aggregate_id, o.event_type, o.payload, o.idempotency_key, o.created_at";
+
+    /**
+     * Takes the relay lane's lock ({@code aggregate_id mod lanes = lane}) for the current transaction,
+     * false if another relay holds it. Only one relay claims a lane at a time.
+     */
+    public boolean lockLane(int lane) {
+        return Boolean.TRUE.equals(dsl.get().fetchValue(
+                "SELECT pg_try_advisory_xact_lock(hashtext('outbox_events'), ?)", lane));
+    }
+
+    /**
+     * Claims up to {@code limit} events of the lane that have been due for at least {@code minAgeMillis},
+     * in ID (commit) order, and leases them for {@code leaseMillis}: they are not claimed again, and
+     * later events of their accounts are held back, until the lease runs out or they are marked or
+     * rescheduled. Nothing stays locked once the claiming transaction commits.
+     */
+    public List<Pending> claim(int lanes, int lane, int limit, long minAgeMillis, long leaseMillis) {
+        double minAge = minAgeMillis / 1000.0;
+        List<Pending> claimed = new ArrayList<>(dsl.get().resultQuery(CLAIM_SQL,
+                        minAge, lanes, lane, minAge, limit, leaseMillis / 1000.0)
+                .fetch(r -> new Pending(
+                        r.get("id", Long.class),
+                        r.get("aggregate_id", Long.class),
+                        r.get("event_type", String.class),
+                        r.get("payload", byte[].class),
+                        r.get("idempotency_key", String.class),
+                        r.get("created_at", OffsetDateTime.class))));
+        claimed.sort(Comparator.comparingLong(Pending::id));
+        return claimed;
+    }
+
+    public void markPublished(List<Long> eventIds) {
+        dsl.get().execute(
+                "UPDATE outbox_events SET status = 'PUBLISHED'::event_status, published_at = now(), error_message = NULL " +
+                "WHERE id = ANY(?::bigint[])",
+                (Object) eventIds.toArray(Long[]::new));
+    }
+
+    /**
+     * Marks the pending events identified by account, idempotency key and type published (the
+     * direct path does not know row IDs), along idx_outbox_pending_key. Rows locked by a relay's
+     * claim are skipped; the relay sends and marks those itself.
+     */
+    public void markPublished(Long[] aggregateIds, String[] idempotencyKeys, String[] eventTypes) {
+        dsl.get().execute(
+                "UPDATE outbox_events o SET status = 'PUBLISHED'::event_status, published_at = now() " +
+                "FROM (SELECT e.id FROM outbox_events e " +
+                "      JOIN unnest(?::bigint[], ?::text[], ?::text[]) k(aggregate_id, idempotency_key, event_type) " +
+                "        ON e.aggregate_id = k.aggregate_id AND e.idempotency_key = k.idempotency_key " +
+                "       AND e.event_type = k.event_type " +
+                "      WHERE e.status = 'PENDING' " +
+                "      FOR UPDATE OF e SKIP LOCKED) s " +
+                "WHERE o.id = s.id",
+                aggregateIds, idempotencyKeys, eventTypes);
+    }
+
+    /**
+     * Receives one event key of {@link #stillPending}.
+     */
+    @FunctionalInterface
+    public interface KeyConsumer {
+        void accept(long aggregateId, String idempotencyKey, String eventType);
+    }
+
+    /**
+     * Reports which of the events identified by account, idempotency key and type are still pending,
+     * along idx_outbox_pending_key.
+     */
+    public void stillPending(Long[] aggregateIds, String[] idempotencyKeys, String[] eventTypes, KeyConsumer consumer) {
+        dsl.get().resultQuery(
+                        "SELECT e.aggregate_id, e.idempotency_key, e.event_type FROM outbox_events e " +
+                        "JOIN unnest(?::bigint[], ?::text[], ?::text[]) k(aggregate_id, idempotency_key, event_type) " +
+                        "  ON e.aggregate_id = k.aggregate_id AND e.idempotency_key = k.idempotency_key " +
+                        " AND e.event_type = k.event_type " +
+                        "WHERE e.status = 'PENDING'",
+                        aggregateIds, idempotencyKeys, eventTypes)
+                .forEach(r -> consumer.accept(
+                        r.get("aggregate_id", Long.class),
+                        r.get("idempotency_key", String.class),
+                        r.get("event_type", String.class)));
+    }
+
+    /**
+     * Leaves the events pending, due again after {@code retryDelaySeconds}; later events of their
+     * accounts wait behind them.
+     */
+    public void reschedule(List<Long> eventIds, String errorMessage, int retryDelaySeconds) {
+        dsl.get().execute(
+                "UPDATE outbox_events SET error_message = ?, available_at = now() + make_interval(secs => ?) " +
+                "WHERE id = ANY(?::bigint[]) AND status = 'PENDING'",
+                truncate(errorMessage, 500),
+                retryDelaySeconds,
+                eventIds.toArray(Long[]::new));
     }
 
     public void markPublished(long eventId) {
-        dsl.execute(
+        dsl.get().execute(
                 "UPDATE outbox_events SET status = 'PUBLISHED'::event_status, published_at = ? WHERE id = ?",
                 OffsetDateTime.now(),
                 eventId
@@ -42,7 +206,7 @@ public class OutboxRepository {
     }
 
     public void markFailed(long eventId, String errorMessage, int retryDelaySeconds) {
-        dsl.execute(
+        dsl.get().execute(
                 "UPDATE outbox_events SET status = 'FAILED'::event_status, error_message = ?, available_at = ? WHERE id = ?",
                 truncate(errorMessage, 500),
                 OffsetDateTime.now().plusSeconds(retryDelaySeconds),
@@ -0,0 +1,211 @@
+package infrastructure.repository;
+
+import io.micrometer.core.instrument.Counter;
+import org.jboss.logging.Logger;
+import org.jooq.ConnectionProvider;
+import org.jooq.SQLDialect;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A connection owned by one shard thread for its whole life, outside the pool.
+ *
+ * Prepared statements are cached per SQL text and handed back to jOOQ on every execution; jOOQ's
+ * close() only clears parameters. With prepareThreshold=1 the driver prepares each statement on the
+ * server once, so the hot path skips pool acquisition, parsing and planning.
+ *
+ * A connection-class SQLState (08xxx) marks the connection broken; the next acquire reconnects.
+ * Idle connections are revalidated at most once per validation interval.
+ */
+public final class PinnedConnection implements ConnectionProvider {
+
+    private static final Logger log = Logger.getLogger(PinnedConnection.class);
+
+    private final DslProvider dslProvider;
+    private final String url;
+    private final Properties props;
+    private final int cacheSize;
+    private final long validateIntervalNanos;
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+    private final Counter reconnects;
+
+    // shard thread only
+    private Connection physical;
+    private Connection proxy;
+    private Map<String, PreparedStatement> statements;
+    private boolean broken;
+    private long lastValidatedNanos;
+
+    PinnedConnection(DslProvider dslProvider, String url, Properties props, int cacheSize, long validateIntervalNanos,
+                     Counter cacheHits, Counter cacheMisses, Counter reconnects) {
+        this.dslProvider = dslProvider;
+        this.url = url;
+        this.props = props;
+        this.cacheSize = cacheSize;
+        this.validateIntervalNanos = validateIntervalNanos;
+        this.cacheHits = cacheHits;
+        this.cacheMisses = cacheMisses;
+        this.reconnects = reconnects;
+    }
+
+    /**
+     * Makes this connection the calling (shard) thread's default context.
+     */
+    public void bindToCurrentThread() {
+        dslProvider.bind(DslProvider.counted(DSL.using(this, SQLDialect.POSTGRES)), false);
+    }
+
+    @Override
+    public Connection acquire() throws DataAccessException {
+        try {
+            long now = System.nanoTime();
+            if (physical != null && !broken && now - lastValidatedNanos > validateIntervalNanos) {
+                broken = !physical.isValid(1);
+                lastValidatedNanos = now;
+            }
+            if (physical == null || broken) {
+                reconnect();
+            }
+            return proxy;
+        } catch (SQLException e) {
+            broken = true;
+            throw new DataAccessException("Pinned connection unavailable", e);
+        }
+    }
+
+    @Override
+    public void release(Connection connection) {
+        // kept for the shard's lifetime
+    }
+
+    public void close() {
+        closePhysical();
+    }
+
+    private void reconnect() throws SQLException {
+        if (physical != null) {
+            reconnects.increment();
+            log.warnf("Re-establishing pinned connection %s", url);
+            closePhysical();
+        }
+        physical = DriverManager.getConnection(url, props);
+        statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= cacheSize) {
+                    return false;
+                }
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+        proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionHandler(physical));
+        broken = false;
+        lastValidatedNanos = System.nanoTime();
+    }
+
+    private void closePhysical() {
+        if (physical == null) {
+            return;
+        }
+        statements.values().forEach(PinnedConnection::closeQuietly);
+        statements.clear();
+        try {
+            physical.close();
+        } catch (SQLException ignored) {
+            // already gone
+        }
+        physical = null;
+        proxy = null;
+    }
+
+    private Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sql && sql.getSQLState() != null && sql.getSQLState().startsWith("08")) {
+                broken = true;
+            }
+            throw cause;
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+            // the connection is being dropped or the statement is already invalid
+        }
+    }
+
+    private final class ConnectionHandler implements InvocationHandler {
+
+        private final Connection target;
+
+        ConnectionHandler(Connection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("prepareStatement") && args.length == 1) {
+                return cached((String) args[0]);
+            }
+            if (method.getName().equals("close")) {
+                return null;
+            }
+            return PinnedConnection.this.invoke(target, method, args);
+        }
+
+        private PreparedStatement cached(String sql) throws Throwable {
+            PreparedStatement statement = statements.get(sql);
+            if (statement != null) {
+                cacheHits.increment();
+            } else {
+                cacheMisses.increment();
+                statement = (PreparedStatement) PinnedConnection.this.invoke(target,
+                        Connection.class.getMethod("prepareStatement", String.class), new Object[]{sql});
+                statements.put(sql, statement);
+            }
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, new StatementHandler(statement));
+        }
+    }
+
+    private final class StatementHandler implements InvocationHandler {
+
+        private final PreparedStatement target;
+
+        StatementHandler(PreparedStatement target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+            return switch (method.getName()) {
+                case "close" -> {
+                    target.clearParameters();
+                    yield null;
+                }
+                case "isClosed" -> false;
+                case "getConnection" -> proxy;
+                default -> PinnedConnection.this.invoke(target, method, args);
+            };
+        }
+    }
+}
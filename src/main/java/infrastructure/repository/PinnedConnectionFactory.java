@@ -0,0 +1,55 @@
+package infrastructure.repository;
+
+import infrastructure.metrics.DbMetrics;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+@ApplicationScoped
+public class PinnedConnectionFactory {
+
+    @ConfigProperty(name = "account.shard.pinned-connection.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "account.shard.pinned-connection.statement-cache-size", defaultValue = "128")
+    int statementCacheSize;
+
+    @ConfigProperty(name = "account.shard.pinned-connection.validate-interval-millis", defaultValue = "5000")
+    long validateIntervalMillis;
+
+    @ConfigProperty(name = "quarkus.datasource.jdbc.url")
+    String url;
+
+    @ConfigProperty(name = "quarkus.datasource.username")
+    String username;
+
+    @ConfigProperty(name = "quarkus.datasource.password")
+    String password;
+
+    @Inject DslProvider dslProvider;
+    @Inject DbMetrics metrics;
+
+    /**
+     * A dedicated connection for one shard thread, or null when shards share the pool.
+     */
+    public PinnedConnection open(String shard) {
+        if (!enabled) {
+            return null;
+        }
+        Properties props = new Properties();
+        props.setProperty("user", username);
+        props.setProperty("password", password);
+        // server-side prepare on first execution; the statement objects themselves are cached
+        props.setProperty("prepareThreshold", "1");
+        props.setProperty("ApplicationName", "account-shard-" + shard);
+
+        return new PinnedConnection(dslProvider, url, props, statementCacheSize,
+                TimeUnit.MILLISECONDS.toNanos(validateIntervalMillis),
+                metrics.statementCache(shard, "hit"),
+                metrics.statementCache(shard, "miss"),
+                metrics.pinnedReconnects(shard));
+    }
+}
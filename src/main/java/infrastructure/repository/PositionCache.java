@@ -0,0 +1,198 @@
+package infrastructure.repository;
+
+import infrastructure.metrics.DbMetrics;
+import io.micrometer.core.instrument.Counter;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jooq.Record;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongPredicate;
+
+/**
+ * Shard-local cache of positions (quantity, reserved quantity, average price) per account and security.
+ *
+ * Same scheme as {@link AccountStateCache}: every shard thread binds its own {@link PositionTable}
+ * and keeps the positions of the accounts it owns current in place, writers off the shard threads
+ * bump a shared striped version counter, and entries are only stored after the writing transaction
+ * commits. A missing position is cached as an empty one. Positions with fractional quantities are
+ * never cached.
+ *
+ * Reserve and sell-fill checks answer from the cache; buy fills take the current quantity and
+ * average price from it and write the final values back.
+ */
+@ApplicationScoped
+public class PositionCache {
+
+    private static final int STRIPES = 1 << 14;
+
+    @ConfigProperty(name = "account.shard.position-cache.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "account.shard.position-cache.max-entries", defaultValue = "262144")
+    int maxEntries;
+
+    @ConfigProperty(name = "account.shard.state-cache.expire-after-seconds", defaultValue = "0")
+    int expireAfterSeconds;
+
+    @Inject DbMetrics metrics;
+
+    private final ThreadLocal<Segment> segment = new ThreadLocal<>();
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+
+    public record PositionState(long quantity, long reservedQuantity, long avgPriceMicros) {
+
+        public static final PositionState EMPTY = new PositionState(0, 0, 0);
+
+        public long available() {
+            return quantity - reservedQuantity;
+        }
+    }
+
+    /**
+     * Gives the calling shard thread its own table. No-op when the cache is disabled.
+     */
+    public void bindShard(String shard) {
+        if (!enabled) {
+            return;
+        }
+        PositionTable table = new PositionTable(maxEntries);
+        metrics.registerPositionStore(shard, table, PositionTable::size, PositionTable::capacity,
+                PositionTable::evictions);
+        segment.set(new Segment(table, metrics.positionCache(shard, "hit"), metrics.positionCache(shard, "miss")));
+    }
+
+    public boolean active() {
+        return segment.get() != null;
+    }
+
+    /**
+     * Take before reading the position; pass to {@link #put} so a concurrent write discards the entry.
+     */
+    public long version(long accountId) {
+        return versions.get(stripe(accountId));
+    }
+
+    /**
+     * The cached position, or null on a miss.
+     */
+    public PositionState get(long accountId, int securityId) {
+        Segment s = segment.get();
+        if (s == null) {
+            return null;
+        }
+        PositionTable table = s.table;
+        int i = table.find(accountId, securityId);
+        if (i < 0 || !current(table, i, accountId)) {
+            s.misses.increment();
+            return null;
+        }
+        s.hits.increment();
+        return new PositionState(table.quantity(i), table.reserved(i), table.avgPrice(i));
+    }
+
+    /**
+     * Records a position read or written under {@code expectedVersion}; see {@link AccountStateCache#put}.
+     * A null state just drops the entry.
+     */
+    public void put(long accountId, int securityId, PositionState state, long expectedVersion) {
+        Segment s = segment.get();
+        if (s == null) {
+            return;
+        }
+        if (state == null || versions.get(stripe(accountId)) != expectedVersion) {
+            s.table.remove(accountId, securityId);
+            return;
+        }
+        store(s, accountId, securityId, state, expectedVersion);
+    }
+
+    /**
+     * See {@link AccountStateCache#snapshotVersions}.
+     */
+    public long[] snapshotVersions() {
+        long[] snapshot = new long[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            snapshot[i] = versions.get(i);
+        }
+        return snapshot;
+    }
+
+    public void warm(long accountId, int securityId, PositionState state, long[] snapshot) {
+        put(accountId, securityId, state, snapshot[stripe(accountId)]);
+    }
+
+    public void remove(long accountId, int securityId) {
+        Segment s = segment.get();
+        if (s != null) {
+            s.table.remove(accountId, securityId);
+        }
+    }
+
+    /**
+     * Call after a write made outside the cache; see {@link AccountStateCache#invalidate}.
+     */
+    public void invalidate(long accountId) {
+        Segment s = segment.get();
+        if (s != null) {
+            s.table.removeIf(id -> id == accountId);
+        } else {
+            versions.incrementAndGet(stripe(accountId));
+        }
+    }
+
+    /**
+     * See {@link AccountStateCache#drop}.
+     */
+    public int drop(LongPredicate accounts) {
+        Segment s = segment.get();
+        return s == null ? 0 : s.table.removeIf(accounts);
+    }
+
+    /**
+     * Position state from a row with quantity_units, reserved_quantity_units and avg_price_micros.
+     */
+    public static PositionState toState(Record rec) {
+        return new PositionState(rec.get("quantity_units", Long.class),
+                rec.get("reserved_quantity_units", Long.class),
+                rec.get("avg_price_micros", Long.class));
+    }
+
+    /**
+     * {@link #toState(Record)} from quantity and reserved quantity in whole units and average price in
+     * micro-units, read by index from {@code column} on.
+     */
+    public static PositionState toState(ResultSet rs, int column) throws SQLException {
+        return new PositionState(rs.getLong(column), rs.getLong(column + 1), rs.getLong(column + 2));
+    }
+
+    /**
+     * The quantity as a whole number of units, or -1 if it is fractional, negative or too large.
+     */
+    public static long wholeUnits(BigDecimal quantity) {
+        try {
+            return quantity.signum() < 0 ? -1 : quantity.longValueExact();
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    private boolean current(PositionTable table, int i, long accountId) {
+        return table.version(i) == versions.get(stripe(accountId))
+                && (expireAfterSeconds <= 0 || table.ageSeconds(i) <= expireAfterSeconds);
+    }
+
+    private static void store(Segment s, long accountId, int securityId, PositionState state, long version) {
+        s.table.put(accountId, securityId, state.quantity(), state.reservedQuantity(), state.avgPriceMicros(), version);
+    }
+
+    private static int stripe(long accountId) {
+        return (int) (accountId ^ (accountId >>> 32)) & (STRIPES - 1);
+    }
+
+    private record Segment(PositionTable table, Counter hits, Counter misses) {}
+}
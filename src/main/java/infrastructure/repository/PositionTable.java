@@ -0,0 +1,195 @@
+package infrastructure.repository;
+
+import java.util.function.LongPredicate;
+
+/**
+ * Positions keyed by (account ID, security ID) in parallel primitive arrays with linear probing.
+ *
+ * Quantities are whole units, the average price is in micro-units. Lookups do not allocate or
+ * dereference anything: the key is two primitives compared in place.
+ * The table never holds more than 3/4 of its slots; when full, a CLOCK hand evicts an entry that
+ * was not read since the hand last passed it. Deletion shifts the probe chain back. Single-threaded:
+ * one table per shard thread.
+ */
+final class PositionTable {
+
+    private final long[] accounts;
+    private final int[] securities;
+    private final boolean[] used;
+    private final long[] quantity;
+    private final long[] reserved;
+    private final long[] avgPrice;
+    private final long[] version;
+    private final int[] loadedAt;
+    private final boolean[] referenced;
+    private final int mask;
+    private final int maxEntries;
+    private final long epochNanos = System.nanoTime();
+
+    private int size;
+    private int clockHand;
+    private long evictions;
+
+    PositionTable(int maxEntries) {
+        int slots = Integer.highestOneBit(Math.max(16, maxEntries) * 2 - 1) << 1;
+        this.accounts = new long[slots];
+        this.securities = new int[slots];
+        this.used = new boolean[slots];
+        this.quantity = new long[slots];
+        this.reserved = new long[slots];
+        this.avgPrice = new long[slots];
+        this.version = new long[slots];
+        this.loadedAt = new int[slots];
+        this.referenced = new boolean[slots];
+        this.mask = slots - 1;
+        this.maxEntries = slots / 4 * 3;
+    }
+
+    /**
+     * Slot of the position, or -1.
+     */
+    int find(long accountId, int securityId) {
+        int i = index(accountId, securityId);
+        while (true) {
+            if (!used[i]) {
+                return -1;
+            }
+            if (accounts[i] == accountId && securities[i] == securityId) {
+                referenced[i] = true;
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    void put(long accountId, int securityId, long qty, long reservedQty, long avgPriceMicros, long ver) {
+        int i = find(accountId, securityId);
+        if (i < 0) {
+            if (size >= maxEntries) {
+                evictOne();
+            }
+            i = index(accountId, securityId);
+            while (used[i]) {
+                i = (i + 1) & mask;
+            }
+            accounts[i] = accountId;
+            securities[i] = securityId;
+            used[i] = true;
+            size++;
+        }
+        quantity[i] = qty;
+        reserved[i] = reservedQty;
+        avgPrice[i] = avgPriceMicros;
+        version[i] = ver;
+        loadedAt[i] = nowSeconds();
+    }
+
+    void remove(long accountId, int securityId) {
+        int i = find(accountId, securityId);
+        if (i >= 0) {
+            delete(i);
+        }
+    }
+
+    /**
+     * Removes every position whose account ID {@code matching} accepts; returns how many were removed.
+     */
+    int removeIf(LongPredicate matching) {
+        int removed = 0;
+        // a deletion may shift a later entry into slot i, so i is looked at again
+        for (int i = 0; i <= mask; ) {
+            if (used[i] && matching.test(accounts[i])) {
+                delete(i);
+                removed++;
+            } else {
+                i++;
+            }
+        }
+        return removed;
+    }
+
+    long quantity(int i) {
+        return quantity[i];
+    }
+
+    long reserved(int i) {
+        return reserved[i];
+    }
+
+    long avgPrice(int i) {
+        return avgPrice[i];
+    }
+
+    long version(int i) {
+        return version[i];
+    }
+
+    int ageSeconds(int i) {
+        return nowSeconds() - loadedAt[i];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return maxEntries;
+    }
+
+    long evictions() {
+        return evictions;
+    }
+
+    private void evictOne() {
+        while (true) {
+            if (used[clockHand]) {
+                if (referenced[clockHand]) {
+                    referenced[clockHand] = false;
+                } else {
+                    delete(clockHand);
+                    evictions++;
+                    return;
+                }
+            }
+            clockHand = (clockHand + 1) & mask;
+        }
+    }
+
+    private void delete(int hole) {
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            if (!used[i]) {
+                break;
+            }
+            int home = index(accounts[i], securities[i]);
+            // entry at i may move to the hole only if its home is not cyclically in (hole, i]
+            boolean movable = hole <= i ? (home <= hole || home > i) : (home <= hole && home > i);
+            if (movable) {
+                accounts[hole] = accounts[i];
+                securities[hole] = securities[i];
+                quantity[hole] = quantity[i];
+                reserved[hole] = reserved[i];
+                avgPrice[hole] = avgPrice[i];
+                version[hole] = version[i];
+                loadedAt[hole] = loadedAt[i];
+                referenced[hole] = referenced[i];
+                hole = i;
+            }
+        }
+        accounts[hole] = 0;
+        securities[hole] = 0;
+        used[hole] = false;
+        referenced[hole] = false;
+        size--;
+    }
+
+    private int index(long accountId, int securityId) {
+        long z = (accountId ^ ((long) securityId << 32)) * 0x9E3779B97F4A7C15L;
+        return (int) (z ^ (z >>> 32)) & mask;
+    }
+
+    private int nowSeconds() {
+        return (int) ((System.nanoTime() - epochNanos) / 1_000_000_000L);
+    }
+}
@@ -1,108 +1,222 @@
 package infrastructure.repository;
 
 import domain.model.result.CommandResult;
+import infrastructure.repository.IdempotencyFilter.Table;
+import infrastructure.repository.PositionCache.PositionState;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.jooq.DSLContext;
-import org.jooq.Record;
 import org.jooq.exception.DataAccessException;
 
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
 
+import static infrastructure.repository.CompiledQuery.slot;
+import static infrastructure.repository.schema.Tables.POSITION_LEDGER;
+import static org.jooq.impl.DSL.inline;
+import static org.jooq.impl.DSL.select;
+
 @ApplicationScoped
 public class PositionWriteRepository {
 
-    @Inject DSLContext dsl;
+    private static final String QUANTITY = MoneyColumns.units("s.quantity");
+    private static final String RESERVED_QUANTITY = MoneyColumns.units("s.reserved_quantity");
+    private static final String AVG_PRICE = MoneyColumns.micros("s.avg_price");
+
+    // One statement per reserve, like the cash reserve: the ledger row goes in only if the locked
+    // position passes the guard and the request is new, the position moves only if the ledger row went
+    // in, and the outcome is computed from the statement's snapshot. Returns the position after the
+    // reserve, or as it stood when there was not enough of it. Quantities in whole units, prices in
+    // micro-units.
+    static final String RESERVE_SQL =
+        "WITH p AS (" +
+        "  SELECT ?::bigint AS account_id, ?::int AS security_id, ?::text AS request_id, " +
+        "         ?::bigint AS quantity, ?::timestamptz AS created_at" +
+        "), led AS (" +
+        "  INSERT INTO position_ledger " +
+        "  (account_id, security_id, entry_type, request_id, quantity_change_units, price_micros, created_at) " +
+        "  SELECT s.account_id, s.security_id, 'RESERVE', p.request_id, p.quantity, 0, p.created_at " +
+        "  FROM positions s, p WHERE s.account_id = p.account_id AND s.security_id = p.security_id " +
+        "  AND " + QUANTITY + " - " + RESERVED_QUANTITY + " >= p.quantity " +
+        "  AND NOT EXISTS (" + LedgerPartitions.recentRequest("position_ledger", "p.account_id", "p.request_id") + ") " +
+        "  FOR UPDATE OF s " +
+        "  ON CONFLICT DO NOTHING RETURNING account_id" +
+        "), pos AS (" +
+        "  UPDATE positions s SET reserved_quantity_units = " + RESERVED_QUANTITY + " + p.quantity, updated_at = now() " +
+        "  FROM p WHERE s.account_id = (SELECT account_id FROM led) AND s.security_id = p.security_id " +
+        "  RETURNING " + QUANTITY + " AS quantity_units, s.reserved_quantity_units, " + AVG_PRICE + " AS avg_price_micros" +
+        "), cur AS (" +
+        "  SELECT " + QUANTITY + " AS quantity_units, " + RESERVED_QUANTITY + " AS reserved_quantity_units, " +
+        "         " + AVG_PRICE + " AS avg_price_micros " +
+        "  FROM positions s, p WHERE s.account_id = p.account_id AND s.security_id = p.security_id" +
+        ") " +
+        "SELECT CASE " +
+        "  WHEN pos.quantity_units IS NOT NULL THEN 'OK' " +
+        "  WHEN EXISTS (" + LedgerPartitions.recentRequest("position_ledger", "p.account_id", "p.request_id") + ") " +
+        "    THEN 'DUPLICATE' " +
+        "  WHEN cur.quantity_units IS NULL OR cur.quantity_units - cur.reserved_quantity_units < p.quantity " +
+        "    THEN 'INSUFFICIENT_POSITION' " +
+        "  ELSE 'DUPLICATE' " + // the ledger insert conflicted with a request committed after the snapshot
+        "END AS outcome, " +
+        "pos.quantity_units, pos.reserved_quantity_units, pos.avg_price_micros, " +
+        "cur.quantity_units, cur.reserved_quantity_units, cur.avg_price_micros " +
+        "FROM p LEFT JOIN pos ON true LEFT JOIN cur ON true";
+
+    private static final CompiledQuery RESERVE = CompiledQuery.fenced(RESERVE_SQL + " WHERE " + CompiledQuery.FENCE);
+
+    private static final CompiledQuery OPEN_RESERVE = CompiledQuery.of(
+        select(POSITION_LEDGER.SECURITY_ID,
+                MoneyColumns.units(POSITION_LEDGER.QUANTITY_CHANGE, POSITION_LEDGER.QUANTITY_CHANGE_UNITS),
+                POSITION_LEDGER.ORDER_ID)
+            .from(POSITION_LEDGER)
+            .where(POSITION_LEDGER.ACCOUNT_ID.eq(slot(POSITION_LEDGER.ACCOUNT_ID)))
+            .and(POSITION_LEDGER.REQUEST_ID.eq(slot(POSITION_LEDGER.REQUEST_ID)))
+            .and(POSITION_LEDGER.ENTRY_TYPE.eq(inline("RESERVE"))));
+
+    // position update and ledger row in one statement; a repeated release trips the partition's request index
+    private static final CompiledQuery RELEASE = CompiledQuery.fenced(
+        "WITH pos AS (" +
+        "  UPDATE positions " +
+        "  SET reserved_quantity_units = " + MoneyColumns.units("reserved_quantity") + " - ?, updated_at = now() " +
+        "  WHERE account_id = ? AND security_id = ? AND " + MoneyColumns.units("reserved_quantity") + " >= ? " +
+        "  RETURNING account_id, security_id, " + MoneyColumns.units("quantity") + " AS quantity_units, " +
+        "            reserved_quantity_units, " + MoneyColumns.micros("avg_price") + " AS avg_price_micros" +
+        "), led AS (" +
+        "  INSERT INTO position_ledger " +
+        "  (account_id, security_id, entry_type, request_id, order_id, quantity_change_units, price_micros, created_at) " +
+        "  SELECT account_id, security_id, 'UNRESERVE', ?, ?, ?, 0, ? FROM pos" +
+        ") " +
+        "SELECT quantity_units, reserved_quantity_units, avg_price_micros FROM pos WHERE " + CompiledQuery.FENCE);
+
+    // outcome row of a reserve: the position after it went through, or as it was when it did not
+    private record PositionWrite(String outcome, PositionState position, PositionState current) {}
+
+    private record OpenReserve(int securityId, long quantity, String orderId) {}
+
+    @Inject DslProvider dsl;
+    @Inject IdempotencyFilter idempotency;
+    @Inject OpenReservationIndex openReservations;
+    @Inject PositionCache positionCache;
+
+    public CommandResult reservePosition(long accountId, int securityId, BigDecimal qtyChange, String requestId) {
+        long version = positionCache.version(accountId);
+        long qty = PositionCache.wholeUnits(qtyChange);
+        if (qty < 0) {
+            // quantities are stored in whole units
+            return CommandResult.fail("INVALID_AMOUNT", "Quantity must be a whole number of units: " + qtyChange);
+        }
+        PositionState cached = positionCache.get(accountId, securityId);
+        if (cached != null && cached.available() < qty) {
+            // a retried reserve that already went through must still answer DUPLICATE
+            if (idempotency.seen(dsl.get(), Table.POSITION_LEDGER, requestId)) {
+                return CommandResult.duplicate();
+            }
+            return CommandResult.insufficientPosition();
+        }
 
-    public CommandResult reservePosition(long accountId, String symbol, BigDecimal qtyChange, String requestId) {
         try {
-            return dsl.transactionResult(cfg -> {
-                DSLContext tx = cfg.dsl();
-
-                boolean exists = tx.fetchExists(
-                    tx.selectOne().from("position_ledger").where("request_id = ?", requestId)
-                );
-                if (exists) {
-                    return CommandResult.duplicate();
+            PositionWrite written = RESERVE.fetchOne(dsl.get(),
+                ps -> {
+                    ps.setLong(1, accountId);
+                    ps.setInt(2, securityId);
+                    ps.setString(3, requestId);
+                    ps.setLong(4, qty);
+                    ps.setObject(5, OffsetDateTime.now());
+                },
+                rs -> new PositionWrite(rs.getString(1),
+                    rs.getObject(2) == null ? null : PositionCache.toState(rs, 2),
+                    rs.getObject(5) == null ? null : PositionCache.toState(rs, 5)));
+
+            switch (written.outcome()) {
+                case "OK" -> {
+                    PositionState state = written.position();
+                    dsl.afterCommit(() -> positionCache.put(accountId, securityId, state, version));
+                    idempotency.recordAfterCommit(Table.POSITION_LEDGER, requestId);
+                    openReservations.positionReservedAfterCommit(requestId, accountId, securityId, qty, null);
                 }
-
-                Record rec = tx.fetchOne(
-                    "UPDATE positions " +
-                    "SET reserved_quantity = reserved_quantity + ?, updated_at = now() " +
-                    "WHERE account_id = ? AND symbol = ? AND quantity >= ? " +
-                    "RETURNING account_id, symbol, quantity, reserved_quantity, avg_price",
-                    qtyChange, accountId, symbol, qtyChange
-                );
-
-                if (rec == null) {
-                    return CommandResult.insufficientPosition();
+                case "INSUFFICIENT_POSITION" -> {
+                    // remember why, so the next attempt is answered from memory
+                    PositionState loaded = written.current() == null ? PositionState.EMPTY : written.current();
+                    dsl.afterCommit(() -> positionCache.put(accountId, securityId, loaded, version));
                 }
-
-                tx.execute(
-                    "INSERT INTO position_ledger (account_id, symbol, entry_type, request_id, quantity_change, price, created_at) " +
-                    "VALUES (?, ?, 'RESERVE', ?, ?, 0, ?)",
-                    accountId, symbol, requestId, qtyChange, OffsetDateTime.now()
-                );
-
-                return CommandResult.ok();
-            });
+                default -> { }
+            }
+            return CommandResult.ofCode(written.outcome());
         } catch (DataAccessException e) {
+            if (IdempotencyFilter.isDuplicateKey(e)) {
+                return CommandResult.duplicate();
+            }
             return CommandResult.fail("INTERNAL_ERROR", e.getMessage());
         }
     }
 
     public CommandResult unreservePosition(long accountId, String requestId) {
+        long version = positionCache.version(accountId);
         try {
             return dsl.transactionResult(cfg -> {
                 DSLContext tx = cfg.dsl();
 
-                Record reserveRec = tx.fetchOne(
-                    "SELECT symbol, quantity_change, order_id " +
-                    "FROM position_ledger " +
-                    "WHERE account_id = ? AND request_id = ? AND entry_type = 'RESERVE'",
-                    accountId, requestId
-                );
-
-                if (reserveRec == null) {
-                    return CommandResult.positionNotFound();
+                int securityId;
+                long reservedQty;
+                String orderId;
+                OpenReservationIndex.PositionReservation open = openReservations.position(accountId, requestId);
+                if (open != null) {
+                    securityId = open.securityId();
+                    reservedQty = open.quantity();
+                    orderId = open.orderId();
+                } else {
+                    OpenReserve reserve = OPEN_RESERVE.fetchOne(tx,
+                        ps -> {
+                            ps.setLong(1, accountId);
+                            ps.setString(2, requestId);
+                        },
+                        rs -> new OpenReserve(rs.getInt(1), rs.getLong(2), rs.getString(3)));
+
+                    if (reserve == null) {
+                        return CommandResult.positionNotFound();
+                    }
+
+                    securityId = reserve.securityId();
+                    reservedQty = reserve.quantity();
+                    orderId = reserve.orderId();
                 }
 
-                String symbol = reserveRec.get("symbol", String.class);
-                BigDecimal reservedQty = reserveRec.get("quantity_change", BigDecimal.class);
-                String orderId = reserveRec.get("order_id", String.class);
-
                 String unreserveRequestId = "un:" + requestId;
 
-                boolean exists = tx.fetchExists(
-                    tx.selectOne().from("position_ledger")
-                        .where("request_id = ? AND entry_type = 'UNRESERVE'", unreserveRequestId)
-                );
-                if (exists) {
+                if (idempotency.seen(tx, Table.POSITION_LEDGER, unreserveRequestId)) {
                     return CommandResult.duplicate();
                 }
 
-                tx.execute(
-                    "INSERT INTO position_ledger (account_id, symbol, entry_type, request_id, order_id, quantity_change, price, created_at) " +
-                    "VALUES (?, ?, 'UNRESERVE', ?, ?, ?, 0, ?)",
-                    accountId, symbol, unreserveRequestId, orderId, reservedQty.negate(), OffsetDateTime.now()
-                );
-
-                Record rec = tx.fetchOne(
-                    "UPDATE positions " +
-                    "SET reserved_quantity = reserved_quantity - ?, updated_at = now() " +
-                    "WHERE account_id = ? AND symbol = ? AND reserved_quantity >= ? " +
-                    "RETURNING account_id, symbol, quantity, reserved_quantity, avg_price",
-                    reservedQty, accountId, symbol, reservedQty
-                );
-
-                if (rec == null) {
+                int releasedSecurityId = securityId;
+                long releasedQty = reservedQty;
+                String releasedOrderId = orderId;
+                PositionState written = RELEASE.fetchOne(tx,
+                    ps -> {
+                        ps.setLong(1, releasedQty);
+                        ps.setLong(2, accountId);
+                        ps.setInt(3, releasedSecurityId);
+                        ps.setLong(4, releasedQty);
+                        ps.setString(5, unreserveRequestId);
+                        ps.setString(6, releasedOrderId);
+                        ps.setLong(7, -releasedQty);
+                        ps.setObject(8, OffsetDateTime.now());
+                    },
+                    rs -> PositionCache.toState(rs, 1));
+
+                if (written == null) {
+                    positionCache.remove(accountId, securityId);
                     return CommandResult.insufficientPosition();
                 }
+                dsl.afterCommit(() -> positionCache.put(accountId, releasedSecurityId, written, version));
+                idempotency.recordAfterCommit(Table.POSITION_LEDGER, unreserveRequestId);
+                openReservations.positionReleasedAfterCommit(requestId);
 
                 return CommandResult.ok();
             });
         } catch (DataAccessException e) {
+            if (IdempotencyFilter.isDuplicateKey(e)) {
+                return CommandResult.duplicate();
+            }
             return CommandResult.fail("INTERNAL_ERROR", e.getMessage());
         }
     }
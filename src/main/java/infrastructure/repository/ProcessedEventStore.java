@@ -0,0 +1,178 @@
+package infrastructure.repository;
+
+import infrastructure.metrics.DbMetrics;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.Config;
+import org.apache.kafka.clients.admin.ConfigEntry;
+import org.apache.kafka.common.config.ConfigResource;
+import org.apache.kafka.common.config.TopicConfig;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.jooq.Record;
+import org.jooq.exception.DataAccessException;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The dedup window of fill events and the daily partitions of {@code processed_events} behind it.
+ *
+ * A fill's event ID is looked up only over the last window-hours, and partitions (one per UTC
+ * day, V7) whose day ended before the window are detached and dropped, so the table holds about
+ * window-hours of IDs and expiring them costs no DELETE. The window has to cover the retention of
+ * the fills topic: an event the broker can still redeliver must still be found. At startup the
+ * topic's {@code retention.ms} is read and a shorter window is reported.
+ */
+@ApplicationScoped
+public class ProcessedEventStore {
+
+    private static final Logger log = Logger.getLogger(ProcessedEventStore.class);
+
+    private static final String PREFIX = "processed_events_p";
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    @ConfigProperty(name = "account.fills.dedup.window-hours", defaultValue = "168")
+    int windowHours;
+
+    @ConfigProperty(name = "account.fills.dedup.premake-days", defaultValue = "3")
+    int premakeDays;
+
+    @ConfigProperty(name = "account.fills.dedup.check-minutes", defaultValue = "60")
+    int checkMinutes;
+
+    @ConfigProperty(name = "mp.messaging.incoming.order-filled-events.topic", defaultValue = "order.filled.events")
+    String topic;
+
+    @ConfigProperty(name = "kafka.bootstrap.servers", defaultValue = "localhost:9092")
+    String bootstrapServers;
+
+    @Inject DslProvider dsl;
+    @Inject DbMetrics metrics;
+
+    private Duration window;
+    private ScheduledExecutorService scheduler;
+    private volatile long tableBytes;
+    private volatile int partitions;
+    private volatile double topicRetentionSeconds = Double.NaN;
+
+    @PostConstruct
+    void init() {
+        window = Duration.ofHours(windowHours);
+        metrics.registerProcessedEvents(this, s -> s.tableBytes, s -> s.partitions, s -> s.window.toSeconds(),
+                s -> s.topicRetentionSeconds);
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "account-processed-events");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.execute(this::checkTopicRetention);
+        scheduler.scheduleWithFixedDelay(this::maintain, 0, checkMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Start of the dedup window: event IDs processed before this are no longer looked up.
+     */
+    public OffsetDateTime since() {
+        return OffsetDateTime.now().minus(window);
+    }
+
+    void maintain() {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        try {
+            for (int i = 0; i <= premakeDays; i++) {
+                LocalDate day = today.plusDays(i);
+                Boolean created = dsl.get().fetchSingle("SELECT processed_events_ensure_partition(?)", day)
+                        .get(0, Boolean.class);
+                if (Boolean.TRUE.equals(created)) {
+                    log.infof("Created %s", PREFIX + day.format(SUFFIX));
+                }
+            }
+            prune();
+            measure();
+        } catch (DataAccessException e) {
+            log.errorf(e, "processed_events maintenance failed");
+        }
+    }
+
+    // a day's partition goes once all of it is older than the window
+    private void prune() {
+        long startNanos = System.nanoTime();
+        String firstKept = PREFIX + OffsetDateTime.now(ZoneOffset.UTC).minus(window).toLocalDate().format(SUFFIX);
+        int dropped = 0;
+        for (String partition : partitionNames()) {
+            if (partition.compareTo(firstKept) >= 0) {
+                continue;
+            }
+            // CONCURRENTLY leaves inserts into today's partition running; it cannot run inside a transaction
+            dsl.get().execute("ALTER TABLE processed_events DETACH PARTITION " + partition + " CONCURRENTLY");
+            dsl.get().execute("DROP TABLE " + partition);
+            dropped++;
+        }
+        metrics.recordDedupPrune(dropped, System.nanoTime() - startNanos);
+        if (dropped > 0) {
+            log.infof("Dropped %d processed_events partitions before %s", dropped, firstKept);
+        }
+    }
+
+    private void measure() {
+        Record size = dsl.get().fetchSingle(
+                "SELECT count(*) AS n, coalesce(sum(pg_total_relation_size(i.inhrelid)), 0) AS bytes " +
+                "FROM pg_inherits i WHERE i.inhparent = 'processed_events'::regclass");
+        partitions = size.get("n", Integer.class);
+        tableBytes = size.get("bytes", Long.class);
+    }
+
+    private List<String> partitionNames() {
+        return dsl.get().fetch(
+                "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                "WHERE i.inhparent = 'processed_events'::regclass ORDER BY c.relname"
+        ).getValues(0, String.class).stream()
+                .filter(name -> name.matches(PREFIX + "\\d{8}"))
+                .toList();
+    }
+
+    private void checkTopicRetention() {
+        try (Admin admin = Admin.create(Map.of(
+                AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers,
+                AdminClientConfig.DEFAULT_API_TIMEOUT_MS_CONFIG, 10_000))) {
+            ConfigResource resource = new ConfigResource(ConfigResource.Type.TOPIC, topic);
+            Config config = admin.describeConfigs(List.of(resource)).all().get(15, TimeUnit.SECONDS).get(resource);
+            ConfigEntry retention = config.get(TopicConfig.RETENTION_MS_CONFIG);
+            long retentionMillis = Long.parseLong(retention.value());
+            // -1: kept forever
+            topicRetentionSeconds = retentionMillis < 0 ? Double.POSITIVE_INFINITY : retentionMillis / 1000.0;
+            if (retentionMillis < 0 || retentionMillis > window.toMillis()) {
+                log.warnf("Fill dedup window of %d h is shorter than the retention of %s (retention.ms=%d); " +
+                          "a redelivered fill older than the window would be applied again",
+                          windowHours, topic, retentionMillis);
+            }
+        } catch (Exception e) {
+            log.warnf("Could not read the retention of %s to check the fill dedup window: %s", topic, e.toString());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package infrastructure.repository;
+
+import infrastructure.metrics.DbMetrics;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * {@link AccountWriteRepository} on the reactive client.
+ */
+@ApplicationScoped
+public class ReactiveAccountWriteRepository {
+
+    // child rows first to avoid FK violations; data-modifying CTEs all run, whether or not they are read.
+    // processed_events is left to expire, as in AccountWriteRepository
+    private static final String DELETE_SQL =
+            "WITH pl AS (DELETE FROM position_ledger WHERE account_id = $1), " +
+            "pos AS (DELETE FROM positions WHERE account_id = $1), " +
+            "al AS (DELETE FROM account_ledger WHERE account_id = $1) " +
+            "DELETE FROM accounts WHERE account_id = $1";
+
+    @Inject ReactivePg pg;
+    @Inject DbMetrics metrics;
+    @Inject AccountStateCache stateCache;
+    @Inject PositionCache positionCache;
+
+    public Uni<Boolean> createAccount(long accountId) {
+        long startNanos = System.nanoTime();
+        return ReactivePg.update(pg.pool(),
+                        "INSERT INTO accounts (account_id, account_no, balance_micros, reserved_micros, currency, status) " +
+                        "VALUES ($1, $2, 0, 0, 'USD', 'ACTIVE')",
+                        accountId, "ACC" + accountId)
+                .onItem().transform(count -> {
+                    stateCache.invalidate(accountId);
+                    metrics.recordWrite("create_account", System.nanoTime() - startNanos);
+                    return count > 0;
+                })
+                .onFailure().recoverWithItem(t -> {
+                    metrics.recordWrite("create_account", System.nanoTime() - startNanos);
+                    if (ReactivePg.isDuplicateKey(t)) {
+                        metrics.incrementDuplicate("create_account");
+                    } else {
+                        metrics.incrementError("create_account");
+                    }
+                    return false;
+                });
+    }
+
+    public Uni<Boolean> deleteAccount(long accountId) {
+        long startNanos = System.nanoTime();
+        return ReactivePg.update(pg.pool(), DELETE_SQL, accountId)
+                .onItem().transform(count -> {
+                    stateCache.invalidate(accountId);
+                    positionCache.invalidate(accountId);
+                    pg.forget(accountId);
+                    metrics.recordWrite("delete_account", System.nanoTime() - startNanos);
+                    return count > 0;
+                })
+                .onFailure().recoverWithItem(t -> {
+                    metrics.recordWrite("delete_account", System.nanoTime() - startNanos);
+                    metrics.incrementError("delete_account");
+                    return false;
+                });
+    }
+}
@@ -0,0 +1,164 @@
+package infrastructure.repository;
+
+import domain.model.outbox.OutboxEvent;
+import domain.model.result.CommandResult;
+import infrastructure.metrics.DbMetrics;
+import infrastructure.repository.IdempotencyFilter.Table;
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.sqlclient.Row;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.time.OffsetDateTime;
+
+/**
+ * {@link BalanceWriteRepository} on the reactive client: the same single-statement reserve and
+ * release, without the shard-cache prechecks. The account row guards in the statement decide.
+ */
+@ApplicationScoped
+public class ReactiveBalanceWriteRepository {
+
+    private static final String RESERVE_SQL = ReactivePg.numbered(BalanceWriteRepository.RESERVE_SQL);
+    private static final String RELEASE_SQL = ReactivePg.numbered(BalanceWriteRepository.RELEASE_SQL);
+    private static final String OUTBOX_SQL = ReactivePg.numbered(OutboxRepository.INSERT_SQL);
+
+    @Inject ReactivePg pg;
+    @Inject DbMetrics metrics;
+    @Inject AccountStateCache stateCache;
+    @Inject IdempotencyFilter idempotency;
+    @Inject OpenReservationIndex openReservations;
+    @Inject OutboxPublisher outboxPublisher;
+
+    public Uni<CommandResult> reserveCash(long accountId, String requestId, String orderId, long amountMicros) {
+        long startNanos = System.nanoTime();
+        return pg.currency(accountId)
+                .onItem().transformToUni(currency -> {
+                    if (currency == null) {
+                        return Uni.createFrom().item(CommandResult.accountNotFound());
+                    }
+                    OutboxEvent event = OutboxEvent.accountReserved(accountId, amountMicros, requestId, orderId, currency);
+                    return pg.one(RESERVE_SQL, OutboxRepository.withEvent(event,
+                                    accountId, requestId, orderId, amountMicros, OffsetDateTime.now()))
+                            .onItem().transform(row -> cashOutcome("reserve_cash", accountId, row, event));
+                })
+                .onItem().invoke(result -> {
+                    if ("OK".equals(result.errorCode())) {
+                        idempotency.recordAfterCommit(Table.ACCOUNT_LEDGER, requestId);
+                        openReservations.cashReservedAfterCommit(requestId, accountId, amountMicros, orderId);
+                    }
+                    metrics.recordWrite("reserve_cash", System.nanoTime() - startNanos);
+                })
+                .onFailure().recoverWithItem(t -> failure("reserve_cash", startNanos, t));
+    }
+
+    public Uni<CommandResult> unreserveCash(long accountId, String requestId) {
+        long startNanos = System.nanoTime();
+        String unreserveRequestId = "un:" + requestId;
+
+        OpenReservationIndex.CashReservation open = openReservations.cash(accountId, requestId);
+        Uni<Row> reserve = open != null
+                ? Uni.createFrom().nullItem()
+                : pg.one("SELECT " + MoneyColumns.micros("amount") + " AS amount_micros, order_id FROM account_ledger " +
+                         "WHERE account_id = $1 AND request_id = $2 AND entry_type = 'RESERVE'",
+                         accountId, requestId);
+
+        // the reserve lookup and the currency lookup are independent, so they go out pipelined
+        return Uni.combine().all().unis(reserve, pg.currency(accountId)).asTuple()
+                .onItem().transformToUni(found -> {
+                    Row reserveRow = found.getItem1();
+                    String currency = found.getItem2();
+                    if ((open == null && reserveRow == null) || currency == null) {
+                        return Uni.createFrom().item(CommandResult.accountNotFound());
+                    }
+                    long amountMicros = open != null
+                            ? open.amountMicros() : reserveRow.getLong("amount_micros");
+                    String orderId = open != null ? open.orderId() : reserveRow.getString("order_id");
+
+                    OutboxEvent event = OutboxEvent.accountReleased(accountId, amountMicros, unreserveRequestId, orderId, currency);
+                    return pg.one(RELEASE_SQL, OutboxRepository.withEvent(event,
+                                    accountId, unreserveRequestId, orderId, amountMicros, OffsetDateTime.now()))
+                            .onItem().transform(row -> cashOutcome("unreserve_cash", accountId, row, event));
+                })
+                .onItem().invoke(result -> {
+                    if ("OK".equals(result.errorCode())) {
+                        idempotency.recordAfterCommit(Table.ACCOUNT_LEDGER, unreserveRequestId);
+                        openReservations.cashReleasedAfterCommit(requestId);
+                    }
+                    metrics.recordWrite("unreserve_cash", System.nanoTime() - startNanos);
+                })
+                .onFailure().recoverWithItem(t -> failure("unreserve_cash", startNanos, t));
+    }
+
+    public Uni<CommandResult> deposit(long accountId, long amountMicros, String source) {
+        long startNanos = System.nanoTime();
+        // the event carries the balance after the update, so the outbox insert is a second statement
+        OutboxEvent[] written = new OutboxEvent[1];
+        return pg.pool().withTransaction(conn -> ReactivePg.one(conn,
+                        "UPDATE accounts SET balance_micros = " + MoneyColumns.micros("balance") + " + $1, " +
+                        "updated_at = now() WHERE account_id = $2 " +
+                        "RETURNING balance_micros, " + MoneyColumns.micros("reserved") + " AS reserved_micros, currency",
+                        amountMicros, accountId)
+                .onItem().transformToUni(row -> {
+                    if (row == null) {
+                        return Uni.createFrom().item(CommandResult.accountNotFound());
+                    }
+                    OutboxEvent event = OutboxEvent.balanceUpdated(accountId,
+                            row.getLong("balance_micros"),
+                            row.getLong("reserved_micros"),
+                            row.getString("currency"));
+                    return ReactivePg.update(conn, OUTBOX_SQL, OutboxRepository.withEvent(event))
+                            .onItem().transform(n -> {
+                                written[0] = event;
+                                return CommandResult.ok();
+                            });
+                }))
+                .onItem().invoke(result -> {
+                    if (written[0] != null) {
+                        outboxPublisher.publishAfterCommit(written[0]);
+                    }
+                    stateCache.invalidate(accountId);
+                    metrics.recordWrite("deposit", System.nanoTime() - startNanos);
+                })
+                .onFailure().recoverWithItem(t -> failure("deposit", startNanos, t));
+    }
+
+    public Uni<CommandResult> withdraw(long accountId, long amountMicros, String destination) {
+        long startNanos = System.nanoTime();
+        return pg.one(
+                        "UPDATE accounts SET balance_micros = " + MoneyColumns.micros("balance") + " - $1, " +
+                        "updated_at = now() WHERE account_id = $2 AND " + MoneyColumns.micros("balance") + " >= $1 " +
+                        "RETURNING balance_micros",
+                        amountMicros, accountId)
+                .onItem().transform(row -> {
+                    stateCache.invalidate(accountId);
+                    metrics.recordWrite("withdraw", System.nanoTime() - startNanos);
+                    return row == null ? CommandResult.insufficientFunds() : CommandResult.ok();
+                })
+                .onFailure().recoverWithItem(t -> failure("withdraw", startNanos, t));
+    }
+
+    private CommandResult cashOutcome(String op, long accountId, Row row, OutboxEvent event) {
+        String outcome = row.getString("outcome");
+        switch (outcome) {
+            case "OK" -> {
+                stateCache.invalidate(accountId);
+                outboxPublisher.publishAfterCommit(event);
+            }
+            case "DUPLICATE" -> metrics.incrementDuplicate(op);
+            case "INSUFFICIENT_FUNDS" -> metrics.incrementInsufficient(op);
+            case "ACCOUNT_NOT_FOUND" -> pg.forget(accountId);
+            default -> { }
+        }
+        return CommandResult.ofCode(outcome);
+    }
+
+    private CommandResult failure(String op, long startNanos, Throwable t) {
+        metrics.recordWrite(op, System.nanoTime() - startNanos);
+        if (ReactivePg.isDuplicateKey(t)) {
+            metrics.incrementDuplicate(op);
+            return CommandResult.duplicate();
+        }
+        metrics.incrementError(op);
+        return CommandResult.fail("INTERNAL_ERROR", t.getMessage());
+    }
+}
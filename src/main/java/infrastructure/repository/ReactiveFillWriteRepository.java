@@ -0,0 +1,102 @@
+package infrastructure.repository;
+
+import domain.model.command.ApplyFillCommand;
+import domain.model.money.Money;
+import domain.model.outbox.OutboxEvent;
+import domain.model.result.CommandResult;
+import infrastructure.metrics.DbMetrics;
+import infrastructure.repository.IdempotencyFilter.Table;
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.sqlclient.Row;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.time.OffsetDateTime;
+
+/**
+ * {@link FillWriteRepository} on the reactive client. Without a position cache the buy statement
+ * always averages the price in SQL.
+ */
+@ApplicationScoped
+public class ReactiveFillWriteRepository {
+
+    private static final String BUY_FILL_SQL = ReactivePg.numbered(FillWriteRepository.BUY_FILL_SQL);
+    private static final String SELL_FILL_SQL = ReactivePg.numbered(FillWriteRepository.SELL_FILL_SQL);
+
+    @Inject ReactivePg pg;
+    @Inject DbMetrics metrics;
+    @Inject AccountStateCache stateCache;
+    @Inject PositionCache positionCache;
+    @Inject IdempotencyFilter idempotency;
+    @Inject SecurityDictionary securities;
+    @Inject ProcessedEventStore processedEvents;
+    @Inject OutboxPublisher outboxPublisher;
+
+    public Uni<CommandResult> applyFill(ApplyFillCommand cmd) {
+        long startNanos = System.nanoTime();
+        String operation = cmd.isBuy() ? "apply_buy_fill" : "apply_sell_fill";
+
+        // a first-seen security is registered alongside the currency lookup, before the fill needs it
+        String symbol = cmd.isBuy() ? securities.unregisteredSymbol(cmd.securityId()) : null;
+        Uni<Integer> registered = symbol == null
+                ? Uni.createFrom().item(0)
+                : ReactivePg.update(pg.pool(),
+                        "INSERT INTO securities (security_id, symbol) VALUES ($1, $2) ON CONFLICT DO NOTHING",
+                        cmd.securityId(), symbol)
+                  .onItem().invoke(n -> securities.registered(cmd.securityId(), symbol));
+
+        return Uni.combine().all().unis(pg.currency(cmd.accountId()), registered).asTuple()
+                .onItem().transformToUni(ready -> {
+                    String currency = ready.getItem1();
+                    if (currency == null) {
+                        metrics.incrementInsufficient(operation);
+                        return Uni.createFrom().item(cmd.isBuy()
+                                ? CommandResult.insufficientFunds() : CommandResult.insufficientPosition());
+                    }
+                    long avgPrice = Money.divide(cmd.fillAmountMicros(), cmd.fillQuantity());
+                    OutboxEvent event = OutboxEvent.accountFilled(cmd.accountId(), cmd.fillAmountMicros(),
+                            cmd.requestId(), cmd.orderId(), currency);
+                    Object[] values = cmd.isBuy()
+                            ? OutboxRepository.withEvent(event,
+                                    cmd.requestId(), cmd.accountId(), cmd.securityId(), cmd.orderId(),
+                                    cmd.fillAmountMicros(), cmd.fillQuantity(), avgPrice,
+                                    OffsetDateTime.now(), processedEvents.since(), null, null, null)
+                            : OutboxRepository.withEvent(event,
+                                    cmd.requestId(), cmd.accountId(), cmd.securityId(), cmd.orderId(),
+                                    cmd.fillAmountMicros(), cmd.fillQuantity(), avgPrice,
+                                    OffsetDateTime.now(), processedEvents.since());
+                    return pg.one(cmd.isBuy() ? BUY_FILL_SQL : SELL_FILL_SQL, values)
+                            .onItem().transform(row -> outcome(operation, cmd, row, event));
+                })
+                .onItem().invoke(result -> {
+                    // fills do not refresh the cached account state; make every shard reload this account
+                    stateCache.invalidate(cmd.accountId());
+                    metrics.recordWrite(operation, System.nanoTime() - startNanos);
+                })
+                .onFailure().recoverWithItem(t -> {
+                    metrics.recordWrite(operation, System.nanoTime() - startNanos);
+                    if (ReactivePg.isDuplicateKey(t)) {
+                        metrics.incrementDuplicate(operation);
+                        return CommandResult.alreadyProcessed();
+                    }
+                    metrics.incrementError(operation);
+                    return CommandResult.fail("INTERNAL_ERROR", t.getMessage());
+                });
+    }
+
+    private CommandResult outcome(String operation, ApplyFillCommand cmd, Row row, OutboxEvent event) {
+        String outcome = row.getString("outcome");
+        switch (outcome) {
+            case "ALREADY_PROCESSED" -> metrics.incrementDuplicate(operation);
+            case "OK" -> {
+                positionCache.invalidate(cmd.accountId());
+                outboxPublisher.publishAfterCommit(event);
+            }
+            default -> metrics.incrementInsufficient(operation);
+        }
+        if (!"ALREADY_PROCESSED".equals(outcome)) {
+            idempotency.recordAfterCommit(Table.PROCESSED_EVENTS, cmd.requestId());
+        }
+        return CommandResult.ofCode(outcome);
+    }
+}
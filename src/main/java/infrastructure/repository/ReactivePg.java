@@ -0,0 +1,117 @@
+package infrastructure.repository;
+
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.mutiny.sqlclient.Pool;
+import io.vertx.mutiny.sqlclient.Row;
+import io.vertx.mutiny.sqlclient.RowIterator;
+import io.vertx.mutiny.sqlclient.SqlClient;
+import io.vertx.mutiny.sqlclient.Tuple;
+import io.vertx.pgclient.PgException;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Statement plumbing shared by the reactive repositories.
+ *
+ * They run the same SQL as the JDBC repositories, rewritten to numbered parameters, on the Vert.x
+ * pool. Nothing blocks: a command is a chain of Unis, and the statements of concurrent commands
+ * are pipelined on the pool's connections up to {@code quarkus.datasource.reactive.postgresql.pipelining-limit}.
+ *
+ * There are no shard caches on this path. The one thing kept in memory is each account's currency,
+ * which outbox payloads need before the statement that writes them runs and which never changes.
+ */
+@ApplicationScoped
+public class ReactivePg {
+
+    private static final int CURRENCY_CAPACITY = 1 << 20;
+
+    @Inject Pool pool;
+
+    private final ConcurrentHashMap<Long, String> currencies = new ConcurrentHashMap<>();
+
+    /**
+     * The statement with JDBC {@code ?} placeholders replaced by {@code $1, $2, ...}. The statements
+     * rewritten here have no {@code ?} inside literals.
+     */
+    static String numbered(String sql) {
+        StringBuilder out = new StringBuilder(sql.length() + 32);
+        int n = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '?') {
+                out.append('$').append(++n);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    Pool pool() {
+        return pool;
+    }
+
+    /**
+     * First row of a numbered statement on a pooled connection, or null if it returned none.
+     */
+    Uni<Row> one(String sql, Object... values) {
+        return one(pool, sql, values);
+    }
+
+    static Uni<Row> one(SqlClient client, String sql, Object... values) {
+        return client.preparedQuery(sql).execute(tuple(values)).onItem().transform(rows -> {
+            RowIterator<Row> it = rows.iterator();
+            return it.hasNext() ? it.next() : null;
+        });
+    }
+
+    static Uni<Integer> update(SqlClient client, String sql, Object... values) {
+        return client.preparedQuery(sql).execute(tuple(values)).onItem().transform(rows -> rows.rowCount());
+    }
+
+    /**
+     * The account's currency, or null if the account does not exist.
+     */
+    Uni<String> currency(long accountId) {
+        String cached = currencies.get(accountId);
+        if (cached != null) {
+            return Uni.createFrom().item(cached);
+        }
+        return one("SELECT currency FROM accounts WHERE account_id = $1", accountId).onItem().transform(row -> {
+            if (row == null) {
+                return null;
+            }
+            String currency = row.getString("currency");
+            if (currencies.size() >= CURRENCY_CAPACITY) {
+                currencies.clear();
+            }
+            currencies.put(accountId, currency);
+            return currency;
+        });
+    }
+
+    void forget(long accountId) {
+        currencies.remove(accountId);
+    }
+
+    /**
+     * True for a unique-index violation, the reactive counterpart of {@link IdempotencyFilter#isDuplicateKey}.
+     */
+    static boolean isDuplicateKey(Throwable t) {
+        return t instanceof PgException e && "23505".equals(e.getSqlState());
+    }
+
+    // the pg client binds bytea from a Buffer; everything else the statements use binds as is
+    private static Tuple tuple(Object[] values) {
+        List<Object> list = new ArrayList<>(values.length);
+        for (Object value : values) {
+            list.add(value instanceof byte[] bytes ? Buffer.buffer(bytes) : value);
+        }
+        return Tuple.from(list);
+    }
+}
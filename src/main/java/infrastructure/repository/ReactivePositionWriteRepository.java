@@ -0,0 +1,112 @@
+package infrastructure.repository;
+
+import domain.model.result.CommandResult;
+import infrastructure.repository.IdempotencyFilter.Table;
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.sqlclient.Row;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+
+/**
+ * {@link PositionWriteRepository} on the reactive client. Each command is one statement, written the
+ * way the cash statements are: the ledger row goes in only if the locked position passes the guard
+ * and the request is new, the position moves only if the ledger row went in.
+ */
+@ApplicationScoped
+public class ReactivePositionWriteRepository {
+
+    private static final String QUANTITY = MoneyColumns.units("s.quantity");
+    private static final String RESERVED_QUANTITY = MoneyColumns.units("s.reserved_quantity");
+
+    private static final String RESERVE_SQL = ReactivePg.numbered(PositionWriteRepository.RESERVE_SQL);
+
+    // the reserve is looked up inside the statement, so a release is one round trip even when the
+    // open-reservation index has no entry for it
+    private static final String RELEASE_SQL = ReactivePg.numbered(
+        "WITH p AS (" +
+        "  SELECT ?::bigint AS account_id, ?::text AS request_id, ?::text AS unreserve_id, ?::timestamptz AS created_at" +
+        "), r AS (" +
+        "  SELECT l.security_id, " + MoneyColumns.units("l.quantity_change") + " AS quantity, l.order_id " +
+        "  FROM position_ledger l, p " +
+        "  WHERE l.account_id = p.account_id AND l.request_id = p.request_id AND l.entry_type = 'RESERVE'" +
+        "), led AS (" +
+        "  INSERT INTO position_ledger " +
+        "  (account_id, security_id, entry_type, request_id, order_id, quantity_change_units, price_micros, created_at) " +
+        "  SELECT s.account_id, s.security_id, 'UNRESERVE', p.unreserve_id, r.order_id, -r.quantity, 0, p.created_at " +
+        "  FROM positions s, p, r WHERE s.account_id = p.account_id AND s.security_id = r.security_id " +
+        "  AND " + RESERVED_QUANTITY + " >= r.quantity " +
+        "  AND NOT EXISTS (" + LedgerPartitions.recentRequest("position_ledger", "p.account_id", "p.unreserve_id") + ") " +
+        "  FOR UPDATE OF s " +
+        "  ON CONFLICT DO NOTHING RETURNING account_id" +
+        "), pos AS (" +
+        "  UPDATE positions s SET reserved_quantity_units = " + RESERVED_QUANTITY + " - r.quantity, updated_at = now() " +
+        "  FROM r WHERE s.account_id = (SELECT account_id FROM led) AND s.security_id = r.security_id " +
+        "  RETURNING s.account_id" +
+        ") " +
+        "SELECT CASE " +
+        "  WHEN pos.account_id IS NOT NULL THEN 'OK' " +
+        "  WHEN NOT EXISTS (SELECT 1 FROM r) THEN 'POSITION_NOT_FOUND' " +
+        "  WHEN EXISTS (" + LedgerPartitions.recentRequest("position_ledger", "p.account_id", "p.unreserve_id") + ") " +
+        "    THEN 'DUPLICATE' " +
+        "  WHEN NOT EXISTS (SELECT 1 FROM positions s, r WHERE s.account_id = p.account_id " +
+        "                   AND s.security_id = r.security_id " +
+        "                   AND " + RESERVED_QUANTITY + " >= r.quantity) THEN 'INSUFFICIENT_POSITION' " +
+        "  ELSE 'DUPLICATE' " +
+        "END AS outcome " +
+        "FROM p LEFT JOIN pos ON true");
+
+    @Inject ReactivePg pg;
+    @Inject IdempotencyFilter idempotency;
+    @Inject OpenReservationIndex openReservations;
+    @Inject PositionCache positionCache;
+
+    public Uni<CommandResult> reservePosition(long accountId, int securityId, BigDecimal qtyChange, String requestId) {
+        long qty = PositionCache.wholeUnits(qtyChange);
+        if (qty < 0) {
+            return Uni.createFrom().item(
+                    CommandResult.fail("INVALID_AMOUNT", "Quantity must be a whole number of units: " + qtyChange));
+        }
+        return pg.one(RESERVE_SQL, accountId, securityId, requestId, qty, OffsetDateTime.now())
+                .onItem().transform(row -> {
+                    CommandResult result = outcome(accountId, row);
+                    if ("OK".equals(result.errorCode())) {
+                        idempotency.recordAfterCommit(Table.POSITION_LEDGER, requestId);
+                        openReservations.positionReservedAfterCommit(requestId, accountId, securityId, qty, null);
+                    }
+                    return result;
+                })
+                .onFailure().recoverWithItem(ReactivePositionWriteRepository::failure);
+    }
+
+    public Uni<CommandResult> unreservePosition(long accountId, String requestId) {
+        String unreserveRequestId = "un:" + requestId;
+        return pg.one(RELEASE_SQL, accountId, requestId, unreserveRequestId, OffsetDateTime.now())
+                .onItem().transform(row -> {
+                    CommandResult result = outcome(accountId, row);
+                    if ("OK".equals(result.errorCode())) {
+                        idempotency.recordAfterCommit(Table.POSITION_LEDGER, unreserveRequestId);
+                        openReservations.positionReleasedAfterCommit(requestId);
+                    }
+                    return result;
+                })
+                .onFailure().recoverWithItem(ReactivePositionWriteRepository::failure);
+    }
+
+    private CommandResult outcome(long accountId, Row row) {
+        String outcome = row.getString("outcome");
+        if ("OK".equals(outcome)) {
+            positionCache.invalidate(accountId);
+        }
+        return CommandResult.ofCode(outcome);
+    }
+
+    private static CommandResult failure(Throwable t) {
+        if (ReactivePg.isDuplicateKey(t)) {
+            return CommandResult.duplicate();
+        }
+        return CommandResult.fail("INTERNAL_ERROR", t.getMessage());
+    }
+}
@@ -0,0 +1,10 @@
+package infrastructure.repository;
+
+/**
+ * JDBC     - blocking jOOQ repositories, run on the shard threads
+ * REACTIVE - Vert.x reactive Postgres repositories returning Uni; commands are only ordered per account
+ */
+public enum RepositoryMode {
+    JDBC,
+    REACTIVE
+}
@@ -0,0 +1,110 @@
+package infrastructure.repository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.jboss.logging.Logger;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import static infrastructure.repository.CompiledQuery.slot;
+import static infrastructure.repository.schema.Tables.SECURITIES;
+import static org.jooq.impl.DSL.insertInto;
+
+/**
+ * Maps external symbols to the integer security IDs that positions are stored under.
+ *
+ * The IDs are the {@code security_id} of order fill events. A symbol registered in
+ * {@code securities} resolves to its ID. An unregistered "SEC&lt;n&gt;" resolves to n, the form
+ * fills used to be recorded under. Any other symbol is unknown, so no position can exist for it.
+ * Symbols are only resolved at the API edge; everything past it works on the integer.
+ */
+@ApplicationScoped
+public class SecurityDictionary {
+
+    private static final Logger log = Logger.getLogger(SecurityDictionary.class);
+
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private static final String PREFIX = "SEC";
+
+    private static final CompiledQuery REGISTER = CompiledQuery.of(
+        insertInto(SECURITIES, SECURITIES.SECURITY_ID, SECURITIES.SYMBOL)
+            .values(slot(SECURITIES.SECURITY_ID), slot(SECURITIES.SYMBOL))
+            .onConflictDoNothing());
+
+    @Inject DslProvider dsl;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, String> symbols = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void load() {
+        for (Record rec : dsl.get().fetch("SELECT security_id, symbol FROM securities")) {
+            remember(rec.get("security_id", Integer.class), rec.get("symbol", String.class));
+        }
+        log.infof("Loaded %d securities", ids.size());
+    }
+
+    /**
+     * The security ID of a symbol, or {@link #UNKNOWN}.
+     */
+    public int idOf(String symbol) {
+        Integer id = ids.get(symbol);
+        if (id != null) {
+            return id;
+        }
+        if (symbol.length() > PREFIX.length() && symbol.length() <= PREFIX.length() + 9 && symbol.startsWith(PREFIX)) {
+            int n = 0;
+            for (int i = PREFIX.length(); i < symbol.length(); i++) {
+                char c = symbol.charAt(i);
+                if (c < '0' || c > '9') {
+                    return UNKNOWN;
+                }
+                n = n * 10 + (c - '0');
+            }
+            return n;
+        }
+        return UNKNOWN;
+    }
+
+    public String symbolOf(int securityId) {
+        String symbol = symbols.get(securityId);
+        return symbol != null ? symbol : PREFIX + securityId;
+    }
+
+    /**
+     * Registers a security seen in a fill under its default symbol, in the caller's transaction.
+     * Only hits the database the first time an ID is seen.
+     */
+    public void ensureRegistered(DSLContext tx, int securityId) {
+        if (symbols.containsKey(securityId)) {
+            return;
+        }
+        String symbol = PREFIX + securityId;
+        REGISTER.execute(tx, ps -> {
+            ps.setInt(1, securityId);
+            ps.setString(2, symbol);
+        });
+        dsl.afterCommit(() -> symbols.putIfAbsent(securityId, symbol));
+    }
+
+    /**
+     * Default symbol to register for a security seen in a fill, or null if it is registered already.
+     * For callers that write it themselves; report the write with {@link #registered}.
+     */
+    public String unregisteredSymbol(int securityId) {
+        return symbols.containsKey(securityId) ? null : PREFIX + securityId;
+    }
+
+    public void registered(int securityId, String symbol) {
+        symbols.putIfAbsent(securityId, symbol);
+    }
+
+    private void remember(int securityId, String symbol) {
+        ids.put(symbol, securityId);
+        symbols.put(securityId, symbol);
+    }
+}
@@ -0,0 +1,84 @@
+package infrastructure.repository;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.jooq.Record;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@ApplicationScoped
+public class ShardLeaseRepository {
+
+    @Inject DslProvider dsl;
+
+    public record Owner(int slot, String nodeId, String address) {}
+
+    public void ensureSlots(int slotCount) {
+        dsl.get().execute(
+                "INSERT INTO shard_leases (slot) SELECT s FROM generate_series(0, ? - 1) AS s " +
+                "ON CONFLICT (slot) DO NOTHING",
+                slotCount
+        );
+    }
+
+    public void heartbeat(String nodeId, String address) {
+        dsl.get().execute(
+                "INSERT INTO cluster_nodes (node_id, address, heartbeat_at) VALUES (?, ?, now()) " +
+                "ON CONFLICT (node_id) DO UPDATE SET address = EXCLUDED.address, heartbeat_at = now()",
+                nodeId, address
+        );
+    }
+
+    public List<String> liveNodes(int leaseSeconds) {
+        return dsl.get().fetch(
+                "SELECT node_id FROM cluster_nodes " +
+                "WHERE heartbeat_at > now() - make_interval(secs => ?) ORDER BY node_id",
+                leaseSeconds
+        ).getValues(0, String.class);
+    }
+
+    public void leave(String nodeId) {
+        dsl.get().execute("DELETE FROM cluster_nodes WHERE node_id = ?", nodeId);
+    }
+
+    /**
+     * Renews slots this node still holds and takes over expired ones. A takeover bumps the fencing
+     * token, so writes still in flight on the previous owner fail their fence check (shard_fence, V12).
+     *
+     * @return slot -> fencing token for every slot now held
+     */
+    public Map<Integer, Long> claim(String nodeId, String address, Integer[] slots, int leaseSeconds) {
+        Map<Integer, Long> granted = new HashMap<>();
+        if (slots.length == 0) {
+            return granted;
+        }
+        for (Record rec : dsl.get().fetch(
+                "UPDATE shard_leases SET " +
+                "  fencing_token = CASE WHEN node_id = ? THEN fencing_token ELSE fencing_token + 1 END, " +
+                "  node_id = ?, address = ?, expires_at = now() + make_interval(secs => ?) " +
+                "WHERE slot = ANY(?::int[]) AND (node_id = ? OR node_id IS NULL OR expires_at < now()) " +
+                "RETURNING slot, fencing_token",
+                nodeId, nodeId, address, leaseSeconds, slots, nodeId)) {
+            granted.put(rec.get("slot", Integer.class), rec.get("fencing_token", Long.class));
+        }
+        return granted;
+    }
+
+    public void release(String nodeId, Integer[] slots) {
+        if (slots.length == 0) {
+            return;
+        }
+        dsl.get().execute(
+                "UPDATE shard_leases SET expires_at = '-infinity' WHERE node_id = ? AND slot = ANY(?::int[])",
+                nodeId, slots
+        );
+    }
+
+    public List<Owner> owners() {
+        return dsl.get().fetch(
+                "SELECT slot, node_id, address FROM shard_leases WHERE expires_at > now()"
+        ).map(r -> new Owner(r.get("slot", Integer.class), r.get("node_id", String.class), r.get("address", String.class)));
+    }
+}
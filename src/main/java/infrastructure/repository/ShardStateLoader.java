@@ -0,0 +1,100 @@
+package infrastructure.repository;
+
+import infrastructure.metrics.DbMetrics;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jooq.Cursor;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+
+import java.util.Arrays;
+
+/**
+ * Streams the accounts, positions and open reservations of a set of slots into memory.
+ *
+ * Runs on the shard thread whose caches it fills, through that thread's connection. Rows come
+ * from server-side cursors in one read transaction, {@code fetch-size} at a time, so the heap only
+ * ever holds one batch. Cache versions are snapshotted before the cursors open: an account written
+ * off the shard threads while the load runs no longer matches its snapshot and is skipped. Caches not bound to the
+ * calling thread are skipped too.
+ */
+@ApplicationScoped
+public class ShardStateLoader {
+
+    @ConfigProperty(name = "account.shard.warmup.fetch-size", defaultValue = "10000")
+    int fetchSize;
+
+    @Inject DslProvider dsl;
+    @Inject DbMetrics metrics;
+    @Inject AccountStateCache stateCache;
+    @Inject PositionCache positionCache;
+    @Inject OpenReservationIndex openReservations;
+
+    public record Loaded(long accounts, long positions, long reservations) {
+
+        public static final Loaded NONE = new Loaded(0, 0, 0);
+
+        public Loaded plus(Loaded other) {
+            return new Loaded(accounts + other.accounts, positions + other.positions,
+                    reservations + other.reservations);
+        }
+
+        public long rows() {
+            return accounts + positions + reservations;
+        }
+    }
+
+    /**
+     * Loads every account whose slot ({@code account_id mod slotCount}) is in {@code slots}.
+     */
+    public Loaded load(String shard, int slotCount, int[] slots) {
+        Integer[] slotIds = Arrays.stream(slots).boxed().toArray(Integer[]::new);
+        long[] accountVersions = stateCache.snapshotVersions();
+        long[] positionVersions = positionCache.snapshotVersions();
+
+        return dsl.transactionResult(cfg -> {
+            DSLContext tx = cfg.dsl();
+            long accounts = stateCache.active() ? loadAccounts(tx, slotCount, slotIds, accountVersions) : 0;
+            long positions = positionCache.active() ? loadPositions(tx, slotCount, slotIds, positionVersions) : 0;
+            long reservations = openReservations.load(tx, slotCount, slotIds, fetchSize);
+
+            metrics.warmupRows(shard, "accounts").increment(accounts);
+            metrics.warmupRows(shard, "positions").increment(positions);
+            metrics.warmupRows(shard, "open_reservations").increment(reservations);
+            return new Loaded(accounts, positions, reservations);
+        });
+    }
+
+    private long loadAccounts(DSLContext tx, int slotCount, Integer[] slots, long[] versions) {
+        long n = 0;
+        try (Cursor<Record> rows = tx.resultQuery(
+                "SELECT account_id, " + MoneyColumns.micros("balance") + " AS balance_micros, " +
+                MoneyColumns.micros("reserved") + " AS reserved_micros, currency, status FROM accounts " +
+                "WHERE mod(account_id, ?) = ANY(?::int[])",
+                slotCount, slots).fetchSize(fetchSize).fetchLazy()) {
+            for (Record rec : rows) {
+                stateCache.warm(rec.get("account_id", Long.class), AccountStateCache.toState(rec), versions);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private long loadPositions(DSLContext tx, int slotCount, Integer[] slots, long[] versions) {
+        long n = 0;
+        try (Cursor<Record> rows = tx.resultQuery(
+                "SELECT account_id, security_id, " + MoneyColumns.units("quantity") + " AS quantity_units, " +
+                MoneyColumns.units("reserved_quantity") + " AS reserved_quantity_units, " +
+                MoneyColumns.micros("avg_price") + " AS avg_price_micros FROM positions " +
+                "WHERE mod(account_id, ?) = ANY(?::int[])",
+                slotCount, slots).fetchSize(fetchSize).fetchLazy()) {
+            for (Record rec : rows) {
+                positionCache.warm(rec.get("account_id", Long.class), rec.get("security_id", Integer.class),
+                        PositionCache.toState(rec), versions);
+                n++;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,60 @@
+package infrastructure.shard;
+
+import infrastructure.metrics.ShardMetrics;
+import io.micrometer.core.instrument.Timer;
+import io.smallrye.mutiny.Uni;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Per-account ordering for non-blocking commands.
+ *
+ * The counterpart of {@link AccountSerialExecutor} for work that returns a Uni: a command is
+ * subscribed only once the account's previous command has completed, but nothing waits on a
+ * thread in between. Each account with work in flight has a tail, the completion of its last
+ * submitted command; a new command swaps itself in as the tail and chains onto the one it replaced.
+ * A tail that is still the account's last is removed on completion, so idle accounts hold nothing.
+ */
+final class AccountAsyncSequencer {
+
+    private static final String SHARD_TAG = "reactive";
+
+    private final ConcurrentHashMap<Long, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+    private final Timer waitTimer;
+    private final Timer processingTimer;
+
+    AccountAsyncSequencer(ShardMetrics metrics) {
+        this.waitTimer = metrics.waitTimer(SHARD_TAG);
+        this.processingTimer = metrics.processingTimer(SHARD_TAG);
+        metrics.registerQueue(SHARD_TAG, tails, ConcurrentHashMap::size);
+    }
+
+    <T> Uni<T> submit(long accountId, Supplier<Uni<T>> work) {
+        return Uni.createFrom().deferred(() -> {
+            long enqueueNanos = System.nanoTime();
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            CompletableFuture<Void> previous = tails.put(accountId, done);
+
+            Uni<Void> turn = previous == null
+                    ? Uni.createFrom().voidItem()
+                    : Uni.createFrom().completionStage(previous);
+            long[] startNanos = new long[1];
+            return turn
+                    .onItem().transformToUni(ignored -> {
+                        startNanos[0] = System.nanoTime();
+                        waitTimer.record(startNanos[0] - enqueueNanos, TimeUnit.NANOSECONDS);
+                        return work.get();
+                    })
+                    .onTermination().invoke(() -> {
+                        if (startNanos[0] != 0) {
+                            processingTimer.record(System.nanoTime() - startNanos[0], TimeUnit.NANOSECONDS);
+                        }
+                        tails.remove(accountId, done);
+                        done.complete(null);
+                    });
+        });
+    }
+}
@@ -0,0 +1,111 @@
+package infrastructure.shard;
+
+import infrastructure.metrics.ShardMetrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-account serial execution on virtual threads.
+ *
+ * Each account with pending work gets a lane: a FIFO drained by exactly one virtual thread at a
+ * time, so commands for one account still run in submission order, while a slow account only
+ * blocks its own lane. Lanes exist only while they have work; every lane mutation goes through
+ * {@code lanes.compute} for that account, which makes "enqueue" and "drained, remove lane"
+ * atomic with respect to each other.
+ */
+final class AccountSerialExecutor {
+
+    private static final String SHARD_TAG = "virtual";
+
+    private final ConcurrentHashMap<Long, Lane> lanes = new ConcurrentHashMap<>();
+    private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+    // tasks queued across all lanes, not yet started
+    private final LongAdder queued = new LongAdder();
+    private final Timer waitTimer;
+    private final Timer processingTimer;
+
+    AccountSerialExecutor(ShardMetrics metrics) {
+        this.waitTimer = metrics.waitTimer(SHARD_TAG);
+        this.processingTimer = metrics.processingTimer(SHARD_TAG);
+        metrics.registerQueue(SHARD_TAG, queued, LongAdder::sum);
+        metrics.registerLanes(SHARD_TAG, lanes, ConcurrentHashMap::size);
+    }
+
+    void execute(long accountId, Runnable task) {
+        Pending pending = new Pending(task, System.nanoTime());
+        boolean[] start = new boolean[1];
+        queued.increment();
+
+        Lane lane = lanes.compute(accountId, (id, existing) -> {
+            Lane l = existing != null ? existing : new Lane(id);
+            l.tasks.add(pending);
+            if (!l.scheduled) {
+                l.scheduled = true;
+                start[0] = true;
+            }
+            return l;
+        });
+
+        if (start[0]) {
+            threads.execute(() -> drain(lane));
+        }
+    }
+
+    void shutdown() {
+        threads.shutdown();
+    }
+
+    private void drain(Lane lane) {
+        Pending next;
+        while ((next = poll(lane)) != null) {
+            long startNanos = System.nanoTime();
+            waitTimer.record(startNanos - next.enqueueNanos(), TimeUnit.NANOSECONDS);
+            try {
+                next.task().run();
+                if (next.task() instanceof ShardCommand<?> command) {
+                    command.complete();
+                }
+            } catch (Throwable t) {
+                // commands complete their own emitters; keep draining the lane
+            } finally {
+                processingTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private Pending poll(Lane lane) {
+        lanes.compute(lane.accountId, (id, existing) -> {
+            lane.current = lane.tasks.poll();
+            if (lane.current == null) {
+                lane.scheduled = false;
+                return null;
+            }
+            return existing;
+        });
+        if (lane.current != null) {
+            queued.decrement();
+        }
+        return lane.current;
+    }
+
+    private record Pending(Runnable task, long enqueueNanos) {}
+
+    private static final class Lane {
+        final long accountId;
+        // guarded by lanes.compute(accountId)
+        final ArrayDeque<Pending> tasks = new ArrayDeque<>();
+        boolean scheduled;
+        // drainer thread only
+        Pending current;
+
+        Lane(long accountId) {
+            this.accountId = accountId;
+        }
+    }
+}
@@ -1,26 +1,146 @@
 package infrastructure.shard;
 
+import infrastructure.cluster.ShardOwnership;
+import infrastructure.metrics.ShardMetrics;
+import infrastructure.repository.RepositoryMode;
 import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.UniEmitter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 @ApplicationScoped
 public class AccountShardInvoker {
 
+    @ConfigProperty(name = "account.shard.mode", defaultValue = "RING")
+    ShardMode mode;
+
+    @ConfigProperty(name = "account.repository.mode", defaultValue = "JDBC")
+    RepositoryMode repositoryMode;
+
+    @ConfigProperty(name = "account.cluster.enabled", defaultValue = "false")
+    boolean clusterEnabled;
+
+    @ConfigProperty(name = "account.shard.admission.enabled", defaultValue = "true")
+    boolean admissionEnabled;
+
+    @ConfigProperty(name = "account.shard.admission.initial-limit", defaultValue = "256")
+    int initialLimit;
+
+    @ConfigProperty(name = "account.shard.admission.min-limit", defaultValue = "16")
+    int minLimit;
+
+    @ConfigProperty(name = "account.shard.admission.max-limit", defaultValue = "2048")
+    int maxLimit;
+
     @Inject InMemoryShardRouter router;
+    @Inject ShardMetrics metrics;
+    @Inject ShardOwnership ownership;
+
+    private AccountSerialExecutor serialExecutor;
+    private AccountAsyncSequencer asyncSequencer;
+    private AdaptiveConcurrencyLimit limiter;
+
+    @PostConstruct
+    void init() {
+        if (repositoryMode == RepositoryMode.REACTIVE) {
+            // fencing binds the lease token into the JDBC write statements; the reactive ones do not carry it
+            if (clusterEnabled) {
+                throw new IllegalStateException("account.repository.mode=REACTIVE does not support account.cluster.enabled");
+            }
+            asyncSequencer = new AccountAsyncSequencer(metrics);
+        } else if (mode == ShardMode.VIRTUAL) {
+            serialExecutor = new AccountSerialExecutor(metrics);
+        }
+        if (admissionEnabled) {
+            limiter = new AdaptiveConcurrencyLimit(initialLimit, minLimit, maxLimit);
+            metrics.registerAdmission(limiter, AdaptiveConcurrencyLimit::limit, AdaptiveConcurrencyLimit::inflight);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (serialExecutor != null) {
+            serialExecutor.shutdown();
+        }
+    }
 
     public <T> Uni<T> invoke(long accountId, java.util.function.Supplier<T> work) {
         return Uni.createFrom().emitter(em -> {
-            ShardExecutor shard = router.route(accountId);
-            shard.execute(() -> {
-                try {
-                    T result = work.get();
-                    em.complete(result);
-                } catch (Throwable t) {
-                    em.fail(t);
-                }
-            });
+            java.util.function.Supplier<T> fencedWork;
+            try {
+                fencedWork = ownership.fenced(accountId, work);
+            } catch (ShardRejectedException e) {
+                reject(em, e.reason());
+                return;
+            }
+
+            if (limiter != null && !limiter.tryAcquire()) {
+                reject(em, ShardRejectedException.Reason.CONCURRENCY_LIMIT);
+                return;
+            }
+
+            long admittedNanos = System.nanoTime();
+            boolean[] queueFull = new boolean[1];
+            if (limiter != null) {
+                em.onTermination(() -> {
+                    if (queueFull[0]) {
+                        limiter.releaseWithoutSample();
+                    } else {
+                        limiter.release(System.nanoTime() - admittedNanos);
+                    }
+                });
+            }
+
+            ShardCommand<T> command = new ShardCommand<>(fencedWork, em);
+            if (serialExecutor != null) {
+                serialExecutor.execute(accountId, command);
+            } else if (!router.dispatch(accountId, command)) {
+                queueFull[0] = true;
+                reject(em, ShardRejectedException.Reason.QUEUE_FULL);
+            }
+        });
+    }
+
+    public RepositoryMode repositoryMode() {
+        return repositoryMode;
+    }
+
+    /**
+     * Runs {@code blocking} on the account's shard, or {@code reactive} in its order when the
+     * repositories are reactive.
+     */
+    public <T> Uni<T> invoke(long accountId, java.util.function.Supplier<T> blocking,
+                             java.util.function.Supplier<Uni<T>> reactive) {
+        return asyncSequencer != null ? invokeAsync(accountId, reactive) : invoke(accountId, blocking);
+    }
+
+    /**
+     * Runs non-blocking work in the account's order without holding a thread while it waits; only
+     * valid in {@link RepositoryMode#REACTIVE}. Admission is limited like {@link #invoke}.
+     */
+    public <T> Uni<T> invokeAsync(long accountId, java.util.function.Supplier<Uni<T>> work) {
+        if (asyncSequencer == null) {
+            throw new IllegalStateException("invokeAsync needs account.repository.mode=REACTIVE");
+        }
+        if (limiter == null) {
+            return asyncSequencer.submit(accountId, work);
+        }
+        return Uni.createFrom().deferred(() -> {
+            if (!limiter.tryAcquire()) {
+                metrics.incrementRejected(ShardRejectedException.Reason.CONCURRENCY_LIMIT.name());
+                return Uni.createFrom().failure(new ShardRejectedException(ShardRejectedException.Reason.CONCURRENCY_LIMIT));
+            }
+            long admittedNanos = System.nanoTime();
+            return asyncSequencer.submit(accountId, work)
+                    .onTermination().invoke(() -> limiter.release(System.nanoTime() - admittedNanos));
         });
     }
-}
 
+    private void reject(UniEmitter<?> em, ShardRejectedException.Reason reason) {
+        metrics.incrementRejected(reason.name());
+        em.fail(new ShardRejectedException(reason));
+    }
+}
@@ -0,0 +1,142 @@
+package infrastructure.shard;
+
+import infrastructure.repository.DslProvider;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import org.jboss.logging.Logger;
+import org.jooq.DSLContext;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a drained batch of shard commands inside one Postgres transaction.
+ *
+ * Every command gets its own savepoint, so a failing command only rolls back its own writes.
+ * Callers are completed after the single COMMIT, which turns N WAL flushes into one.
+ *
+ * Batch size and linger adapt to load: a batch that fills up doubles the limit, a batch that
+ * stays mostly empty halves it, and the linger grows only while waiting actually gathers more
+ * commands.
+ */
+final class GroupCommitter {
+
+    private static final Logger log = Logger.getLogger(GroupCommitter.class);
+
+    private static final long LINGER_STEP_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    private final DslProvider dslProvider;
+    private final int maxBatch;
+    private final long maxLingerNanos;
+    private final DistributionSummary batchSize;
+    private final Timer commitTimer;
+
+    // shard-thread only
+    private final List<Runnable> afterCommit = new ArrayList<>();
+    private int batchLimit;
+    private long lingerNanos;
+
+    GroupCommitter(DslProvider dslProvider, int maxBatch, long maxLingerNanos,
+                   DistributionSummary batchSize, Timer commitTimer) {
+        this.dslProvider = dslProvider;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxLingerNanos = Math.max(0, maxLingerNanos);
+        this.batchSize = batchSize;
+        this.commitTimer = commitTimer;
+        this.batchLimit = Math.min(8, this.maxBatch);
+        this.lingerNanos = 0;
+    }
+
+    int maxBatch() {
+        return maxBatch;
+    }
+
+    int batchLimit() {
+        return batchLimit;
+    }
+
+    long lingerNanos() {
+        return lingerNanos;
+    }
+
+    void commit(ShardCommand<?>[] batch, int size, Timer processingTimer) {
+        long startNanos = System.nanoTime();
+        try {
+            dslProvider.get().transaction(cfg -> {
+                DSLContext tx = cfg.dsl();
+                tx.connection(conn -> {
+                    for (int i = 0; i < size; i++) {
+                        runInSavepoint(tx, conn, batch[i], processingTimer);
+                    }
+                });
+            });
+        } catch (Throwable t) {
+            afterCommit.clear();
+            log.errorf(t, "Group commit failed, aborting %d commands", size);
+            for (int i = 0; i < size; i++) {
+                batch[i].abort(t);
+            }
+            adapt(size);
+            return;
+        } finally {
+            batchSize.record(size);
+        }
+
+        commitTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        for (Runnable action : afterCommit) {
+            action.run();
+        }
+        afterCommit.clear();
+        for (int i = 0; i < size; i++) {
+            batch[i].complete();
+        }
+        adapt(size);
+    }
+
+    private void runInSavepoint(DSLContext tx, Connection conn, ShardCommand<?> command, Timer processingTimer)
+            throws SQLException {
+        Savepoint savepoint = conn.setSavepoint();
+        DslProvider.Binding previous = dslProvider.bind(tx, true);
+        List<Runnable> commandAfterCommit = dslProvider.current().afterCommit();
+        long startNanos = System.nanoTime();
+        try {
+            command.run();
+        } finally {
+            processingTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            dslProvider.restore(previous);
+        }
+
+        if (command.failed()) {
+            conn.rollback(savepoint);
+            return;
+        }
+        try {
+            conn.releaseSavepoint(savepoint);
+            afterCommit.addAll(commandAfterCommit);
+        } catch (SQLException e) {
+            // the command swallowed a SQL error and left the transaction aborted
+            conn.rollback(savepoint);
+        }
+    }
+
+    private void adapt(int size) {
+        if (size >= batchLimit) {
+            batchLimit = Math.min(maxBatch, batchLimit * 2);
+            lingerNanos = 0;
+        } else if (size <= 1) {
+            lingerNanos = lingerNanos / 2;
+            if (batchLimit > 1 && size * 4 < batchLimit) {
+                batchLimit = Math.max(1, batchLimit / 2);
+            }
+        } else {
+            lingerNanos = Math.min(maxLingerNanos, lingerNanos + LINGER_STEP_NANOS);
+            if (size * 4 < batchLimit) {
+                batchLimit = Math.max(1, batchLimit / 2);
+            }
+        }
+    }
+}
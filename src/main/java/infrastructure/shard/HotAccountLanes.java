@@ -0,0 +1,159 @@
+package infrastructure.shard;
+
+import infrastructure.metrics.ShardMetrics;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds accounts whose command rate would dominate their shard and isolates them on dedicated lanes.
+ *
+ * Rates are estimated from a 1-in-sampleRate sample of dispatches, counted per window. An account
+ * at or above the threshold is isolated; it goes back to its shard once it falls below half the
+ * threshold. Configured accounts are isolated at startup and never restored.
+ */
+final class HotAccountLanes {
+
+    private static final Logger log = Logger.getLogger(HotAccountLanes.class);
+
+    // cap on distinct sampled accounts per window, so a scan of cold accounts cannot grow the map
+    private static final int MAX_TRACKED = 10_000;
+
+    private final InMemoryShardRouter router;
+    private final ShardExecutor[] lanes;
+    private final Set<Long> pinned;
+    private final long thresholdPerSecond;
+    private final int windowSeconds;
+    private final int sampleRate;
+    private final int maxIsolated;
+    private final ShardMetrics metrics;
+    private final ScheduledExecutorService detector;
+
+    private volatile ConcurrentHashMap<Long, LongAdder> samples = new ConcurrentHashMap<>();
+
+    // written by the detector thread only (after start); concurrent so metrics can read it
+    private final Map<Long, ShardExecutor> isolated = new ConcurrentHashMap<>();
+
+    HotAccountLanes(InMemoryShardRouter router, ShardExecutor[] lanes, Set<Long> pinned,
+                    long thresholdPerSecond, int windowSeconds, int sampleRate, int maxIsolated,
+                    ShardMetrics metrics) {
+        this.router = router;
+        this.lanes = lanes;
+        this.pinned = pinned;
+        this.thresholdPerSecond = thresholdPerSecond;
+        this.windowSeconds = Math.max(1, windowSeconds);
+        this.sampleRate = Math.max(1, sampleRate);
+        this.maxIsolated = maxIsolated;
+        this.metrics = metrics;
+        this.detector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "account-shard-hot-detector");
+            t.setDaemon(true);
+            return t;
+        });
+        metrics.registerIsolatedCount(isolated, Map::size);
+    }
+
+    void start() {
+        for (long accountId : pinned) {
+            isolate(accountId);
+        }
+        if (thresholdPerSecond > 0) {
+            detector.scheduleWithFixedDelay(this::detect, windowSeconds, windowSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    void shutdown() {
+        detector.shutdownNow();
+        for (ShardExecutor lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    ShardExecutor[] lanes() {
+        return lanes;
+    }
+
+    void sample(long accountId) {
+        if (ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        ConcurrentHashMap<Long, LongAdder> window = samples;
+        LongAdder counter = window.get(accountId);
+        if (counter == null) {
+            if (window.size() >= MAX_TRACKED) {
+                return;
+            }
+            counter = window.computeIfAbsent(accountId, id -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    private void detect() {
+        try {
+            ConcurrentHashMap<Long, LongAdder> window = samples;
+            samples = new ConcurrentHashMap<>();
+
+            Map<Long, Long> rates = new HashMap<>();
+            window.forEach((id, count) -> rates.put(id, count.sum() * sampleRate / windowSeconds));
+
+            List<Long> cooled = new ArrayList<>();
+            for (Long accountId : isolated.keySet()) {
+                if (!pinned.contains(accountId) && rates.getOrDefault(accountId, 0L) < thresholdPerSecond / 2) {
+                    cooled.add(accountId);
+                }
+            }
+            for (Long accountId : cooled) {
+                restore(accountId);
+            }
+
+            rates.entrySet().stream()
+                    .filter(e -> e.getValue() >= thresholdPerSecond && !isolated.containsKey(e.getKey()))
+                    .sorted(Map.Entry.<Long, Long>comparingByValue().reversed())
+                    .limit(Math.max(0, maxIsolated - isolated.size()))
+                    .forEach(e -> {
+                        log.infof("Isolating hot account %d (~%d cmd/s)", e.getKey(), e.getValue());
+                        isolate(e.getKey());
+                    });
+        } catch (Exception e) {
+            log.errorf(e, "Hot account detection failed");
+        }
+    }
+
+    private void isolate(long accountId) {
+        ShardExecutor lane = leastLoadedLane();
+        router.isolate(accountId, lane);
+        isolated.put(accountId, lane);
+        metrics.markIsolated(accountId, lane.name(), true);
+    }
+
+    private void restore(long accountId) {
+        ShardExecutor lane = isolated.remove(accountId);
+        router.restore(accountId);
+        metrics.markIsolated(accountId, lane.name(), false);
+        log.infof("Returned account %d to its shard", accountId);
+    }
+
+    private ShardExecutor leastLoadedLane() {
+        Map<ShardExecutor, Integer> load = new HashMap<>();
+        for (ShardExecutor lane : isolated.values()) {
+            load.merge(lane, 1, Integer::sum);
+        }
+        ShardExecutor best = lanes[0];
+        for (ShardExecutor lane : lanes) {
+            if (load.getOrDefault(lane, 0) < load.getOrDefault(best, 0)) {
+                best = lane;
+            }
+        }
+        return best;
+    }
+}
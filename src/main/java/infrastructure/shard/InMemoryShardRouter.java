@@ -2,30 +2,470 @@ package infrastructure.shard;
 
 import infrastructure.metrics.ShardMetrics;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
+
+/**
+ * Routes accounts to shard executors through a table of virtual slots.
+ *
+ * An account maps to slot {@code floorMod(accountId, slotCount)}, and each slot is owned by one
+ * shard. The slot count never changes; resizing or rebalancing only reassigns slots, moving the
+ * fewest slots needed. With the initial round-robin assignment and a slot count that is a multiple
+ * of the shard count, routing is identical to the old {@code floorMod(accountId, numShards)}.
+ *
+ * Moving a slot quiesces it, pushes a barrier through the old owner so every command already queued
+ * there finishes, its journal entries are applied and its cached state for the slot is dropped, then
+ * hands the slot (and anything parked while it moved) to the new owner.
+ * Isolating a hot account onto a dedicated lane, or returning it, uses the same protocol.
+ */
 @ApplicationScoped
 public class InMemoryShardRouter {
 
+    private static final Logger log = Logger.getLogger(InMemoryShardRouter.class);
+
+    private static final long HANDOFF_WARN_MILLIS = 1000;
+
     @ConfigProperty(name = "account.shard.count", defaultValue = "16")
     int numShards;
 
+    @ConfigProperty(name = "account.shard.slots", defaultValue = "1024")
+    int slotCount;
+
+    @ConfigProperty(name = "account.shard.slot-table.path")
+    Optional<String> slotTablePath;
+
+    @ConfigProperty(name = "account.shard.slot-table.poll-seconds", defaultValue = "5")
+    long slotTablePollSeconds;
+
+    @ConfigProperty(name = "account.shard.hot.lanes", defaultValue = "2")
+    int hotLaneCount;
+
+    @ConfigProperty(name = "account.shard.hot.accounts")
+    Optional<List<Long>> hotAccounts;
+
+    @ConfigProperty(name = "account.shard.hot.threshold-per-second", defaultValue = "2000")
+    long hotThresholdPerSecond;
+
+    @ConfigProperty(name = "account.shard.hot.window-seconds", defaultValue = "10")
+    int hotWindowSeconds;
+
+    @ConfigProperty(name = "account.shard.hot.sample-rate", defaultValue = "16")
+    int hotSampleRate;
+
+    @ConfigProperty(name = "account.shard.hot.max-isolated", defaultValue = "32")
+    int hotMaxIsolated;
+
+    @Inject ShardExecutorFactory executorFactory;
     @Inject ShardMetrics metrics;
 
-    private ShardExecutor[] executors;
+    private ShardSlot[] slots;
+    private volatile ShardExecutor[] executors;
+    private ScheduledExecutorService tableWatcher;
+    private HotAccountLanes hotLanes;
+
+    private volatile long[] skewBaseline;
+    // guarded by this
+    private long slotTableModified;
 
     @PostConstruct
     void init() {
-        executors = new ShardExecutor[numShards];
+        ShardExecutor[] initial = new ShardExecutor[numShards];
         for (int i = 0; i < numShards; i++) {
-            executors[i] = new ShardExecutor(metrics);
+            initial[i] = createExecutor(i);
+        }
+        executors = initial;
+
+        slots = new ShardSlot[Math.max(slotCount, numShards)];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new ShardSlot(i, initial[i % numShards]);
+        }
+        skewBaseline = new long[numShards];
+        metrics.registerSkew(this, InMemoryShardRouter::skew);
+
+        if (hotLaneCount > 0) {
+            ShardExecutor[] lanes = new ShardExecutor[hotLaneCount];
+            for (int i = 0; i < hotLaneCount; i++) {
+                lanes[i] = executorFactory.createHotLane(i);
+            }
+            Set<Long> pinned = new LinkedHashSet<>(hotAccounts.orElse(List.of()));
+            hotLanes = new HotAccountLanes(this, lanes, pinned, hotThresholdPerSecond, hotWindowSeconds,
+                    hotSampleRate, hotMaxIsolated, metrics);
+            hotLanes.start();
+        }
+
+        if (slotTablePath.isPresent()) {
+            reload();
+            tableWatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "account-shard-slot-table");
+                t.setDaemon(true);
+                return t;
+            });
+            tableWatcher.scheduleWithFixedDelay(this::reloadIfChanged,
+                    slotTablePollSeconds, slotTablePollSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (tableWatcher != null) {
+            tableWatcher.shutdownNow();
+        }
+        if (hotLanes != null) {
+            hotLanes.shutdown();
+        }
+        for (ShardExecutor executor : executors) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Hands a task to the shard owning the account's slot. False means that shard's ring is full.
+     */
+    public boolean dispatch(long accountId, Runnable task) {
+        if (hotLanes != null) {
+            hotLanes.sample(accountId);
         }
+        return slots[slotOf(accountId)].dispatch(accountId, task);
     }
 
     public ShardExecutor route(long accountId) {
-        int idx = (int)(Math.floorMod(accountId, numShards));
-        return executors[idx];
+        return slots[slotOf(accountId)].owner();
+    }
+
+    public int shardCount() {
+        return executors.length;
+    }
+
+    public int slotCount() {
+        return slots.length;
+    }
+
+    public int slotOf(long accountId) {
+        return Math.floorMod(accountId, slots.length);
+    }
+
+    List<ShardExecutor> shards() {
+        return List.of(executors);
+    }
+
+    /**
+     * Slots currently owned by the shard.
+     */
+    int[] slotsOf(ShardExecutor shard) {
+        return Arrays.stream(slots).filter(slot -> slot.owner() == shard).mapToInt(slot -> slot.id).toArray();
+    }
+
+    /**
+     * Blocks until every task queued on any shard before this call has run and its journal entries are applied.
+     */
+    public void awaitDrained() {
+        List<ShardExecutor> all = new ArrayList<>(Arrays.asList(executors));
+        if (hotLanes != null) {
+            all.addAll(Arrays.asList(hotLanes.lanes()));
+        }
+        drain(all);
+    }
+
+    /**
+     * Drops the cached state of every account {@code accounts} accepts on every shard and lane, once
+     * the commands queued there before this call have run. Used when another node may have written
+     * those accounts, e.g. slots whose lease this node just acquired.
+     */
+    public void drop(LongPredicate accounts) {
+        Map<ShardExecutor, LongPredicate> all = new HashMap<>();
+        for (ShardExecutor executor : executors) {
+            all.put(executor, accounts);
+        }
+        if (hotLanes != null) {
+            for (ShardExecutor lane : hotLanes.lanes()) {
+                all.put(lane, accounts);
+            }
+        }
+        release(all);
+    }
+
+    /**
+     * Grows or shrinks the shard set, moving only the slots needed to even out ownership.
+     */
+    public synchronized void resize(int newShardCount) {
+        if (newShardCount < 1 || newShardCount > slots.length) {
+            throw new IllegalArgumentException("Shard count must be between 1 and " + slots.length);
+        }
+        ShardExecutor[] current = executors;
+        if (newShardCount == current.length) {
+            return;
+        }
+
+        ShardExecutor[] next = Arrays.copyOf(current, newShardCount);
+        for (int i = current.length; i < newShardCount; i++) {
+            next[i] = createExecutor(i);
+        }
+        // publish grown set first so new shards show up in metrics before slots arrive
+        if (newShardCount > current.length) {
+            executors = next;
+        }
+
+        migrate(balance(next));
+
+        if (newShardCount < current.length) {
+            executors = next;
+            for (int i = newShardCount; i < current.length; i++) {
+                current[i].shutdown();
+            }
+        }
+        resetSkew();
+        log.infof("Resized shards %d -> %d", current.length, newShardCount);
+    }
+
+    /**
+     * Pins slots {@code fromSlot..toSlot} (inclusive) to one shard, e.g. to drain a hot range.
+     */
+    public synchronized void assign(int fromSlot, int toSlot, int shardId) {
+        ShardExecutor[] current = executors;
+        if (shardId < 0 || shardId >= current.length) {
+            throw new IllegalArgumentException("Unknown shard " + shardId);
+        }
+        if (fromSlot < 0 || toSlot >= slots.length || fromSlot > toSlot) {
+            throw new IllegalArgumentException("Invalid slot range " + fromSlot + "-" + toSlot);
+        }
+        Map<ShardSlot, ShardExecutor> moves = new HashMap<>();
+        for (int s = fromSlot; s <= toSlot; s++) {
+            if (slots[s].owner() != current[shardId]) {
+                moves.put(slots[s], current[shardId]);
+            }
+        }
+        migrate(moves);
+        resetSkew();
+    }
+
+    /**
+     * Applies the slot table file: an optional {@code shards=N}, then {@code slot.A-B=shard} pins.
+     */
+    public synchronized void reload() {
+        Path path = Path.of(slotTablePath.orElseThrow());
+        Properties table = new Properties();
+        try (Reader reader = Files.newBufferedReader(path)) {
+            slotTableModified = Files.getLastModifiedTime(path).toMillis();
+            table.load(reader);
+        } catch (IOException e) {
+            log.errorf(e, "Failed to read slot table %s", path);
+            return;
+        }
+
+        String shards = table.getProperty("shards");
+        if (shards != null) {
+            resize(Integer.parseInt(shards.trim()));
+        }
+        for (String key : table.stringPropertyNames()) {
+            if (!key.startsWith("slot.")) {
+                continue;
+            }
+            String range = key.substring("slot.".length());
+            int dash = range.indexOf('-');
+            int from = Integer.parseInt((dash < 0 ? range : range.substring(0, dash)).trim());
+            int to = dash < 0 ? from : Integer.parseInt(range.substring(dash + 1).trim());
+            assign(from, to, Integer.parseInt(table.getProperty(key).trim()));
+        }
+    }
+
+    private synchronized void reloadIfChanged() {
+        try {
+            long modified = Files.getLastModifiedTime(Path.of(slotTablePath.orElseThrow())).toMillis();
+            if (modified != slotTableModified) {
+                reload();
+            }
+        } catch (Exception e) {
+            log.errorf(e, "Slot table reload failed");
+        }
+    }
+
+    /**
+     * Target ownership for {@code target}: every shard ends with floor or ceil of slots/shards,
+     * taking surplus from overfull (or removed) shards only.
+     */
+    private Map<ShardSlot, ShardExecutor> balance(ShardExecutor[] target) {
+        Map<ShardExecutor, List<ShardSlot>> owned = new HashMap<>();
+        for (ShardExecutor executor : target) {
+            owned.put(executor, new ArrayList<>());
+        }
+        List<ShardSlot> homeless = new ArrayList<>();
+        for (ShardSlot slot : slots) {
+            List<ShardSlot> list = owned.get(slot.owner());
+            (list != null ? list : homeless).add(slot);
+        }
+
+        int base = slots.length / target.length;
+        int extra = slots.length % target.length;
+        for (int i = 0; i < target.length; i++) {
+            List<ShardSlot> list = owned.get(target[i]);
+            int quota = base + (i < extra ? 1 : 0);
+            while (list.size() > quota) {
+                homeless.add(list.remove(list.size() - 1));
+            }
+        }
+
+        Map<ShardSlot, ShardExecutor> moves = new HashMap<>();
+        int next = 0;
+        for (int i = 0; i < target.length; i++) {
+            List<ShardSlot> list = owned.get(target[i]);
+            int quota = base + (i < extra ? 1 : 0);
+            while (list.size() < quota) {
+                ShardSlot slot = homeless.get(next++);
+                list.add(slot);
+                moves.put(slot, target[i]);
+            }
+        }
+        return moves;
+    }
+
+    private void migrate(Map<ShardSlot, ShardExecutor> moves) {
+        if (moves.isEmpty()) {
+            return;
+        }
+        for (ShardSlot slot : moves.keySet()) {
+            slot.quiesce();
+        }
+
+        // one barrier per old owner: once it runs, everything dispatched there before quiesce is done
+        Map<ShardExecutor, boolean[]> sources = new HashMap<>();
+        for (ShardSlot slot : moves.keySet()) {
+            sources.computeIfAbsent(slot.owner(), owner -> new boolean[slots.length])[slot.id] = true;
+        }
+        Map<ShardExecutor, LongPredicate> released = new HashMap<>();
+        sources.forEach((owner, moving) -> released.put(owner, accountId -> moving[slotOf(accountId)]));
+        release(released);
+
+        for (Map.Entry<ShardSlot, ShardExecutor> move : moves.entrySet()) {
+            move.getKey().handOff(move.getValue());
+        }
+        log.infof("Moved %d slots off %d shards", moves.size(), sources.size());
+    }
+
+    /**
+     * Moves one account of a slot onto a hot lane; commands already queued on its shard run first.
+     */
+    synchronized void isolate(long accountId, ShardExecutor lane) {
+        ShardSlot slot = slots[slotOf(accountId)];
+        slot.quiesce();
+        ShardExecutor from = slot.isolated().getOrDefault(accountId, slot.owner());
+        release(Map.of(from, id -> id == accountId));
+        Map<Long, ShardExecutor> next = new HashMap<>(slot.isolated());
+        next.put(accountId, lane);
+        slot.handOff(slot.owner(), Map.copyOf(next));
+    }
+
+    /**
+     * Returns an isolated account to its slot's shard once its lane has finished its commands.
+     */
+    synchronized void restore(long accountId) {
+        ShardSlot slot = slots[slotOf(accountId)];
+        ShardExecutor lane = slot.isolated().get(accountId);
+        if (lane == null) {
+            return;
+        }
+        slot.quiesce();
+        release(Map.of(lane, id -> id == accountId));
+        Map<Long, ShardExecutor> next = new HashMap<>(slot.isolated());
+        next.remove(accountId);
+        slot.handOff(slot.owner(), Map.copyOf(next));
+    }
+
+    private void drain(List<ShardExecutor> sources) {
+        CountDownLatch drained = new CountDownLatch(sources.size());
+        for (ShardExecutor source : sources) {
+            source.barrier(drained::countDown);
+        }
+        awaitDrain(drained);
+    }
+
+    private void release(Map<ShardExecutor, LongPredicate> sources) {
+        CountDownLatch drained = new CountDownLatch(sources.size());
+        sources.forEach((source, accounts) -> source.release(accounts, drained::countDown));
+        awaitDrain(drained);
+    }
+
+    private void awaitDrain(CountDownLatch drained) {
+        boolean interrupted = false;
+        try {
+            // a slot may only change owner once the old owner is done with it; never give up early
+            while (true) {
+                try {
+                    if (drained.await(HANDOFF_WARN_MILLIS, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                    log.warnf("Slot handoff still waiting on %d shards", drained.getCount());
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private ShardExecutor createExecutor(int shardId) {
+        ShardExecutor executor = executorFactory.create(shardId);
+        metrics.registerSlots(String.valueOf(shardId), this, router -> router.slotsOwnedBy(shardId));
+        return executor;
+    }
+
+    private int slotsOwnedBy(int shardId) {
+        int count = 0;
+        for (ShardSlot slot : slots) {
+            if (slot.owner().shardId() == shardId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void resetSkew() {
+        ShardExecutor[] current = executors;
+        long[] baseline = new long[current.length];
+        for (int i = 0; i < current.length; i++) {
+            baseline[i] = current[i].processedCount();
+        }
+        skewBaseline = baseline;
+    }
+
+    /**
+     * Busiest shard's processed commands over the mean since the last table change; 1.0 is even.
+     */
+    private double skew() {
+        ShardExecutor[] current = executors;
+        long[] baseline = skewBaseline;
+        long max = 0;
+        long total = 0;
+        for (int i = 0; i < current.length; i++) {
+            long base = i < baseline.length ? baseline[i] : 0;
+            long processed = current[i].processedCount() - base;
+            max = Math.max(max, processed);
+            total += processed;
+        }
+        return total == 0 ? 1.0 : (double) max * current.length / total;
     }
-}
\ No newline at end of file
+}
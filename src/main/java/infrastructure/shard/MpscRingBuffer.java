@@ -0,0 +1,94 @@
+package infrastructure.shard;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded multi-producer / single-consumer ring buffer.
+ *
+ * Slots are preallocated at construction time; producers claim a slot with a CAS on the tail
+ * sequence and publish it by advancing the slot's sequence number, so an offer never allocates.
+ * Only the owning shard thread may call {@link #poll()}.
+ */
+final class MpscRingBuffer<E> {
+
+    private final int capacity;
+    private final int mask;
+    private final Object[] elements;
+    private final long[] enqueueNanos;
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new AtomicLong(0);
+    private final AtomicLong head = new AtomicLong(0);
+
+    // consumer-only
+    private long lastEnqueueNanos;
+
+    MpscRingBuffer(int requestedCapacity) {
+        if (requestedCapacity < 2) {
+            throw new IllegalArgumentException("Ring capacity must be >= 2: " + requestedCapacity);
+        }
+        this.capacity = Integer.highestOneBit(requestedCapacity - 1) << 1;
+        this.mask = capacity - 1;
+        this.elements = new Object[capacity];
+        this.enqueueNanos = new long[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    boolean offer(E element, long nanos) {
+        while (true) {
+            long pos = tail.get();
+            int idx = (int) (pos & mask);
+            long diff = sequences.get(idx) - pos;
+
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    elements[idx] = element;
+                    enqueueNanos[idx] = nanos;
+                    sequences.lazySet(idx, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false; // full
+            }
+            // another producer claimed this slot first, retry with the new tail
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long pos = head.get();
+        int idx = (int) (pos & mask);
+        if (sequences.get(idx) != pos + 1) {
+            return null;
+        }
+
+        E element = (E) elements[idx];
+        lastEnqueueNanos = enqueueNanos[idx];
+        elements[idx] = null;
+        sequences.lazySet(idx, pos + capacity);
+        head.lazySet(pos + 1);
+        return element;
+    }
+
+    /** Enqueue timestamp of the element returned by the last successful {@link #poll()}. */
+    long lastEnqueueNanos() {
+        return lastEnqueueNanos;
+    }
+
+    boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,50 @@
+package infrastructure.shard;
+
+import io.smallrye.mutiny.subscription.UniEmitter;
+
+import java.util.function.Supplier;
+
+/**
+ * A unit of work submitted through {@link AccountShardInvoker}.
+ *
+ * Execution and completion are split so a group-commit shard can run several commands in one
+ * transaction and only complete the callers once that transaction has committed.
+ */
+final class ShardCommand<T> implements Runnable {
+
+    private final Supplier<T> work;
+    private final UniEmitter<? super T> emitter;
+
+    private T result;
+    private Throwable failure;
+
+    ShardCommand(Supplier<T> work, UniEmitter<? super T> emitter) {
+        this.work = work;
+        this.emitter = emitter;
+    }
+
+    @Override
+    public void run() {
+        try {
+            result = work.get();
+        } catch (Throwable t) {
+            failure = t;
+        }
+    }
+
+    boolean failed() {
+        return failure != null;
+    }
+
+    void complete() {
+        if (failure != null) {
+            emitter.fail(failure);
+        } else {
+            emitter.complete(result);
+        }
+    }
+
+    void abort(Throwable cause) {
+        emitter.fail(cause);
+    }
+}
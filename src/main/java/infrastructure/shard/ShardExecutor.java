@@ -1,57 +1,282 @@
 package infrastructure.shard;
 
+import infrastructure.journal.WriteBehindJournal;
 import infrastructure.metrics.ShardMetrics;
-import jakarta.annotation.PreDestroy;
+import infrastructure.repository.AccountStateCache;
+import infrastructure.repository.PinnedConnection;
+import infrastructure.repository.PositionCache;
+import io.micrometer.core.instrument.Timer;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
+import java.util.concurrent.locks.LockSupport;
 
 public final class ShardExecutor {
 
-    private static final AtomicInteger SHARD_COUNTER = new AtomicInteger(0);
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 200;
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
 
     private final int shardId;
-    private final ExecutorService executor;
-    private final ShardMetrics metrics;
-    private final AtomicInteger queueDepth = new AtomicInteger(0);
-
-    public ShardExecutor(ShardMetrics metrics) {
-        this.shardId = SHARD_COUNTER.getAndIncrement();
-        this.metrics = metrics;
-        this.executor = Executors.newSingleThreadExecutor(r -> {
-            Thread t = new Thread(r);
-            t.setName("account-shard-" + shardId);
-            t.setDaemon(true);
-            return t;
-        });
+    private final String name;
+    private final MpscRingBuffer<Runnable> queue;
+    private final WaitStrategy waitStrategy;
+    private final GroupCommitter groupCommitter;
+    private final PinnedConnection connection;
+    private final AccountStateCache stateCache;
+    private final PositionCache positionCache;
+    private final WriteBehindJournal journal;
+    private final Timer waitTimer;
+    private final Timer processingTimer;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+    private volatile boolean parked;
+
+    ShardExecutor(int shardId, String name, int ringSize, WaitStrategy waitStrategy,
+                  GroupCommitter groupCommitter, PinnedConnection connection,
+                  AccountStateCache stateCache, PositionCache positionCache, WriteBehindJournal journal,
+                  ShardMetrics metrics) {
+        this.shardId = shardId;
+        this.name = name;
+        this.queue = new MpscRingBuffer<>(ringSize);
+        this.waitStrategy = waitStrategy;
+        this.groupCommitter = groupCommitter;
+        this.connection = connection;
+        this.stateCache = stateCache;
+        this.positionCache = positionCache;
+        this.journal = journal;
+        String shard = name;
+        this.waitTimer = metrics.waitTimer(shard);
+        this.processingTimer = metrics.processingTimer(shard);
+        metrics.registerQueue(shard, queue, MpscRingBuffer::size);
+        metrics.registerQueueCapacity(shard, queue.capacity());
+
+        Runnable loop = groupCommitter != null ? this::runGroupCommitLoop : this::runLoop;
+        this.thread = new Thread(() -> runBound(loop), "account-shard-" + name);
+        this.thread.setDaemon(true);
+        this.thread.start();
     }
 
+    public int shardId() {
+        return shardId;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Enqueues a task, returning false instead of waiting when the ring is full.
+     */
+    public boolean tryExecute(Runnable task) {
+        if (!queue.offer(task, System.nanoTime())) {
+            return false;
+        }
+        wakeUp();
+        return true;
+    }
+
+    /**
+     * Enqueues a task, spinning while the ring is full. For internal tasks that must not be dropped.
+     */
     public void execute(Runnable task) {
         long submitNanos = System.nanoTime();
-        queueDepth.incrementAndGet();
-        metrics.updateQueueDepth(shardId, queueDepth.get());
 
-        executor.submit(() -> {
-            long startNanos = System.nanoTime();
-            long waitNanos = startNanos - submitNanos;
-            metrics.recordWaitTime(shardId, waitNanos);
+        int attempts = 0;
+        while (!queue.offer(task, submitNanos)) {
+            if (!running) {
+                throw new IllegalStateException("Shard " + shardId + " is shut down");
+            }
+            if (++attempts < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+        wakeUp();
+    }
+
+    /**
+     * Runs {@code then} on the shard once every task queued before it has run and their journal
+     * entries are in the database; whoever owns those accounts next reads what was acknowledged.
+     */
+    public void barrier(Runnable then) {
+        execute(() -> {
+            journal.flushAll();
+            then.run();
+        });
+    }
 
+    /**
+     * {@link #barrier} for a shard giving up accounts: also drops their cached state before
+     * {@code then} runs, so nothing stale is left should they come back.
+     */
+    public void release(LongPredicate accounts, Runnable then) {
+        execute(() -> {
+            journal.flushAll();
+            stateCache.drop(accounts);
+            positionCache.drop(accounts);
+            then.run();
+        });
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    public int queueCapacity() {
+        return queue.capacity();
+    }
+
+    public long processedCount() {
+        return processingTimer.count();
+    }
+
+    private void wakeUp() {
+        if (parked) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void runBound(Runnable loop) {
+        stateCache.bindShard(name);
+        positionCache.bindShard(name);
+        if (connection != null) {
+            connection.bindToCurrentThread();
+        }
+        journal.bindShard(name);
+        try {
+            loop.run();
+        } finally {
             try {
-                task.run();
+                journal.unbindShard();
             } finally {
-                long endNanos = System.nanoTime();
-                long processingNanos = endNanos - startNanos;
-                metrics.recordProcessingTime(shardId, processingNanos);
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private void runLoop() {
+        int idleCount = 0;
 
-                queueDepth.decrementAndGet();
-                metrics.updateQueueDepth(shardId, queueDepth.get());
+        while (running || !queue.isEmpty()) {
+            Runnable task = poll();
+            if (task == null) {
+                journal.flushIfDue();
+                idle(idleCount++);
+                continue;
             }
-        });
+            idleCount = 0;
+            runTask(task);
+        }
+    }
+
+    private void runGroupCommitLoop() {
+        ShardCommand<?>[] batch = new ShardCommand<?>[groupCommitter.maxBatch()];
+        int idleCount = 0;
+
+        while (running || !queue.isEmpty()) {
+            Runnable task = poll();
+            if (task == null) {
+                journal.flushIfDue();
+                idle(idleCount++);
+                continue;
+            }
+            idleCount = 0;
+
+            if (!(task instanceof ShardCommand<?> first)) {
+                runTask(task);
+                continue;
+            }
+
+            batch[0] = first;
+            int size = 1;
+            int limit = groupCommitter.batchLimit();
+            long lingerNanos = groupCommitter.lingerNanos();
+            long deadline = 0;
+            Runnable barrier = null;
+
+            while (size < limit) {
+                Runnable next = poll();
+                if (next == null) {
+                    if (lingerNanos <= 0) {
+                        break;
+                    }
+                    long now = System.nanoTime();
+                    if (deadline == 0) {
+                        deadline = now + lingerNanos;
+                    } else if (now >= deadline) {
+                        break;
+                    }
+                    Thread.onSpinWait();
+                    continue;
+                }
+                if (next instanceof ShardCommand<?> command) {
+                    batch[size++] = command;
+                } else {
+                    // non-command tasks run only after everything before them has committed
+                    barrier = next;
+                    break;
+                }
+            }
+
+            groupCommitter.commit(batch, size, processingTimer);
+            for (int i = 0; i < size; i++) {
+                batch[i] = null;
+            }
+            if (barrier != null) {
+                runTask(barrier);
+            }
+        }
+    }
+
+    private Runnable poll() {
+        Runnable task = queue.poll();
+        if (task != null) {
+            waitTimer.record(System.nanoTime() - queue.lastEnqueueNanos(), TimeUnit.NANOSECONDS);
+        }
+        return task;
+    }
+
+    private void runTask(Runnable task) {
+        long startNanos = System.nanoTime();
+        try {
+            task.run();
+            if (task instanceof ShardCommand<?> command) {
+                command.complete();
+            }
+        } catch (Throwable t) {
+            // tasks complete their own emitters; never let one kill the shard thread
+        } finally {
+            processingTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void idle(int idleCount) {
+        switch (waitStrategy) {
+            case BUSY_SPIN -> Thread.onSpinWait();
+            case YIELD -> Thread.yield();
+            case PARK -> {
+                if (idleCount < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else if (idleCount < YIELD_TRIES) {
+                    Thread.yield();
+                } else {
+                    parked = true;
+                    if (queue.isEmpty() && running) {
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                    parked = false;
+                }
+            }
+        }
     }
 
-    @PreDestroy
     public void shutdown() {
-        executor.shutdown();
+        running = false;
+        LockSupport.unpark(thread);
     }
 }
@@ -0,0 +1,65 @@
+package infrastructure.shard;
+
+import infrastructure.journal.WriteBehindJournal;
+import infrastructure.metrics.ShardMetrics;
+import infrastructure.repository.AccountStateCache;
+import infrastructure.repository.DslProvider;
+import infrastructure.repository.PinnedConnectionFactory;
+import infrastructure.repository.PositionCache;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.concurrent.TimeUnit;
+
+@ApplicationScoped
+public class ShardExecutorFactory {
+
+    @ConfigProperty(name = "account.shard.ring-size", defaultValue = "4096")
+    int ringSize;
+
+    @ConfigProperty(name = "account.shard.wait-strategy", defaultValue = "PARK")
+    WaitStrategy waitStrategy;
+
+    @ConfigProperty(name = "account.shard.group-commit.enabled", defaultValue = "false")
+    boolean groupCommitEnabled;
+
+    @ConfigProperty(name = "account.shard.group-commit.max-batch", defaultValue = "64")
+    int groupCommitMaxBatch;
+
+    @ConfigProperty(name = "account.shard.group-commit.max-linger-micros", defaultValue = "200")
+    long groupCommitMaxLingerMicros;
+
+    @Inject ShardMetrics metrics;
+    @Inject DslProvider dslProvider;
+    @Inject PinnedConnectionFactory pinnedConnections;
+    @Inject AccountStateCache stateCache;
+    @Inject PositionCache positionCache;
+    @Inject WriteBehindJournal journal;
+
+    public ShardExecutor create(int shardId) {
+        return create(shardId, String.valueOf(shardId));
+    }
+
+    /**
+     * Dedicated lane for isolated hot accounts. Lanes never own slots, so they get negative IDs.
+     */
+    public ShardExecutor createHotLane(int lane) {
+        return create(-1 - lane, "hot-" + lane);
+    }
+
+    private ShardExecutor create(int shardId, String name) {
+        GroupCommitter groupCommitter = null;
+        if (groupCommitEnabled) {
+            groupCommitter = new GroupCommitter(
+                    dslProvider,
+                    groupCommitMaxBatch,
+                    TimeUnit.MICROSECONDS.toNanos(groupCommitMaxLingerMicros),
+                    metrics.commitBatchSize(name),
+                    metrics.commitTimer(name)
+            );
+        }
+        return new ShardExecutor(shardId, name, ringSize, waitStrategy, groupCommitter,
+                pinnedConnections.open(name), stateCache, positionCache, journal, metrics);
+    }
+}
@@ -0,0 +1,10 @@
+package infrastructure.shard;
+
+/**
+ * RING    - fixed account.shard.count platform threads, accounts hashed onto them
+ * VIRTUAL - one virtual-thread lane per active account; a slow account only blocks itself
+ */
+public enum ShardMode {
+    RING,
+    VIRTUAL
+}
@@ -0,0 +1,22 @@
+package infrastructure.shard;
+
+/**
+ * Thrown (as a Uni failure) when a command is refused before reaching a shard.
+ * Callers map it to an overloaded reply (a wrong-owner one for NOT_OWNER) instead of letting the
+ * request queue.
+ */
+public class ShardRejectedException extends RuntimeException {
+
+    public enum Reason { CONCURRENCY_LIMIT, QUEUE_FULL, NOT_OWNER }
+
+    private final Reason reason;
+
+    public ShardRejectedException(Reason reason) {
+        super("Shard rejected command: " + reason, null, false, false);
+        this.reason = reason;
+    }
+
+    public Reason reason() {
+        return reason;
+    }
+}
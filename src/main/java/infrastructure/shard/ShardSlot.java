@@ -0,0 +1,106 @@
+package infrastructure.shard;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One virtual slot of the shard table: a fixed range of account IDs that always moves as a unit.
+ *
+ * Dispatch and handoff coordinate through two volatiles. A dispatcher announces itself in
+ * {@code dispatching} before reading {@code moving}; the router sets {@code moving} before waiting
+ * for {@code dispatching} to drain. So either the dispatcher sees the move and parks its task here,
+ * or the router waits until the task is in the old owner's ring, ahead of the handoff barrier.
+ *
+ * Hot accounts of the slot can be isolated onto dedicated lanes; they change lane through the
+ * same handoff, so an account's commands never run on two executors at once.
+ */
+final class ShardSlot {
+
+    final int id;
+
+    private final AtomicInteger dispatching = new AtomicInteger();
+    private volatile ShardExecutor owner;
+    private volatile Map<Long, ShardExecutor> isolated = Map.of();
+    private volatile boolean moving;
+
+    // guarded by this
+    private final List<Parked> parked = new ArrayList<>();
+
+    ShardSlot(int id, ShardExecutor owner) {
+        this.id = id;
+        this.owner = owner;
+    }
+
+    ShardExecutor owner() {
+        return owner;
+    }
+
+    Map<Long, ShardExecutor> isolated() {
+        return isolated;
+    }
+
+    boolean dispatch(long accountId, Runnable task) {
+        while (true) {
+            dispatching.incrementAndGet();
+            try {
+                if (!moving) {
+                    return executorFor(accountId).tryExecute(task);
+                }
+            } finally {
+                dispatching.decrementAndGet();
+            }
+            synchronized (this) {
+                if (moving) {
+                    parked.add(new Parked(accountId, task));
+                    return true;
+                }
+            }
+            // handoff finished while we waited for the lock; route to the new owner
+        }
+    }
+
+    /**
+     * Stops new tasks from reaching the current owner and waits for dispatchers already past the check.
+     */
+    void quiesce() {
+        moving = true;
+        while (dispatching.get() != 0) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Publishes the new owner and replays tasks parked during the move, ahead of any new dispatch.
+     */
+    synchronized void handOff(ShardExecutor newOwner) {
+        handOff(newOwner, isolated);
+    }
+
+    /**
+     * Same as {@link #handOff(ShardExecutor)}, also replacing the set of isolated accounts.
+     */
+    synchronized void handOff(ShardExecutor newOwner, Map<Long, ShardExecutor> newIsolated) {
+        owner = newOwner;
+        isolated = newIsolated;
+        for (Parked p : parked) {
+            executorFor(p.accountId()).execute(p.task());
+        }
+        parked.clear();
+        moving = false;
+    }
+
+    private ShardExecutor executorFor(long accountId) {
+        Map<Long, ShardExecutor> lanes = isolated;
+        if (!lanes.isEmpty()) {
+            ShardExecutor lane = lanes.get(accountId);
+            if (lane != null) {
+                return lane;
+            }
+        }
+        return owner;
+    }
+
+    private record Parked(long accountId, Runnable task) {}
+}
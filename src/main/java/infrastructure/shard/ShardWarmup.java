@@ -0,0 +1,133 @@
+package infrastructure.shard;
+
+import grpc.health.v1.HealthOuterClass.HealthCheckResponse.ServingStatus;
+import infrastructure.journal.WriteBehindJournal;
+import infrastructure.metrics.DbMetrics;
+import infrastructure.repository.ShardStateLoader;
+import infrastructure.repository.ShardStateLoader.Loaded;
+import io.quarkus.grpc.runtime.health.GrpcHealthStorage;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.Readiness;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Loads shard state at startup and holds readiness until it is done.
+ *
+ * Every shard streams the accounts, positions and open reservations of the slots it owns into its
+ * own caches, on its own thread and connection, so shards load in parallel and the first commands
+ * after a restart are answered from memory. At most {@code parallelism} shards load at once, which
+ * leaves pool connections for the other startup loaders. Loading waits for the write-behind journal
+ * to be replayed. The readiness check and the gRPC health
+ * service report not serving until every shard has finished. A shard whose load fails starts cold.
+ */
+@Readiness
+@ApplicationScoped
+public class ShardWarmup implements HealthCheck {
+
+    private static final Logger log = Logger.getLogger(ShardWarmup.class);
+
+    @ConfigProperty(name = "account.shard.warmup.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "account.shard.warmup.parallelism", defaultValue = "8")
+    int parallelism;
+
+    @ConfigProperty(name = "account.shard.mode", defaultValue = "RING")
+    ShardMode mode;
+
+    @Inject InMemoryShardRouter router;
+    @Inject ShardStateLoader loader;
+    @Inject DbMetrics metrics;
+    @Inject GrpcHealthStorage grpcHealth;
+    @Inject WriteBehindJournal journal;
+
+    private volatile boolean ready;
+
+    void onStart(@Observes StartupEvent event) {
+        if (!enabled) {
+            ready = true;
+            return;
+        }
+        grpcHealth.setStatus(GrpcHealthStorage.DEFAULT_SERVICE_NAME, ServingStatus.NOT_SERVING);
+        Thread coordinator = new Thread(this::warmUp, "account-shard-warmup");
+        coordinator.setDaemon(true);
+        coordinator.start();
+    }
+
+    @Override
+    public HealthCheckResponse call() {
+        return HealthCheckResponse.named("account-shard-warmup").status(ready).build();
+    }
+
+    private void warmUp() {
+        long startNanos = System.nanoTime();
+        Loaded total = Loaded.NONE;
+        try {
+            // the journal tails have to be in the database before it is read into the caches
+            journal.awaitRecovered();
+            total = mode == ShardMode.VIRTUAL ? loadUnsharded() : loadShards();
+        } catch (Exception e) {
+            log.errorf(e, "Shard warm-up failed, shards start cold");
+        }
+
+        long durationNanos = System.nanoTime() - startNanos;
+        metrics.recordRebuild("shard_state", durationNanos);
+        log.infof("Shard warm-up done: %d accounts, %d positions, %d open reservations in %d ms (%d rows/s)",
+                total.accounts(), total.positions(), total.reservations(), durationNanos / 1_000_000,
+                total.rows() * 1_000_000_000L / Math.max(1, durationNanos));
+
+        ready = true;
+        grpcHealth.setStatus(GrpcHealthStorage.DEFAULT_SERVICE_NAME, ServingStatus.SERVING);
+    }
+
+    private Loaded loadShards() {
+        List<ShardExecutor> shards = router.shards();
+        int slotCount = router.slotCount();
+        Semaphore permits = new Semaphore(Math.max(1, parallelism));
+
+        List<CompletableFuture<Loaded>> results = new ArrayList<>(shards.size());
+        for (ShardExecutor shard : shards) {
+            int[] slots = router.slotsOf(shard);
+            CompletableFuture<Loaded> result = new CompletableFuture<>();
+            // the caches are per shard thread, so each shard has to load on its own thread
+            shard.execute(() -> {
+                permits.acquireUninterruptibly();
+                try {
+                    result.complete(loader.load(shard.name(), slotCount, slots));
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                } finally {
+                    permits.release();
+                }
+            });
+            results.add(result);
+        }
+
+        Loaded total = Loaded.NONE;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                total = total.plus(results.get(i).join());
+            } catch (CompletionException e) {
+                log.errorf(e.getCause(), "Warm-up of shard %s failed, it starts cold", shards.get(i).name());
+            }
+        }
+        return total;
+    }
+
+    // VIRTUAL lanes hold no shard caches; only the node-wide reservation index is loaded
+    private Loaded loadUnsharded() {
+        return loader.load("virtual", 1, new int[] {0});
+    }
+}
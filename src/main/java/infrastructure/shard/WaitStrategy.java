@@ -0,0 +1,14 @@
+package infrastructure.shard;
+
+/**
+ * What an idle shard thread does while its ring buffer is empty.
+ *
+ * BUSY_SPIN - lowest latency, burns a full core per shard
+ * YIELD     - spins through Thread.yield(), gives the core away when other threads are runnable
+ * PARK      - spins briefly, then parks until a producer unparks it (default)
+ */
+public enum WaitStrategy {
+    BUSY_SPIN,
+    YIELD,
+    PARK
+}
@@ -0,0 +1,3 @@
+-- 커밋 직후 바로 보낸 이벤트는 (aggregate_id, idempotency_key)로 찾아 PUBLISHED 처리한다
+-- PENDING 행만 담는 부분 인덱스라 발행이 따라가는 한 작게 유지된다
+CREATE INDEX idx_outbox_pending_key ON outbox_events(aggregate_id, idempotency_key) WHERE status = 'PENDING';
@@ -0,0 +1,3 @@
+-- relay는 같은 계좌에 아직 due가 아닌 더 이른 PENDING 행(재시도 대기, 다른 relay가 lease 중, direct path 대기)이
+-- 있으면 그 뒤 이벤트를 claim하지 않는다. 그 NOT EXISTS 검사를 (aggregate_id, id) 순서로 바로 찾는다
+CREATE INDEX idx_outbox_pending_aggregate ON outbox_events(aggregate_id, id) WHERE status = 'PENDING';
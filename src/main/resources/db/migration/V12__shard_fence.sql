@@ -0,0 +1,13 @@
+-- [jooq ignore start]
+-- 클러스터 모드의 쓰기 문장은 마지막 조건으로 이 함수를 불러, 그 사이 다른 노드가 슬롯을 가져가 토큰이 바뀌었으면
+-- 문장 전체를 실패시킨다(SQLSTATE SL001). 잠금 없이 읽기만 하므로 heartbeat의 lease 갱신과 서로 막지 않는다
+CREATE FUNCTION shard_fence(fence_slot INT, fence_token BIGINT) RETURNS BOOLEAN AS $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM shard_leases WHERE slot = fence_slot AND fencing_token = fence_token) THEN
+        RAISE EXCEPTION 'lease of shard slot % is no longer held with token %', fence_slot, fence_token
+            USING ERRCODE = 'SL001';
+    END IF;
+    RETURN true;
+END;
+$$ LANGUAGE plpgsql STABLE;
+-- [jooq ignore stop]
@@ -0,0 +1,9 @@
+-- [jooq ignore start]
+-- 체결(BUY_FILL / SELL_FILL)도 account_ledger에 기록되므로 entry_type CHECK에 추가
+-- 파티션 테이블(V6)의 부모에 걸면 기존·신규 파티션 모두에 적용된다. 허용 값을 넓히기만 하므로 기존 행은 모두 통과
+ALTER TABLE account_ledger
+    DROP CONSTRAINT chk_account_ledger_entry_type,
+    ADD CONSTRAINT chk_account_ledger_entry_type
+        CHECK (entry_type IN ('RESERVE', 'UNRESERVE', 'DEPOSIT', 'WITHDRAW', 'FEE', 'INTEREST',
+                              'BUY_FILL', 'SELL_FILL'));
+-- [jooq ignore stop]
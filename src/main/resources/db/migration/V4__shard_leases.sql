@@ -0,0 +1,17 @@
+-- 클러스터 노드 heartbeat
+CREATE TABLE cluster_nodes (
+    node_id      TEXT PRIMARY KEY,
+    address      TEXT NOT NULL,
+    heartbeat_at TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+-- 슬롯 단위 shard lease (fencing_token은 소유자가 바뀔 때마다 증가)
+CREATE TABLE shard_leases (
+    slot          INT PRIMARY KEY,
+    node_id       TEXT,
+    address       TEXT,
+    fencing_token BIGINT NOT NULL DEFAULT 0,
+    expires_at    TIMESTAMPTZ NOT NULL DEFAULT '-infinity'
+);
+
+CREATE INDEX idx_shard_leases_node ON shard_leases(node_id);
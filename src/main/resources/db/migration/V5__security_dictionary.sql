@@ -0,0 +1,36 @@
+-- 종목 사전: 외부 심볼 <-> 내부 정수 ID (체결 이벤트의 security_id와 같은 값)
+CREATE TABLE securities (
+    security_id INTEGER PRIMARY KEY,
+    symbol      TEXT NOT NULL UNIQUE
+);
+
+-- security_id가 없는 심볼용 ID (음수로 내려가므로 체결 security_id와 겹치지 않음)
+CREATE SEQUENCE securities_local_id_seq INCREMENT BY -1 START WITH -1 MAXVALUE -1;
+
+-- 기존 심볼 등록: "SEC<n>" 은 n, 나머지는 음수 ID
+INSERT INTO securities (security_id, symbol)
+SELECT DISTINCT ON (substring(symbol FROM 4)::int) substring(symbol FROM 4)::int, symbol
+FROM (SELECT symbol FROM positions UNION SELECT symbol FROM position_ledger) s
+WHERE symbol ~ '^SEC[0-9]{1,9}$'
+ORDER BY substring(symbol FROM 4)::int, symbol;
+
+INSERT INTO securities (security_id, symbol)
+SELECT nextval('securities_local_id_seq'), symbol
+FROM (SELECT symbol FROM positions UNION SELECT symbol FROM position_ledger) s
+WHERE NOT EXISTS (SELECT 1 FROM securities x WHERE x.symbol = s.symbol);
+
+-- 포지션: TEXT symbol -> INTEGER security_id
+ALTER TABLE positions ADD COLUMN security_id INTEGER;
+UPDATE positions p SET security_id = s.security_id FROM securities s WHERE s.symbol = p.symbol;
+ALTER TABLE positions ALTER COLUMN security_id SET NOT NULL;
+DROP INDEX idx_positions_account_symbol;
+ALTER TABLE positions DROP COLUMN symbol;
+
+-- 계좌당 종목 unique
+CREATE UNIQUE INDEX idx_positions_account_security ON positions(account_id, security_id);
+
+-- 포지션 원장
+ALTER TABLE position_ledger ADD COLUMN security_id INTEGER;
+UPDATE position_ledger l SET security_id = s.security_id FROM securities s WHERE s.symbol = l.symbol;
+ALTER TABLE position_ledger ALTER COLUMN security_id SET NOT NULL;
+ALTER TABLE position_ledger DROP COLUMN symbol;
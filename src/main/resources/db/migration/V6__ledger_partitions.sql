@@ -0,0 +1,111 @@
+-- [jooq ignore start]
+-- 원장 테이블을 created_at 기준 월 단위 range 파티션으로 전환 (컬럼은 그대로)
+-- 파티션 키가 없는 unique index는 파티션 테이블에 둘 수 없으므로 (request_id, account_id) unique는
+-- 파티션마다 따로 두고, 파티션 경계를 넘는 중복은 최근 파티션을 보는 NOT EXISTS 조건으로 막는다
+-- 기존 행을 복사하므로 원장이 큰 환경에서는 점검 시간에 적용
+
+-- 월 파티션 생성 (UTC 기준 월, 이미 있으면 false). 유지보수 잡도 이 함수로 미리 만든다
+CREATE FUNCTION ledger_ensure_partition(parent TEXT, month DATE) RETURNS BOOLEAN AS $$
+DECLARE
+    part TEXT := parent || '_p' || to_char(month, 'YYYYMM');
+    lo   TIMESTAMPTZ := date_trunc('month', month::timestamp) AT TIME ZONE 'UTC';
+BEGIN
+    -- 여러 노드가 동시에 만들려고 할 때 한 곳만 진행
+    PERFORM pg_advisory_xact_lock(hashtext(parent));
+    IF to_regclass(part) IS NOT NULL THEN
+        RETURN false;
+    END IF;
+    EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                   part, parent, lo, lo + interval '1 month');
+    EXECUTE format('CREATE UNIQUE INDEX %I ON %I (request_id, account_id)', part || '_request', part);
+    RETURN true;
+END;
+$$ LANGUAGE plpgsql;
+
+-- 분리된 옛 파티션 보관용
+CREATE SCHEMA IF NOT EXISTS ledger_archive;
+
+-- 거래 원장
+ALTER TABLE account_ledger RENAME TO account_ledger_unpartitioned;
+ALTER TABLE account_ledger_unpartitioned DROP CONSTRAINT account_ledger_pkey;
+DROP INDEX ux_ledger_request;
+DROP INDEX idx_ledger_account_created;
+ALTER SEQUENCE account_ledger_id_seq OWNED BY NONE;
+
+CREATE TABLE account_ledger (
+    id           BIGINT NOT NULL DEFAULT nextval('account_ledger_id_seq'),
+    account_id   BIGINT NOT NULL,
+    entry_type   TEXT NOT NULL,
+    request_id   TEXT NOT NULL,
+    order_id     TEXT,
+    amount       NUMERIC(18, 2) NOT NULL,
+    created_at   TIMESTAMPTZ NOT NULL DEFAULT now(),
+
+    CONSTRAINT account_ledger_pkey PRIMARY KEY (id, created_at),
+    CONSTRAINT fk_account_ledger_account FOREIGN KEY (account_id) REFERENCES accounts(account_id),
+    CONSTRAINT chk_account_ledger_entry_type
+        CHECK (entry_type IN ('RESERVE', 'UNRESERVE', 'DEPOSIT', 'WITHDRAW', 'FEE', 'INTEREST'))
+) PARTITION BY RANGE (created_at);
+
+CREATE INDEX idx_ledger_account_created ON account_ledger(account_id, created_at DESC);
+
+-- 포지션 원장
+ALTER TABLE position_ledger RENAME TO position_ledger_unpartitioned;
+ALTER TABLE position_ledger_unpartitioned DROP CONSTRAINT position_ledger_pkey;
+DROP INDEX ux_position_ledger_request;
+DROP INDEX idx_position_ledger_account_created;
+ALTER SEQUENCE position_ledger_id_seq OWNED BY NONE;
+
+CREATE TABLE position_ledger (
+    id              BIGINT NOT NULL DEFAULT nextval('position_ledger_id_seq'),
+    account_id      BIGINT NOT NULL,
+    position_id     BIGINT,
+    entry_type      TEXT NOT NULL,
+    request_id      TEXT NOT NULL,
+    order_id        TEXT,
+    quantity_change NUMERIC(20, 8) NOT NULL,
+    price           NUMERIC(18, 2) NOT NULL,
+    created_at      TIMESTAMPTZ NOT NULL DEFAULT now(),
+    security_id     INTEGER NOT NULL,
+
+    CONSTRAINT position_ledger_pkey PRIMARY KEY (id, created_at),
+    CONSTRAINT fk_position_ledger_account FOREIGN KEY (account_id) REFERENCES accounts(account_id),
+    CONSTRAINT chk_position_ledger_entry_type
+        CHECK (entry_type IN ('BUY', 'SELL', 'RESERVE', 'UNRESERVE', 'ADJUST', 'DIVIDEND'))
+) PARTITION BY RANGE (created_at);
+
+CREATE INDEX idx_position_ledger_account_created ON position_ledger(account_id, created_at DESC);
+
+-- 기존 행이 있는 달부터 두 달 뒤까지 파티션 생성
+DO $$
+DECLARE
+    first_month DATE := date_trunc('month', LEAST(
+        (SELECT min(created_at) FROM account_ledger_unpartitioned),
+        (SELECT min(created_at) FROM position_ledger_unpartitioned),
+        now()) AT TIME ZONE 'UTC')::date;
+    m DATE;
+BEGIN
+    FOR m IN SELECT generate_series(first_month,
+                                    date_trunc('month', now() AT TIME ZONE 'UTC') + interval '2 months',
+                                    interval '1 month')::date
+    LOOP
+        PERFORM ledger_ensure_partition('account_ledger', m);
+        PERFORM ledger_ensure_partition('position_ledger', m);
+    END LOOP;
+END;
+$$;
+
+INSERT INTO account_ledger (id, account_id, entry_type, request_id, order_id, amount, created_at)
+SELECT id, account_id, entry_type, request_id, order_id, amount, created_at FROM account_ledger_unpartitioned;
+
+INSERT INTO position_ledger (id, account_id, position_id, entry_type, request_id, order_id, quantity_change,
+                             price, created_at, security_id)
+SELECT id, account_id, position_id, entry_type, request_id, order_id, quantity_change,
+       price, created_at, security_id FROM position_ledger_unpartitioned;
+
+DROP TABLE account_ledger_unpartitioned;
+DROP TABLE position_ledger_unpartitioned;
+
+ALTER SEQUENCE account_ledger_id_seq OWNED BY account_ledger.id;
+ALTER SEQUENCE position_ledger_id_seq OWNED BY position_ledger.id;
+-- [jooq ignore stop]
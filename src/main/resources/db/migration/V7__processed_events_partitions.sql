@@ -0,0 +1,56 @@
+-- [jooq ignore start]
+-- 체결 이벤트 중복 제거 테이블을 processed_at 기준 일 단위 range 파티션으로 전환 (컬럼은 그대로)
+-- dedup window(order.filled.events 보존 기간)가 지난 날짜는 DELETE 대신 파티션을 통째로 떼어 버린다
+-- event_id unique는 파티션마다 두고, 경계를 넘는 재전송은 window 안을 보는 NOT EXISTS 조건으로 막는다
+
+-- 일 파티션 생성 (UTC 기준 날짜, 이미 있으면 false). 유지보수 잡도 이 함수로 미리 만든다
+CREATE FUNCTION processed_events_ensure_partition(day DATE) RETURNS BOOLEAN AS $$
+DECLARE
+    part TEXT := 'processed_events_p' || to_char(day, 'YYYYMMDD');
+    lo   TIMESTAMPTZ := day::timestamp AT TIME ZONE 'UTC';
+BEGIN
+    PERFORM pg_advisory_xact_lock(hashtext('processed_events'));
+    IF to_regclass(part) IS NOT NULL THEN
+        RETURN false;
+    END IF;
+    EXECUTE format('CREATE TABLE %I PARTITION OF processed_events FOR VALUES FROM (%L) TO (%L)',
+                   part, lo, lo + interval '1 day');
+    EXECUTE format('CREATE UNIQUE INDEX %I ON %I (event_id)', part || '_event', part);
+    RETURN true;
+END;
+$$ LANGUAGE plpgsql;
+
+ALTER TABLE processed_events RENAME TO processed_events_unpartitioned;
+ALTER TABLE processed_events_unpartitioned DROP CONSTRAINT processed_events_pkey;
+-- 계정 삭제 시에도 남겨 두고 window가 지나면 파티션과 함께 사라지므로 account_id 인덱스는 두지 않는다
+DROP INDEX idx_processed_events_account;
+DROP INDEX idx_processed_events_processed_at;
+
+CREATE TABLE processed_events (
+    event_id     TEXT NOT NULL,
+    event_type   TEXT NOT NULL,
+    account_id   BIGINT NOT NULL,
+    processed_at TIMESTAMPTZ NOT NULL DEFAULT now()
+) PARTITION BY RANGE (processed_at);
+
+-- 최근 30일만 옮긴다 (Kafka 보존 기간보다 오래된 이벤트는 다시 올 수 없음)
+DO $$
+DECLARE
+    d DATE;
+BEGIN
+    FOR d IN SELECT generate_series(date_trunc('day', now() AT TIME ZONE 'UTC') - interval '30 days',
+                                    date_trunc('day', now() AT TIME ZONE 'UTC') + interval '3 days',
+                                    interval '1 day')::date
+    LOOP
+        PERFORM processed_events_ensure_partition(d);
+    END LOOP;
+END;
+$$;
+
+INSERT INTO processed_events (event_id, event_type, account_id, processed_at)
+SELECT event_id, event_type, account_id, processed_at FROM processed_events_unpartitioned
+WHERE processed_at >= date_trunc('day', now() AT TIME ZONE 'UTC') AT TIME ZONE 'UTC' - interval '30 days'
+  AND processed_at < date_trunc('day', now() AT TIME ZONE 'UTC') AT TIME ZONE 'UTC' + interval '4 days';
+
+DROP TABLE processed_events_unpartitioned;
+-- [jooq ignore stop]
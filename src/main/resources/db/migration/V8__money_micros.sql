@@ -0,0 +1,133 @@
+-- 금액은 BIGINT 마이크로 단위(1_000_000 = 1.0), 수량은 BIGINT 정수 단위로 저장 (API/이벤트와 같은 단위)
+-- 1단계(expand): 새 컬럼은 NULL 허용으로 추가만 하고 (메타데이터 변경, 테이블 재작성 없음)
+-- 기존 행은 MoneyBackfill 잡이 작은 배치로 채운다. 채워지기 전 행은 리포지토리가 NUMERIC 값으로 대신 읽는다
+-- 2단계(contract, 다음 릴리스): money_backfill이 모두 done이고 NUMERIC 컬럼을 읽는 노드가 없어지면
+-- 새 컬럼 NOT NULL, CHECK VALIDATE, 동기화 트리거와 NUMERIC 컬럼 삭제
+
+ALTER TABLE accounts
+    ADD COLUMN balance_micros  BIGINT,
+    ADD COLUMN reserved_micros BIGINT;
+
+ALTER TABLE account_ledger
+    ADD COLUMN amount_micros BIGINT;
+
+ALTER TABLE positions
+    ADD COLUMN quantity_units          BIGINT,
+    ADD COLUMN reserved_quantity_units BIGINT,
+    ADD COLUMN avg_price_micros        BIGINT;
+
+ALTER TABLE position_ledger
+    ADD COLUMN quantity_change_units BIGINT,
+    ADD COLUMN price_micros          BIGINT;
+
+-- [jooq ignore start]
+-- 기존 제약을 새 컬럼에도 (NOT VALID: 기존 행 검사 없이 새로 쓰는 행만, contract에서 VALIDATE)
+ALTER TABLE accounts
+    ADD CONSTRAINT chk_accounts_balance_micros_positive CHECK (balance_micros >= 0) NOT VALID,
+    ADD CONSTRAINT chk_accounts_reserved_micros_positive CHECK (reserved_micros >= 0) NOT VALID;
+
+ALTER TABLE positions
+    ADD CONSTRAINT chk_positions_quantity_units_positive CHECK (quantity_units >= 0) NOT VALID,
+    ADD CONSTRAINT chk_positions_reserved_units
+        CHECK (reserved_quantity_units >= 0 AND reserved_quantity_units <= quantity_units) NOT VALID;
+
+-- 전환 중에는 옛 버전 노드(NUMERIC에 씀)와 새 버전 노드(새 컬럼에 씀)가 함께 돌 수 있으므로
+-- 한쪽이 바뀌면 다른 쪽을 맞춘다. INSERT는 새 컬럼이 비어 있으면 NUMERIC에서, 아니면 반대로
+CREATE FUNCTION accounts_sync_micros() RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP = 'INSERT' AND NEW.balance_micros IS NULL
+       OR TG_OP = 'UPDATE' AND NEW.balance_micros IS NOT DISTINCT FROM OLD.balance_micros
+                           AND NEW.balance IS DISTINCT FROM OLD.balance THEN
+        NEW.balance_micros := (NEW.balance * 1000000)::bigint;
+    ELSIF NEW.balance_micros IS NOT NULL THEN
+        NEW.balance := NEW.balance_micros / 1000000.0;
+    END IF;
+    IF TG_OP = 'INSERT' AND NEW.reserved_micros IS NULL
+       OR TG_OP = 'UPDATE' AND NEW.reserved_micros IS NOT DISTINCT FROM OLD.reserved_micros
+                           AND NEW.reserved IS DISTINCT FROM OLD.reserved THEN
+        NEW.reserved_micros := (NEW.reserved * 1000000)::bigint;
+    ELSIF NEW.reserved_micros IS NOT NULL THEN
+        NEW.reserved := NEW.reserved_micros / 1000000.0;
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trg_accounts_sync_micros BEFORE INSERT OR UPDATE ON accounts
+    FOR EACH ROW EXECUTE FUNCTION accounts_sync_micros();
+
+CREATE FUNCTION positions_sync_units() RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP = 'INSERT' AND NEW.quantity_units IS NULL
+       OR TG_OP = 'UPDATE' AND NEW.quantity_units IS NOT DISTINCT FROM OLD.quantity_units
+                           AND NEW.quantity IS DISTINCT FROM OLD.quantity THEN
+        NEW.quantity_units := NEW.quantity::bigint;
+    ELSIF NEW.quantity_units IS NOT NULL THEN
+        NEW.quantity := NEW.quantity_units;
+    END IF;
+    IF TG_OP = 'INSERT' AND NEW.reserved_quantity_units IS NULL
+       OR TG_OP = 'UPDATE' AND NEW.reserved_quantity_units IS NOT DISTINCT FROM OLD.reserved_quantity_units
+                           AND NEW.reserved_quantity IS DISTINCT FROM OLD.reserved_quantity THEN
+        NEW.reserved_quantity_units := NEW.reserved_quantity::bigint;
+    ELSIF NEW.reserved_quantity_units IS NOT NULL THEN
+        NEW.reserved_quantity := NEW.reserved_quantity_units;
+    END IF;
+    IF TG_OP = 'INSERT' AND NEW.avg_price_micros IS NULL
+       OR TG_OP = 'UPDATE' AND NEW.avg_price_micros IS NOT DISTINCT FROM OLD.avg_price_micros
+                           AND NEW.avg_price IS DISTINCT FROM OLD.avg_price THEN
+        NEW.avg_price_micros := (NEW.avg_price * 1000000)::bigint;
+    ELSIF NEW.avg_price_micros IS NOT NULL THEN
+        NEW.avg_price := NEW.avg_price_micros / 1000000.0;
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trg_positions_sync_units BEFORE INSERT OR UPDATE ON positions
+    FOR EACH ROW EXECUTE FUNCTION positions_sync_units();
+
+-- 원장은 append-only라 INSERT만
+CREATE FUNCTION account_ledger_sync_micros() RETURNS TRIGGER AS $$
+BEGIN
+    IF NEW.amount_micros IS NULL THEN
+        NEW.amount_micros := (NEW.amount * 1000000)::bigint;
+    ELSE
+        NEW.amount := NEW.amount_micros / 1000000.0;
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trg_account_ledger_sync_micros BEFORE INSERT ON account_ledger
+    FOR EACH ROW EXECUTE FUNCTION account_ledger_sync_micros();
+
+CREATE FUNCTION position_ledger_sync_units() RETURNS TRIGGER AS $$
+BEGIN
+    IF NEW.quantity_change_units IS NULL THEN
+        NEW.quantity_change_units := NEW.quantity_change::bigint;
+    ELSE
+        NEW.quantity_change := NEW.quantity_change_units;
+    END IF;
+    IF NEW.price_micros IS NULL THEN
+        NEW.price_micros := (NEW.price * 1000000)::bigint;
+    ELSE
+        NEW.price := NEW.price_micros / 1000000.0;
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trg_position_ledger_sync_units BEFORE INSERT ON position_ledger
+    FOR EACH ROW EXECUTE FUNCTION position_ledger_sync_units();
+
+-- backfill 진행 상황 (테이블별 마지막 키, 재시작 시 이어서)
+CREATE TABLE money_backfill (
+    table_name TEXT PRIMARY KEY,
+    last_key   BIGINT NOT NULL DEFAULT 0,
+    done       BOOLEAN NOT NULL DEFAULT false,
+    updated_at TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+-- 새로 쓰는 행은 트리거가 채우므로 지금 있는 키까지만 채우면 된다
+INSERT INTO money_backfill (table_name) VALUES ('accounts'), ('positions'), ('account_ledger'), ('position_ledger');
+-- [jooq ignore stop]
@@ -0,0 +1,14 @@
+-- [jooq ignore start]
+-- outbox relay는 polling 대신 LISTEN outbox_events 로 깨어난다
+-- 문장 단위 트리거라 배치 insert(그룹 커밋, journal write-back)도 문장당 한 번만 알리고,
+-- 같은 트랜잭션 안의 같은 알림은 Postgres가 하나로 합쳐 커밋 시점에 보낸다
+CREATE FUNCTION outbox_events_notify() RETURNS TRIGGER AS $$
+BEGIN
+    PERFORM pg_notify('outbox_events', '');
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trg_outbox_events_notify AFTER INSERT ON outbox_events
+    FOR EACH STATEMENT EXECUTE FUNCTION outbox_events_notify();
+-- [jooq ignore stop]
@@ -0,0 +1,299 @@
+package infrastructure.cluster;
+
+import infrastructure.repository.ShardLeaseRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Several nodes in one JVM sharing one lease table, driven by a fake clock.
+ */
+class ShardLeaseManagerTest {
+
+    private static final int SLOTS = 64;
+    private static final int LEASE_SECONDS = 10;
+    private static final long MARGIN_MILLIS = 2000;
+
+    private final AtomicLong clock = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+    private LeaseTable table;
+
+    @BeforeEach
+    void setUp() {
+        table = new LeaseTable(clock);
+    }
+
+    @Test
+    void nodesSplitTheSlotsWithoutOverlap() {
+        ShardLeaseManager a = node("a", () -> {});
+        ShardLeaseManager b = node("b", () -> {});
+        a.start();
+        b.start();
+        a.tick();
+        b.tick();
+
+        int heldByA = 0;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            boolean onA = a.token(slot) != 0;
+            boolean onB = b.token(slot) != 0;
+            assertTrue(onA ^ onB, "slot " + slot + " must be held by exactly one node");
+            // b ticked last, so its view of the owners is current
+            if (onA) {
+                heldByA++;
+                assertEquals("a:1", b.remoteAddress(slot));
+            } else {
+                assertNull(b.remoteAddress(slot));
+            }
+        }
+        assertTrue(heldByA > 0 && heldByA < SLOTS, "both nodes should own slots, a has " + heldByA);
+    }
+
+    @Test
+    void joiningNodeTakesSlotsOnlyAfterTheOwnerDrainedAndReleased() {
+        AtomicInteger drains = new AtomicInteger();
+        ShardLeaseManager a = node("a", drains::incrementAndGet);
+        a.start();
+        for (int slot = 0; slot < SLOTS; slot++) {
+            assertNotEquals(0, a.token(slot));
+        }
+
+        ShardLeaseManager b = node("b", () -> {});
+        b.start();
+        // a still holds everything until its next tick sees b
+        for (int slot = 0; slot < SLOTS; slot++) {
+            assertEquals(0, b.token(slot));
+        }
+
+        a.tick();
+        assertEquals(1, drains.get());
+        b.tick();
+        for (int slot = 0; slot < SLOTS; slot++) {
+            assertTrue(a.token(slot) != 0 ^ b.token(slot) != 0, "slot " + slot);
+        }
+    }
+
+    @Test
+    void stalledNodeStopsBeforeItsSlotsCanBeTakenOver() {
+        ShardLeaseManager a = node("a", () -> {});
+        ShardLeaseManager b = node("b", () -> {});
+        a.start();
+        b.start();
+        a.tick();
+        b.tick();
+        int slot = firstHeldBy(b);
+        long staleToken = b.token(slot);
+
+        // b misses its renewals; inside the margin it no longer runs commands, but its row is still valid
+        advanceMillis(TimeUnit.SECONDS.toMillis(LEASE_SECONDS) - MARGIN_MILLIS / 2);
+        assertEquals(0, b.token(slot));
+        a.tick();
+        assertEquals(0, a.token(slot));
+
+        // once the row has expired the other node claims it with a new token
+        advanceMillis(MARGIN_MILLIS);
+        a.tick();
+        long newToken = a.token(slot);
+        assertNotEquals(0, newToken);
+        assertTrue(newToken > staleToken);
+        assertTrue(table.fenceHolds(slot, newToken));
+        assertFalse(table.fenceHolds(slot, staleToken), "the stale owner's writes must fail their fence");
+    }
+
+    @Test
+    void renewalKeepsTheTokenAndTheLocalLease() {
+        ShardLeaseManager a = node("a", () -> {});
+        a.start();
+        long token = a.token(0);
+        for (int i = 0; i < 10; i++) {
+            advanceMillis(MARGIN_MILLIS);
+            a.tick();
+            assertEquals(token, a.token(0));
+        }
+    }
+
+    @Test
+    void releaseAllDrainsAndHandsEverySlotBack() {
+        AtomicInteger drains = new AtomicInteger();
+        ShardLeaseManager a = node("a", drains::incrementAndGet);
+        ShardLeaseManager b = node("b", () -> {});
+        a.start();
+        b.start();
+        a.tick();
+        b.tick();
+        int drainsBefore = drains.get();
+
+        a.releaseAll();
+        assertEquals(drainsBefore + 1, drains.get());
+        for (int slot = 0; slot < SLOTS; slot++) {
+            assertEquals(0, a.token(slot));
+        }
+        b.tick();
+        for (int slot = 0; slot < SLOTS; slot++) {
+            assertNotEquals(0, b.token(slot), "slot " + slot);
+        }
+    }
+
+    @Test
+    void acquiredSlotsAreResetBeforeTheirTokensAreHandedOut() {
+        AtomicReference<ShardLeaseManager> a = new AtomicReference<>();
+        List<int[]> resets = new ArrayList<>();
+        a.set(node("a", () -> {}, slots -> {
+            for (int slot : slots) {
+                assertEquals(0, a.get().token(slot), "slot " + slot + " served before its reset");
+            }
+            resets.add(slots);
+        }));
+        a.get().start();
+        assertEquals(1, resets.size());
+        assertEquals(SLOTS, resets.get(0).length);
+
+        // renewals keep the slots, nothing to reset
+        advanceMillis(MARGIN_MILLIS);
+        a.get().tick();
+        assertEquals(1, resets.size());
+
+        // past the local lease the node held nothing, so reclaiming its own rows counts as acquiring them
+        advanceMillis(TimeUnit.SECONDS.toMillis(LEASE_SECONDS) - MARGIN_MILLIS / 2);
+        assertEquals(0, a.get().token(0));
+        a.get().tick();
+        assertEquals(2, resets.size());
+        assertEquals(SLOTS, resets.get(1).length);
+        assertNotEquals(0, a.get().token(0));
+    }
+
+    private ShardLeaseManager node(String id, Runnable drainLocal) {
+        return node(id, drainLocal, slots -> {});
+    }
+
+    private ShardLeaseManager node(String id, Runnable drainLocal, Consumer<int[]> resetSlots) {
+        return new ShardLeaseManager(id, id + ":1", SLOTS, LEASE_SECONDS, MARGIN_MILLIS, table, drainLocal,
+                resetSlots, clock::get);
+    }
+
+    private void advanceMillis(long millis) {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private static int firstHeldBy(ShardLeaseManager node) {
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (node.token(slot) != 0) {
+                return slot;
+            }
+        }
+        throw new AssertionError("node holds no slot");
+    }
+
+    /**
+     * shard_leases and cluster_nodes in memory, with the statements' semantics and the shared clock as now().
+     */
+    private static final class LeaseTable extends ShardLeaseRepository {
+
+        private final AtomicLong clock;
+        private final Map<Integer, Row> leases = new TreeMap<>();
+        private final Map<String, Long> heartbeats = new HashMap<>();
+        private final Map<String, String> addresses = new HashMap<>();
+
+        LeaseTable(AtomicLong clock) {
+            this.clock = clock;
+        }
+
+        private static final class Row {
+            String nodeId;
+            String address;
+            long fencingToken;
+            long expiresAt = Long.MIN_VALUE;
+        }
+
+        @Override
+        public synchronized void ensureSlots(int slotCount) {
+            for (int slot = 0; slot < slotCount; slot++) {
+                leases.putIfAbsent(slot, new Row());
+            }
+        }
+
+        @Override
+        public synchronized void heartbeat(String nodeId, String address) {
+            heartbeats.put(nodeId, clock.get());
+            addresses.put(nodeId, address);
+        }
+
+        @Override
+        public synchronized List<String> liveNodes(int leaseSeconds) {
+            long since = clock.get() - TimeUnit.SECONDS.toNanos(leaseSeconds);
+            List<String> live = new ArrayList<>();
+            heartbeats.forEach((node, at) -> {
+                if (at > since) {
+                    live.add(node);
+                }
+            });
+            live.sort(null);
+            return live;
+        }
+
+        @Override
+        public synchronized void leave(String nodeId) {
+            heartbeats.remove(nodeId);
+        }
+
+        @Override
+        public synchronized Map<Integer, Long> claim(String nodeId, String address, Integer[] slots, int leaseSeconds) {
+            long now = clock.get();
+            Map<Integer, Long> granted = new HashMap<>();
+            for (int slot : slots) {
+                Row row = leases.get(slot);
+                if (nodeId.equals(row.nodeId) || row.nodeId == null || row.expiresAt < now) {
+                    if (!nodeId.equals(row.nodeId)) {
+                        row.fencingToken++;
+                    }
+                    row.nodeId = nodeId;
+                    row.address = address;
+                    row.expiresAt = now + TimeUnit.SECONDS.toNanos(leaseSeconds);
+                    granted.put(slot, row.fencingToken);
+                }
+            }
+            return granted;
+        }
+
+        @Override
+        public synchronized void release(String nodeId, Integer[] slots) {
+            for (int slot : slots) {
+                Row row = leases.get(slot);
+                if (nodeId.equals(row.nodeId)) {
+                    row.expiresAt = Long.MIN_VALUE;
+                }
+            }
+        }
+
+        @Override
+        public synchronized List<Owner> owners() {
+            long now = clock.get();
+            List<Owner> owners = new ArrayList<>();
+            leases.forEach((slot, row) -> {
+                if (row.expiresAt > now) {
+                    owners.add(new Owner(slot, row.nodeId, row.address));
+                }
+            });
+            return owners;
+        }
+
+        // what shard_fence checks
+        synchronized boolean fenceHolds(int slot, long token) {
+            return leases.get(slot).fencingToken == token;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package infrastructure.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MappedJournalTest {
+
+    // int length, int checksum, long sequence, long payload
+    private static final int RECORD_BYTES = 24;
+    private static final int SMALL_SEGMENT = 10 * RECORD_BYTES;
+    private static final int LARGE_SEGMENT = 4096;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysEveryRecordInOrderAcrossSegments() {
+        try (MappedJournal journal = MappedJournal.open(dir, SMALL_SEGMENT)) {
+            journal.startWriting();
+            for (long i = 1; i <= 35; i++) {
+                assertEquals(i, journal.append(payload(i * 10)));
+            }
+        }
+        assertEquals(4, segmentCount());
+
+        try (MappedJournal journal = MappedJournal.open(dir, SMALL_SEGMENT)) {
+            assertEquals(35, journal.lastSeq());
+            List<long[]> records = replay(journal, 0);
+            assertEquals(35, records.size());
+            for (int i = 0; i < records.size(); i++) {
+                assertEquals(i + 1, records.get(i)[0]);
+                assertEquals((i + 1) * 10L, records.get(i)[1]);
+            }
+        }
+    }
+
+    @Test
+    void checksumMismatchEndsTheSegmentAndTheNextOpenContinuesAfterIt() throws IOException {
+        try (MappedJournal journal = MappedJournal.open(dir, LARGE_SEGMENT)) {
+            journal.startWriting();
+            for (long i = 1; i <= 10; i++) {
+                journal.append(payload(i));
+            }
+        }
+        // flip a payload byte of record 5
+        Path segment = dir.resolve(String.format("%020d.journal", 1));
+        int offset = 4 * RECORD_BYTES + 16;
+        writeAt(segment, offset, new byte[] {(byte) ~readAt(segment, offset)});
+
+        try (MappedJournal journal = MappedJournal.open(dir, LARGE_SEGMENT)) {
+            assertEquals(4, journal.lastSeq());
+            assertEquals(List.of(1L, 2L, 3L, 4L), sequences(replay(journal, 0)));
+            journal.startWriting();
+            assertEquals(5, journal.append(payload(50)));
+        }
+
+        try (MappedJournal journal = MappedJournal.open(dir, LARGE_SEGMENT)) {
+            List<long[]> records = replay(journal, 0);
+            assertEquals(List.of(1L, 2L, 3L, 4L, 5L), sequences(records));
+            assertEquals(50, records.get(4)[1]);
+        }
+    }
+
+    @Test
+    void tornTailIsNotReplayed() throws IOException {
+        try (MappedJournal journal = MappedJournal.open(dir, LARGE_SEGMENT)) {
+            journal.startWriting();
+            for (long i = 1; i <= 3; i++) {
+                journal.append(payload(i));
+            }
+        }
+        // a crash after the length and the sequence of record 4 reached the file, before its checksum
+        ByteBuffer torn = ByteBuffer.allocate(16).putInt(16).putInt(0).putLong(4);
+        writeAt(dir.resolve(String.format("%020d.journal", 1)), 3 * RECORD_BYTES, torn.array());
+
+        try (MappedJournal journal = MappedJournal.open(dir, LARGE_SEGMENT)) {
+            assertEquals(3, journal.lastSeq());
+            assertEquals(List.of(1L, 2L, 3L), sequences(replay(journal, 0)));
+        }
+    }
+
+    @Test
+    void snapshotDropsAppliedSegmentsAndReplayStartsAfterIt() {
+        try (MappedJournal journal = MappedJournal.open(dir, SMALL_SEGMENT)) {
+            journal.startWriting();
+            for (long i = 1; i <= 25; i++) {
+                journal.append(payload(i));
+            }
+            journal.force();
+            // segments start at 1, 11 and 21; only the first lies wholly below the snapshot
+            journal.snapshot(15);
+        }
+        assertEquals(2, segmentCount());
+
+        try (MappedJournal journal = MappedJournal.open(dir, SMALL_SEGMENT)) {
+            assertEquals(15, journal.snapshotSeq());
+            assertEquals(25, journal.lastSeq());
+            List<Long> expected = new ArrayList<>();
+            for (long i = 16; i <= 25; i++) {
+                expected.add(i);
+            }
+            assertEquals(expected, sequences(replay(journal, journal.snapshotSeq())));
+        }
+    }
+
+    private static ByteBuffer payload(long value) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(value).flip();
+    }
+
+    private static List<long[]> replay(MappedJournal journal, long afterSeq) {
+        List<long[]> records = new ArrayList<>();
+        journal.replay(afterSeq, (seq, body) -> records.add(new long[] {seq, body.getLong()}));
+        return records;
+    }
+
+    private static List<Long> sequences(List<long[]> records) {
+        return records.stream().map(r -> r[0]).toList();
+    }
+
+    private long segmentCount() {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".journal")).count();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte readAt(Path file, int offset) throws IOException {
+        return Files.readAllBytes(file)[offset];
+    }
+
+    private static void writeAt(Path file, int offset, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes), offset);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package infrastructure.repository;
+
+import domain.model.outbox.OutboxEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.OffsetDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * The single-statement fills against a schema built from the Flyway scripts. Needs a Postgres given
+ * by ACCOUNT_TEST_DB_URL (a JDBC URL; user and password default to the application's); skipped
+ * otherwise. Each run migrates a scratch schema and drops it afterwards.
+ */
+class FillStatementsTest {
+
+    private static final Path MIGRATIONS = Path.of("src/main/resources/db/migration");
+    private static final int SECURITY_ID = 7;
+
+    private Connection conn;
+    private String schema;
+    private long accountId;
+
+    @BeforeEach
+    void setUp() throws SQLException, IOException {
+        String url = System.getenv("ACCOUNT_TEST_DB_URL");
+        assumeTrue(url != null, "ACCOUNT_TEST_DB_URL not set");
+        conn = DriverManager.getConnection(url,
+                System.getenv().getOrDefault("ACCOUNT_TEST_DB_USER", "hts"),
+                System.getenv().getOrDefault("ACCOUNT_TEST_DB_PASSWORD", "hts"));
+        schema = "fill_test_" + ProcessHandle.current().pid();
+        try (Statement st = conn.createStatement()) {
+            st.execute("DROP SCHEMA IF EXISTS " + schema + " CASCADE");
+            st.execute("CREATE SCHEMA " + schema);
+            st.execute("SET search_path TO " + schema);
+            for (Path script : migrations()) {
+                st.execute(Files.readString(script));
+            }
+            st.execute("INSERT INTO securities (security_id, symbol) VALUES (" + SECURITY_ID + ", 'SEC" + SECURITY_ID + "')");
+            try (ResultSet rs = st.executeQuery(
+                    "INSERT INTO accounts (account_no, balance_micros, reserved_micros) " +
+                    "VALUES ('fill-test', 1000000000, 500000000) RETURNING account_id")) {
+                rs.next();
+                accountId = rs.getLong(1);
+            }
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        if (conn == null) {
+            return;
+        }
+        try (Statement st = conn.createStatement()) {
+            st.execute("DROP SCHEMA IF EXISTS " + schema + " CASCADE");
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    void buyAndSellFillsWriteTheirLedgerEntries() throws SQLException {
+        // 10 units for 100.00
+        assertEquals("OK", buyFill("fill-1", 10, 100_000_000));
+        assertEquals(400_000_000, queryLong("SELECT reserved_micros FROM accounts WHERE account_id = " + accountId));
+        assertEquals(10, queryLong("SELECT quantity_units FROM positions WHERE account_id = " + accountId));
+        assertEquals(10_000_000, queryLong("SELECT avg_price_micros FROM positions WHERE account_id = " + accountId));
+
+        execute("UPDATE positions SET reserved_quantity_units = 4 WHERE account_id = " + accountId);
+        // 4 units for 48.00
+        assertEquals("OK", sellFill("fill-2", 4, 48_000_000));
+        assertEquals(1_048_000_000, queryLong("SELECT balance_micros FROM accounts WHERE account_id = " + accountId));
+        assertEquals(6, queryLong("SELECT quantity_units FROM positions WHERE account_id = " + accountId));
+
+        assertEquals(-100_000_000, ledgerAmount("BUY_FILL", "fill-1"));
+        assertEquals(48_000_000, ledgerAmount("SELL_FILL", "fill-2"));
+    }
+
+    @Test
+    void replayedFillChangesNothing() throws SQLException {
+        assertEquals("OK", buyFill("fill-1", 10, 100_000_000));
+        assertEquals("ALREADY_PROCESSED", buyFill("fill-1", 10, 100_000_000));
+        assertEquals(400_000_000, queryLong("SELECT reserved_micros FROM accounts WHERE account_id = " + accountId));
+        assertEquals(1, queryLong("SELECT count(*) FROM account_ledger WHERE request_id = 'fill-1'"));
+    }
+
+    private String buyFill(String eventId, long quantity, long amountMicros) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(unfenced(FillWriteRepository.BUY_FILL_SQL))) {
+            int next = bindFill(ps, eventId, quantity, amountMicros);
+            // no cached position: the statement averages the price itself
+            ps.setNull(next, Types.BIGINT);
+            ps.setNull(next + 1, Types.BIGINT);
+            ps.setNull(next + 2, Types.BIGINT);
+            OutboxRepository.bindEvent(ps, next + 3, event(eventId, amountMicros));
+            return outcome(ps);
+        }
+    }
+
+    private String sellFill(String eventId, long quantity, long amountMicros) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(unfenced(FillWriteRepository.SELL_FILL_SQL))) {
+            int next = bindFill(ps, eventId, quantity, amountMicros);
+            OutboxRepository.bindEvent(ps, next, event(eventId, amountMicros));
+            return outcome(ps);
+        }
+    }
+
+    // the binds FillWriteRepository makes before the statement-specific ones
+    private int bindFill(PreparedStatement ps, String eventId, long quantity, long amountMicros) throws SQLException {
+        ps.setString(1, eventId);
+        ps.setLong(2, accountId);
+        ps.setInt(3, SECURITY_ID);
+        ps.setString(4, "order-" + eventId);
+        ps.setLong(5, amountMicros);
+        ps.setLong(6, quantity);
+        ps.setLong(7, amountMicros / quantity);
+        ps.setObject(8, OffsetDateTime.now());
+        ps.setObject(9, OffsetDateTime.now().minusDays(1));
+        return 10;
+    }
+
+    private OutboxEvent event(String eventId, long amountMicros) {
+        return OutboxEvent.accountFilled(accountId, amountMicros, eventId, "order-" + eventId, "USD");
+    }
+
+    private static String outcome(PreparedStatement ps) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            assertTrue(rs.next());
+            String outcome = rs.getString(1);
+            assertFalse(rs.next());
+            return outcome;
+        }
+    }
+
+    private long ledgerAmount(String entryType, String requestId) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT amount_micros FROM account_ledger WHERE entry_type = ? AND request_id = ?")) {
+            ps.setString(1, entryType);
+            ps.setString(2, requestId);
+            try (ResultSet rs = ps.executeQuery()) {
+                assertTrue(rs.next(), entryType + " " + requestId);
+                long amount = rs.getLong(1);
+                assertFalse(rs.next(), "second " + entryType + " row");
+                return amount;
+            }
+        }
+    }
+
+    private long queryLong(String sql) throws SQLException {
+        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+            assertTrue(rs.next(), sql);
+            return rs.getLong(1);
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute(sql);
+        }
+    }
+
+    // the fence condition as CompiledQuery renders it outside cluster mode
+    private static String unfenced(String sql) {
+        return sql + " WHERE true";
+    }
+
+    private static List<Path> migrations() throws IOException {
+        try (Stream<Path> files = Files.list(MIGRATIONS)) {
+            return files.filter(f -> f.getFileName().toString().matches("V\\d+__.*\\.sql"))
+                    .sorted(Comparator.comparingInt(FillStatementsTest::version))
+                    .toList();
+        }
+    }
+
+    private static int version(Path script) {
+        String name = script.getFileName().toString();
+        return Integer.parseInt(name.substring(1, name.indexOf("__")));
+    }
+}
@@ -0,0 +1,119 @@
+package infrastructure.repository;
+
+import infrastructure.metrics.DbMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record1;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The filter in front of a fake account_ledger that answers the lookup from a set and counts queries.
+ */
+class IdempotencyFilterTest {
+
+    private static final int EXPECTED_IDS = 1000;
+    private static final IdempotencyFilter.Table TABLE = IdempotencyFilter.Table.ACCOUNT_LEDGER;
+
+    private final Set<String> committed = new HashSet<>();
+    private final AtomicInteger queries = new AtomicInteger();
+    private IdempotencyFilter filter;
+    private DSLContext tx;
+
+    @BeforeEach
+    void setUp() {
+        filter = new IdempotencyFilter();
+        filter.enabled = true;
+        filter.expectedIds = EXPECTED_IDS;
+        filter.falsePositiveRate = 0.01;
+        filter.recentSize = 16;
+        filter.dsl = new DslProvider();
+        filter.metrics = new DbMetrics(new SimpleMeterRegistry());
+        filter.init();
+        filter.ready = true;
+
+        Field<Integer> one = DSL.field("one", Integer.class);
+        DSLContext results = DSL.using(SQLDialect.POSTGRES);
+        tx = DSL.using(new MockConnection(ctx -> {
+            queries.incrementAndGet();
+            Result<Record1<Integer>> rows = results.newResult(one);
+            if (Arrays.stream(ctx.bindings()).anyMatch(committed::contains)) {
+                rows.add(results.newRecord(one).values(1));
+            }
+            return new MockResult[] {new MockResult(rows.size(), rows)};
+        }), SQLDialect.POSTGRES);
+    }
+
+    @Test
+    void latestIdIsADuplicateWithoutAQuery() {
+        commit("req-1");
+        assertTrue(filter.seen(tx, TABLE, "req-1"));
+        assertEquals(0, queries.get());
+    }
+
+    @Test
+    void unknownIdsMostlySkipTheQuery() {
+        commitRange("req-", 0, EXPECTED_IDS);
+        for (int i = 0; i < EXPECTED_IDS; i++) {
+            assertFalse(filter.seen(tx, TABLE, "other-" + i));
+        }
+        // 1% false positives expected, i.e. about 10 queries
+        assertTrue(queries.get() < 50, "queries: " + queries.get());
+    }
+
+    @Test
+    void rotationKeepsThePreviousGeneration() {
+        // the filter rotates at the 1001st ID; the first generation becomes the previous one
+        commitRange("req-", 0, EXPECTED_IDS * 3 / 2);
+        for (int i = 0; i < EXPECTED_IDS * 3 / 2; i++) {
+            assertTrue(filter.seen(tx, TABLE, "req-" + i), "req-" + i);
+        }
+    }
+
+    @Test
+    void secondRotationForgetsTheOldestGeneration() {
+        commitRange("old-", 0, EXPECTED_IDS);
+        commitRange("req-", 0, EXPECTED_IDS * 2);
+        queries.set(0);
+
+        // only false positives of the two live generations still reach the database
+        int answeredDuplicate = 0;
+        for (int i = 0; i < EXPECTED_IDS; i++) {
+            if (filter.seen(tx, TABLE, "old-" + i)) {
+                answeredDuplicate++;
+            }
+        }
+        assertEquals(queries.get(), answeredDuplicate);
+        assertTrue(queries.get() < 50, "queries: " + queries.get());
+        for (int i = 0; i < EXPECTED_IDS * 2; i++) {
+            assertTrue(filter.seen(tx, TABLE, "req-" + i), "req-" + i);
+        }
+    }
+
+    private void commitRange(String prefix, int from, int to) {
+        for (int i = from; i < to; i++) {
+            commit(prefix + i);
+        }
+    }
+
+    // outside a transaction the filter records the ID at once
+    private void commit(String id) {
+        committed.add(id);
+        filter.recordAfterCommit(TABLE, id);
+    }
+}
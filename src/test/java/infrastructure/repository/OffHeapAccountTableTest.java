@@ -0,0 +1,149 @@
+package infrastructure.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapAccountTableTest {
+
+    // 16 slots, at most 12 entries
+    private static final long BUDGET_BYTES = 16 * OffHeapAccountTable.SLOT_BYTES;
+
+    @Test
+    void statusAndCurrencyShareTheirBytesWithTheReferencedBit() {
+        OffHeapAccountTable table = new OffHeapAccountTable(BUDGET_BYTES);
+        table.put(1, 100, 40, OffHeapAccountTable.STATUS_SUSPENDED, OffHeapAccountTable.packCurrency("KRW"), 3);
+        table.put(2, 200, 0, OffHeapAccountTable.STATUS_CLOSED, OffHeapAccountTable.packCurrency("USD"), 3);
+
+        // every find sets the referenced bit in the status byte
+        for (int i = 0; i < 3; i++) {
+            int off = table.find(1);
+            assertEquals(OffHeapAccountTable.STATUS_SUSPENDED, table.status(off));
+            assertEquals("KRW", OffHeapAccountTable.unpackCurrency(table.currency(off)));
+        }
+
+        int off = table.find(1);
+        table.update(off, 90, 30, 4);
+        assertEquals(90, table.balance(off));
+        assertEquals(30, table.reserved(off));
+        assertEquals(4, table.version(off));
+        assertEquals(OffHeapAccountTable.STATUS_SUSPENDED, table.status(off));
+        assertEquals("KRW", OffHeapAccountTable.unpackCurrency(table.currency(off)));
+
+        int other = table.find(2);
+        assertEquals(OffHeapAccountTable.STATUS_CLOSED, table.status(other));
+        assertEquals("USD", OffHeapAccountTable.unpackCurrency(table.currency(other)));
+    }
+
+    @Test
+    void currencyAndStatusCodes() {
+        assertEquals(0, OffHeapAccountTable.packCurrency(null));
+        assertEquals(0, OffHeapAccountTable.packCurrency("US"));
+        assertEquals(0, OffHeapAccountTable.packCurrency("USDT"));
+        assertNull(OffHeapAccountTable.unpackCurrency(0));
+        assertEquals("EUR", OffHeapAccountTable.unpackCurrency(OffHeapAccountTable.packCurrency("EUR")));
+
+        assertEquals(OffHeapAccountTable.STATUS_MISSING, OffHeapAccountTable.statusCode(null));
+        assertEquals(OffHeapAccountTable.STATUS_ACTIVE, OffHeapAccountTable.statusCode("ACTIVE"));
+        assertEquals(OffHeapAccountTable.STATUS_SUSPENDED, OffHeapAccountTable.statusCode("SUSPENDED"));
+        // anything unknown is treated as closed, never as active
+        assertEquals(OffHeapAccountTable.STATUS_CLOSED, OffHeapAccountTable.statusCode("CLOSED"));
+        assertEquals(OffHeapAccountTable.STATUS_CLOSED, OffHeapAccountTable.statusCode("FROZEN"));
+    }
+
+    @Test
+    void backwardShiftKeepsEveryAccountReachable() {
+        OffHeapAccountTable table = new OffHeapAccountTable(BUDGET_BYTES);
+        int capacity = table.capacity();
+        // balance and reserved per account
+        Map<Long, long[]> model = new HashMap<>();
+        Random random = new Random(7);
+
+        // keys never outnumber the capacity, so nothing is evicted and the table must match the model
+        for (int step = 0; step < 20_000; step++) {
+            long accountId = 1 + random.nextInt(capacity);
+            if (random.nextInt(3) > 0) {
+                long[] amounts = {random.nextLong(), random.nextInt(1_000_000)};
+                table.put(accountId, amounts[0], amounts[1], OffHeapAccountTable.STATUS_ACTIVE, 0, step);
+                model.put(accountId, amounts);
+            } else {
+                table.remove(accountId);
+                model.remove(accountId);
+            }
+            assertEquals(model.size(), table.size());
+            for (long id = 1; id <= capacity; id++) {
+                int off = table.find(id);
+                long[] amounts = model.get(id);
+                if (amounts == null) {
+                    assertEquals(-1, off, "account " + id);
+                } else {
+                    assertTrue(off >= 0, "account " + id);
+                    assertEquals(amounts[0], table.balance(off), "balance of " + id);
+                    assertEquals(amounts[1], table.reserved(off), "reserved of " + id);
+                }
+            }
+        }
+        assertEquals(0, table.evictions());
+    }
+
+    @Test
+    void clockEvictsTheAccountNotReadSinceTheHandPassed() {
+        OffHeapAccountTable table = new OffHeapAccountTable(BUDGET_BYTES);
+        int capacity = table.capacity();
+        long victim = 5;
+        for (long accountId = 1; accountId <= capacity; accountId++) {
+            table.put(accountId, accountId * 100, 0, OffHeapAccountTable.STATUS_ACTIVE,
+                    OffHeapAccountTable.packCurrency("USD"), 1);
+        }
+        for (long accountId = 1; accountId <= capacity; accountId++) {
+            if (accountId != victim) {
+                assertTrue(table.find(accountId) >= 0);
+            }
+        }
+
+        long newcomer = capacity + 1;
+        table.put(newcomer, 7, 0, OffHeapAccountTable.STATUS_ACTIVE, 0, 1);
+
+        assertEquals(1, table.evictions());
+        assertEquals(capacity, table.size());
+        assertEquals(-1, table.find(victim));
+        assertEquals(7, table.balance(table.find(newcomer)));
+        for (long accountId = 1; accountId <= capacity; accountId++) {
+            if (accountId != victim) {
+                int off = table.find(accountId);
+                assertTrue(off >= 0, "account " + accountId);
+                assertEquals(accountId * 100, table.balance(off));
+                assertEquals(OffHeapAccountTable.packCurrency("USD"), table.currency(off));
+                assertEquals(OffHeapAccountTable.STATUS_ACTIVE, table.status(off));
+            }
+        }
+    }
+
+    @Test
+    void removeIfLeavesTheOtherAccountsFindable() {
+        OffHeapAccountTable table = new OffHeapAccountTable(BUDGET_BYTES);
+        int capacity = table.capacity();
+        for (long accountId = 1; accountId <= capacity; accountId++) {
+            table.put(accountId, accountId * 100, 0, OffHeapAccountTable.STATUS_ACTIVE, 0, 1);
+        }
+
+        assertEquals(capacity / 2, table.removeIf(accountId -> accountId % 2 == 0));
+
+        assertEquals(capacity - capacity / 2, table.size());
+        for (long accountId = 1; accountId <= capacity; accountId++) {
+            int off = table.find(accountId);
+            if (accountId % 2 == 0) {
+                assertEquals(-1, off, "account " + accountId);
+            } else {
+                assertTrue(off >= 0, "account " + accountId);
+                assertEquals(accountId * 100, table.balance(off));
+            }
+        }
+    }
+}
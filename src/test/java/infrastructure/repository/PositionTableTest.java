@@ -0,0 +1,158 @@
+package infrastructure.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PositionTableTest {
+
+    // 16 requested entries round up to 32 slots, which hold at most 24: 6 accounts with 4 securities each
+    private static final int REQUESTED_ENTRIES = 16;
+    private static final int ACCOUNTS = 6;
+    private static final int SECURITIES = 4;
+
+    @Test
+    void accountAndSecurityTogetherMakeTheKey() {
+        PositionTable table = new PositionTable(REQUESTED_ENTRIES);
+        // the same numbers in both halves of the key, and an account ID past 32 bits
+        table.put(1, 2, 10, 1, 1_000_000, 1);
+        table.put(2, 1, 20, 2, 2_000_000, 1);
+        table.put(1, 1, 30, 3, 3_000_000, 1);
+        table.put(1L << 32 | 1, 1, 40, 4, 4_000_000, 1);
+
+        assertPosition(table, 1, 2, 10, 1, 1_000_000);
+        assertPosition(table, 2, 1, 20, 2, 2_000_000);
+        assertPosition(table, 1, 1, 30, 3, 3_000_000);
+        assertPosition(table, 1L << 32 | 1, 1, 40, 4, 4_000_000);
+        assertEquals(-1, table.find(2, 2));
+
+        table.remove(1, 1);
+        assertEquals(-1, table.find(1, 1));
+        assertPosition(table, 1, 2, 10, 1, 1_000_000);
+        assertPosition(table, 2, 1, 20, 2, 2_000_000);
+        assertPosition(table, 1L << 32 | 1, 1, 40, 4, 4_000_000);
+    }
+
+    @Test
+    void putOverwritesQuantityReservedAndAveragePrice() {
+        PositionTable table = new PositionTable(REQUESTED_ENTRIES);
+        table.put(3, 7, 100, 20, 1_250_000, 1);
+        // a buy fill writes the new quantity and the averaged price back
+        table.put(3, 7, 150, 20, 1_300_000, 2);
+
+        assertEquals(1, table.size());
+        assertPosition(table, 3, 7, 150, 20, 1_300_000);
+        assertEquals(2, table.version(table.find(3, 7)));
+    }
+
+    @Test
+    void compositeKeysStayReachableAcrossRemovals() {
+        PositionTable table = new PositionTable(REQUESTED_ENTRIES);
+        assertEquals(ACCOUNTS * SECURITIES, table.capacity());
+        // quantity, reserved quantity and average price per (account, security)
+        Map<Long, long[]> model = new HashMap<>();
+        Random random = new Random(11);
+
+        // keys never outnumber the capacity, so nothing is evicted and the table must match the model
+        for (int step = 0; step < 20_000; step++) {
+            long accountId = 1 + random.nextInt(ACCOUNTS);
+            int securityId = 1 + random.nextInt(SECURITIES);
+            if (random.nextInt(3) > 0) {
+                long quantity = random.nextInt(1_000_000);
+                long[] position = {quantity, random.nextInt((int) quantity + 1), random.nextInt(100_000_000)};
+                table.put(accountId, securityId, position[0], position[1], position[2], step);
+                model.put(key(accountId, securityId), position);
+            } else {
+                table.remove(accountId, securityId);
+                model.remove(key(accountId, securityId));
+            }
+            assertMatches(table, model);
+        }
+        assertEquals(0, table.evictions());
+    }
+
+    @Test
+    void clockEvictsOnePositionNotTheWholeAccount() {
+        PositionTable table = new PositionTable(REQUESTED_ENTRIES);
+        long victimAccount = 3;
+        int victimSecurity = 2;
+        for (long accountId = 1; accountId <= ACCOUNTS; accountId++) {
+            for (int securityId = 1; securityId <= SECURITIES; securityId++) {
+                table.put(accountId, securityId, accountId * 100 + securityId, 0, 1_500_000, 1);
+            }
+        }
+        for (long accountId = 1; accountId <= ACCOUNTS; accountId++) {
+            for (int securityId = 1; securityId <= SECURITIES; securityId++) {
+                if (accountId != victimAccount || securityId != victimSecurity) {
+                    assertTrue(table.find(accountId, securityId) >= 0);
+                }
+            }
+        }
+
+        table.put(ACCOUNTS + 1, 1, 7, 0, 0, 1);
+
+        assertEquals(1, table.evictions());
+        assertEquals(table.capacity(), table.size());
+        assertEquals(-1, table.find(victimAccount, victimSecurity));
+        assertEquals(7, table.quantity(table.find(ACCOUNTS + 1, 1)));
+        for (long accountId = 1; accountId <= ACCOUNTS; accountId++) {
+            for (int securityId = 1; securityId <= SECURITIES; securityId++) {
+                if (accountId != victimAccount || securityId != victimSecurity) {
+                    assertPosition(table, accountId, securityId, accountId * 100 + securityId, 0, 1_500_000);
+                }
+            }
+        }
+    }
+
+    @Test
+    void removeIfDropsEveryPositionOfTheAccount() {
+        PositionTable table = new PositionTable(REQUESTED_ENTRIES);
+        Map<Long, long[]> model = new HashMap<>();
+        for (long accountId = 1; accountId <= ACCOUNTS; accountId++) {
+            for (int securityId = 1; securityId <= SECURITIES; securityId++) {
+                long[] position = {accountId * 100 + securityId, securityId, accountId * 1_000_000};
+                table.put(accountId, securityId, position[0], position[1], position[2], 1);
+                if (accountId != 4) {
+                    model.put(key(accountId, securityId), position);
+                }
+            }
+        }
+
+        assertEquals(SECURITIES, table.removeIf(accountId -> accountId == 4));
+
+        assertMatches(table, model);
+    }
+
+    private static void assertMatches(PositionTable table, Map<Long, long[]> model) {
+        assertEquals(model.size(), table.size());
+        for (long accountId = 1; accountId <= ACCOUNTS; accountId++) {
+            for (int securityId = 1; securityId <= SECURITIES; securityId++) {
+                long[] position = model.get(key(accountId, securityId));
+                if (position == null) {
+                    assertEquals(-1, table.find(accountId, securityId), "position " + accountId + "/" + securityId);
+                } else {
+                    assertPosition(table, accountId, securityId, position[0], position[1], position[2]);
+                }
+            }
+        }
+    }
+
+    private static void assertPosition(PositionTable table, long accountId, int securityId,
+                                       long quantity, long reserved, long avgPriceMicros) {
+        String position = "position " + accountId + "/" + securityId;
+        int i = table.find(accountId, securityId);
+        assertTrue(i >= 0, position);
+        assertEquals(quantity, table.quantity(i), position);
+        assertEquals(reserved, table.reserved(i), position);
+        assertEquals(avgPriceMicros, table.avgPrice(i), position);
+    }
+
+    private static long key(long accountId, int securityId) {
+        return accountId << 32 | securityId;
+    }
+}
@@ -0,0 +1,83 @@
+package infrastructure.shard;
+
+import infrastructure.journal.WriteBehindJournal;
+import infrastructure.metrics.ShardMetrics;
+import infrastructure.repository.AccountStateCache;
+import infrastructure.repository.PositionCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardExecutorTest {
+
+    private static final int RING_SIZE = 4;
+
+    private ShardExecutor shard;
+
+    @BeforeEach
+    void setUp() {
+        // built outside CDI the caches and the journal stay disabled, so binding them to the shard is a no-op
+        shard = new ShardExecutor(0, "0", RING_SIZE, WaitStrategy.PARK, null, null,
+                new AccountStateCache(), new PositionCache(), new WriteBehindJournal(),
+                new ShardMetrics(new SimpleMeterRegistry()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        shard.shutdown();
+    }
+
+    @Test
+    void tryExecuteRejectsWhileTheRingIsFull() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        shard.execute(() -> {
+            started.countDown();
+            awaitQuietly(release);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        List<Integer> ran = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < RING_SIZE; i++) {
+            int task = i;
+            assertTrue(shard.tryExecute(() -> ran.add(task)), "task " + i);
+        }
+        assertEquals(RING_SIZE, shard.queueDepth());
+        assertFalse(shard.tryExecute(() -> ran.add(-1)));
+
+        release.countDown();
+        CountDownLatch drained = new CountDownLatch(1);
+        shard.execute(drained::countDown);
+        assertTrue(drained.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(0, 1, 2, 3), ran);
+        assertEquals(0, shard.queueDepth());
+    }
+
+    @Test
+    void aFailingTaskDoesNotStopTheShard() throws InterruptedException {
+        shard.execute(() -> {
+            throw new IllegalStateException("boom");
+        });
+        CountDownLatch ran = new CountDownLatch(1);
+        assertTrue(shard.tryExecute(ran::countDown));
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}